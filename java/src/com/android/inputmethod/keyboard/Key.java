@@ -34,6 +34,7 @@ import android.util.Xml;
 import com.android.inputmethod.keyboard.internal.KeyDrawParams;
 import com.android.inputmethod.keyboard.internal.KeySpecParser;
 import com.android.inputmethod.keyboard.internal.KeyStyle;
+import com.android.inputmethod.keyboard.internal.KeyTableCache;
 import com.android.inputmethod.keyboard.internal.KeyVisualAttributes;
 import com.android.inputmethod.keyboard.internal.KeyboardIconsSet;
 import com.android.inputmethod.keyboard.internal.KeyboardParams;
@@ -46,6 +47,9 @@ import com.android.inputmethod.latin.StringUtils;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Locale;
 
@@ -119,6 +123,8 @@ public class Key implements Comparable<Key> {
     private static final String MORE_KEYS_HAS_LABELS = "!hasLabels!";
     private static final String MORE_KEYS_NEEDS_DIVIDERS = "!needsDividers!";
     private static final String MORE_KEYS_EMBEDDED_MORE_KEY = "!embeddedMoreKey!";
+    // The number of more keys written to a key table for a key without more keys.
+    private static final int NO_MORE_KEYS = -1;
 
     /** Background type that represents different key background visual than normal one. */
     public final int mBackgroundType;
@@ -370,6 +376,99 @@ public class Key implements Comparable<Key> {
         }
     }
 
+    /**
+     * Reads a key from a key table, as written by {@link #writeTo}. The key is enabled.
+     * @param in the stream to read the key from, after the type of the key.
+     * @throws IOException
+     */
+    protected Key(final DataInput in) throws IOException {
+        mCode = in.readInt();
+        mLabel = KeyTableCache.readString(in);
+        mHintLabel = KeyTableCache.readString(in);
+        mLabelFlags = in.readInt();
+        mIconId = in.readInt();
+        mX = in.readInt();
+        mY = in.readInt();
+        mWidth = in.readInt();
+        mHeight = in.readInt();
+        mHitBox.left = in.readInt();
+        mHitBox.top = in.readInt();
+        mHitBox.right = in.readInt();
+        mHitBox.bottom = in.readInt();
+        final int moreKeysCount = in.readInt();
+        if (moreKeysCount == NO_MORE_KEYS) {
+            mMoreKeys = null;
+        } else {
+            mMoreKeys = new MoreKeySpec[moreKeysCount];
+            for (int i = 0; i < moreKeysCount; i++) {
+                mMoreKeys[i] = new MoreKeySpec(in);
+            }
+        }
+        mMoreKeysColumnAndFlags = in.readInt();
+        mBackgroundType = in.readInt();
+        mActionFlags = in.readInt();
+        mKeyVisualAttributes = KeyVisualAttributes.readFrom(in);
+        if (in.readBoolean()) {
+            mOptionalAttributes = new OptionalAttributes(KeyTableCache.readString(in),
+                    in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+        } else {
+            mOptionalAttributes = null;
+        }
+        mHashCode = computeHashCode(this);
+    }
+
+    /**
+     * Reads a key or a spacer from a key table, as written by {@link #writeTo}.
+     * @throws IOException
+     */
+    public static Key readFrom(final DataInput in) throws IOException {
+        return in.readBoolean() ? new Spacer(in) : new Key(in);
+    }
+
+    /**
+     * Writes the attributes of this key to a key table. The state of the key, pressed or
+     * enabled, is not written.
+     * @throws IOException
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        out.writeBoolean(isSpacer());
+        out.writeInt(mCode);
+        KeyTableCache.writeString(out, mLabel);
+        KeyTableCache.writeString(out, mHintLabel);
+        out.writeInt(mLabelFlags);
+        out.writeInt(mIconId);
+        out.writeInt(mX);
+        out.writeInt(mY);
+        out.writeInt(mWidth);
+        out.writeInt(mHeight);
+        out.writeInt(mHitBox.left);
+        out.writeInt(mHitBox.top);
+        out.writeInt(mHitBox.right);
+        out.writeInt(mHitBox.bottom);
+        if (mMoreKeys == null) {
+            out.writeInt(NO_MORE_KEYS);
+        } else {
+            out.writeInt(mMoreKeys.length);
+            for (final MoreKeySpec moreKey : mMoreKeys) {
+                moreKey.writeTo(out);
+            }
+        }
+        out.writeInt(mMoreKeysColumnAndFlags);
+        out.writeInt(mBackgroundType);
+        out.writeInt(mActionFlags);
+        KeyVisualAttributes.writeTo(out, mKeyVisualAttributes);
+        final OptionalAttributes attrs = mOptionalAttributes;
+        out.writeBoolean(attrs != null);
+        if (attrs != null) {
+            KeyTableCache.writeString(out, attrs.mOutputText);
+            out.writeInt(attrs.mAltCode);
+            out.writeInt(attrs.mDisabledIconId);
+            out.writeInt(attrs.mPreviewIconId);
+            out.writeInt(attrs.mVisualInsetsLeft);
+            out.writeInt(attrs.mVisualInsetsRight);
+        }
+    }
+
     private static boolean needsToUpperCase(final int labelFlags, final int keyboardElementId) {
         if ((labelFlags & LABEL_FLAGS_PRESERVE_CASE) != 0) return false;
         switch (keyboardElementId) {
@@ -807,6 +906,10 @@ public class Key implements Comparable<Key> {
             super(res, params, row, parser);
         }
 
+        protected Spacer(final DataInput in) throws IOException {
+            super(in);
+        }
+
         /**
          * This constructor is being used only for divider in more keys keyboard.
          */
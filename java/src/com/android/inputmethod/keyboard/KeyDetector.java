@@ -93,28 +93,9 @@ public class KeyDetector {
      * @return the key that the touch point hits.
      */
     public Key detectHitKey(int x, int y) {
-        final int touchX = getTouchX(x);
-        final int touchY = getTouchY(y);
-
-        int minDistance = Integer.MAX_VALUE;
-        Key primaryKey = null;
-        for (final Key key: mKeyboard.getNearestKeys(touchX, touchY)) {
-            // An edge key always has its enlarged hitbox to respond to an event that occurred in
-            // the empty area around the key. (@see Key#markAsLeftEdge(KeyboardParams)} etc.)
-            if (!key.isOnKey(touchX, touchY)) {
-                continue;
-            }
-            final int distance = key.squaredDistanceToEdge(touchX, touchY);
-            if (distance > minDistance) {
-                continue;
-            }
-            // To take care of hitbox overlaps, we compare mCode here too.
-            if (primaryKey == null || distance < minDistance || key.mCode > primaryKey.mCode) {
-                minDistance = distance;
-                primaryKey = key;
-            }
-        }
-        return primaryKey;
+        // An edge key always has its enlarged hitbox to respond to an event that occurred in
+        // the empty area around the key. (@see Key#markAsLeftEdge(KeyboardParams)} etc.)
+        return mKeyboard.getProximityInfo().detectHitKey(getTouchX(x), getTouchY(y));
     }
 
     public static String printableCode(Key key) {
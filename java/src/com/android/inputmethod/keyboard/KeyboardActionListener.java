@@ -16,8 +16,8 @@
 
 package com.android.inputmethod.keyboard;
 
+import com.android.inputmethod.keyboard.internal.BatchPointsAggregator;
 import com.android.inputmethod.latin.Constants;
-import com.android.inputmethod.latin.InputPointers;
 
 public interface KeyboardActionListener {
 
@@ -69,16 +69,16 @@ public interface KeyboardActionListener {
 
     /**
      * Sends the ongoing batch input points data.
-     * @param batchPointers the batch input points representing the user input
+     * @param batchPoints the batch input points representing the user input, published so far
      */
-    public void onUpdateBatchInput(InputPointers batchPointers);
+    public void onUpdateBatchInput(BatchPointsAggregator batchPoints);
 
     /**
      * Sends the final batch input points data.
      *
-     * @param batchPointers the batch input points representing the user input
+     * @param batchPoints the batch input points representing the user input
      */
-    public void onEndBatchInput(InputPointers batchPointers);
+    public void onEndBatchInput(BatchPointsAggregator batchPoints);
 
     /**
      * Called when user released a finger outside any key.
@@ -103,9 +103,9 @@ public interface KeyboardActionListener {
         @Override
         public void onStartBatchInput() {}
         @Override
-        public void onUpdateBatchInput(InputPointers batchPointers) {}
+        public void onUpdateBatchInput(BatchPointsAggregator batchPoints) {}
         @Override
-        public void onEndBatchInput(InputPointers batchPointers) {}
+        public void onEndBatchInput(BatchPointsAggregator batchPoints) {}
         @Override
         public void onCancelInput() {}
         @Override
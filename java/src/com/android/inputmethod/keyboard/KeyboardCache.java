@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard;
+
+import com.android.inputmethod.latin.CollectionUtils;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of keyboards, bounded by an estimate of the memory they use.
+ *
+ * The keyboards are strongly referenced, so that switching between the keyboards of a layout set
+ * does not rebuild them after a garbage collection. When the estimated size of the keyboards
+ * exceeds the maximum size, the least recently used keyboards are evicted. The cache counts the
+ * hits and the misses of the requests, and the time spent building the keyboards.
+ *
+ * This class is not thread safe: it is only used on the UI thread.
+ */
+/* package */ final class KeyboardCache {
+    // Rough estimates of the memory used by the objects of a keyboard, in bytes.
+    private static final int KEYBOARD_SIZE_IN_BYTES = 512;
+    private static final int KEY_SIZE_IN_BYTES = 256;
+    private static final int MORE_KEY_SIZE_IN_BYTES = 64;
+    private static final int CHAR_SIZE_IN_BYTES = 2;
+    private static final int REFERENCE_SIZE_IN_BYTES = 4;
+    private static final int INT_SIZE_IN_BYTES = 4;
+    private static final int ARRAY_SIZE_IN_BYTES = 16;
+    // The native proximity info has an int per proximity char of each cell of the grid, and
+    // the coordinates, the size and the code of each key.
+    private static final int NATIVE_CELL_SIZE_IN_BYTES = ProximityInfo.MAX_PROXIMITY_CHARS_SIZE * 4;
+    private static final int NATIVE_KEY_SIZE_IN_BYTES = 8 * 4;
+
+    private final int mMaxSizeInBytes;
+    // The keyboards in access order, from the least recently used.
+    private final LinkedHashMap<KeyboardId, Keyboard> mKeyboards =
+            new LinkedHashMap<KeyboardId, Keyboard>(16, 0.75f, true /* accessOrder */);
+    // The ids of the keyboards that were prebuilt and not requested yet.
+    private final HashSet<KeyboardId> mPrebuiltIds = CollectionUtils.newHashSet();
+    private int mSizeInBytes;
+    private int mHitCount;
+    private int mPrebuiltHitCount;
+    private int mMissCount;
+    private int mBuildCount;
+    private int mPrebuildCount;
+    private long mTotalBuildTime;
+    private long mMaxBuildTime;
+
+    public KeyboardCache(final int maxSizeInBytes) {
+        mMaxSizeInBytes = maxSizeInBytes;
+    }
+
+    /**
+     * Returns a keyboard, making it the most recently used one.
+     * @return the keyboard, or null if it is not in the cache.
+     */
+    public Keyboard get(final KeyboardId id) {
+        final Keyboard keyboard = mKeyboards.get(id);
+        if (keyboard == null) {
+            ++mMissCount;
+            return null;
+        }
+        ++mHitCount;
+        if (mPrebuiltIds.remove(id)) {
+            ++mPrebuiltHitCount;
+        }
+        return keyboard;
+    }
+
+    /**
+     * Returns whether a keyboard is in the cache, without making it the most recently used one.
+     */
+    public boolean contains(final KeyboardId id) {
+        return mKeyboards.containsKey(id);
+    }
+
+    /**
+     * Adds a keyboard as the most recently used one, evicting the least recently used keyboards
+     * beyond the maximum size.
+     * @param id the id of the keyboard.
+     * @param keyboard the keyboard.
+     * @param buildTime the time it took to build the keyboard, in milliseconds.
+     * @param isPrebuilt whether the keyboard was built ahead of being requested.
+     */
+    public void put(final KeyboardId id, final Keyboard keyboard, final long buildTime,
+            final boolean isPrebuilt) {
+        final Keyboard previousKeyboard = mKeyboards.put(id, keyboard);
+        if (previousKeyboard != null) {
+            mSizeInBytes -= estimateSizeInBytes(previousKeyboard);
+        }
+        mSizeInBytes += estimateSizeInBytes(keyboard);
+        if (isPrebuilt) {
+            ++mPrebuildCount;
+            mPrebuiltIds.add(id);
+        } else {
+            ++mBuildCount;
+        }
+        mTotalBuildTime += buildTime;
+        if (buildTime > mMaxBuildTime) {
+            mMaxBuildTime = buildTime;
+        }
+        final Iterator<Map.Entry<KeyboardId, Keyboard>> iterator =
+                mKeyboards.entrySet().iterator();
+        // Never evict the keyboard just added, even if it exceeds the maximum size alone.
+        while (mSizeInBytes > mMaxSizeInBytes && mKeyboards.size() > 1) {
+            final Map.Entry<KeyboardId, Keyboard> eldest = iterator.next();
+            mSizeInBytes -= estimateSizeInBytes(eldest.getValue());
+            mPrebuiltIds.remove(eldest.getKey());
+            iterator.remove();
+        }
+    }
+
+    public void clear() {
+        mKeyboards.clear();
+        mPrebuiltIds.clear();
+        mSizeInBytes = 0;
+    }
+
+    public int size() {
+        return mKeyboards.size();
+    }
+
+    public int getSizeInBytes() {
+        return mSizeInBytes;
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of hits on keyboards that were prebuilt.
+     */
+    public int getPrebuiltHitCount() {
+        return mPrebuiltHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * Returns the ratio of the requests that found their keyboard in the cache.
+     */
+    public float getHitRate() {
+        final int requestCount = mHitCount + mMissCount;
+        return (requestCount == 0) ? 0.0f : (float)mHitCount / requestCount;
+    }
+
+    public int getPrebuildCount() {
+        return mPrebuildCount;
+    }
+
+    /**
+     * Returns the average time it took to build a keyboard, prebuilt or not, in milliseconds.
+     */
+    public float getAverageBuildTime() {
+        final int count = mBuildCount + mPrebuildCount;
+        return (count == 0) ? 0.0f : (float)mTotalBuildTime / count;
+    }
+
+    public long getMaxBuildTime() {
+        return mMaxBuildTime;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("size=%d (%d bytes) hits=%d (%d prebuilt) misses=%d prebuilds=%d"
+                + " build time avg=%.1fms max=%dms", size(), mSizeInBytes, mHitCount,
+                mPrebuiltHitCount, mMissCount, mPrebuildCount, getAverageBuildTime(),
+                mMaxBuildTime);
+    }
+
+    /**
+     * Returns an estimate of the memory used by a keyboard, in bytes: its keys, and the Java and
+     * native parts of its proximity info.
+     */
+    /* package for test */ static int estimateSizeInBytes(final Keyboard keyboard) {
+        int size = KEYBOARD_SIZE_IN_BYTES;
+        for (final Key key : keyboard.mKeys) {
+            size += KEY_SIZE_IN_BYTES;
+            if (key.mLabel != null) {
+                size += key.mLabel.length() * CHAR_SIZE_IN_BYTES;
+            }
+            if (key.mHintLabel != null) {
+                size += key.mHintLabel.length() * CHAR_SIZE_IN_BYTES;
+            }
+            if (key.mMoreKeys != null) {
+                size += key.mMoreKeys.length * MORE_KEY_SIZE_IN_BYTES;
+            }
+        }
+        final ProximityInfo proximityInfo = keyboard.getProximityInfo();
+        final int gridSize = proximityInfo.getGridSize();
+        size += gridSize * ARRAY_SIZE_IN_BYTES
+                + proximityInfo.getGridNeighborCount() * REFERENCE_SIZE_IN_BYTES;
+        // The hit keys and their hit boxes, as left, top, right and bottom coordinates.
+        size += proximityInfo.getGridHitCellCount() * 2 * ARRAY_SIZE_IN_BYTES
+                + proximityInfo.getGridHitKeyCount()
+                        * (REFERENCE_SIZE_IN_BYTES + 4 * INT_SIZE_IN_BYTES);
+        if (proximityInfo.getNativeProximityInfo() != 0) {
+            size += gridSize * NATIVE_CELL_SIZE_IN_BYTES
+                    + keyboard.mKeys.length * NATIVE_KEY_SIZE_IN_BYTES;
+        }
+        return size;
+    }
+}
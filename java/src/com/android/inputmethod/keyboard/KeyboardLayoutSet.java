@@ -27,6 +27,9 @@ import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
 import android.text.InputType;
 import android.util.Log;
 import android.util.SparseArray;
@@ -37,6 +40,7 @@ import android.view.inputmethod.InputMethodSubtype;
 import com.android.inputmethod.compat.EditorInfoCompatUtils;
 import com.android.inputmethod.keyboard.internal.KeyboardBuilder;
 import com.android.inputmethod.keyboard.internal.KeyboardParams;
+import com.android.inputmethod.keyboard.internal.KeyTableCache;
 import com.android.inputmethod.keyboard.internal.KeysCache;
 import com.android.inputmethod.latin.CollectionUtils;
 import com.android.inputmethod.latin.InputAttributes;
@@ -51,8 +55,6 @@ import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
 import java.io.IOException;
-import java.lang.ref.SoftReference;
-import java.util.HashMap;
 
 /**
  * This class represents a set of keyboard layouts. Each of them represents a different keyboard
@@ -73,9 +75,34 @@ public final class KeyboardLayoutSet {
     private final Context mContext;
     private final Params mParams;
 
-    private static final HashMap<KeyboardId, SoftReference<Keyboard>> sKeyboardCache =
-            CollectionUtils.newHashMap();
+    // The maximum estimated size of the cached keyboards, enough for the alphabet, shifted and
+    // symbols keyboards of a couple of layout sets.
+    private static final int MAX_KEYBOARD_CACHE_SIZE_IN_BYTES = 2 * 1024 * 1024;
+    private static final KeyboardCache sKeyboardCache =
+            new KeyboardCache(MAX_KEYBOARD_CACHE_SIZE_IN_BYTES);
+    private static final Prebuilder sPrebuilder = new Prebuilder();
+    // The element ids of the keyboards to prebuild after a keyboard was requested, in order.
+    private static final int[] NEXT_ELEMENT_IDS_FROM_ALPHABET = {
+        KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED,
+        KeyboardId.ELEMENT_ALPHABET_MANUAL_SHIFTED,
+        KeyboardId.ELEMENT_SYMBOLS,
+        KeyboardId.ELEMENT_ALPHABET,
+        KeyboardId.ELEMENT_SYMBOLS_SHIFTED,
+    };
+    private static final int[] NEXT_ELEMENT_IDS_FROM_SYMBOLS = {
+        KeyboardId.ELEMENT_SYMBOLS_SHIFTED,
+        KeyboardId.ELEMENT_ALPHABET,
+        KeyboardId.ELEMENT_SYMBOLS,
+        KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED,
+    };
+    private static final int[] NEXT_ELEMENT_IDS_FROM_PHONE = {
+        KeyboardId.ELEMENT_SYMBOLS,
+        KeyboardId.ELEMENT_ALPHABET,
+    };
+    private static final int[] NO_NEXT_ELEMENT_IDS = {};
     private static final KeysCache sKeysCache = new KeysCache();
+    // The key tables of the keyboards on disk, created with the first keyboard layout set.
+    private static KeyTableCache sKeyTableCache;
 
     public static final class KeyboardLayoutSetException extends RuntimeException {
         public final KeyboardId mKeyboardId;
@@ -112,6 +139,7 @@ public final class KeyboardLayoutSet {
     }
 
     public static void clearKeyboardCache() {
+        sPrebuilder.cancel();
         sKeyboardCache.clear();
         sKeysCache.clear();
     }
@@ -119,9 +147,58 @@ public final class KeyboardLayoutSet {
     KeyboardLayoutSet(final Context context, final Params params) {
         mContext = context;
         mParams = params;
+        if (sKeyTableCache == null) {
+            sKeyTableCache = KeyTableCache.newInstance(context.getApplicationContext());
+        }
     }
 
     public Keyboard getKeyboard(final int baseKeyboardLayoutSetElementId) {
+        final Keyboard keyboard = getKeyboard(baseKeyboardLayoutSetElementId,
+                false /* isPrebuild */);
+        sPrebuilder.schedule(this, getNextElementIds(keyboard.mId.mElementId));
+        return keyboard;
+    }
+
+    /**
+     * Returns the element ids of the keyboards most likely to be switched to from a keyboard,
+     * in the order they should be prebuilt.
+     */
+    private static int[] getNextElementIds(final int elementId) {
+        switch (elementId) {
+        case KeyboardId.ELEMENT_ALPHABET:
+        case KeyboardId.ELEMENT_ALPHABET_MANUAL_SHIFTED:
+        case KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED:
+        case KeyboardId.ELEMENT_ALPHABET_SHIFT_LOCKED:
+        case KeyboardId.ELEMENT_ALPHABET_SHIFT_LOCK_SHIFTED:
+            return NEXT_ELEMENT_IDS_FROM_ALPHABET;
+        case KeyboardId.ELEMENT_SYMBOLS:
+        case KeyboardId.ELEMENT_SYMBOLS_SHIFTED:
+            return NEXT_ELEMENT_IDS_FROM_SYMBOLS;
+        case KeyboardId.ELEMENT_PHONE:
+        case KeyboardId.ELEMENT_PHONE_SYMBOLS:
+            return NEXT_ELEMENT_IDS_FROM_PHONE;
+        default:
+            return NO_NEXT_ELEMENT_IDS;
+        }
+    }
+
+    /**
+     * Builds a keyboard ahead of it being requested, unless it is already in the cache.
+     * @return whether the keyboard was built.
+     */
+    /* package */ boolean prebuildKeyboard(final int baseKeyboardLayoutSetElementId) {
+        return getKeyboard(baseKeyboardLayoutSetElementId, true /* isPrebuild */) != null;
+    }
+
+    /**
+     * Returns a keyboard of this layout set.
+     * @param baseKeyboardLayoutSetElementId the element id of the keyboard, before it is mapped
+     *        according to the mode.
+     * @param isPrebuild whether the keyboard is built ahead of being requested.
+     * @return the keyboard, or null for a prebuild of a keyboard that is already in the cache.
+     */
+    private Keyboard getKeyboard(final int baseKeyboardLayoutSetElementId,
+            final boolean isPrebuild) {
         final int keyboardLayoutSetElementId;
         switch (mParams.mMode) {
         case KeyboardId.MODE_PHONE:
@@ -150,40 +227,107 @@ public final class KeyboardLayoutSet {
         }
         final KeyboardId id = getKeyboardId(keyboardLayoutSetElementId);
         try {
-            return getKeyboard(elementParams, id);
+            return getKeyboard(elementParams, id, isPrebuild);
         } catch (RuntimeException e) {
             throw new KeyboardLayoutSetException(e, id);
         }
     }
 
-    private Keyboard getKeyboard(final ElementParams elementParams, final KeyboardId id) {
-        final SoftReference<Keyboard> ref = sKeyboardCache.get(id);
-        Keyboard keyboard = (ref == null) ? null : ref.get();
-        if (keyboard == null) {
-            final KeyboardBuilder<KeyboardParams> builder =
-                    new KeyboardBuilder<KeyboardParams>(mContext, new KeyboardParams());
-            if (id.isAlphabetKeyboard()) {
-                builder.setAutoGenerate(sKeysCache);
+    private Keyboard getKeyboard(final ElementParams elementParams, final KeyboardId id,
+            final boolean isPrebuild) {
+        if (isPrebuild) {
+            if (sKeyboardCache.contains(id)) return null;
+        } else {
+            final Keyboard keyboard = sKeyboardCache.get(id);
+            if (keyboard != null) {
+                if (DEBUG_CACHE) {
+                    Log.d(TAG, "keyboard cache " + sKeyboardCache + ": HIT  id=" + id);
+                }
+                return keyboard;
             }
-            final int keyboardXmlId = elementParams.mKeyboardXmlId;
-            builder.load(keyboardXmlId, id);
-            if (mParams.mDisableTouchPositionCorrectionDataForTest) {
-                builder.disableTouchPositionCorrectionDataForTest();
+        }
+        final long startTime = SystemClock.uptimeMillis();
+        final KeyboardBuilder<KeyboardParams> builder =
+                new KeyboardBuilder<KeyboardParams>(mContext, new KeyboardParams());
+        if (id.isAlphabetKeyboard()) {
+            builder.setAutoGenerate(sKeysCache);
+        }
+        final int keyboardXmlId = elementParams.mKeyboardXmlId;
+        builder.load(keyboardXmlId, id, sKeyTableCache);
+        if (mParams.mDisableTouchPositionCorrectionDataForTest) {
+            builder.disableTouchPositionCorrectionDataForTest();
+        }
+        builder.setProximityCharsCorrectionEnabled(
+                elementParams.mProximityCharsCorrectionEnabled);
+        final Keyboard keyboard = builder.build();
+        sKeyboardCache.put(id, keyboard, SystemClock.uptimeMillis() - startTime, isPrebuild);
+
+        if (DEBUG_CACHE) {
+            Log.d(TAG, "keyboard cache " + sKeyboardCache + ": "
+                    + (isPrebuild ? "PREBUILD" : "LOAD") + " id=" + id);
+        }
+        return keyboard;
+    }
+
+    /**
+     * Builds the keyboards most likely to be requested next, one at a time while the UI thread
+     * is idle. The keyboards are not built on a background thread, as building a keyboard may
+     * switch the locale of the resources shared with the UI thread.
+     */
+    private static final class Prebuilder implements MessageQueue.IdleHandler {
+        private KeyboardLayoutSet mKeyboardLayoutSet;
+        private int[] mElementIds;
+        private int mIndex;
+        // The queue this is added to as an idle handler, or null if it is not scheduled.
+        private MessageQueue mQueue;
+
+        /**
+         * Schedules the prebuilding of keyboards of a layout set, replacing the keyboards
+         * scheduled before.
+         */
+        public void schedule(final KeyboardLayoutSet keyboardLayoutSet, final int[] elementIds) {
+            // Tests may build keyboards on a thread without a looper.
+            if (Looper.myLooper() == null) return;
+            mKeyboardLayoutSet = keyboardLayoutSet;
+            mElementIds = elementIds;
+            mIndex = 0;
+            if (mQueue == null && elementIds.length > 0) {
+                mQueue = Looper.myQueue();
+                mQueue.addIdleHandler(this);
             }
-            builder.setProximityCharsCorrectionEnabled(
-                    elementParams.mProximityCharsCorrectionEnabled);
-            keyboard = builder.build();
-            sKeyboardCache.put(id, new SoftReference<Keyboard>(keyboard));
-
-            if (DEBUG_CACHE) {
-                Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": "
-                        + ((ref == null) ? "LOAD" : "GCed") + " id=" + id);
+        }
+
+        public void cancel() {
+            mKeyboardLayoutSet = null;
+            if (mQueue != null) {
+                mQueue.removeIdleHandler(this);
+                mQueue = null;
             }
-        } else if (DEBUG_CACHE) {
-            Log.d(TAG, "keyboard cache size=" + sKeyboardCache.size() + ": HIT  id=" + id);
         }
 
-        return keyboard;
+        @Override
+        public boolean queueIdle() {
+            while (mKeyboardLayoutSet != null && mIndex < mElementIds.length) {
+                final int elementId = mElementIds[mIndex++];
+                try {
+                    // Build one keyboard at most, so as to give the queue a chance to process
+                    // the next message.
+                    if (mKeyboardLayoutSet.prebuildKeyboard(elementId)) break;
+                } catch (KeyboardLayoutSetException e) {
+                    Log.w(TAG, "Can't prebuild the keyboard " + e.mKeyboardId, e);
+                }
+            }
+            if (mKeyboardLayoutSet != null && mIndex < mElementIds.length) {
+                return true;
+            }
+            mKeyboardLayoutSet = null;
+            mQueue = null;
+            return false;
+        }
+    }
+
+    /* package for test */ static KeyboardCache getKeyboardCache() {
+        return sKeyboardCache;
     }
 
     // Note: The keyboard for each locale, shift state, and mode are represented as
@@ -16,6 +16,7 @@
 
 package com.android.inputmethod.keyboard;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.res.Resources;
@@ -168,6 +169,22 @@ public final class KeyboardSwitcher implements KeyboardState.SwitchActions {
         mIsAutoCorrectionActive = false;
     }
 
+    /**
+     * Releases the cached keyboards when the system runs low on memory. The keyboard in use is
+     * kept by the keyboard view, and the others are built again when they are needed.
+     */
+    public void onTrimMemory(final int level) {
+        // The UI of the input method being hidden is not a sign of memory pressure.
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            KeyboardLayoutSet.clearKeyboardCache();
+        }
+    }
+
+    public void onLowMemory() {
+        KeyboardLayoutSet.clearKeyboardCache();
+    }
+
     private void setKeyboard(final Keyboard keyboard) {
         final MainKeyboardView keyboardView = mKeyboardView;
         final Keyboard oldKeyboard = keyboardView.getKeyboard();
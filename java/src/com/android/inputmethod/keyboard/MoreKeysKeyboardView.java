@@ -25,8 +25,8 @@ import android.widget.PopupWindow;
 
 import com.android.inputmethod.keyboard.PointerTracker.DrawingProxy;
 import com.android.inputmethod.keyboard.PointerTracker.TimerProxy;
+import com.android.inputmethod.keyboard.internal.BatchPointsAggregator;
 import com.android.inputmethod.latin.Constants;
-import com.android.inputmethod.latin.InputPointers;
 import com.android.inputmethod.latin.R;
 
 /**
@@ -66,13 +66,13 @@ public final class MoreKeysKeyboardView extends KeyboardView implements MoreKeys
         }
 
         @Override
-        public void onUpdateBatchInput(InputPointers batchPointers) {
-            mListener.onUpdateBatchInput(batchPointers);
+        public void onUpdateBatchInput(BatchPointsAggregator batchPoints) {
+            mListener.onUpdateBatchInput(batchPoints);
         }
 
         @Override
-        public void onEndBatchInput(InputPointers batchPointers) {
-            mListener.onEndBatchInput(batchPointers);
+        public void onEndBatchInput(BatchPointsAggregator batchPoints) {
+            mListener.onEndBatchInput(batchPoints);
         }
 
         @Override
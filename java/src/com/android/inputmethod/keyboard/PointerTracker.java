@@ -22,12 +22,12 @@ import android.util.Log;
 import android.view.MotionEvent;
 
 import com.android.inputmethod.accessibility.AccessibilityUtils;
+import com.android.inputmethod.keyboard.internal.BatchPointsAggregator;
 import com.android.inputmethod.keyboard.internal.GestureStroke;
 import com.android.inputmethod.keyboard.internal.GestureStroke.GestureStrokeParams;
 import com.android.inputmethod.keyboard.internal.GestureStrokeWithPreviewPoints;
 import com.android.inputmethod.keyboard.internal.PointerTrackerQueue;
 import com.android.inputmethod.latin.CollectionUtils;
-import com.android.inputmethod.latin.InputPointers;
 import com.android.inputmethod.latin.LatinImeLogger;
 import com.android.inputmethod.latin.R;
 import com.android.inputmethod.latin.define.ProductionFlag;
@@ -173,10 +173,12 @@ public final class PointerTracker implements PointerTrackerQueue.Element {
     private static boolean sInGesture = false;
     private static long sGestureFirstDownTime;
     private static TimeRecorder sTimeRecorder;
-    private static final InputPointers sAggregratedPointers = new InputPointers(
-            GestureStroke.DEFAULT_CAPACITY);
-    private static int sLastRecognitionPointSize = 0; // synchronized using sAggregratedPointers
-    private static long sLastRecognitionTime = 0; // synchronized using sAggregratedPointers
+    // The batch input points of all the pointers, read by the gesture recognition without locking.
+    private static final BatchPointsAggregator sBatchPoints = new BatchPointsAggregator();
+    // The following members are only accessed on the UI thread.
+    private static int sPublishedPointSize = 0;
+    private static int sLastRecognitionPointSize = 0;
+    private static long sLastRecognitionTime = 0;
 
     static final class BogusMoveEventDetector {
         // Move these thresholds to resource.
@@ -414,6 +416,7 @@ public final class PointerTracker implements PointerTrackerQueue.Element {
         mPointerId = id;
         mGestureStrokeWithPreviewPoints = new GestureStrokeWithPreviewPoints(
                 id, sGestureStrokeParams);
+        sBatchPoints.addBuffer(mGestureStrokeWithPreviewPoints.getBatchPoints());
         setKeyDetectorInner(handler.getKeyDetector());
         mListener = handler.getKeyboardActionListener();
         mDrawingProxy = handler.getDrawingProxy();
@@ -696,32 +699,29 @@ public final class PointerTracker implements PointerTrackerQueue.Element {
             Log.d(TAG, String.format("[%d] onStartBatchInput", mPointerId));
         }
         sInGesture = true;
-        synchronized (sAggregratedPointers) {
-            sAggregratedPointers.reset();
-            sLastRecognitionPointSize = 0;
-            sLastRecognitionTime = 0;
-            mListener.onStartBatchInput();
-        }
+        sBatchPoints.startGesture();
+        sPublishedPointSize = 0;
+        sLastRecognitionPointSize = 0;
+        sLastRecognitionTime = 0;
+        mListener.onStartBatchInput();
         final boolean isOldestTracker = sPointerTrackerQueue.getOldestElement() == this;
         mDrawingProxy.showGesturePreviewTrail(this, isOldestTracker);
     }
 
     private void mayUpdateBatchInput(final long eventTime, final Key key) {
         if (key != null) {
-            synchronized (sAggregratedPointers) {
-                final GestureStroke stroke = mGestureStrokeWithPreviewPoints;
-                stroke.appendIncrementalBatchPoints(sAggregratedPointers);
-                final int size = sAggregratedPointers.getPointerSize();
-                if (size > sLastRecognitionPointSize
-                        && stroke.hasRecognitionTimePast(eventTime, sLastRecognitionTime)) {
-                    sLastRecognitionPointSize = size;
-                    sLastRecognitionTime = eventTime;
-                    if (DEBUG_LISTENER) {
-                        Log.d(TAG, String.format("[%d] onUpdateBatchInput: batchPoints=%d",
-                                mPointerId, size));
-                    }
-                    mListener.onUpdateBatchInput(sAggregratedPointers);
+            final GestureStroke stroke = mGestureStrokeWithPreviewPoints;
+            sPublishedPointSize += stroke.publishIncrementalBatchPoints();
+            final int size = sPublishedPointSize;
+            if (size > sLastRecognitionPointSize
+                    && stroke.hasRecognitionTimePast(eventTime, sLastRecognitionTime)) {
+                sLastRecognitionPointSize = size;
+                sLastRecognitionTime = eventTime;
+                if (DEBUG_LISTENER) {
+                    Log.d(TAG, String.format("[%d] onUpdateBatchInput: batchPoints=%d",
+                            mPointerId, size));
                 }
+                mListener.onUpdateBatchInput(sBatchPoints);
             }
         }
         final boolean isOldestTracker = sPointerTrackerQueue.getOldestElement() == this;
@@ -729,17 +729,15 @@ public final class PointerTracker implements PointerTrackerQueue.Element {
     }
 
     private void mayEndBatchInput(final long eventTime) {
-        synchronized (sAggregratedPointers) {
-            mGestureStrokeWithPreviewPoints.appendAllBatchPoints(sAggregratedPointers);
-            if (getActivePointerTrackerCount() == 1) {
-                if (DEBUG_LISTENER) {
-                    Log.d(TAG, String.format("[%d] onEndBatchInput   : batchPoints=%d",
-                            mPointerId, sAggregratedPointers.getPointerSize()));
-                }
-                sInGesture = false;
-                sTimeRecorder.onEndBatchInput(eventTime);
-                mListener.onEndBatchInput(sAggregratedPointers);
+        sPublishedPointSize += mGestureStrokeWithPreviewPoints.publishAllBatchPoints();
+        if (getActivePointerTrackerCount() == 1) {
+            if (DEBUG_LISTENER) {
+                Log.d(TAG, String.format("[%d] onEndBatchInput   : batchPoints=%d",
+                        mPointerId, sPublishedPointSize));
             }
+            sInGesture = false;
+            sTimeRecorder.onEndBatchInput(eventTime);
+            mListener.onEndBatchInput(sBatchPoints);
         }
         final boolean isOldestTracker = sPointerTrackerQueue.getOldestElement() == this;
         mDrawingProxy.showGesturePreviewTrail(this, isOldestTracker);
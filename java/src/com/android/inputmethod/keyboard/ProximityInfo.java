@@ -32,6 +32,7 @@ public final class ProximityInfo {
     /** Number of key widths from current touch point to search for nearest keys. */
     private static float SEARCH_DISTANCE = 1.2f;
     private static final Key[] EMPTY_KEY_ARRAY = new Key[0];
+    private static final int[] EMPTY_INT_ARRAY = new int[0];
     private static final float DEFAULT_TOUCH_POSITION_CORRECTION_RADIUS = 0.15f;
 
     private final int mGridWidth;
@@ -46,6 +47,10 @@ public final class ProximityInfo {
     private final int mMostCommonKeyHeight;
     private final Key[] mKeys;
     private final Key[][] mGridNeighbors;
+    // The keys whose hit boxes intersect each cell of the grid, and their hit boxes as left, top,
+    // right and bottom coordinates.
+    private final Key[][] mGridHitKeys;
+    private final int[][] mGridHitBoxes;
     private final String mLocaleStr;
 
     ProximityInfo(final String localeStr, final int gridWidth, final int gridHeight,
@@ -68,11 +73,14 @@ public final class ProximityInfo {
         mMostCommonKeyWidth = mostCommonKeyWidth;
         mKeys = keys;
         mGridNeighbors = new Key[mGridSize][];
+        mGridHitKeys = new Key[mGridSize][];
+        mGridHitBoxes = new int[mGridSize][];
         if (minWidth == 0 || height == 0) {
             // No proximity required. Keyboard might be more keys keyboard.
             return;
         }
         computeNearestNeighbors();
+        computeHitKeys();
         mNativeProximityInfo = createNativeProximityInfo(touchPositionCorrection);
     }
 
@@ -176,42 +184,226 @@ public final class ProximityInfo {
         return mNativeProximityInfo;
     }
 
+    /* package */ int getGridSize() {
+        return mGridSize;
+    }
+
+    /**
+     * Returns the total number of neighbor keys of the cells of the grid.
+     */
+    /* package */ int getGridNeighborCount() {
+        int count = 0;
+        for (final Key[] neighbors : mGridNeighbors) {
+            if (neighbors != null) {
+                count += neighbors.length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of cells of the grid that have hit keys, each of which has its own array
+     * of hit keys and array of hit boxes.
+     */
+    /* package */ int getGridHitCellCount() {
+        int count = 0;
+        for (final Key[] hitKeys : mGridHitKeys) {
+            if (hitKeys != null && hitKeys.length > 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total number of hit keys of the cells of the grid.
+     */
+    /* package */ int getGridHitKeyCount() {
+        int count = 0;
+        for (final Key[] hitKeys : mGridHitKeys) {
+            if (hitKeys != null) {
+                count += hitKeys.length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Releases the native proximity info without waiting for the finalization. This proximity info
+     * must not be used for lookups afterwards.
+     */
+    public synchronized void close() {
+        if (mNativeProximityInfo != 0) {
+            releaseProximityInfoNative(mNativeProximityInfo);
+            mNativeProximityInfo = 0;
+        }
+    }
+
     @Override
     protected void finalize() throws Throwable {
         try {
-            if (mNativeProximityInfo != 0) {
-                releaseProximityInfoNative(mNativeProximityInfo);
-                mNativeProximityInfo = 0;
-            }
+            close();
         } finally {
             super.finalize();
         }
     }
 
+    /**
+     * Computes the neighbors of each cell of the grid: the keys closer to the center of the cell
+     * than the search distance, in the order of the keys. Instead of measuring the distance of
+     * every key to every cell, each key only visits the cells around it, once to count the
+     * neighbors of the cells and once to fill them, so that this is linear in the number of keys
+     * and cells.
+     */
     private void computeNearestNeighbors() {
         final int defaultWidth = mMostCommonKeyWidth;
         final Key[] keys = mKeys;
         final int thresholdBase = (int) (defaultWidth * SEARCH_DISTANCE);
         final int threshold = thresholdBase * thresholdBase;
-        // Round-up so we don't have any pixels outside the grid
-        final Key[] neighborKeys = new Key[keys.length];
-        final int gridWidth = mGridWidth * mCellWidth;
-        final int gridHeight = mGridHeight * mCellHeight;
-        for (int x = 0; x < gridWidth; x += mCellWidth) {
-            for (int y = 0; y < gridHeight; y += mCellHeight) {
-                final int centerX = x + mCellWidth / 2;
-                final int centerY = y + mCellHeight / 2;
-                int count = 0;
-                for (final Key key : keys) {
-                    if (key.isSpacer()) continue;
-                    if (key.squaredDistanceToEdge(centerX, centerY) < threshold) {
-                        neighborKeys[count++] = key;
-                    }
+        final int[] neighborCounts = new int[mGridSize];
+        for (final Key key : keys) {
+            if (key.isSpacer()) continue;
+            addNeighborKey(key, thresholdBase, threshold, neighborCounts, null);
+        }
+        for (int i = 0; i < mGridSize; i++) {
+            mGridNeighbors[i] = (neighborCounts[i] == 0) ? EMPTY_KEY_ARRAY
+                    : new Key[neighborCounts[i]];
+        }
+        Arrays.fill(neighborCounts, 0);
+        for (final Key key : keys) {
+            if (key.isSpacer()) continue;
+            addNeighborKey(key, thresholdBase, threshold, neighborCounts, mGridNeighbors);
+        }
+    }
+
+    /**
+     * Adds a key to the neighbors of the cells whose center is closer to the key than the
+     * threshold.
+     * @param counts the number of neighbors of each cell, incremented for each cell.
+     * @param neighbors the neighbors of the cells to add the key to, or null to only count it.
+     */
+    private void addNeighborKey(final Key key, final int thresholdBase, final int threshold,
+            final int[] counts, final Key[][] neighbors) {
+        // Only the cells whose center is within the threshold of the bounds of the key can be
+        // close enough.
+        final int halfCellWidth = mCellWidth / 2;
+        final int halfCellHeight = mCellHeight / 2;
+        final int firstColumn = Math.max(0, (key.mX - thresholdBase - halfCellWidth) / mCellWidth);
+        final int lastColumn = Math.min(mGridWidth - 1,
+                (key.mX + key.mWidth + thresholdBase - halfCellWidth) / mCellWidth);
+        final int firstRow = Math.max(0, (key.mY - thresholdBase - halfCellHeight) / mCellHeight);
+        final int lastRow = Math.min(mGridHeight - 1,
+                (key.mY + key.mHeight + thresholdBase - halfCellHeight) / mCellHeight);
+        for (int row = firstRow; row <= lastRow; row++) {
+            final int centerY = row * mCellHeight + halfCellHeight;
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int centerX = column * mCellWidth + halfCellWidth;
+                if (key.squaredDistanceToEdge(centerX, centerY) >= threshold) continue;
+                final int index = row * mGridWidth + column;
+                if (neighbors != null) {
+                    neighbors[index][counts[index]] = key;
                 }
-                mGridNeighbors[(y / mCellHeight) * mGridWidth + (x / mCellWidth)] =
-                        Arrays.copyOfRange(neighborKeys, 0, count);
+                counts[index]++;
+            }
+        }
+    }
+
+    /**
+     * Computes the keys whose hit boxes intersect each cell of the grid, with a copy of their
+     * hit boxes, so that detecting the key hit by a point only looks at the keys of its cell.
+     */
+    private void computeHitKeys() {
+        final int[] hitKeyCounts = new int[mGridSize];
+        for (final Key key : mKeys) {
+            if (key.isSpacer()) continue;
+            addHitKey(key, hitKeyCounts);
+        }
+        for (int i = 0; i < mGridSize; i++) {
+            // The cells without keys, like the cells of a short row, share the empty arrays.
+            if (hitKeyCounts[i] == 0) {
+                mGridHitKeys[i] = EMPTY_KEY_ARRAY;
+                mGridHitBoxes[i] = EMPTY_INT_ARRAY;
+            } else {
+                mGridHitKeys[i] = new Key[hitKeyCounts[i]];
+                mGridHitBoxes[i] = new int[hitKeyCounts[i] * 4];
+            }
+        }
+        Arrays.fill(hitKeyCounts, 0);
+        for (final Key key : mKeys) {
+            if (key.isSpacer()) continue;
+            addHitKey(key, hitKeyCounts);
+        }
+    }
+
+    /**
+     * Adds a key to the hit keys of the cells its hit box intersects, or only counts it if the
+     * arrays of the hit keys are not allocated yet.
+     */
+    private void addHitKey(final Key key, final int[] counts) {
+        final Rect hitBox = key.mHitBox;
+        if (hitBox.isEmpty()) return;
+        final int firstColumn = Math.max(0, hitBox.left / mCellWidth);
+        final int lastColumn = Math.min(mGridWidth - 1, (hitBox.right - 1) / mCellWidth);
+        final int firstRow = Math.max(0, hitBox.top / mCellHeight);
+        final int lastRow = Math.min(mGridHeight - 1, (hitBox.bottom - 1) / mCellHeight);
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                final int index = row * mGridWidth + column;
+                final Key[] hitKeys = mGridHitKeys[index];
+                if (hitKeys != null) {
+                    final int count = counts[index];
+                    hitKeys[count] = key;
+                    final int[] hitBoxes = mGridHitBoxes[index];
+                    hitBoxes[count * 4] = hitBox.left;
+                    hitBoxes[count * 4 + 1] = hitBox.top;
+                    hitBoxes[count * 4 + 2] = hitBox.right;
+                    hitBoxes[count * 4 + 3] = hitBox.bottom;
+                }
+                counts[index]++;
+            }
+        }
+    }
+
+    /**
+     * Detects the key whose hit box contains a point. When hit boxes overlap, the key closest
+     * to the point wins, and then the key with the largest code.
+     * @param x the x-coordinate of the point
+     * @param y the y-coordinate of the point
+     * @return the key that the point hits, or null.
+     */
+    public Key detectHitKey(final int x, final int y) {
+        if (mKeyboardMinWidth == 0 || mKeyboardHeight == 0) {
+            return null;
+        }
+        // The hit boxes of the edge keys extend past the grid, into the cells at its edges.
+        final int cellX = Math.max(0, Math.min(x, mKeyboardMinWidth - 1));
+        final int cellY = Math.max(0, Math.min(y, mKeyboardHeight - 1));
+        final int index = (cellY / mCellHeight) * mGridWidth + (cellX / mCellWidth);
+        if (index >= mGridSize) {
+            return null;
+        }
+        final Key[] hitKeys = mGridHitKeys[index];
+        final int[] hitBoxes = mGridHitBoxes[index];
+        int minDistance = Integer.MAX_VALUE;
+        Key primaryKey = null;
+        for (int i = 0; i < hitKeys.length; i++) {
+            final int offset = i * 4;
+            if (x < hitBoxes[offset] || y < hitBoxes[offset + 1]
+                    || x >= hitBoxes[offset + 2] || y >= hitBoxes[offset + 3]) {
+                continue;
+            }
+            final Key key = hitKeys[i];
+            final int distance = key.squaredDistanceToEdge(x, y);
+            if (distance > minDistance) {
+                continue;
+            }
+            // To take care of hitbox overlaps, we compare mCode here too.
+            if (primaryKey == null || distance < minDistance || key.mCode > primaryKey.mCode) {
+                minDistance = distance;
+                primaryKey = key;
             }
         }
+        return primaryKey;
     }
 
     public void fillArrayWithNearestKeyCodes(final int x, final int y, final int primaryKeyCode,
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import com.android.inputmethod.latin.InputPointers;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates the batch input points of the gesture strokes of all the pointers, without locking.
+ *
+ * The touch thread appends and publishes the points to the {@link GesturePointRingBuffer} of each
+ * pointer, and starts the gestures. The recognition thread keeps a {@link Snapshot} of the points
+ * of the current gesture, and updates it with the points published since its last update: it
+ * never copies the points it already has, and the touch thread never waits for it.
+ */
+public final class BatchPointsAggregator {
+    private static final int NO_GESTURE_ID = -1;
+
+    // Copied on write, as the buffers are only added on the touch thread.
+    private volatile GesturePointRingBuffer[] mBuffers = new GesturePointRingBuffer[0];
+    // Incremented after the buffers start a new gesture. Written by the touch thread.
+    private volatile int mGestureId;
+    // Written by the consumers after reading points, so that the reads of the points can't be
+    // reordered after the validation of the gesture id that follows.
+    private volatile int mReadFence;
+
+    /**
+     * The points of a gesture read by a consumer of the aggregator, and the sequence number of
+     * the next point to read from each buffer.
+     *
+     * This class is not thread safe: it is only updated by one thread at a time.
+     */
+    public static final class Snapshot {
+        private final InputPointers mPointers;
+        private int mGestureId = NO_GESTURE_ID;
+        private int[] mSequences = new int[0];
+
+        public Snapshot(final int defaultCapacity) {
+            mPointers = new InputPointers(defaultCapacity);
+        }
+
+        public InputPointers getPointers() {
+            return mPointers;
+        }
+
+        public int getGestureId() {
+            return mGestureId;
+        }
+
+        public int getPointerSize() {
+            return mPointers.getPointerSize();
+        }
+    }
+
+    /**
+     * Adds the buffer of a pointer. Called by the touch thread.
+     */
+    public void addBuffer(final GesturePointRingBuffer buffer) {
+        final GesturePointRingBuffer[] buffers = mBuffers;
+        final GesturePointRingBuffer[] newBuffers = Arrays.copyOf(buffers, buffers.length + 1);
+        newBuffers[buffers.length] = buffer;
+        mBuffers = newBuffers;
+    }
+
+    /**
+     * Starts a new gesture: the points published from now on belong to it. Called by the touch
+     * thread.
+     */
+    public void startGesture() {
+        for (final GesturePointRingBuffer buffer : mBuffers) {
+            buffer.startGesture();
+        }
+        mGestureId++;
+    }
+
+    public int getGestureId() {
+        return mGestureId;
+    }
+
+    /**
+     * Appends the points published since the last update of a snapshot to it. If a new gesture
+     * started since then, the snapshot is reset to the points of the new gesture.
+     * @param snapshot the snapshot to update.
+     * @return the number of points appended to the snapshot.
+     */
+    public int updateSnapshot(final Snapshot snapshot) {
+        final InputPointers pointers = snapshot.mPointers;
+        while (true) {
+            final int gestureId = mGestureId;
+            final GesturePointRingBuffer[] buffers = mBuffers;
+            final boolean isNewGesture = (gestureId != snapshot.mGestureId);
+            if (isNewGesture) {
+                pointers.reset();
+                snapshot.mSequences = new int[buffers.length];
+                for (int i = 0; i < buffers.length; i++) {
+                    snapshot.mSequences[i] = buffers[i].getGestureStartSequence();
+                }
+                snapshot.mGestureId = gestureId;
+            } else if (snapshot.mSequences.length < buffers.length) {
+                // The buffers added since the last update are read from the start of the gesture.
+                final int oldLength = snapshot.mSequences.length;
+                snapshot.mSequences = Arrays.copyOf(snapshot.mSequences, buffers.length);
+                for (int i = oldLength; i < buffers.length; i++) {
+                    snapshot.mSequences[i] = buffers[i].getGestureStartSequence();
+                }
+            }
+            final int oldSize = pointers.getPointerSize();
+            for (int i = 0; i < buffers.length; i++) {
+                snapshot.mSequences[i] = buffers[i].read(snapshot.mSequences[i], pointers);
+            }
+            mReadFence = gestureId;
+            // The points read from a previous gesture may have been overwritten: read again.
+            if (mGestureId == gestureId) {
+                return pointers.getPointerSize() - oldSize;
+            }
+            snapshot.mGestureId = NO_GESTURE_ID;
+        }
+    }
+}
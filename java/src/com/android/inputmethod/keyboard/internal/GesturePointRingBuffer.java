@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import com.android.inputmethod.latin.InputPointers;
+
+/**
+ * A ring buffer of the points of the gesture strokes of a pointer, written by a single producer
+ * thread and read by the gesture recognition.
+ *
+ * Each point is a record of three ints: its x-coordinate, its y-coordinate and its time. The points
+ * are numbered by sequence numbers that increase with each point appended, across strokes. The
+ * producer appends the points of a stroke, and publishes them once they are ready for recognition.
+ * The consumer reads the published points it has not read yet. The producer never overwrites a
+ * point of the current gesture: it grows the buffer instead, so that it never waits for the
+ * consumer. A consumer that reads an array of records after the buffer grew still reads valid
+ * points, as the producer does not write to the published points of that array any more. Points
+ * of a previous gesture may be overwritten while the consumer reads them: the consumer detects the
+ * new gesture and drops what it read.
+ *
+ * The sequence numbers may overflow: only their differences matter, and the capacity is a power
+ * of two.
+ */
+public final class GesturePointRingBuffer {
+    private static final int RECORD_SIZE = 3;
+    private static final int X_OFFSET = 0;
+    private static final int Y_OFFSET = 1;
+    private static final int TIME_OFFSET = 2;
+
+    private final int mPointerId;
+    // The records, replaced by a larger array when the buffer grows. Written by the producer.
+    private volatile int[] mRecords;
+    // The sequence number of the first point of the current gesture. Written by the producer.
+    private volatile int mGestureStartSequence;
+    // The sequence number following the last point published. Written by the producer.
+    private volatile int mPublishedSequence;
+    // The following members are only accessed by the producer.
+    private int mMask;
+    private int mWriteSequence;
+    private int mStrokeStartSequence;
+
+    /**
+     * @param pointerId the id of the pointer of the points.
+     * @param capacity the initial number of points, rounded up to a power of two.
+     */
+    public GesturePointRingBuffer(final int pointerId, final int capacity) {
+        mPointerId = pointerId;
+        int powerOfTwo = 1;
+        while (powerOfTwo < capacity) {
+            powerOfTwo <<= 1;
+        }
+        mRecords = new int[powerOfTwo * RECORD_SIZE];
+        mMask = powerOfTwo - 1;
+    }
+
+    public int getPointerId() {
+        return mPointerId;
+    }
+
+    /**
+     * Starts a new stroke, discarding the points of the previous stroke that are not published.
+     * Called by the producer.
+     */
+    public void startStroke() {
+        mWriteSequence = mPublishedSequence;
+        mStrokeStartSequence = mWriteSequence;
+    }
+
+    /**
+     * Starts a new gesture: the points published before it may be overwritten, even if they
+     * were not read. Called by the producer.
+     */
+    /* package */ void startGesture() {
+        mGestureStartSequence = mPublishedSequence;
+    }
+
+    /**
+     * Appends a point to the current stroke. Called by the producer.
+     */
+    public void append(final int x, final int y, final int time) {
+        int[] records = mRecords;
+        if (mWriteSequence - mGestureStartSequence > mMask) {
+            records = grow(mGestureStartSequence);
+        }
+        final int offset = (mWriteSequence & mMask) * RECORD_SIZE;
+        records[offset + X_OFFSET] = x;
+        records[offset + Y_OFFSET] = y;
+        records[offset + TIME_OFFSET] = time;
+        mWriteSequence++;
+    }
+
+    private int[] grow(final int oldestSequence) {
+        final int[] records = mRecords;
+        final int newMask = mMask * 2 + 1;
+        final int[] newRecords = new int[(newMask + 1) * RECORD_SIZE];
+        for (int sequence = oldestSequence; sequence != mWriteSequence; sequence++) {
+            System.arraycopy(records, (sequence & mMask) * RECORD_SIZE,
+                    newRecords, (sequence & newMask) * RECORD_SIZE, RECORD_SIZE);
+        }
+        mMask = newMask;
+        mRecords = newRecords;
+        return newRecords;
+    }
+
+    /**
+     * Returns the number of points of the current stroke. Called by the producer.
+     */
+    public int getPointCount() {
+        return mWriteSequence - mStrokeStartSequence;
+    }
+
+    /**
+     * Returns the x-coordinate of a point of the current stroke. Called by the producer.
+     * @param index the index of the point in the current stroke.
+     */
+    public int getX(final int index) {
+        return mRecords[getOffset(index) + X_OFFSET];
+    }
+
+    public int getY(final int index) {
+        return mRecords[getOffset(index) + Y_OFFSET];
+    }
+
+    public int getTime(final int index) {
+        return mRecords[getOffset(index) + TIME_OFFSET];
+    }
+
+    private int getOffset(final int index) {
+        return ((mStrokeStartSequence + index) & mMask) * RECORD_SIZE;
+    }
+
+    /**
+     * Publishes the first points of the current stroke, up to a number of points. The points
+     * that are already published stay published. Called by the producer.
+     * @param count the number of points of the stroke to publish.
+     * @return the number of points that were published by this call.
+     */
+    public int publish(final int count) {
+        final int publishedSequence = mPublishedSequence;
+        final int sequence = mStrokeStartSequence + count;
+        if (sequence - publishedSequence <= 0) {
+            return 0;
+        }
+        mPublishedSequence = sequence;
+        return sequence - publishedSequence;
+    }
+
+    /* package */ int getGestureStartSequence() {
+        return mGestureStartSequence;
+    }
+
+    /**
+     * Appends the points published from a sequence number to pointers. Called by the consumer.
+     * @param sequence the sequence number of the first point to read.
+     * @param out the pointers to append the points to.
+     * @return the sequence number following the last point read.
+     */
+    /* package */ int read(final int sequence, final InputPointers out) {
+        // Read the published sequence before the records, so that the records hold its points.
+        final int publishedSequence = mPublishedSequence;
+        final int[] records = mRecords;
+        final int mask = records.length / RECORD_SIZE - 1;
+        for (int s = sequence; s != publishedSequence; s++) {
+            final int offset = (s & mask) * RECORD_SIZE;
+            out.addPointer(records[offset + X_OFFSET], records[offset + Y_OFFSET], mPointerId,
+                    records[offset + TIME_OFFSET]);
+        }
+        return publishedSequence;
+    }
+}
@@ -17,9 +17,7 @@ package com.android.inputmethod.keyboard.internal;
 import android.content.res.TypedArray;
 import android.util.Log;
 
-import com.android.inputmethod.latin.InputPointers;
 import com.android.inputmethod.latin.R;
-import com.android.inputmethod.latin.ResizableIntArray;
 import com.android.inputmethod.latin.ResourceUtils;
 
 public class GestureStroke {
@@ -30,9 +28,8 @@ public class GestureStroke {
     public static final int DEFAULT_CAPACITY = 128;
 
     private final int mPointerId;
-    private final ResizableIntArray mEventTimes = new ResizableIntArray(DEFAULT_CAPACITY);
-    private final ResizableIntArray mXCoordinates = new ResizableIntArray(DEFAULT_CAPACITY);
-    private final ResizableIntArray mYCoordinates = new ResizableIntArray(DEFAULT_CAPACITY);
+    // The points of the strokes, from which the batch input points are published.
+    private final GesturePointRingBuffer mPoints;
 
     private final GestureStrokeParams mParams;
 
@@ -54,7 +51,6 @@ public class GestureStroke {
     // Variables for gesture recognition
     private int mGestureRecognitionSpeedThreshold; // pixel / sec
     private int mIncrementalRecognitionSize;
-    private int mLastIncrementalBatchSize;
 
     public static final class GestureStrokeParams {
         // Static threshold for gesture after fast typing
@@ -133,6 +129,7 @@ public class GestureStroke {
     public GestureStroke(final int pointerId, final GestureStrokeParams params) {
         mPointerId = pointerId;
         mParams = params;
+        mPoints = new GesturePointRingBuffer(pointerId, DEFAULT_CAPACITY);
     }
 
     public void setKeyboardGeometry(final int keyWidth) {
@@ -194,17 +191,17 @@ public class GestureStroke {
         if (!hasDetectedFastMove()) {
             return false;
         }
-        final int size = mEventTimes.getLength();
+        final int size = mPoints.getPointCount();
         if (size <= 0) {
             return false;
         }
         final int lastIndex = size - 1;
-        final int deltaTime = mEventTimes.get(lastIndex) - mDetectFastMoveTime;
+        final int deltaTime = mPoints.getTime(lastIndex) - mDetectFastMoveTime;
         if (deltaTime < 0) {
             return false;
         }
         final int deltaDistance = getDistance(
-                mXCoordinates.get(lastIndex), mYCoordinates.get(lastIndex),
+                mPoints.getX(lastIndex), mPoints.getY(lastIndex),
                 mDetectFastMoveX, mDetectFastMoveY);
         final int distanceThreshold = getGestureDynamicDistanceThreshold(deltaTime);
         final int timeThreshold = getGestureDynamicTimeThreshold(deltaTime);
@@ -222,21 +219,12 @@ public class GestureStroke {
 
     protected void reset() {
         mIncrementalRecognitionSize = 0;
-        mLastIncrementalBatchSize = 0;
-        mEventTimes.setLength(0);
-        mXCoordinates.setLength(0);
-        mYCoordinates.setLength(0);
+        mPoints.startStroke();
         mLastMajorEventTime = 0;
         mDetectFastMoveTime = 0;
         mAfterFastTyping = false;
     }
 
-    private void appendPoint(final int x, final int y, final int time) {
-        mEventTimes.add(time);
-        mXCoordinates.add(x);
-        mYCoordinates.add(y);
-    }
-
     private void updateMajorEvent(final int x, final int y, final int time) {
         mLastMajorEventTime = time;
         mLastMajorEventX = x;
@@ -248,12 +236,12 @@ public class GestureStroke {
     }
 
     private int detectFastMove(final int x, final int y, final int time) {
-        final int size = mEventTimes.getLength();
+        final int size = mPoints.getPointCount();
         final int lastIndex = size - 1;
-        final int lastX = mXCoordinates.get(lastIndex);
-        final int lastY = mYCoordinates.get(lastIndex);
+        final int lastX = mPoints.getX(lastIndex);
+        final int lastY = mPoints.getY(lastIndex);
         final int dist = getDistance(lastX, lastY, x, y);
-        final int msecs = time - mEventTimes.get(lastIndex);
+        final int msecs = time - mPoints.getTime(lastIndex);
         if (msecs > 0) {
             final int pixels = getDistance(lastX, lastY, x, y);
             final int pixelsPerSec = pixels * MSEC_PER_SEC;
@@ -278,15 +266,15 @@ public class GestureStroke {
     }
 
     public void addPoint(final int x, final int y, final int time, final boolean isMajorEvent) {
-        final int size = mEventTimes.getLength();
+        final int size = mPoints.getPointCount();
         if (size <= 0) {
             // Down event
-            appendPoint(x, y, time);
+            mPoints.append(x, y, time);
             updateMajorEvent(x, y, time);
         } else {
             final int distance = detectFastMove(x, y, time);
             if (distance > mGestureSamplingMinimumDistance) {
-                appendPoint(x, y, time);
+                mPoints.append(x, y, time);
             }
         }
         if (isMajorEvent) {
@@ -304,7 +292,7 @@ public class GestureStroke {
         final int pixelsPerSec = pixels * MSEC_PER_SEC;
         // Equivalent to (pixels / msecs < mGestureRecognitionThreshold / MSEC_PER_SEC)
         if (pixelsPerSec < mGestureRecognitionSpeedThreshold * msecs) {
-            mIncrementalRecognitionSize = mEventTimes.getLength();
+            mIncrementalRecognitionSize = mPoints.getPointCount();
         }
     }
 
@@ -313,22 +301,28 @@ public class GestureStroke {
         return currentTime > lastRecognitionTime + mParams.mRecognitionMinimumTime;
     }
 
-    public final void appendAllBatchPoints(final InputPointers out) {
-        appendBatchPoints(out, mEventTimes.getLength());
+    /**
+     * Returns the buffer the batch input points of the strokes are published to.
+     */
+    public final GesturePointRingBuffer getBatchPoints() {
+        return mPoints;
     }
 
-    public final void appendIncrementalBatchPoints(final InputPointers out) {
-        appendBatchPoints(out, mIncrementalRecognitionSize);
+    /**
+     * Publishes all the points of the stroke as batch input points.
+     * @return the number of points that were published by this call.
+     */
+    public final int publishAllBatchPoints() {
+        return mPoints.publish(mPoints.getPointCount());
     }
 
-    private void appendBatchPoints(final InputPointers out, final int size) {
-        final int length = size - mLastIncrementalBatchSize;
-        if (length <= 0) {
-            return;
-        }
-        out.append(mPointerId, mEventTimes, mXCoordinates, mYCoordinates,
-                mLastIncrementalBatchSize, length);
-        mLastIncrementalBatchSize = size;
+    /**
+     * Publishes the points of the stroke up to the last point where it slowed down enough to be
+     * recognized incrementally.
+     * @return the number of points that were published by this call.
+     */
+    public final int publishIncrementalBatchPoints() {
+        return mPoints.publish(mIncrementalRecognitionSize);
     }
 
     private static int getDistance(final int x1, final int y1, final int x2, final int y2) {
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager.NameNotFoundException;
+import android.util.Log;
+
+import com.android.inputmethod.keyboard.Key;
+import com.android.inputmethod.latin.CollectionUtils;
+import com.android.inputmethod.latin.SnapshotFile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A cache on disk of the keys of the keyboards, so that a keyboard that was built once from its
+ * XML can be built again without parsing its rows and keys.
+ *
+ * The keys of a keyboard are saved in a key table, identified by a signature of everything the
+ * keys depend on: see {@link KeyboardBuilder}. Only the root element of the keyboard XML is
+ * parsed when the keys are loaded from a key table, for the attributes of the keyboard that
+ * depend on the theme. The key tables are kept in a subdirectory for each version of the
+ * application, as the keyboard XML changes with the application, and the subdirectories of the
+ * other versions are deleted. The key tables are written on a background thread.
+ *
+ * A key table is saved as a version int, the signature, and the number of keys followed by the
+ * keys.
+ */
+public final class KeyTableCache {
+    private static final String TAG = KeyTableCache.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    private static final int VERSION = 1;
+    private static final String DIRECTORY_NAME = "key_tables";
+    // The number of files kept in the directory, beyond which the oldest ones are deleted.
+    private static final int MAX_FILE_COUNT = 64;
+
+    private static final ExecutorService sWriter = Executors.newSingleThreadExecutor();
+
+    private final File mRootDirectory;
+    private final File mDirectory;
+    // Only accessed on the writer thread.
+    private boolean mHasDeletedOtherVersions = false;
+
+    /**
+     * @param rootDirectory the directory holding a subdirectory of key tables per version.
+     * @param version the version of the application.
+     */
+    public KeyTableCache(final File rootDirectory, final String version) {
+        mRootDirectory = rootDirectory;
+        mDirectory = new File(rootDirectory, version);
+    }
+
+    /**
+     * Creates the key table cache of the application, in its cache directory.
+     * @return the cache, or null if the version of the application is unknown.
+     */
+    public static KeyTableCache newInstance(final Context context) {
+        final PackageInfo info;
+        try {
+            info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+        } catch (NameNotFoundException e) {
+            Log.e(TAG, "Can't find the version of the package: " + e);
+            return null;
+        }
+        // The update time changes with each install, even if the version code does not.
+        return new KeyTableCache(new File(context.getCacheDir(), DIRECTORY_NAME),
+                info.versionCode + "-" + info.lastUpdateTime);
+    }
+
+    private File getFile(final String signature) {
+        return new File(mDirectory, Integer.toHexString(signature.hashCode()));
+    }
+
+    /**
+     * Loads the keys of a keyboard from its key table, adding them to the keyboard parameters.
+     * @param signature the signature of the keyboard.
+     * @param params the parameters to add the keys to. They are left unchanged if there is no
+     *        key table for the signature.
+     * @return whether the keys were loaded.
+     */
+    public boolean loadKeys(final String signature, final KeyboardParams params) {
+        final SnapshotFile.Snapshot snapshot = new SnapshotFile(getFile(signature))
+                .getLatestSnapshot();
+        if (null == snapshot) return false;
+        DataInputStream in = null;
+        try {
+            final FileInputStream fileIn = new FileInputStream(snapshot.mFile);
+            in = new DataInputStream(new BufferedInputStream(fileIn));
+            if (snapshot.mOffset != fileIn.skip(snapshot.mOffset)) {
+                throw new IOException("Can't skip the header");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version);
+            }
+            if (!signature.equals(in.readUTF())) {
+                // Another keyboard whose signature has the same hash code.
+                return false;
+            }
+            final int keyCount = in.readInt();
+            final ArrayList<Key> keys = CollectionUtils.newArrayList();
+            for (int i = 0; i < keyCount; i++) {
+                keys.add(Key.readFrom(in));
+            }
+            for (final Key key : keys) {
+                params.onAddKey(key);
+            }
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "IOException while reading " + snapshot.mFile + ": " + e);
+            return false;
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the keys of a keyboard to its key table. The keys are serialized right away, and
+     * written in the background.
+     * @param signature the signature of the keyboard.
+     * @param keys the keys of the keyboard.
+     */
+    public void saveKeys(final String signature, final Collection<Key> keys) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(VERSION);
+            out.writeUTF(signature);
+            out.writeInt(keys.size());
+            for (final Key key : keys) {
+                key.writeTo(out);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // This can't happen when writing to a byte array.
+            Log.e(TAG, "IOException while serializing the keys: " + e);
+            return;
+        }
+        final File file = getFile(signature);
+        sWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeFile(file, bytes);
+            }
+        });
+    }
+
+    private void writeFile(final File file, final ByteArrayOutputStream bytes) {
+        if (!mHasDeletedOtherVersions) {
+            final File[] directories = mRootDirectory.listFiles();
+            if (null != directories) {
+                for (final File directory : directories) {
+                    if (!directory.equals(mDirectory)) deleteRecursively(directory);
+                }
+            }
+            mHasDeletedOtherVersions = true;
+        }
+        mDirectory.mkdirs();
+        deleteOldestFiles();
+        try {
+            new SnapshotFile(file).write(new SnapshotFile.ContentWriter() {
+                @Override
+                public void writeTo(final OutputStream out) throws IOException {
+                    bytes.writeTo(out);
+                }
+            });
+            if (DEBUG) {
+                Log.d(TAG, "Saved " + file + ": " + bytes.size() + " bytes");
+            }
+        } catch (IOException e) {
+            // The keyboard will be built from its XML and saved again next time.
+            Log.e(TAG, "IOException while writing " + file + ": " + e);
+        }
+    }
+
+    private void deleteOldestFiles() {
+        final File[] files = mDirectory.listFiles();
+        if (null == files || files.length < MAX_FILE_COUNT) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                final long lhsLastModified = lhs.lastModified();
+                final long rhsLastModified = rhs.lastModified();
+                if (lhsLastModified == rhsLastModified) return 0;
+                return lhsLastModified < rhsLastModified ? -1 : 1;
+            }
+        });
+        for (int i = 0; i <= files.length - MAX_FILE_COUNT; i++) {
+            files[i].delete();
+        }
+    }
+
+    /* package for test */ static void deleteRecursively(final File file) {
+        final File[] files = file.listFiles();
+        if (null != files) {
+            for (final File child : files) deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    /**
+     * Waits for the key tables being written to be written.
+     */
+    /* package for test */ static void waitForWrites() throws InterruptedException {
+        try {
+            sWriter.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // Nothing to do: the tasks run in order.
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            // Can't happen with this task.
+        }
+    }
+
+    /**
+     * Reads a string, which may be null, from a key table.
+     */
+    public static String readString(final DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes a string, which may be null, to a key table.
+     */
+    public static void writeString(final DataOutput out, final String string) throws IOException {
+        out.writeBoolean(null != string);
+        if (null != string) {
+            out.writeUTF(string);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 package com.android.inputmethod.keyboard.internal;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
 import android.content.res.XmlResourceParser;
@@ -161,10 +162,22 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
     }
 
     public KeyboardBuilder<KP> load(final int xmlId, final KeyboardId id) {
+        return load(xmlId, id, null);
+    }
+
+    /**
+     * Loads a keyboard, with the keys of its key table if there is one in a key table cache.
+     * Otherwise the keys are parsed from the XML and saved to the cache.
+     * @param xmlId the id of the keyboard XML.
+     * @param id the id of the keyboard.
+     * @param keyTableCache the key table cache, or null to always parse the XML.
+     */
+    public KeyboardBuilder<KP> load(final int xmlId, final KeyboardId id,
+            final KeyTableCache keyTableCache) {
         mParams.mId = id;
         final XmlResourceParser parser = mResources.getXml(xmlId);
         try {
-            parseKeyboard(parser);
+            parseKeyboard(parser, xmlId, keyTableCache);
         } catch (XmlPullParserException e) {
             Log.w(BUILDER_TAG, "keyboard XML parse error: " + e);
             throw new IllegalArgumentException(e);
@@ -210,8 +223,8 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         mIndent--;
     }
 
-    private void parseKeyboard(final XmlPullParser parser)
-            throws XmlPullParserException, IOException {
+    private void parseKeyboard(final XmlPullParser parser, final int xmlId,
+            final KeyTableCache keyTableCache) throws XmlPullParserException, IOException {
         if (DEBUG) startTag("<%s> %s", TAG_KEYBOARD, mParams.mId);
         int event;
         while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
@@ -219,8 +232,18 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
                 final String tag = parser.getName();
                 if (TAG_KEYBOARD.equals(tag)) {
                     parseKeyboardAttributes(parser);
+                    final String signature = (keyTableCache == null) ? null
+                            : getKeyTableSignature(xmlId);
+                    if (signature != null && keyTableCache.loadKeys(signature, mParams)) {
+                        if (DEBUG) endTag("</%s> loaded from key table", TAG_KEYBOARD);
+                        break;
+                    }
+                    loadTexts();
                     startKeyboard();
                     parseKeyboardContent(parser, false);
+                    if (signature != null) {
+                        keyTableCache.saveKeys(signature, mParams.mKeys);
+                    }
                     break;
                 } else {
                     throw new XmlParseUtils.IllegalStartTag(parser, TAG_KEYBOARD);
@@ -297,20 +320,6 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
 
             params.mThemeId = keyboardAttr.getInt(R.styleable.Keyboard_themeId, 0);
             params.mIconsSet.loadIcons(keyboardAttr);
-            final String language = params.mId.mLocale.getLanguage();
-            params.mCodesSet.setLanguage(language);
-            params.mTextsSet.setLanguage(language);
-            final RunInLocale<Void> job = new RunInLocale<Void>() {
-                @Override
-                protected Void job(Resources res) {
-                    params.mTextsSet.loadStringResources(mContext);
-                    return null;
-                }
-            };
-            // Null means the current system locale.
-            final Locale locale = SubtypeLocale.isNoLanguage(params.mId.mSubtype)
-                    ? null : params.mId.mLocale;
-            job.runInLocale(mResources, locale);
 
             final int resourceId = keyboardAttr.getResourceId(
                     R.styleable.Keyboard_touchPositionCorrectionData, 0);
@@ -324,6 +333,55 @@ public class KeyboardBuilder<KP extends KeyboardParams> {
         }
     }
 
+    /**
+     * Returns the signature of the key table of the keyboard, made of everything the keys depend
+     * on besides the version of the application: the keyboard XML, the keyboard id, the
+     * attributes of the keyboard and the parts of the configuration that select the resources.
+     * The configuration is not used as a whole, as it also holds a sequence number that changes
+     * with every configuration change.
+     */
+    private String getKeyTableSignature(final int xmlId) {
+        final KeyboardParams params = mParams;
+        final KeyboardId id = params.mId;
+        final Configuration config = mResources.getConfiguration();
+        return mResources.getResourceEntryName(xmlId)
+                + " " + id + " " + id.mSubtype.getLocale() + " " + id.mSubtype.getExtraValue()
+                + " " + id.mCustomActionLabel
+                + " " + params.mThemeId
+                + " " + params.mOccupiedWidth + "x" + params.mOccupiedHeight
+                + " " + params.mTopPadding + " " + params.mBottomPadding
+                + " " + params.mHorizontalEdgesPadding + " " + params.mHorizontalCenterPadding
+                + " " + params.mBaseWidth + "x" + params.mBaseHeight
+                + " " + params.mDefaultKeyWidth + "x" + params.mDefaultRowHeight
+                + " " + params.mHorizontalGap + " " + params.mVerticalGap
+                + " " + params.mMaxMoreKeysKeyboardColumn
+                + " " + mDisplayMetrics.density + " " + mDisplayMetrics.densityDpi
+                + " " + config.locale + " " + config.orientation + " " + config.screenLayout
+                + " " + config.screenWidthDp + "x" + config.screenHeightDp
+                + " " + config.smallestScreenWidthDp + " " + config.uiMode;
+    }
+
+    /**
+     * Loads the codes and the texts that the keys refer to, for the locale of the keyboard.
+     */
+    private void loadTexts() {
+        final KeyboardParams params = mParams;
+        final String language = params.mId.mLocale.getLanguage();
+        params.mCodesSet.setLanguage(language);
+        params.mTextsSet.setLanguage(language);
+        final RunInLocale<Void> job = new RunInLocale<Void>() {
+            @Override
+            protected Void job(Resources res) {
+                params.mTextsSet.loadStringResources(mContext);
+                return null;
+            }
+        };
+        // Null means the current system locale.
+        final Locale locale = SubtypeLocale.isNoLanguage(params.mId.mSubtype)
+                ? null : params.mId.mLocale;
+        job.runInLocale(mResources, locale);
+    }
+
     private void parseKeyboardContent(final XmlPullParser parser, final boolean skip)
             throws XmlPullParserException, IOException {
         int event;
@@ -21,6 +21,9 @@ import android.text.TextUtils;
 import com.android.inputmethod.keyboard.Keyboard;
 import com.android.inputmethod.latin.StringUtils;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.Locale;
 
 public final class MoreKeySpec {
@@ -48,6 +51,23 @@ public final class MoreKeySpec {
         mIconId = KeySpecParser.getIconId(moreKeySpec);
     }
 
+    /**
+     * Reads a more key spec from a key table, as written by {@link #writeTo}.
+     */
+    public MoreKeySpec(final DataInput in) throws IOException {
+        mCode = in.readInt();
+        mLabel = KeyTableCache.readString(in);
+        mOutputText = KeyTableCache.readString(in);
+        mIconId = in.readInt();
+    }
+
+    public void writeTo(final DataOutput out) throws IOException {
+        out.writeInt(mCode);
+        KeyTableCache.writeString(out, mLabel);
+        KeyTableCache.writeString(out, mOutputText);
+        out.writeInt(mIconId);
+    }
+
     @Override
     public int hashCode() {
         int hashCode = 1;
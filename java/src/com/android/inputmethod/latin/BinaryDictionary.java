@@ -60,6 +60,17 @@ public final class BinaryDictionary extends Dictionary {
     private final int[] mOutputScores = new int[MAX_RESULTS];
     private final int[] mOutputTypes = new int[MAX_RESULTS];
 
+    // The objects below are reused from one call to getSuggestionsWithSessionId to the next so
+    // that a steady stream of keystrokes does not allocate. Like the output buffers above, they
+    // assume that calls are not concurrent.
+    private final ArrayList<SuggestedWordInfo> mSuggestions = CollectionUtils.newArrayList();
+    // The suggestions of the previous call, to reuse those that come out again.
+    private SuggestedWordInfo[] mLastSuggestions = new SuggestedWordInfo[MAX_RESULTS];
+    private SuggestedWordInfo[] mNewSuggestions = new SuggestedWordInfo[MAX_RESULTS];
+    private int mLastSuggestionsCount = 0;
+    private String mPrevWord;
+    private int[] mPrevWordCodePoints;
+
     private final boolean mUseFullEditDistance;
 
     private final SparseArray<DicTraverseSession> mDicTraverseSessions =
@@ -131,6 +142,13 @@ public final class BinaryDictionary extends Dictionary {
         return getSuggestionsWithSessionId(composer, prevWord, proximityInfo, 0);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The returned list is owned by this dictionary and is reused by the next call, so callers
+     * must not hold on to it. The SuggestedWordInfo objects it contains may be kept; identical
+     * suggestions are returned as the same objects from one call to the next.
+     */
     @Override
     public ArrayList<SuggestedWordInfo> getSuggestionsWithSessionId(final WordComposer composer,
             final CharSequence prevWord, final ProximityInfo proximityInfo, int sessionId) {
@@ -138,8 +156,7 @@ public final class BinaryDictionary extends Dictionary {
 
         Arrays.fill(mInputCodePoints, Constants.NOT_A_CODE);
         // TODO: toLowerCase in the native code
-        final int[] prevWordCodePointArray = (null == prevWord)
-                ? null : StringUtils.toCodePointArray(prevWord.toString());
+        final int[] prevWordCodePointArray = getPrevWordCodePoints(prevWord);
         final int composerSize = composer.size();
 
         final boolean isGesture = composer.isBatchMode();
@@ -160,7 +177,9 @@ public final class BinaryDictionary extends Dictionary {
                 mUseFullEditDistance, mOutputChars, mOutputScores, mSpaceIndices, mOutputTypes);
         final int count = Math.min(tmpCount, MAX_PREDICTIONS);
 
-        final ArrayList<SuggestedWordInfo> suggestions = CollectionUtils.newArrayList();
+        final ArrayList<SuggestedWordInfo> suggestions = mSuggestions;
+        suggestions.clear();
+        int newSuggestionsCount = 0;
         for (int j = 0; j < count; ++j) {
             if (composerSize > 0 && mOutputScores[j] < 1) break;
             final int start = j * MAX_WORD_LENGTH;
@@ -171,13 +190,69 @@ public final class BinaryDictionary extends Dictionary {
             if (len > 0) {
                 final int score = SuggestedWordInfo.KIND_WHITELIST == mOutputTypes[j]
                         ? SuggestedWordInfo.MAX_SCORE : mOutputScores[j];
-                suggestions.add(new SuggestedWordInfo(
-                        new String(mOutputChars, start, len), score, mOutputTypes[j], mDictType));
+                final SuggestedWordInfo info =
+                        getSuggestedWordInfo(start, len, score, mOutputTypes[j]);
+                mNewSuggestions[newSuggestionsCount++] = info;
+                suggestions.add(info);
             }
         }
+        final SuggestedWordInfo[] lastSuggestions = mLastSuggestions;
+        Arrays.fill(lastSuggestions, 0, mLastSuggestionsCount, null);
+        mLastSuggestions = mNewSuggestions;
+        mLastSuggestionsCount = newSuggestionsCount;
+        mNewSuggestions = lastSuggestions;
         return suggestions;
     }
 
+    /**
+     * Returns the code points of the previous word, reusing the array of the last call when the
+     * previous word has not changed, which is the case for all keystrokes within a word.
+     */
+    private int[] getPrevWordCodePoints(final CharSequence prevWord) {
+        if (null == prevWord) return null;
+        if (!TextUtils.equals(prevWord, mPrevWord)) {
+            mPrevWord = prevWord.toString();
+            mPrevWordCodePoints = StringUtils.toCodePointArray(mPrevWord);
+        }
+        return mPrevWordCodePoints;
+    }
+
+    /**
+     * Returns a SuggestedWordInfo for a word of the output buffer.
+     *
+     * If the previous call returned the same suggestion, it is returned again. If it returned the
+     * same word with another score or kind, its string is shared. Only new words allocate a
+     * string.
+     */
+    private SuggestedWordInfo getSuggestedWordInfo(final int start, final int length,
+            final int score, final int kind) {
+        // Same as String#hashCode, which String caches, so that most candidates are rejected
+        // without comparing the characters.
+        int hashCode = 0;
+        for (int i = start; i < start + length; ++i) {
+            hashCode = 31 * hashCode + mOutputChars[i];
+        }
+        String word = null;
+        for (int i = 0; i < mLastSuggestionsCount; ++i) {
+            final SuggestedWordInfo info = mLastSuggestions[i];
+            if (info.mWord.hashCode() != hashCode || !isWordInOutput(info.mWord, start, length)) {
+                continue;
+            }
+            if (info.mScore == score && info.mKind == kind) return info;
+            word = info.mWord;
+        }
+        if (null == word) word = new String(mOutputChars, start, length);
+        return new SuggestedWordInfo(word, score, kind, mDictType);
+    }
+
+    private boolean isWordInOutput(final String word, final int start, final int length) {
+        if (word.length() != length) return false;
+        for (int i = 0; i < length; ++i) {
+            if (word.charAt(i) != mOutputChars[start + i]) return false;
+        }
+        return true;
+    }
+
     /* package for test */ boolean isValidDictionary() {
         return mNativeDict != 0;
     }
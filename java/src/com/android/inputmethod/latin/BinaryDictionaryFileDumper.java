@@ -26,10 +26,12 @@ import android.util.Log;
 
 import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
@@ -52,6 +54,11 @@ public final class BinaryDictionaryFileDumper {
             new byte[] { (byte)0x78, (byte)0xB1, (byte)0x00, (byte)0x00 };
     private static final byte[] MAGIC_NUMBER_VERSION_2 =
             new byte[] { (byte)0x9B, (byte)0xC1, (byte)0x3A, (byte)0xFE };
+    // The magic number and the deflate compression method of a gzip stream.
+    private static final byte[] GZIP_HEADER =
+            new byte[] { (byte)0x1F, (byte)0x8B, (byte)0x08 };
+    // A word list is compressed at most twice, before and after being crypted.
+    private static final int MAX_UNCOMPRESS_COUNT = 2;
 
     private static final String DICTIONARY_PROJECTION[] = { "id" };
 
@@ -137,113 +144,74 @@ public final class BinaryDictionaryFileDumper {
      */
     private static AssetFileAddress cacheWordList(final String id, final String locale,
             final ContentResolver resolver, final Context context) {
-
-        final int COMPRESSED_CRYPTED_COMPRESSED = 0;
-        final int CRYPTED_COMPRESSED = 1;
-        final int COMPRESSED_CRYPTED = 2;
-        final int COMPRESSED_ONLY = 3;
-        final int CRYPTED_ONLY = 4;
-        final int NONE = 5;
-        final int MODE_MIN = COMPRESSED_CRYPTED_COMPRESSED;
-        final int MODE_MAX = NONE;
-
         final Uri.Builder wordListUriBuilder = getProviderUriBuilder(id);
         final String finalFileName = BinaryDictionaryGetter.getCacheFileName(id, locale, context);
         final String tempFileName = BinaryDictionaryGetter.getTempFileName(id, context);
 
-        for (int mode = MODE_MIN; mode <= MODE_MAX; ++mode) {
-            InputStream originalSourceStream = null;
-            InputStream inputStream = null;
-            InputStream uncompressedStream = null;
-            InputStream decryptedStream = null;
-            BufferedInputStream bufferedStream = null;
-            File outputFile = null;
-            FileOutputStream outputStream = null;
-            AssetFileDescriptor afd = null;
-            final Uri wordListUri = wordListUriBuilder.build();
-            try {
-                // Open input.
-                afd = openAssetFileDescriptor(resolver, wordListUri);
-                // If we can't open it at all, don't even try a number of times.
-                if (null == afd) return null;
-                originalSourceStream = afd.createInputStream();
-                // Open output.
-                outputFile = new File(tempFileName);
-                // Just to be sure, delete the file. This may fail silently, and return false: this
-                // is the right thing to do, as we just want to continue anyway.
+        InputStream inputStream = null;
+        File outputFile = null;
+        FileOutputStream outputStream = null;
+        AssetFileDescriptor afd = null;
+        final Uri wordListUri = wordListUriBuilder.build();
+        try {
+            // Open input.
+            afd = openAssetFileDescriptor(resolver, wordListUri);
+            if (null == afd) return null;
+            final BufferedInputStream originalSourceStream =
+                    new BufferedInputStream(afd.createInputStream());
+            inputStream = originalSourceStream;
+            // Open output.
+            outputFile = new File(tempFileName);
+            // Just to be sure, delete the file. This may fail silently, and return false: this
+            // is the right thing to do, as we just want to continue anyway.
+            outputFile.delete();
+            outputStream = new FileOutputStream(outputFile);
+            inputStream = getDecodedStream(originalSourceStream);
+            if (inputStream != originalSourceStream
+                    || !copyFileChannelTo(afd, outputStream.getChannel())) {
+                copyFileTo(inputStream, outputStream);
+            }
+            outputStream.flush();
+            outputStream.close();
+            final File finalFile = new File(finalFileName);
+            finalFile.delete();
+            if (!outputFile.renameTo(finalFile)) {
+                throw new IOException("Can't move the file to its final name");
+            }
+            wordListUriBuilder.appendQueryParameter(QUERY_PARAMETER_DELETE_RESULT,
+                    QUERY_PARAMETER_SUCCESS);
+            if (0 >= resolver.delete(wordListUriBuilder.build(), null, null)) {
+                Log.e(TAG, "Could not have the dictionary pack delete a word list");
+            }
+            BinaryDictionaryGetter.removeFilesWithIdExcept(context, id, finalFile);
+            // Success! Close files (through the finally{} clause) and return.
+            return AssetFileAddress.makeFromFileName(finalFileName);
+        } catch (Exception e) {
+            if (DEBUG) {
+                Log.i(TAG, "Can't copy word list : " + e);
+            }
+            if (null != outputFile) {
+                // This may or may not fail. The file may not have been created if the
+                // exception was thrown before it could be. Hence, both failure and
+                // success are expected outcomes, so we don't check the return value.
                 outputFile.delete();
-                outputStream = new FileOutputStream(outputFile);
-                // Get the appropriate decryption method for this try
-                switch (mode) {
-                    case COMPRESSED_CRYPTED_COMPRESSED:
-                        uncompressedStream =
-                                FileTransforms.getUncompressedStream(originalSourceStream);
-                        decryptedStream = FileTransforms.getDecryptedStream(uncompressedStream);
-                        inputStream = FileTransforms.getUncompressedStream(decryptedStream);
-                        break;
-                    case CRYPTED_COMPRESSED:
-                        decryptedStream = FileTransforms.getDecryptedStream(originalSourceStream);
-                        inputStream = FileTransforms.getUncompressedStream(decryptedStream);
-                        break;
-                    case COMPRESSED_CRYPTED:
-                        uncompressedStream =
-                                FileTransforms.getUncompressedStream(originalSourceStream);
-                        inputStream = FileTransforms.getDecryptedStream(uncompressedStream);
-                        break;
-                    case COMPRESSED_ONLY:
-                        inputStream = FileTransforms.getUncompressedStream(originalSourceStream);
-                        break;
-                    case CRYPTED_ONLY:
-                        inputStream = FileTransforms.getDecryptedStream(originalSourceStream);
-                        break;
-                    case NONE:
-                        inputStream = originalSourceStream;
-                        break;
-                }
-                bufferedStream = new BufferedInputStream(inputStream);
-                checkMagicAndCopyFileTo(bufferedStream, outputStream);
-                outputStream.flush();
-                outputStream.close();
-                final File finalFile = new File(finalFileName);
-                finalFile.delete();
-                if (!outputFile.renameTo(finalFile)) {
-                    throw new IOException("Can't move the file to its final name");
-                }
-                wordListUriBuilder.appendQueryParameter(QUERY_PARAMETER_DELETE_RESULT,
-                        QUERY_PARAMETER_SUCCESS);
-                if (0 >= resolver.delete(wordListUriBuilder.build(), null, null)) {
-                    Log.e(TAG, "Could not have the dictionary pack delete a word list");
+            }
+        } finally {
+            // Ignore exceptions while closing files.
+            try {
+                // inputStream.close() will close afd, we should not call afd.close().
+                if (null != inputStream) {
+                    inputStream.close();
+                } else if (null != afd) {
+                    afd.close();
                 }
-                BinaryDictionaryGetter.removeFilesWithIdExcept(context, id, finalFile);
-                // Success! Close files (through the finally{} clause) and return.
-                return AssetFileAddress.makeFromFileName(finalFileName);
             } catch (Exception e) {
-                if (DEBUG) {
-                    Log.i(TAG, "Can't open word list in mode " + mode + " : " + e);
-                }
-                if (null != outputFile) {
-                    // This may or may not fail. The file may not have been created if the
-                    // exception was thrown before it could be. Hence, both failure and
-                    // success are expected outcomes, so we don't check the return value.
-                    outputFile.delete();
-                }
-                // Try the next method.
-            } finally {
-                // Ignore exceptions while closing files.
-                try {
-                    // inputStream.close() will close afd, we should not call afd.close().
-                    if (null != inputStream) inputStream.close();
-                    if (null != uncompressedStream) uncompressedStream.close();
-                    if (null != decryptedStream) decryptedStream.close();
-                    if (null != bufferedStream) bufferedStream.close();
-                } catch (Exception e) {
-                    Log.e(TAG, "Exception while closing a file descriptor : " + e);
-                }
-                try {
-                    if (null != outputStream) outputStream.close();
-                } catch (Exception e) {
-                    Log.e(TAG, "Exception while closing a file : " + e);
-                }
+                Log.e(TAG, "Exception while closing a file descriptor : " + e);
+            }
+            try {
+                if (null != outputStream) outputStream.close();
+            } catch (Exception e) {
+                Log.e(TAG, "Exception while closing a file : " + e);
             }
         }
 
@@ -286,36 +254,108 @@ public final class BinaryDictionaryFileDumper {
     }
 
     /**
-     * Copies the data in an input stream to a target file if the magic number matches.
+     * Returns the word list data in a stream as provided by the dictionary pack.
      *
-     * If the magic number does not match the expected value, this method throws an
-     * IOException. Other usual conditions for IOException or FileNotFoundException
-     * also apply.
+     * The word list may be compressed, crypted, compressed then crypted, or compressed, crypted
+     * and compressed again. Instead of trying each of these in turn on the whole word list, this
+     * looks at the first bytes of the stream and of each decoded stream: the magic number of a
+     * dictionary means the data is decoded, the gzip header means it is compressed, and anything
+     * else is taken as crypted data.
      *
-     * @param input the stream to be copied.
-     * @param output an output stream to copy the data to.
+     * @param input the stream as provided by the dictionary pack. It must support mark/reset.
+     * @return a stream of the word list, which is the input stream itself if the word list is
+     *         neither compressed nor crypted.
+     * @throws IOException if the data is not a word list in any of the supported formats.
      */
-    // TODO: make output a BufferedOutputStream
-    private static void checkMagicAndCopyFileTo(final BufferedInputStream input,
-            final FileOutputStream output) throws FileNotFoundException, IOException {
-        // Check the magic number
-        final int length = MAGIC_NUMBER_VERSION_2.length;
-        final byte[] magicNumberBuffer = new byte[length];
-        final int readMagicNumberSize = input.read(magicNumberBuffer, 0, length);
-        if (readMagicNumberSize < length) {
-            throw new IOException("Less bytes to read than the magic number length");
-        }
-        if (!Arrays.equals(MAGIC_NUMBER_VERSION_2, magicNumberBuffer)) {
-            if (!Arrays.equals(MAGIC_NUMBER_VERSION_1, magicNumberBuffer)) {
+    /* package for test */ static BufferedInputStream getDecodedStream(
+            final BufferedInputStream input)
+            throws IOException {
+        BufferedInputStream stream = input;
+        int uncompressCount = 0;
+        boolean isDecrypted = false;
+        while (true) {
+            final byte[] header = peek(stream, MAGIC_NUMBER_VERSION_2.length);
+            if (Arrays.equals(MAGIC_NUMBER_VERSION_2, header)
+                    || Arrays.equals(MAGIC_NUMBER_VERSION_1, header)) {
+                return stream;
+            }
+            if (uncompressCount < MAX_UNCOMPRESS_COUNT && startsWith(header, GZIP_HEADER)) {
+                stream = new BufferedInputStream(FileTransforms.getUncompressedStream(stream));
+                ++uncompressCount;
+            } else if (!isDecrypted) {
+                stream = new BufferedInputStream(FileTransforms.getDecryptedStream(stream));
+                isDecrypted = true;
+            } else {
                 throw new IOException("Wrong magic number for downloaded file");
             }
         }
-        output.write(magicNumberBuffer);
+    }
+
+    /**
+     * Reads the first bytes of a stream, and resets the stream to its start.
+     * @return the bytes, which may be fewer than asked for if the stream is shorter.
+     */
+    private static byte[] peek(final BufferedInputStream input, final int length)
+            throws IOException {
+        final byte[] buffer = new byte[length];
+        input.mark(length);
+        int readBytes = 0;
+        while (readBytes < length) {
+            final int count = input.read(buffer, readBytes, length - readBytes);
+            if (count < 0) break;
+            readBytes += count;
+        }
+        input.reset();
+        return readBytes < length ? Arrays.copyOf(buffer, readBytes) : buffer;
+    }
+
+    private static boolean startsWith(final byte[] bytes, final byte[] prefix) {
+        if (bytes.length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; ++i) {
+            if (bytes[i] != prefix[i]) return false;
+        }
+        return true;
+    }
 
-        // Actually copy the file
+    /**
+     * Copies the data of an asset file descriptor to a file channel, letting the system copy
+     * the data without going through the Java heap.
+     *
+     * This only works if the descriptor is a regular file, for which the length of the data is
+     * known. Otherwise, for example for a pipe, this copies nothing and returns false.
+     *
+     * @param afd the descriptor of the data to be copied.
+     * @param output the channel to copy the data to.
+     * @return whether the data was copied.
+     */
+    private static boolean copyFileChannelTo(final AssetFileDescriptor afd,
+            final FileChannel output) throws IOException {
+        final long length = afd.getLength();
+        if (AssetFileDescriptor.UNKNOWN_LENGTH == length) return false;
+        // This stream does not own the descriptor: it must not be closed, as afd closes it.
+        final FileChannel input = new FileInputStream(afd.getFileDescriptor()).getChannel();
+        final long startOffset = afd.getStartOffset();
+        for (long copiedBytes = 0; copiedBytes < length; ) {
+            final long count = input.transferTo(startOffset + copiedBytes,
+                    length - copiedBytes, output);
+            if (count <= 0) {
+                throw new IOException("Less bytes to read than the word list length");
+            }
+            copiedBytes += count;
+        }
+        return true;
+    }
+
+    /**
+     * Copies the data in an input stream to a target file.
+     *
+     * @param input the stream to be copied.
+     * @param output an output stream to copy the data to.
+     */
+    private static void copyFileTo(final InputStream input, final FileOutputStream output)
+            throws IOException {
         final byte[] buffer = new byte[FILE_READ_BUFFER_SIZE];
         for (int readBytes = input.read(buffer); readBytes >= 0; readBytes = input.read(buffer))
             output.write(buffer, 0, readBytes);
-        input.close();
     }
 }
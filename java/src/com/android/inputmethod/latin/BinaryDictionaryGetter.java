@@ -16,8 +16,7 @@
 
 package com.android.inputmethod.latin;
 
-import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
-import com.android.inputmethod.latin.makedict.FormatSpec;
+import com.android.inputmethod.latin.WordListIndex.WordList;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -26,10 +25,6 @@ import android.content.res.AssetFileDescriptor;
 import android.util.Log;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.nio.BufferUnderflowException;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Locale;
@@ -47,7 +42,14 @@ final class BinaryDictionaryGetter {
     /**
      * Used to return empty lists
      */
-    private static final File[] EMPTY_FILE_ARRAY = new File[0];
+    private static final WordList[] EMPTY_WORD_LIST_ARRAY = new WordList[0];
+
+    /**
+     * Name of the file of the index of the cached word lists, in the files directory.
+     */
+    private static final String WORD_LIST_INDEX_FILE_NAME = "dicts.index";
+
+    private static WordListIndex sWordListIndex;
 
     /**
      * Name of the common preferences name to know which word list are on and which are off.
@@ -232,6 +234,17 @@ final class BinaryDictionaryGetter {
         return new File(getWordListCacheDirectory(context)).listFiles();
     }
 
+    /**
+     * Returns the index of the cached word lists.
+     */
+    private static synchronized WordListIndex getWordListIndex(final Context context) {
+        if (null == sWordListIndex) {
+            sWordListIndex = new WordListIndex(new File(getWordListCacheDirectory(context)),
+                    new SnapshotFile(new File(context.getFilesDir(), WORD_LIST_INDEX_FILE_NAME)));
+        }
+        return sWordListIndex;
+    }
+
     /**
      * Returns the category for a given file name.
      *
@@ -249,11 +262,11 @@ final class BinaryDictionaryGetter {
     /**
      * Utility class for the {@link #getCachedWordLists} method
      */
-    private static final class FileAndMatchLevel {
-        final File mFile;
+    private static final class WordListAndMatchLevel {
+        final WordList mWordList;
         final int mMatchLevel;
-        public FileAndMatchLevel(final File file, final int matchLevel) {
-            mFile = file;
+        public WordListAndMatchLevel(final WordList wordList, final int matchLevel) {
+            mWordList = wordList;
             mMatchLevel = matchLevel;
         }
     }
@@ -268,37 +281,34 @@ final class BinaryDictionaryGetter {
      * word list available, we'll return only the en_US one.
      * Thus, the list will contain as many files as there are categories.
      *
+     * The word lists are found through the index of the cached word lists, so that this does
+     * not list the directories or read the files unless they changed.
+     *
      * @param locale the locale to find the dictionary files for, as a string.
      * @param context the context on which to open the files upon.
      * @return an array of binary dictionary files, which may be empty but may not be null.
      */
-    private static File[] getCachedWordLists(final String locale,
+    private static WordList[] getCachedWordLists(final String locale,
             final Context context) {
-        final File[] directoryList = getCachedDirectoryList(context);
-        if (null == directoryList) return EMPTY_FILE_ARRAY;
-        final HashMap<String, FileAndMatchLevel> cacheFiles = CollectionUtils.newHashMap();
-        for (File directory : directoryList) {
-            if (!directory.isDirectory()) continue;
-            final String dirLocale = getWordListIdFromFileName(directory.getName());
+        final HashMap<String, WordListAndMatchLevel> cacheFiles = CollectionUtils.newHashMap();
+        for (final WordListIndex.Directory directory : getWordListIndex(context).getDirectories()) {
+            final String dirLocale = getWordListIdFromFileName(directory.mDirectory.getName());
             final int matchLevel = LocaleUtils.getMatchLevel(dirLocale, locale);
             if (LocaleUtils.isMatch(matchLevel)) {
-                final File[] wordLists = directory.listFiles();
-                if (null != wordLists) {
-                    for (File wordList : wordLists) {
-                        final String category = getCategoryFromFileName(wordList.getName());
-                        final FileAndMatchLevel currentBestMatch = cacheFiles.get(category);
-                        if (null == currentBestMatch || currentBestMatch.mMatchLevel < matchLevel) {
-                            cacheFiles.put(category, new FileAndMatchLevel(wordList, matchLevel));
-                        }
+                for (final WordList wordList : directory.mWordLists) {
+                    final String category = getCategoryFromFileName(wordList.mFile.getName());
+                    final WordListAndMatchLevel currentBestMatch = cacheFiles.get(category);
+                    if (null == currentBestMatch || currentBestMatch.mMatchLevel < matchLevel) {
+                        cacheFiles.put(category, new WordListAndMatchLevel(wordList, matchLevel));
                     }
                 }
             }
         }
-        if (cacheFiles.isEmpty()) return EMPTY_FILE_ARRAY;
-        final File[] result = new File[cacheFiles.size()];
+        if (cacheFiles.isEmpty()) return EMPTY_WORD_LIST_ARRAY;
+        final WordList[] result = new WordList[cacheFiles.size()];
         int index = 0;
-        for (final FileAndMatchLevel entry : cacheFiles.values()) {
-            result[index++] = entry.mFile;
+        for (final WordListAndMatchLevel entry : cacheFiles.values()) {
+            result[index++] = entry.mWordList;
         }
         return result;
     }
@@ -360,51 +370,29 @@ final class BinaryDictionaryGetter {
     // ## HACK ## we prevent usage of a dictionary before version 18 for English only. The reason
     // for this is, since those do not include whitelist entries, the new code with an old version
     // of the dictionary would lose whitelist functionality.
-    private static boolean hackCanUseDictionaryFile(final Locale locale, final File f) {
+    private static boolean hackCanUseDictionaryFile(final Locale locale,
+            final WordList wordList) {
         // Only for English - other languages didn't have a whitelist, hence this
         // ad-hoc ## HACK ##
         if (!Locale.ENGLISH.getLanguage().equals(locale.getLanguage())) return true;
 
-        FileInputStream inStream = null;
+        // The header of the file was read when it was indexed.
+        final HashMap<String, String> options = wordList.mAttributes;
+        if (null == options) {
+            // Not a version 2 dictionary, or the file can't be read
+            return false;
+        }
+        final String version = options.get(VERSION_KEY);
+        if (null == version) {
+            // No version in the options : the format is unexpected
+            return false;
+        }
         try {
-            // Read the version of the file
-            inStream = new FileInputStream(f);
-            final BinaryDictInputOutput.ByteBufferWrapper buffer =
-                    new BinaryDictInputOutput.ByteBufferWrapper(inStream.getChannel().map(
-                            FileChannel.MapMode.READ_ONLY, 0, f.length()));
-            final int magic = buffer.readInt();
-            if (magic != FormatSpec.VERSION_2_MAGIC_NUMBER) {
-                return false;
-            }
-            final int formatVersion = buffer.readInt();
-            final int headerSize = buffer.readInt();
-            final HashMap<String, String> options = CollectionUtils.newHashMap();
-            BinaryDictInputOutput.populateOptions(buffer, headerSize, options);
-
-            final String version = options.get(VERSION_KEY);
-            if (null == version) {
-                // No version in the options : the format is unexpected
-                return false;
-            }
             // Version 18 is the first one to include the whitelist
             // Obviously this is a big ## HACK ##
             return Integer.parseInt(version) >= 18;
-        } catch (java.io.FileNotFoundException e) {
-            return false;
-        } catch (java.io.IOException e) {
-            return false;
         } catch (NumberFormatException e) {
             return false;
-        } catch (BufferUnderflowException e) {
-            return false;
-        } finally {
-            if (inStream != null) {
-                try {
-                    inStream.close();
-                } catch (IOException e) {
-                    // do nothing
-                }
-            }
         }
     }
 
@@ -429,16 +417,17 @@ final class BinaryDictionaryGetter {
         // list of everything we ever cached, so we ignore the return value.
         BinaryDictionaryFileDumper.cacheWordListsFromContentProvider(locale, context,
                 hasDefaultWordList);
-        final File[] cachedWordLists = getCachedWordLists(locale.toString(), context);
+        final WordList[] cachedWordLists = getCachedWordLists(locale.toString(), context);
         final String mainDictId = getMainDictId(locale);
         final DictPackSettings dictPackSettings = new DictPackSettings(context);
 
         boolean foundMainDict = false;
         final ArrayList<AssetFileAddress> fileList = CollectionUtils.newArrayList();
         // cachedWordLists may not be null, see doc for getCachedDictionaryList
-        for (final File f : cachedWordLists) {
+        for (final WordList wordList : cachedWordLists) {
+            final File f = wordList.mFile;
             final String wordListId = getWordListIdFromFileName(f.getName());
-            final boolean canUse = f.canRead() && hackCanUseDictionaryFile(locale, f);
+            final boolean canUse = f.canRead() && hackCanUseDictionaryFile(locale, wordList);
             if (canUse && isMainWordListId(wordListId)) {
                 foundMainDict = true;
             }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The fingerprints of the contacts that a contacts dictionary was built from: for each contact
+ * id, a hash of the name of the contact and the time it was last updated at. They are used to
+ * find the contacts that have changed since the dictionary was built, without reading all the
+ * names again.
+ *
+ * The fingerprints are stored in a {@link SnapshotFile}, as a version int and the number of
+ * contacts, followed by the id, the name hash and the last update time of each contact.
+ *
+ * This class is not thread safe.
+ */
+/* package */ final class ContactFingerprints {
+    private static final String TAG = ContactFingerprints.class.getSimpleName();
+
+    private static final int VERSION = 1;
+    // The hash of a null name.
+    private static final int NO_NAME_HASH = 0;
+
+    private static final class Fingerprint {
+        public final int mNameHash;
+        public final long mLastUpdatedTimestamp;
+
+        public Fingerprint(final int nameHash, final long lastUpdatedTimestamp) {
+            mNameHash = nameHash;
+            mLastUpdatedTimestamp = lastUpdatedTimestamp;
+        }
+    }
+
+    private final HashMap<Long, Fingerprint> mFingerprints = CollectionUtils.newHashMap();
+    private long mLastUpdatedTimestamp = 0;
+
+    private static int getNameHash(final String name) {
+        return null == name ? NO_NAME_HASH : name.hashCode();
+    }
+
+    public int size() {
+        return mFingerprints.size();
+    }
+
+    public Set<Long> getIds() {
+        return mFingerprints.keySet();
+    }
+
+    public boolean contains(final long id) {
+        return mFingerprints.containsKey(id);
+    }
+
+    /**
+     * Returns whether a contact is known to have this name. Hash collisions are ignored.
+     */
+    public boolean hasName(final long id, final String name) {
+        final Fingerprint fingerprint = mFingerprints.get(id);
+        return null != fingerprint && fingerprint.mNameHash == getNameHash(name);
+    }
+
+    /**
+     * Returns the latest update time of all the contacts.
+     */
+    public long getLastUpdatedTimestamp() {
+        return mLastUpdatedTimestamp;
+    }
+
+    public void put(final long id, final String name, final long lastUpdatedTimestamp) {
+        mFingerprints.put(id, new Fingerprint(getNameHash(name), lastUpdatedTimestamp));
+        mLastUpdatedTimestamp = Math.max(mLastUpdatedTimestamp, lastUpdatedTimestamp);
+    }
+
+    public void remove(final long id) {
+        mFingerprints.remove(id);
+    }
+
+    public void clear() {
+        mFingerprints.clear();
+        mLastUpdatedTimestamp = 0;
+    }
+
+    /**
+     * Reads the fingerprints from a file. If the file is missing or corrupted, the fingerprints
+     * are left empty, so that all the contacts will be seen as changed.
+     */
+    public void read(final SnapshotFile file) {
+        clear();
+        final SnapshotFile.Snapshot snapshot = file.getLatestSnapshot();
+        if (null == snapshot) return;
+        DataInputStream in = null;
+        try {
+            final FileInputStream fileIn = new FileInputStream(snapshot.mFile);
+            in = new DataInputStream(new BufferedInputStream(fileIn));
+            if (snapshot.mOffset != fileIn.skip(snapshot.mOffset)) {
+                throw new IOException("Can't skip the header");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version);
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                final long id = in.readLong();
+                final int nameHash = in.readInt();
+                final long lastUpdatedTimestamp = in.readLong();
+                mFingerprints.put(id, new Fingerprint(nameHash, lastUpdatedTimestamp));
+                mLastUpdatedTimestamp = Math.max(mLastUpdatedTimestamp, lastUpdatedTimestamp);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "IOException while reading " + snapshot.mFile + ": " + e);
+            clear();
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the fingerprints to a file.
+     */
+    public void write(final SnapshotFile file) throws IOException {
+        file.write(new SnapshotFile.ContentWriter() {
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                final DataOutputStream dataOut = new DataOutputStream(out);
+                dataOut.writeInt(VERSION);
+                dataOut.writeInt(mFingerprints.size());
+                for (final Map.Entry<Long, Fingerprint> entry : mFingerprints.entrySet()) {
+                    dataOut.writeLong(entry.getKey());
+                    dataOut.writeInt(entry.getValue().mNameHash);
+                    dataOut.writeLong(entry.getValue().mLastUpdatedTimestamp);
+                }
+                dataOut.flush();
+            }
+        });
+    }
+}
@@ -26,11 +26,36 @@ import android.util.Log;
 
 import com.android.inputmethod.keyboard.Keyboard;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Locale;
+import java.util.Map;
 
 public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
 
-    private static final String[] PROJECTION = {BaseColumns._ID, Contacts.DISPLAY_NAME,};
+    // TODO: use Contacts.CONTACT_LAST_UPDATED_TIMESTAMP when we target API level 18 or above.
+    private static final String CONTACT_LAST_UPDATED_TIMESTAMP = "contact_last_updated_timestamp";
+    // 18 is JellyBean MR2, but we want this to compile against earlier versions.
+    private static final boolean HAS_LAST_UPDATED_TIMESTAMP =
+            android.os.Build.VERSION.SDK_INT >= 18;
+    private static final String[] PROJECTION;
+    static {
+        if (HAS_LAST_UPDATED_TIMESTAMP) {
+            PROJECTION = new String[] {
+                BaseColumns._ID,
+                Contacts.DISPLAY_NAME,
+                CONTACT_LAST_UPDATED_TIMESTAMP,
+            };
+        } else {
+            PROJECTION = new String[] {
+                BaseColumns._ID,
+                Contacts.DISPLAY_NAME,
+            };
+        }
+    }
     private static final String[] PROJECTION_ID_ONLY = {BaseColumns._ID};
 
     private static final String TAG = ContactsBinaryDictionary.class.getSimpleName();
@@ -44,13 +69,49 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
     private static final int FREQUENCY_FOR_CONTACTS = 40;
     private static final int FREQUENCY_FOR_CONTACTS_BIGRAM = 90;
 
+    /**
+     * The time to wait for other changes before reloading the dictionary. A sync changes many
+     * contacts one after the other.
+     */
+    private static final long RELOAD_DELAY_IN_MILLIS = 2000;
+
     /** The maximum number of contacts that this dictionary supports. */
     private static final int MAX_CONTACT_COUNT = 10000;
 
+    /**
+     * The maximum number of new contacts that are read by id. If there are more, all the names
+     * are read instead.
+     */
+    private static final int MAX_NEW_CONTACT_COUNT_TO_QUERY = 100;
+
+    private static final int INDEX_ID = 0;
     private static final int INDEX_NAME = 1;
+    private static final int INDEX_LAST_UPDATED_TIMESTAMP = 2;
+
+    /**
+     * The fingerprints of the contacts in the dictionary, read from internal storage when first
+     * needed.
+     */
+    private ContactFingerprints mFingerprints;
+
+    /** The valid names in the fusion dictionary, by contact id. */
+    private final HashMap<Long, String> mNames = CollectionUtils.newHashMap();
+
+    /**
+     * The contacts that have changed since the dictionary was built, by id. The value is null
+     * for a removed contact.
+     */
+    private final HashMap<Long, Contact> mChangedContacts = CollectionUtils.newHashMap();
+
+    private static final class Contact {
+        public final String mName;
+        public final long mLastUpdatedTimestamp;
 
-    /** The number of contacts in the most recent dictionary rebuild. */
-    static private int sContactCountAtLastRebuild = 0;
+        public Contact(final String name, final long lastUpdatedTimestamp) {
+            mName = name;
+            mLastUpdatedTimestamp = lastUpdatedTimestamp;
+        }
+    }
 
     /** The locale for this contacts dictionary. Controls name bigram predictions. */
     public final Locale mLocale;
@@ -63,7 +124,8 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
     private final boolean mUseFirstLastBigrams;
 
     public ContactsBinaryDictionary(final Context context, Locale locale) {
-        super(context, getFilenameWithLocale(NAME, locale.toString()), Dictionary.TYPE_CONTACTS);
+        super(context, getFilenameWithLocale(NAME, locale.toString()), Dictionary.TYPE_CONTACTS,
+                locale.toString());
         mLocale = locale;
         mUseFirstLastBigrams = useFirstLastBigramsForLocale(locale);
         registerObserver(context);
@@ -82,13 +144,20 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
                 new ContentObserver(null) {
                     @Override
                     public void onChange(boolean self) {
-                        setRequiresReload(true);
+                        // The contacts that have changed are found when the dictionary is
+                        // reloaded, and only they are applied to the dictionary.
+                        setRequiresUpdate();
                     }
                 });
     }
 
-    public void reopen(final Context context) {
+    public synchronized void reopen(final Context context) {
+        // The observer is only unregistered when the dictionary is closed.
+        if (mObserver != null) return;
         registerObserver(context);
+        reopen();
+        // The contacts may have changed while the observer was unregistered.
+        setRequiresUpdate();
     }
 
     @Override
@@ -102,13 +171,16 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
 
     @Override
     public void loadDictionaryAsync() {
+        clearFusionDictionary();
+        mNames.clear();
+        mChangedContacts.clear();
+        getFingerprints().clear();
         try {
             Cursor cursor = mContext.getContentResolver()
                     .query(Contacts.CONTENT_URI, PROJECTION, null, null, null);
             if (cursor != null) {
                 try {
                     if (cursor.moveToFirst()) {
-                        sContactCountAtLastRebuild = getContactCount();
                         addWords(cursor);
                     }
                 } finally {
@@ -120,6 +192,82 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
         }
     }
 
+    @Override
+    protected boolean usesIncrementalUpdates() {
+        return true;
+    }
+
+    @Override
+    protected boolean updateDictionaryAsync() {
+        final ContactFingerprints fingerprints = getFingerprints();
+        // The words of the names that were removed or added. Several names may have the same
+        // words, so these words are removed and then added again from all the names that have
+        // them.
+        final HashSet<String> changedWords = CollectionUtils.newHashSet();
+        for (final Map.Entry<Long, Contact> entry : mChangedContacts.entrySet()) {
+            final long id = entry.getKey();
+            final String oldName = mNames.remove(id);
+            if (null != oldName) {
+                changedWords.addAll(getWords(oldName));
+            }
+            final Contact contact = entry.getValue();
+            if (null == contact) {
+                fingerprints.remove(id);
+                continue;
+            }
+            fingerprints.put(id, contact.mName, contact.mLastUpdatedTimestamp);
+            if (isValidName(contact.mName) && mNames.size() < MAX_CONTACT_COUNT) {
+                mNames.put(id, contact.mName);
+                changedWords.addAll(getWords(contact.mName));
+            }
+        }
+        mChangedContacts.clear();
+        for (final String word : changedWords) {
+            removeWord(word);
+        }
+        for (final String name : mNames.values()) {
+            final ArrayList<String> words = getWords(name);
+            for (final String word : words) {
+                if (changedWords.contains(word)) {
+                    addWords(words);
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void onBinaryDictionaryWritten() {
+        try {
+            getFingerprints().write(getFingerprintsFile());
+        } catch (IOException e) {
+            Log.e(TAG, "IOException while writing the contact fingerprints: " + e);
+        }
+    }
+
+    @Override
+    protected long getReloadDelayInMillis() {
+        return RELOAD_DELAY_IN_MILLIS;
+    }
+
+    private ContactFingerprints getFingerprints() {
+        if (null == mFingerprints) {
+            mFingerprints = new ContactFingerprints();
+            mFingerprints.read(getFingerprintsFile());
+        }
+        return mFingerprints;
+    }
+
+    private SnapshotFile getFingerprintsFile() {
+        return new SnapshotFile(new File(mContext.getFilesDir(),
+                NAME + "." + mLocale.toString() + ".fingerprints"));
+    }
+
+    private static long getLastUpdatedTimestamp(final Cursor cursor) {
+        return HAS_LAST_UPDATED_TIMESTAMP ? cursor.getLong(INDEX_LAST_UPDATED_TIMESTAMP) : 0;
+    }
+
     private boolean useFirstLastBigramsForLocale(Locale locale) {
         // TODO: Add firstname/lastname bigram rules for other languages.
         if (locale != null && locale.getLanguage().equals(Locale.ENGLISH.getLanguage())) {
@@ -129,40 +277,48 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
     }
 
     private void addWords(Cursor cursor) {
-        clearFusionDictionary();
+        final ContactFingerprints fingerprints = getFingerprints();
         int count = 0;
         while (!cursor.isAfterLast() && count < MAX_CONTACT_COUNT) {
+            final long id = cursor.getLong(INDEX_ID);
             String name = cursor.getString(INDEX_NAME);
+            fingerprints.put(id, name, getLastUpdatedTimestamp(cursor));
             if (isValidName(name)) {
-                addName(name);
+                mNames.put(id, name);
+                addWords(getWords(name));
                 ++count;
             }
             cursor.moveToNext();
         }
     }
 
-    private int getContactCount() {
-        // TODO: consider switching to a rawQuery("select count(*)...") on the database if
-        // performance is a bottleneck.
+    /**
+     * Returns the ids of all the contacts, or null if they can't be read.
+     */
+    private HashSet<Long> getContactIds() {
         final Cursor cursor = mContext.getContentResolver().query(
                 Contacts.CONTENT_URI, PROJECTION_ID_ONLY, null, null, null);
-        if (cursor != null) {
-            try {
-                return cursor.getCount();
-            } finally {
-                cursor.close();
+        if (cursor == null) return null;
+        try {
+            final HashSet<Long> ids = CollectionUtils.newHashSet();
+            if (cursor.moveToFirst()) {
+                while (!cursor.isAfterLast()) {
+                    ids.add(cursor.getLong(INDEX_ID));
+                    cursor.moveToNext();
+                }
             }
+            return ids;
+        } finally {
+            cursor.close();
         }
-        return 0;
     }
 
     /**
-     * Adds the words in a name (e.g., firstname/lastname) to the binary dictionary along with their
-     * bigrams depending on locale.
+     * Returns the words in a name (e.g., firstname/lastname) that go in the dictionary.
      */
-    private void addName(String name) {
+    private static ArrayList<String> getWords(String name) {
+        final ArrayList<String> words = CollectionUtils.newArrayList();
         int len = StringUtils.codePointCount(name);
-        String prevWord = null;
         // TODO: Better tokenization for non-Latin writing systems
         for (int i = 0; i < len; i++) {
             if (Character.isLetter(name.codePointAt(i))) {
@@ -173,15 +329,27 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
                 // capitalization of i.
                 final int wordLen = StringUtils.codePointCount(word);
                 if (wordLen < MAX_WORD_LENGTH && wordLen > 1) {
-                    super.addWord(word, null /* shortcut */, FREQUENCY_FOR_CONTACTS);
-                    if (!TextUtils.isEmpty(prevWord)) {
-                        if (mUseFirstLastBigrams) {
-                            super.setBigram(prevWord, word, FREQUENCY_FOR_CONTACTS_BIGRAM);
-                        }
-                    }
-                    prevWord = word;
+                    words.add(word);
+                }
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Adds the words of a name to the binary dictionary along with their bigrams depending on
+     * locale.
+     */
+    private void addWords(final ArrayList<String> words) {
+        String prevWord = null;
+        for (final String word : words) {
+            super.addWord(word, null /* shortcut */, FREQUENCY_FOR_CONTACTS);
+            if (!TextUtils.isEmpty(prevWord)) {
+                if (mUseFirstLastBigrams) {
+                    super.setBigram(prevWord, word, FREQUENCY_FOR_CONTACTS_BIGRAM);
                 }
             }
+            prevWord = word;
         }
     }
 
@@ -204,49 +372,86 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
     @Override
     protected boolean hasContentChanged() {
         final long startTime = SystemClock.uptimeMillis();
-        final int contactCount = getContactCount();
-        if (contactCount > MAX_CONTACT_COUNT) {
-            // If there are too many contacts then return false. In this rare case it is impossible
-            // to include all of them anyways and the cost of rebuilding the dictionary is too high.
-            // TODO: Sort and check only the MAX_CONTACT_COUNT most recent contacts?
+        try {
+            findChangedContacts();
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Contacts DB is having problems");
             return false;
         }
-        if (contactCount != sContactCountAtLastRebuild) {
-            if (DEBUG) {
-                Log.d(TAG, "Contact count changed: " + sContactCountAtLastRebuild + " to "
-                        + contactCount);
+        if (DEBUG) {
+            Log.d(TAG, mChangedContacts.size() + " contacts changed. (runtime = "
+                    + (SystemClock.uptimeMillis() - startTime) + " ms)");
+        }
+        return !mChangedContacts.isEmpty();
+    }
+
+    /**
+     * Finds the contacts that have changed since the dictionary was built by comparing them with
+     * their fingerprints, and puts them in mChangedContacts.
+     *
+     * The ids of all the contacts are read to find the removed and added ones, but only the names
+     * of the contacts that were updated since the dictionary was built are read. If the update
+     * times are not available, all the names are read.
+     */
+    private void findChangedContacts() {
+        mChangedContacts.clear();
+        final HashSet<Long> ids = getContactIds();
+        if (null == ids) return;
+        if (ids.size() > MAX_CONTACT_COUNT) {
+            // If there are too many contacts then don't update the dictionary. In this rare case
+            // it is impossible to include all of them anyways and the cost of rebuilding the
+            // dictionary is too high.
+            // TODO: Sort and check only the MAX_CONTACT_COUNT most recent contacts?
+            return;
+        }
+        final ContactFingerprints fingerprints = getFingerprints();
+        for (final Long id : fingerprints.getIds()) {
+            if (!ids.contains(id)) {
+                mChangedContacts.put(id, null);
             }
-            return true;
         }
-        // Check all contacts since it's not possible to find out which names have changed.
-        // This is needed because it's possible to receive extraneous onChange events even when no
-        // name has changed.
-        Cursor cursor = mContext.getContentResolver().query(
-                Contacts.CONTENT_URI, PROJECTION, null, null, null);
-        if (cursor != null) {
-            try {
-                if (cursor.moveToFirst()) {
-                    while (!cursor.isAfterLast()) {
-                        String name = cursor.getString(INDEX_NAME);
-                        if (isValidName(name) && !isNameInDictionary(name)) {
-                            if (DEBUG) {
-                                Log.d(TAG, "Contact name missing: " + name + " (runtime = "
-                                        + (SystemClock.uptimeMillis() - startTime) + " ms)");
-                            }
-                            return true;
-                        }
-                        cursor.moveToNext();
-                    }
+        final ArrayList<Long> newIds = CollectionUtils.newArrayList();
+        for (final Long id : ids) {
+            if (!fingerprints.contains(id)) {
+                newIds.add(id);
+            }
+        }
+        String selection = null;
+        if (HAS_LAST_UPDATED_TIMESTAMP && newIds.size() <= MAX_NEW_CONTACT_COUNT_TO_QUERY) {
+            final StringBuilder builder = new StringBuilder(CONTACT_LAST_UPDATED_TIMESTAMP)
+                    .append(" > ").append(fingerprints.getLastUpdatedTimestamp());
+            if (!newIds.isEmpty()) {
+                builder.append(" or ").append(BaseColumns._ID).append(" in (");
+                for (int i = 0; i < newIds.size(); ++i) {
+                    if (i > 0) builder.append(',');
+                    builder.append(newIds.get(i));
                 }
-            } finally {
-                cursor.close();
+                builder.append(')');
             }
+            selection = builder.toString();
         }
-        if (DEBUG) {
-            Log.d(TAG, "No contacts changed. (runtime = " + (SystemClock.uptimeMillis() - startTime)
-                    + " ms)");
+        final Cursor cursor = mContext.getContentResolver().query(
+                Contacts.CONTENT_URI, PROJECTION, selection, null, null);
+        if (cursor == null) return;
+        try {
+            if (cursor.moveToFirst()) {
+                while (!cursor.isAfterLast()) {
+                    final long id = cursor.getLong(INDEX_ID);
+                    final String name = cursor.getString(INDEX_NAME);
+                    final long lastUpdatedTimestamp = getLastUpdatedTimestamp(cursor);
+                    if (fingerprints.hasName(id, name)) {
+                        // The name is the same, so the dictionary doesn't change. Only the update
+                        // time is recorded, so that the contact is not read again next time.
+                        fingerprints.put(id, name, lastUpdatedTimestamp);
+                    } else {
+                        mChangedContacts.put(id, new Contact(name, lastUpdatedTimestamp));
+                    }
+                    cursor.moveToNext();
+                }
+            }
+        } finally {
+            cursor.close();
         }
-        return false;
     }
 
     private static boolean isValidName(String name) {
@@ -255,33 +460,4 @@ public class ContactsBinaryDictionary extends ExpandableBinaryDictionary {
         }
         return false;
     }
-
-    /**
-     * Checks if the words in a name are in the current binary dictionary.
-     */
-    private boolean isNameInDictionary(String name) {
-        int len = StringUtils.codePointCount(name);
-        String prevWord = null;
-        for (int i = 0; i < len; i++) {
-            if (Character.isLetter(name.codePointAt(i))) {
-                int end = getWordEndPosition(name, len, i);
-                String word = name.substring(i, end);
-                i = end - 1;
-                final int wordLen = StringUtils.codePointCount(word);
-                if (wordLen < MAX_WORD_LENGTH && wordLen > 1) {
-                    if (!TextUtils.isEmpty(prevWord) && mUseFirstLastBigrams) {
-                        if (!super.isValidBigramLocked(prevWord, word)) {
-                            return false;
-                        }
-                    } else {
-                        if (!super.isValidWordLocked(word)) {
-                            return false;
-                        }
-                    }
-                    prevWord = word;
-                }
-            }
-        }
-        return true;
-    }
 }
@@ -37,6 +37,7 @@ public final class DebugSettings extends PreferenceFragment
     private static final String DEBUG_MODE_KEY = "debug_mode";
     public static final String FORCE_NON_DISTINCT_MULTITOUCH_KEY = "force_non_distinct_multitouch";
     public static final String PREF_USABILITY_STUDY_MODE = "usability_study_mode";
+    public static final String CONCURRENT_DICTIONARY_LOOKUP_KEY = "concurrent_dictionary_lookup";
 
     private boolean mServiceNeedsRestart = false;
     private CheckBoxPreference mDebugMode;
@@ -76,6 +77,7 @@ public final class DebugSettings extends PreferenceFragment
                 mServiceNeedsRestart = true;
             }
         } else if (key.equals(FORCE_NON_DISTINCT_MULTITOUCH_KEY)
+                || key.equals(CONCURRENT_DICTIONARY_LOOKUP_KEY)
                 || key.equals(KeyboardSwitcher.PREF_KEYBOARD_LAYOUT)) {
             mServiceNeedsRestart = true;
         }
@@ -20,6 +20,7 @@ import com.android.inputmethod.keyboard.ProximityInfo;
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Abstract base class for a dictionary that can do a fuzzy search for words based on a set of key
@@ -44,10 +45,27 @@ public abstract class Dictionary {
     public static final String TYPE_USER_HISTORY = "history";
     protected final String mDictType;
 
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
     public Dictionary(final String dictType) {
         mDictType = dictType;
     }
 
+    /**
+     * Returns a number that changes every time the contents of this dictionary change, so that
+     * the results of a lookup can be reused for as long as it stays the same.
+     */
+    public int getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Subclasses whose contents can change must call this after every change.
+     */
+    protected final void onContentChanged() {
+        mGeneration.incrementAndGet();
+    }
+
     /**
      * Searches for suggestions for a given context. For the moment the context is only the
      * previous word.
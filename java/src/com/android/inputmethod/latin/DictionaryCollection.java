@@ -32,6 +32,8 @@ import java.util.concurrent.CopyOnWriteArrayList;
 public final class DictionaryCollection extends Dictionary {
     private final String TAG = DictionaryCollection.class.getSimpleName();
     protected final CopyOnWriteArrayList<Dictionary> mDictionaries;
+    // The generations of the dictionaries removed from this collection, as of their removal.
+    private volatile int mRemovedDictionariesGeneration;
 
     public DictionaryCollection(final String dictType) {
         super(dictType);
@@ -59,13 +61,12 @@ public final class DictionaryCollection extends Dictionary {
             final CharSequence prevWord, final ProximityInfo proximityInfo) {
         final CopyOnWriteArrayList<Dictionary> dictionaries = mDictionaries;
         if (dictionaries.isEmpty()) return null;
-        // To avoid creating unnecessary objects, we get the list out of the first
-        // dictionary and add the rest to it if not null, hence the get(0)
-        ArrayList<SuggestedWordInfo> suggestions = dictionaries.get(0).getSuggestions(composer,
-                prevWord, proximityInfo);
-        if (null == suggestions) suggestions = CollectionUtils.newArrayList();
+        // The suggestions are gathered in a new list rather than in the list of the first
+        // dictionary, as a dictionary may reuse its list from one call to the next, like
+        // BinaryDictionary does.
+        final ArrayList<SuggestedWordInfo> suggestions = CollectionUtils.newArrayList();
         final int length = dictionaries.size();
-        for (int i = 1; i < length; ++ i) {
+        for (int i = 0; i < length; ++ i) {
             final ArrayList<SuggestedWordInfo> sugg = dictionaries.get(i).getSuggestions(composer,
                     prevWord, proximityInfo);
             if (null != sugg) suggestions.addAll(sugg);
@@ -92,6 +93,17 @@ public final class DictionaryCollection extends Dictionary {
         return maxFreq;
     }
 
+    @Override
+    public int getGeneration() {
+        // The generation of each dictionary only grows, and the generation of a dictionary that
+        // is removed is kept, so the sum grows with every change of the collection.
+        int generation = super.getGeneration() + mRemovedDictionariesGeneration;
+        for (final Dictionary dict : mDictionaries) {
+            generation += dict.getGeneration();
+        }
+        return generation;
+    }
+
     @Override
     public boolean isInitialized() {
         return !mDictionaries.isEmpty();
@@ -110,12 +122,15 @@ public final class DictionaryCollection extends Dictionary {
             Log.w(TAG, "This collection already contains this dictionary: " + newDict);
         }
         mDictionaries.add(newDict);
+        onContentChanged();
     }
 
     // Warning: this is not thread-safe. Take necessary precaution when calling.
     public void removeDictionary(final Dictionary dict) {
         if (mDictionaries.contains(dict)) {
+            mRemovedDictionariesGeneration += dict.getGeneration();
             mDictionaries.remove(dict);
+            onContentChanged();
         } else {
             Log.w(TAG, "This collection does not contain this dictionary: " + dict);
         }
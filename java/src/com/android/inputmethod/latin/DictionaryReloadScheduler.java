@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the reloads of the dynamic dictionaries on a single background thread.
+ *
+ * A reload is requested with a delay. Requests for a task that is already pending are coalesced
+ * into one run, and each of them pushes the run back by its delay, so that a burst of changes
+ * causes a single reload. A task is never pushed back more than {@link #MAX_DELAY_IN_MILLIS}
+ * after its first request, however. A task that is requested while it runs is run again after
+ * its delay. Among the tasks that are due, the tasks for the active locale run first.
+ */
+public final class DictionaryReloadScheduler {
+    private static final String TAG = DictionaryReloadScheduler.class.getSimpleName();
+    private static final boolean DEBUG = false;
+
+    /* package for test */ static final long MAX_DELAY_IN_MILLIS = 5000;
+
+    private static final DictionaryReloadScheduler sInstance = new DictionaryReloadScheduler();
+
+    /**
+     * A reload task. A task object is scheduled at most once at a time: dictionaries keep their
+     * task and request it each time they need to be reloaded.
+     */
+    public static abstract class Task implements Runnable {
+        private final String mLocale;
+        // The following members are guarded by the scheduler.
+        private boolean mIsPending;
+        private boolean mIsRunning;
+        private boolean mIsRequestedWhileRunning;
+        private long mFirstRequestTime;
+        private long mDueTime;
+        private long mDelay;
+
+        /**
+         * @param locale the locale of the dictionary, or null if it is for no specific locale.
+         */
+        public Task(final String locale) {
+            mLocale = locale;
+        }
+    }
+
+    private final ArrayList<Task> mPendingTasks = CollectionUtils.newArrayList();
+    private String mActiveLocale;
+    private Thread mThread;
+    private boolean mIsShutDown;
+    private int mRequestCount;
+    private int mRunCount;
+
+    public static DictionaryReloadScheduler getInstance() {
+        return sInstance;
+    }
+
+    /* package for test */ DictionaryReloadScheduler() {
+    }
+
+    /**
+     * Sets the locale of the dictionaries that are currently used, whose reloads run first.
+     */
+    public synchronized void setActiveLocale(final String locale) {
+        mActiveLocale = locale;
+    }
+
+    /**
+     * Requests a task to be run.
+     *
+     * @param task the task.
+     * @param delayInMillis the time to wait for other requests before running the task. If it is
+     *        0, a pending task runs as soon as possible.
+     */
+    public synchronized void request(final Task task, final long delayInMillis) {
+        if (mIsShutDown) return;
+        final long now = SystemClock.uptimeMillis();
+        ++mRequestCount;
+        task.mDelay = delayInMillis;
+        if (task.mIsRunning) {
+            task.mIsRequestedWhileRunning = true;
+            return;
+        }
+        if (!task.mIsPending) {
+            task.mIsPending = true;
+            task.mFirstRequestTime = now;
+            task.mDueTime = now + delayInMillis;
+            mPendingTasks.add(task);
+        } else if (0 == delayInMillis) {
+            task.mDueTime = now;
+        } else {
+            task.mDueTime = Math.min(Math.max(task.mDueTime, now + delayInMillis),
+                    task.mFirstRequestTime + MAX_DELAY_IN_MILLIS);
+        }
+        if (null == mThread) {
+            mThread = new Thread(TAG) {
+                @Override
+                public void run() {
+                    runTasks();
+                }
+            };
+            mThread.setDaemon(true);
+            mThread.start();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Cancels the pending run of a task. A task that is running is not interrupted, but it is not
+     * run again for the requests made while it was running.
+     */
+    public synchronized void cancel(final Task task) {
+        if (task.mIsPending) {
+            task.mIsPending = false;
+            mPendingTasks.remove(task);
+        }
+        task.mIsRequestedWhileRunning = false;
+    }
+
+    /**
+     * Drops the pending tasks and stops the thread of this scheduler, waiting for the task that
+     * is running, if any, to complete. The requests made after this are ignored. This is meant
+     * for the tests, which create their own schedulers.
+     */
+    /* package for test */ void shutdown() throws InterruptedException {
+        final Thread thread;
+        synchronized (this) {
+            mIsShutDown = true;
+            for (final Task task : mPendingTasks) {
+                task.mIsPending = false;
+            }
+            mPendingTasks.clear();
+            thread = mThread;
+            notifyAll();
+        }
+        if (null != thread) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Returns whether a task is waiting to be run or running.
+     */
+    public synchronized boolean isScheduled(final Task task) {
+        return task.mIsPending || task.mIsRunning;
+    }
+
+    /**
+     * Returns the number of requests since this scheduler was created.
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * Returns the number of tasks run since this scheduler was created.
+     */
+    public synchronized int getRunCount() {
+        return mRunCount;
+    }
+
+    private void runTasks() {
+        while (true) {
+            final Task task;
+            try {
+                task = takeNextTask();
+            } catch (InterruptedException e) {
+                Log.e(TAG, "Interrupted while waiting for a task: " + e);
+                continue;
+            }
+            if (null == task) return;
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Exception while reloading a dictionary", e);
+            } finally {
+                onTaskDone(task);
+            }
+        }
+    }
+
+    /**
+     * Waits for a task to be due and returns it.
+     * @return the task, or null if this scheduler was shut down.
+     */
+    private synchronized Task takeNextTask() throws InterruptedException {
+        while (true) {
+            if (mIsShutDown) return null;
+            final long now = SystemClock.uptimeMillis();
+            Task nextTask = null;
+            for (final Task task : mPendingTasks) {
+                if (null == nextTask || isBefore(task, nextTask, now)) {
+                    nextTask = task;
+                }
+            }
+            if (null == nextTask) {
+                wait();
+            } else if (nextTask.mDueTime > now) {
+                wait(nextTask.mDueTime - now);
+            } else {
+                mPendingTasks.remove(nextTask);
+                nextTask.mIsPending = false;
+                nextTask.mIsRunning = true;
+                ++mRunCount;
+                if (DEBUG) {
+                    Log.d(TAG, "Running a task for " + nextTask.mLocale + ": " + mRunCount
+                            + " runs for " + mRequestCount + " requests");
+                }
+                return nextTask;
+            }
+        }
+    }
+
+    /**
+     * Returns whether a task should run before another one: tasks that are due come first, then
+     * the tasks for the active locale, then the tasks that are due first.
+     */
+    private boolean isBefore(final Task task, final Task otherTask, final long now) {
+        final boolean isDue = task.mDueTime <= now;
+        if (isDue != (otherTask.mDueTime <= now)) return isDue;
+        if (isDue) {
+            final boolean isActive = isActiveLocale(task.mLocale);
+            if (isActive != isActiveLocale(otherTask.mLocale)) return isActive;
+        }
+        return task.mDueTime < otherTask.mDueTime;
+    }
+
+    private boolean isActiveLocale(final String locale) {
+        return null != locale && locale.equals(mActiveLocale);
+    }
+
+    private synchronized void onTaskDone(final Task task) {
+        task.mIsRunning = false;
+        if (task.mIsRequestedWhileRunning && !mIsShutDown) {
+            task.mIsRequestedWhileRunning = false;
+            request(task, task.mDelay);
+            // This is the same request, which was not run yet.
+            --mRequestCount;
+        }
+    }
+}
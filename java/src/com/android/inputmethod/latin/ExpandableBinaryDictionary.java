@@ -28,8 +28,8 @@ import com.android.inputmethod.latin.makedict.FusionDictionary.WeightedString;
 import com.android.inputmethod.latin.makedict.UnsupportedFormatException;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.concurrent.locks.ReentrantLock;
@@ -74,9 +74,26 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     private BinaryDictionary mBinaryDictionary;
 
-    /** The expandable fusion dictionary used to generate the binary dictionary. */
+    /**
+     * The expandable fusion dictionary used to generate the binary dictionary. For the
+     * dictionaries that use incremental updates, it is kept after the binary dictionary is
+     * written, so that the next one can be generated by applying the changes of the source
+     * content instead of loading all of it again.
+     */
     private FusionDictionary mFusionDictionary;
 
+    /**
+     * Whether the fusion dictionary holds all the content of the source dictionary as of the last
+     * binary dictionary generated by this instance, so that it can be updated incrementally.
+     */
+    private boolean mIsFusionDictionaryComplete = false;
+
+    /**
+     * Whether the source content has changed in a way that {@link #updateDictionaryAsync()}
+     * can't apply, so that it has to be loaded again.
+     */
+    private volatile boolean mRequiresFullLoad = true;
+
     /**
      * The name of this dictionary, used as the filename for storing the binary dictionary. Multiple
      * dictionary instances with the same filename is supported, with access controlled by
@@ -90,6 +107,18 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     /** Controls access to the local binary dictionary for this instance. */
     private final DictionaryController mLocalDictionaryController = new DictionaryController();
 
+    /** Whether this dictionary was closed. Guarded by the local dictionary controller. */
+    private boolean mIsClosed;
+
+    /** The task that reloads this dictionary in the background. */
+    private final DictionaryReloadScheduler.Task mReloadTask;
+
+    /**
+     * The default time to wait for other changes of the source content before reloading the
+     * dictionary.
+     */
+    private static final long DEFAULT_RELOAD_DELAY_IN_MILLIS = 200;
+
     private static final int BINARY_DICT_VERSION = 1;
     private static final FormatSpec.FormatOptions FORMAT_OPTIONS =
             new FormatSpec.FormatOptions(BINARY_DICT_VERSION);
@@ -100,6 +129,43 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     protected abstract void loadDictionaryAsync();
 
+    /**
+     * Applies the changes of the source content since the last binary dictionary was generated by
+     * this instance to the fusion dictionary, with {@link #addWord} and {@link #removeWord}. This
+     * is called in a background thread instead of {@link #loadDictionaryAsync()} when the changes
+     * were reported with {@link #setRequiresUpdate()} only.
+     *
+     * @return false if the changes could not be applied, and all the content has to be loaded
+     *         again.
+     */
+    protected boolean updateDictionaryAsync() {
+        return false;
+    }
+
+    /**
+     * Returns whether this dictionary applies the changes of its source content with
+     * {@link #updateDictionaryAsync()}. The other dictionaries do not keep the fusion dictionary
+     * in memory once the binary dictionary is written, and load all the content again instead.
+     */
+    protected boolean usesIncrementalUpdates() {
+        return false;
+    }
+
+    /**
+     * Called in a background thread once the binary dictionary generated from the fusion
+     * dictionary has been written to internal storage.
+     */
+    protected void onBinaryDictionaryWritten() {
+    }
+
+    /**
+     * Returns the time to wait for other changes of the source content before reloading the
+     * dictionary. The reload is pushed back by each change within this time.
+     */
+    protected long getReloadDelayInMillis() {
+        return DEFAULT_RELOAD_DELAY_IN_MILLIS;
+    }
+
     /**
      * Indicates that the source dictionary content has changed and a rebuild of the binary file is
      * required. If it returns false, the next reload will only read the current binary dictionary
@@ -130,11 +196,32 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     public ExpandableBinaryDictionary(
             final Context context, final String filename, final String dictType) {
+        this(context, filename, dictType, null);
+    }
+
+    /**
+     * Creates a new expandable binary dictionary.
+     *
+     * @param context The application context of the parent.
+     * @param filename The filename for this binary dictionary. Multiple dictionaries with the same
+     *        filename is supported.
+     * @param dictType the dictionary type, as a human-readable string
+     * @param locale the locale of this dictionary, or null. The dictionaries of the active locale
+     *        are reloaded first.
+     */
+    public ExpandableBinaryDictionary(final Context context, final String filename,
+            final String dictType, final String locale) {
         super(dictType);
         mFilename = filename;
         mContext = context;
         mBinaryDictionary = null;
         mSharedDictionaryController = getSharedDictionaryController(filename);
+        mReloadTask = new DictionaryReloadScheduler.Task(locale) {
+            @Override
+            public void run() {
+                syncReloadDictionaryInternal();
+            }
+        };
         clearFusionDictionary();
     }
 
@@ -147,9 +234,12 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     @Override
     public void close() {
+        DictionaryReloadScheduler.getInstance().cancel(mReloadTask);
         // Ensure that no other threads are accessing the local binary dictionary.
         mLocalDictionaryController.lock();
         try {
+            // A reload that is running checks this before loading a new binary dictionary.
+            mIsClosed = true;
             if (mBinaryDictionary != null) {
                 mBinaryDictionary.close();
                 mBinaryDictionary = null;
@@ -159,6 +249,19 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         }
     }
 
+    /**
+     * Reopens a dictionary that was closed, so that it is loaded again when it is next used or
+     * marked out of date.
+     */
+    protected void reopen() {
+        mLocalDictionaryController.lock();
+        try {
+            mIsClosed = false;
+        } finally {
+            mLocalDictionaryController.unlock();
+        }
+    }
+
     /**
      * Clears the fusion dictionary on the Java side. Note: Does not modify the binary dictionary on
      * the native side.
@@ -196,6 +299,14 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         mFusionDictionary.setBigram(prevWord, word, frequency);
     }
 
+    /**
+     * Removes a word from the fusion dictionary, along with its shortcuts and the bigrams to and
+     * from it. This is meant to be called by {@link #updateDictionaryAsync()}.
+     */
+    protected void removeWord(final String word) {
+        mFusionDictionary.remove(word);
+    }
+
     @Override
     public ArrayList<SuggestedWordInfo> getSuggestions(final WordComposer composer,
             final CharSequence prevWord, final ProximityInfo proximityInfo) {
@@ -203,7 +314,11 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         if (mLocalDictionaryController.tryLock()) {
             try {
                 if (mBinaryDictionary != null) {
-                    return mBinaryDictionary.getSuggestions(composer, prevWord, proximityInfo);
+                    final ArrayList<SuggestedWordInfo> suggestions =
+                            mBinaryDictionary.getSuggestions(composer, prevWord, proximityInfo);
+                    // The binary dictionary reuses its list, and this dictionary may be shared
+                    // by several threads, so the list must be copied before releasing the lock.
+                    return null == suggestions ? null : CollectionUtils.newArrayList(suggestions);
                 }
             } finally {
                 mLocalDictionaryController.unlock();
@@ -265,36 +380,48 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
     }
 
     /**
-     * Loads the current binary dictionary from internal storage. Assumes the dictionary file
-     * exists.
+     * Loads the current binary dictionary from internal storage.
+     *
+     * @return false if there is no valid dictionary file.
      */
-    protected void loadBinaryDictionary() {
+    protected boolean loadBinaryDictionary() {
         if (DEBUG) {
             Log.d(TAG, "Loading binary dictionary: " + mFilename + " request="
                     + mSharedDictionaryController.mLastUpdateRequestTime + " update="
                     + mSharedDictionaryController.mLastUpdateTime);
         }
 
-        final File file = new File(mContext.getFilesDir(), mFilename);
-        final String filename = file.getAbsolutePath();
-        final long length = file.length();
+        final SnapshotFile.Snapshot snapshot = getSnapshotFile().getLatestSnapshot();
+        if (snapshot == null) {
+            Log.e(TAG, "No valid binary dictionary file: " + mFilename);
+            return false;
+        }
 
         // Build the new binary dictionary
-        final BinaryDictionary newBinaryDictionary =
-                new BinaryDictionary(mContext, filename, 0, length, true /* useFullEditDistance */,
-                        null, mDictType);
-
-        if (mBinaryDictionary != null) {
-            // Ensure all threads accessing the current dictionary have finished before swapping in
-            // the new one.
-            final BinaryDictionary oldBinaryDictionary = mBinaryDictionary;
-            mLocalDictionaryController.lock();
-            mBinaryDictionary = newBinaryDictionary;
+        final BinaryDictionary newBinaryDictionary = new BinaryDictionary(mContext,
+                snapshot.mFile.getAbsolutePath(), snapshot.mOffset, snapshot.mLength,
+                true /* useFullEditDistance */, null, mDictType);
+
+        // Ensure all threads accessing the current dictionary have finished before swapping in
+        // the new one.
+        final BinaryDictionary oldBinaryDictionary;
+        mLocalDictionaryController.lock();
+        try {
+            if (mIsClosed) {
+                // This dictionary was closed while it was reloaded: drop the new one.
+                oldBinaryDictionary = newBinaryDictionary;
+            } else {
+                oldBinaryDictionary = mBinaryDictionary;
+                mBinaryDictionary = newBinaryDictionary;
+            }
+        } finally {
             mLocalDictionaryController.unlock();
+        }
+        if (oldBinaryDictionary != null) {
             oldBinaryDictionary.close();
-        } else {
-            mBinaryDictionary = newBinaryDictionary;
         }
+        onContentChanged();
+        return true;
     }
 
     /**
@@ -307,34 +434,42 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     + mSharedDictionaryController.mLastUpdateTime);
         }
 
-        loadDictionaryAsync();
+        if (!usesIncrementalUpdates() || !mIsFusionDictionaryComplete || mRequiresFullLoad
+                || !updateDictionaryAsync()) {
+            // Changes that come while the content is being loaded must still be applied, so this
+            // is reset before loading.
+            mRequiresFullLoad = false;
+            mIsFusionDictionaryComplete = false;
+            loadDictionaryAsync();
+            mIsFusionDictionaryComplete = true;
+        }
 
-        final String tempFileName = mFilename + ".temp";
-        final File file = new File(mContext.getFilesDir(), mFilename);
-        final File tempFile = new File(mContext.getFilesDir(), tempFileName);
-        FileOutputStream out = null;
         try {
-            out = new FileOutputStream(tempFile);
-            BinaryDictInputOutput.writeDictionaryBinary(out, mFusionDictionary, FORMAT_OPTIONS);
-            out.flush();
-            out.close();
-            tempFile.renameTo(file);
-            clearFusionDictionary();
+            getSnapshotFile().write(new SnapshotFile.ContentWriter() {
+                @Override
+                public void writeTo(final OutputStream out) throws IOException {
+                    try {
+                        BinaryDictInputOutput.writeDictionaryBinary(out, mFusionDictionary,
+                                FORMAT_OPTIONS);
+                    } catch (UnsupportedFormatException e) {
+                        throw new IOException("Unsupported format: " + e);
+                    }
+                }
+            });
+            onBinaryDictionaryWritten();
         } catch (IOException e) {
             Log.e(TAG, "IO exception while writing file: " + e);
-        } catch (UnsupportedFormatException e) {
-            Log.e(TAG, "Unsupported format: " + e);
-        } finally {
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    // ignore
-                }
-            }
+        }
+        if (!usesIncrementalUpdates()) {
+            clearFusionDictionary();
+            mIsFusionDictionaryComplete = false;
         }
     }
 
+    private SnapshotFile getSnapshotFile() {
+        return new SnapshotFile(new File(mContext.getFilesDir(), mFilename));
+    }
+
     /**
      * Marks that the dictionary is out of date and requires a reload.
      *
@@ -343,6 +478,21 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      *        the current binary dictionary from file.
      */
     protected void setRequiresReload(final boolean requiresRebuild) {
+        if (requiresRebuild) {
+            mRequiresFullLoad = true;
+        }
+        markOutOfDate();
+    }
+
+    /**
+     * Marks that the source content has changed in a way that {@link #updateDictionaryAsync()}
+     * can apply to the fusion dictionary, and that the binary dictionary must be generated again.
+     */
+    protected void setRequiresUpdate() {
+        markOutOfDate();
+    }
+
+    private void markOutOfDate() {
         final long time = SystemClock.uptimeMillis();
         mLocalDictionaryController.mLastUpdateRequestTime = time;
         mSharedDictionaryController.mLastUpdateRequestTime = time;
@@ -350,6 +500,8 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
             Log.d(TAG, "Reload request: " + mFilename + ": request=" + time + " update="
                     + mSharedDictionaryController.mLastUpdateTime);
         }
+        // Changes that come in bursts, like the changes of a sync, are coalesced into one reload.
+        DictionaryReloadScheduler.getInstance().request(mReloadTask, getReloadDelayInMillis());
     }
 
     /**
@@ -357,10 +509,13 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
      */
     void asyncReloadDictionaryIfRequired() {
         if (!isReloadRequired()) return;
+        final DictionaryReloadScheduler scheduler = DictionaryReloadScheduler.getInstance();
+        if (scheduler.isScheduled(mReloadTask)) return;
         if (DEBUG) {
-            Log.d(TAG, "Starting AsyncReloadDictionaryTask: " + mFilename);
+            Log.d(TAG, "Requesting a reload: " + mFilename);
         }
-        new AsyncReloadDictionaryTask().start();
+        // The dictionary can't be used until it is first loaded, so this is not delayed.
+        scheduler.request(mReloadTask, null == mBinaryDictionary ? 0 : getReloadDelayInMillis());
     }
 
     /**
@@ -387,6 +542,7 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         // file at the same time.
         mSharedDictionaryController.lock();
         try {
+            if (isClosed()) return;
             final long time = SystemClock.uptimeMillis();
             final boolean dictionaryFileExists = dictionaryFileExists();
             if (mSharedDictionaryController.isOutOfDate() || !dictionaryFileExists) {
@@ -409,7 +565,12 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
                     < mSharedDictionaryController.mLastUpdateTime) {
                 // Otherwise, if the local dictionary is older than the shared dictionary, load the
                 // shared dictionary.
-                loadBinaryDictionary();
+                if (!loadBinaryDictionary()) {
+                    // The dictionary file is corrupted, so rebuild it.
+                    mSharedDictionaryController.mLastUpdateTime = time;
+                    generateBinaryDictionary();
+                    loadBinaryDictionary();
+                }
             }
             mLocalDictionaryController.mLastUpdateTime = time;
         } finally {
@@ -417,20 +578,18 @@ abstract public class ExpandableBinaryDictionary extends Dictionary {
         }
     }
 
-    // TODO: cache the file's existence so that we avoid doing a disk access each time.
-    private boolean dictionaryFileExists() {
-        final File file = new File(mContext.getFilesDir(), mFilename);
-        return file.exists();
+    private boolean isClosed() {
+        mLocalDictionaryController.lock();
+        try {
+            return mIsClosed;
+        } finally {
+            mLocalDictionaryController.unlock();
+        }
     }
 
-    /**
-     * Thread class for asynchronously reloading and rewriting the binary dictionary.
-     */
-    private class AsyncReloadDictionaryTask extends Thread {
-        @Override
-        public void run() {
-            syncReloadDictionaryInternal();
-        }
+    // TODO: cache the file's existence so that we avoid doing a disk access each time.
+    private boolean dictionaryFileExists() {
+        return getSnapshotFile().exists();
     }
 
     /**
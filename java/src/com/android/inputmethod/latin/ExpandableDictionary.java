@@ -18,6 +18,7 @@ package com.android.inputmethod.latin;
 
 import android.content.Context;
 import android.text.TextUtils;
+import android.util.SparseArray;
 
 import com.android.inputmethod.keyboard.Keyboard;
 import com.android.inputmethod.keyboard.ProximityInfo;
@@ -25,7 +26,7 @@ import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import com.android.inputmethod.latin.UserHistoryForgettingCurveUtils.ForgettingCurveParams;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 /**
  * Base class for an in-memory dictionary that can grow dynamically and can
@@ -48,112 +49,244 @@ public class ExpandableDictionary extends Dictionary {
     // Use this lock before touching mUpdatingDictionary & mRequiresDownload
     private Object mUpdatingLock = new Object();
 
-    private static final class Node {
-        Node() {}
-        char mCode;
-        int mFrequency;
-        boolean mTerminal;
-        Node mParent;
-        NodeArray mChildren;
-        ArrayList<char[]> mShortcutTargets;
-        boolean mShortcutOnly;
-        LinkedList<NextWord> mNGrams; // Supports ngram
-    }
+    private final LoadDictionaryTask mLoadDictionaryTask;
+
+    // The trie is stored as a set of parallel arrays indexed by node number instead of one object
+    // per node, which is both smaller and much lighter on the garbage collector. Each node
+    // has a character, a parent, a first child and a next sibling; the children of a node are
+    // the chain of siblings starting at its first child, in insertion order.
+    // Node 0 is the root and has no character. As the root is never the child nor the sibling of
+    // another node, 0 also stands for "no node" in the child and sibling arrays.
+    private static final int ROOT_NODE = 0;
+    private static final int NO_NODE = 0;
+    private static final int INITIAL_NODE_CAPACITY = 256;
+
+    private static final int FLAG_TERMINAL = 0x01;
+    private static final int FLAG_SHORTCUT_ONLY = 0x02;
+    private static final int FLAG_HAS_SHORTCUT_TARGETS = 0x04;
+
+    private char[] mNodeCodes;
+    private byte[] mNodeFlags;
+    private int[] mNodeFrequencies;
+    private int[] mNodeParents;
+    private int[] mNodeFirstChildren;
+    private int[] mNodeNextSiblings;
+    private BigramList[] mNodeBigrams;
+    private int mNodeCount;
+    // Shortcut targets are rare, so they are not worth an array of their own.
+    private SparseArray<ArrayList<char[]>> mShortcutTargets;
 
-    private static final class NodeArray {
-        Node[] mData;
+    /**
+     * The bigrams of a word, sorted by the node of the second word so that they can be found by
+     * binary search.
+     */
+    private static final class BigramList {
+        private static final int INITIAL_CAPACITY = 2;
+
+        int[] mTargets = new int[INITIAL_CAPACITY];
+        int[] mFrequencies = new int[INITIAL_CAPACITY];
+        // Only allocated once a bigram with a decay policy is added. For the other bigrams, the
+        // entry is null and the frequency is fixed.
+        ForgettingCurveParams[] mFcParams;
         int mLength = 0;
-        private static final int INCREMENT = 2;
 
-        NodeArray() {
-            mData = new Node[INCREMENT];
+        /**
+         * Finds the bigram for a second word.
+         * @return the index of the bigram, or (-(insertion point) - 1) if it is not in the list.
+         */
+        int indexOf(final int target) {
+            return Arrays.binarySearch(mTargets, 0, mLength, target);
         }
 
-        void add(Node n) {
-            if (mLength + 1 > mData.length) {
-                Node[] tempData = new Node[mLength + INCREMENT];
-                if (mLength > 0) {
-                    System.arraycopy(mData, 0, tempData, 0, mLength);
-                }
-                mData = tempData;
+        void insert(final int index, final int target, final int frequency,
+                final ForgettingCurveParams fcp) {
+            if (mLength == mTargets.length) {
+                final int newCapacity = mLength * 2;
+                mTargets = Arrays.copyOf(mTargets, newCapacity);
+                mFrequencies = Arrays.copyOf(mFrequencies, newCapacity);
+                if (null != mFcParams) mFcParams = Arrays.copyOf(mFcParams, newCapacity);
+            }
+            if (null != fcp && null == mFcParams) {
+                mFcParams = new ForgettingCurveParams[mTargets.length];
             }
-            mData[mLength++] = n;
+            final int tailLength = mLength - index;
+            System.arraycopy(mTargets, index, mTargets, index + 1, tailLength);
+            System.arraycopy(mFrequencies, index, mFrequencies, index + 1, tailLength);
+            if (null != mFcParams) {
+                System.arraycopy(mFcParams, index, mFcParams, index + 1, tailLength);
+                mFcParams[index] = fcp;
+            }
+            mTargets[index] = target;
+            mFrequencies[index] = frequency;
+            ++mLength;
         }
-    }
 
-    protected interface NextWord {
-        public Node getWordNode();
-        public int getFrequency();
-        public ForgettingCurveParams getFcParams();
-        public int notifyTypedAgainAndGetFrequency();
-    }
+        void remove(final int index) {
+            final int tailLength = mLength - index - 1;
+            System.arraycopy(mTargets, index + 1, mTargets, index, tailLength);
+            System.arraycopy(mFrequencies, index + 1, mFrequencies, index, tailLength);
+            --mLength;
+            if (null != mFcParams) {
+                System.arraycopy(mFcParams, index + 1, mFcParams, index, tailLength);
+                mFcParams[mLength] = null;
+            }
+        }
 
-    private static final class NextStaticWord implements NextWord {
-        public final Node mWord;
-        private final int mFrequency;
-        public NextStaticWord(Node word, int frequency) {
-            mWord = word;
-            mFrequency = frequency;
+        ForgettingCurveParams getFcParams(final int index) {
+            return null == mFcParams ? null : mFcParams[index];
         }
 
-        @Override
-        public Node getWordNode() {
-            return mWord;
+        int getFrequency(final int index) {
+            final ForgettingCurveParams fcp = getFcParams(index);
+            return null == fcp ? mFrequencies[index] : fcp.getFrequency();
         }
 
-        @Override
-        public int getFrequency() {
-            return mFrequency;
+        int notifyTypedAgainAndGetFrequency(final int index) {
+            final ForgettingCurveParams fcp = getFcParams(index);
+            return null == fcp ? mFrequencies[index] : fcp.notifyTypedAgainAndGetFrequency();
         }
+    }
 
-        @Override
-        public ForgettingCurveParams getFcParams() {
-            return null;
+    /**
+     * The search for the words that match the input with one given character skipped, or none.
+     *
+     * The search is kept from one lookup to the next, so that typing a character only costs
+     * the matching of this character, and deleting one costs nothing. Level k of the search
+     * holds the nodes that match the first k characters of the input, in the order the
+     * traversal of the trie reaches them, each with the weight of the word it ends.
+     * The nodes of a level are found by one call on each node of the previous level, and nested
+     * calls on the apostrophes and the skipped character. Each node remembers the call that
+     * found it, so that running out of space for suggestions can give up on the rest of this
+     * call, as a plain recursive traversal of the trie would.
+     */
+    private static final class SearchFrontier {
+        static final int NO_FRAME = -1;
+        private static final int INITIAL_CAPACITY = 16;
+
+        // The depth at which a character is skipped, or -1 to skip nothing.
+        final int mSkipPos;
+        int mLevelCount;
+        // The first state and frame of each level; the entry at mLevelCount is the end of the
+        // last level.
+        int[] mLevelStates = new int[BinaryDictionary.MAX_WORD_LENGTH + 2];
+        int[] mLevelFrames = new int[BinaryDictionary.MAX_WORD_LENGTH + 2];
+        // The states: a node, the length of its word, the weight of its word and the call that
+        // found it.
+        int[] mNodes = new int[INITIAL_CAPACITY];
+        int[] mDepths = new int[INITIAL_CAPACITY];
+        int[] mSnrs = new int[INITIAL_CAPACITY];
+        int[] mFrames = new int[INITIAL_CAPACITY];
+        int mStateCount;
+        // The frames, one for each call: the call that made it, and whether it gave up early.
+        int[] mFrameParents = new int[INITIAL_CAPACITY];
+        boolean[] mFramesCutShort = new boolean[INITIAL_CAPACITY];
+        int mFrameCount;
+
+        SearchFrontier(final int skipPos) {
+            mSkipPos = skipPos;
+            // Level 0 is the root, which matches the empty input.
+            addState(ROOT_NODE, 0, 1, NO_FRAME);
+            endLevel();
         }
 
-        @Override
-        public int notifyTypedAgainAndGetFrequency() {
-            return mFrequency;
+        void addState(final int node, final int depth, final int snr, final int frame) {
+            if (mStateCount == mNodes.length) {
+                final int newCapacity = mStateCount * 2;
+                mNodes = Arrays.copyOf(mNodes, newCapacity);
+                mDepths = Arrays.copyOf(mDepths, newCapacity);
+                mSnrs = Arrays.copyOf(mSnrs, newCapacity);
+                mFrames = Arrays.copyOf(mFrames, newCapacity);
+            }
+            mNodes[mStateCount] = node;
+            mDepths[mStateCount] = depth;
+            mSnrs[mStateCount] = snr;
+            mFrames[mStateCount] = frame;
+            ++mStateCount;
         }
-    }
 
-    private static final class NextHistoryWord implements NextWord {
-        public final Node mWord;
-        public final ForgettingCurveParams mFcp;
+        int addFrame(final int parentFrame) {
+            if (mFrameCount == mFrameParents.length) {
+                final int newCapacity = mFrameCount * 2;
+                mFrameParents = Arrays.copyOf(mFrameParents, newCapacity);
+                mFramesCutShort = Arrays.copyOf(mFramesCutShort, newCapacity);
+            }
+            mFrameParents[mFrameCount] = parentFrame;
+            mFramesCutShort[mFrameCount] = false;
+            return mFrameCount++;
+        }
 
-        public NextHistoryWord(Node word, ForgettingCurveParams fcp) {
-            mWord = word;
-            mFcp = fcp;
+        void endLevel() {
+            ++mLevelCount;
+            if (mLevelCount == mLevelStates.length) {
+                mLevelStates = Arrays.copyOf(mLevelStates, mLevelCount * 2);
+                mLevelFrames = Arrays.copyOf(mLevelFrames, mLevelCount * 2);
+            }
+            mLevelStates[mLevelCount] = mStateCount;
+            mLevelFrames[mLevelCount] = mFrameCount;
         }
 
-        @Override
-        public Node getWordNode() {
-            return mWord;
+        /**
+         * Forgets the levels past a given number of levels.
+         */
+        void rollBack(final int levelCount) {
+            if (levelCount >= mLevelCount) return;
+            mLevelCount = levelCount;
+            mStateCount = mLevelStates[levelCount];
+            mFrameCount = mLevelFrames[levelCount];
         }
 
-        @Override
-        public int getFrequency() {
-            return mFcp.getFrequency();
+        /**
+         * Forgets which calls of a level gave up early in a previous lookup.
+         */
+        void resetCutShortFrames(final int level) {
+            Arrays.fill(mFramesCutShort, mLevelFrames[level], mLevelFrames[level + 1], false);
         }
 
-        @Override
-        public ForgettingCurveParams getFcParams() {
-            return mFcp;
+        void cutShort(final int frame) {
+            mFramesCutShort[frame] = true;
         }
 
-        @Override
-        public int notifyTypedAgainAndGetFrequency() {
-            return mFcp.notifyTypedAgainAndGetFrequency();
+        /**
+         * Returns whether a call, or one of the calls that led to it on the same level, gave up
+         * early.
+         */
+        boolean isCutShort(final int frame) {
+            for (int f = frame; NO_FRAME != f; f = mFrameParents[f]) {
+                if (mFramesCutShort[f]) return true;
+            }
+            return false;
         }
     }
 
-    private NodeArray mRoots;
-
     private int[][] mCodes;
 
+    // The input of the previous lookup and the searches for it, see getWordsInner. The searches
+    // are only valid as long as no node is added to the trie.
+    private int mStructureVersion;
+    private int mSearchedStructureVersion;
+    private ProximityInfo mSearchedProximityInfo;
+    private int mSearchedInputLength;
+    private int[] mSearchedCodes = new int[BinaryDictionary.MAX_WORD_LENGTH];
+    private int[] mSearchedXCoordinates = new int[BinaryDictionary.MAX_WORD_LENGTH];
+    private int[] mSearchedYCoordinates = new int[BinaryDictionary.MAX_WORD_LENGTH];
+    // The search for each skipped position, offset by one so that the search that skips
+    // nothing comes first.
+    private SearchFrontier[] mSearchFrontiers =
+            new SearchFrontier[BinaryDictionary.MAX_WORD_LENGTH + 1];
+
     public ExpandableDictionary(final Context context, final String dictType) {
+        this(context, dictType, null);
+    }
+
+    /**
+     * @param locale the locale of this dictionary, or null. The dictionaries of the active locale
+     *        are loaded first.
+     */
+    public ExpandableDictionary(final Context context, final String dictType,
+            final String locale) {
         super(dictType);
         mContext = context;
+        mLoadDictionaryTask = new LoadDictionaryTask(locale);
         clearDictionary();
         mCodes = new int[BinaryDictionary.MAX_WORD_LENGTH][];
     }
@@ -168,7 +301,9 @@ public class ExpandableDictionary extends Dictionary {
         if (!mUpdatingDictionary) {
             mUpdatingDictionary = true;
             mRequiresReload = false;
-            new LoadDictionaryTask().start();
+            onContentChanged();
+            DictionaryReloadScheduler.getInstance().request(mLoadDictionaryTask,
+                    0 /* delayInMillis */);
         }
     }
 
@@ -199,51 +334,70 @@ public class ExpandableDictionary extends Dictionary {
         if (word.length() >= BinaryDictionary.MAX_WORD_LENGTH) {
             return;
         }
-        addWordRec(mRoots, word, 0, shortcutTarget, frequency, null);
-    }
-
-    private void addWordRec(NodeArray children, final String word, final int depth,
-            final String shortcutTarget, final int frequency, Node parentNode) {
+        final boolean isShortcutOnly = (null != shortcutTarget);
         final int wordLength = word.length();
-        if (wordLength <= depth) return;
-        final char c = word.charAt(depth);
-        // Does children have the current character?
-        final int childrenLength = children.mLength;
-        Node childNode = null;
-        for (int i = 0; i < childrenLength; i++) {
-            final Node node = children.mData[i];
-            if (node.mCode == c) {
-                childNode = node;
-                break;
-            }
+        int node = ROOT_NODE;
+        for (int depth = 0; depth < wordLength; ++depth) {
+            node = getOrAddChild(node, word.charAt(depth), isShortcutOnly);
         }
-        final boolean isShortcutOnly = (null != shortcutTarget);
-        if (childNode == null) {
-            childNode = new Node();
-            childNode.mCode = c;
-            childNode.mParent = parentNode;
-            childNode.mShortcutOnly = isShortcutOnly;
-            children.add(childNode);
-        }
-        if (wordLength == depth + 1 && shortcutTarget != null) {
-            // Terminate this word
-            childNode.mTerminal = true;
-            if (isShortcutOnly) {
-                if (null == childNode.mShortcutTargets) {
-                    childNode.mShortcutTargets = CollectionUtils.newArrayList();
-                }
-                childNode.mShortcutTargets.add(shortcutTarget.toCharArray());
-            } else {
-                childNode.mShortcutOnly = false;
+        if (ROOT_NODE == node || shortcutTarget == null) return;
+        // Terminate this word
+        mNodeFlags[node] |= FLAG_TERMINAL;
+        if (isShortcutOnly) {
+            ArrayList<char[]> shortcutTargets = mShortcutTargets.get(node);
+            if (null == shortcutTargets) {
+                shortcutTargets = CollectionUtils.newArrayList();
+                mShortcutTargets.put(node, shortcutTargets);
+                mNodeFlags[node] |= FLAG_HAS_SHORTCUT_TARGETS;
             }
-            childNode.mFrequency = Math.max(frequency, childNode.mFrequency);
-            if (childNode.mFrequency > 255) childNode.mFrequency = 255;
-            return;
+            shortcutTargets.add(shortcutTarget.toCharArray());
+        } else {
+            mNodeFlags[node] &= ~FLAG_SHORTCUT_ONLY;
+        }
+        mNodeFrequencies[node] = Math.min(Math.max(frequency, mNodeFrequencies[node]), 255);
+        onContentChanged();
+    }
+
+    /**
+     * Returns the child of a node for a character, adding it at the end of the children if it
+     * does not exist yet.
+     * @param parentNode the node to search the children of
+     * @param code the character of the child
+     * @param isShortcutOnly the shortcut-only flag to give to the child if it is created
+     * @return the child node
+     */
+    private int getOrAddChild(final int parentNode, final char code,
+            final boolean isShortcutOnly) {
+        int lastChild = NO_NODE;
+        for (int child = mNodeFirstChildren[parentNode]; NO_NODE != child;
+                child = mNodeNextSiblings[child]) {
+            if (mNodeCodes[child] == code) return child;
+            lastChild = child;
         }
-        if (childNode.mChildren == null) {
-            childNode.mChildren = new NodeArray();
+        final int node = mNodeCount;
+        if (node == mNodeCodes.length) growNodeArrays(node * 2);
+        ++mStructureVersion;
+        mNodeCodes[node] = code;
+        mNodeFlags[node] = isShortcutOnly ? (byte)FLAG_SHORTCUT_ONLY : 0;
+        mNodeParents[node] = parentNode;
+        mNodeCount = node + 1;
+        // Link the node last, so that it is complete when a concurrent lookup reaches it.
+        if (NO_NODE == lastChild) {
+            mNodeFirstChildren[parentNode] = node;
+        } else {
+            mNodeNextSiblings[lastChild] = node;
         }
-        addWordRec(childNode.mChildren, word, depth + 1, shortcutTarget, frequency, childNode);
+        return node;
+    }
+
+    private void growNodeArrays(final int capacity) {
+        mNodeCodes = Arrays.copyOf(mNodeCodes, capacity);
+        mNodeFlags = Arrays.copyOf(mNodeFlags, capacity);
+        mNodeFrequencies = Arrays.copyOf(mNodeFrequencies, capacity);
+        mNodeParents = Arrays.copyOf(mNodeParents, capacity);
+        mNodeFirstChildren = Arrays.copyOf(mNodeFirstChildren, capacity);
+        mNodeNextSiblings = Arrays.copyOf(mNodeNextSiblings, capacity);
+        mNodeBigrams = Arrays.copyOf(mNodeBigrams, capacity);
     }
 
     @Override
@@ -280,26 +434,62 @@ public class ExpandableDictionary extends Dictionary {
             final CharSequence prevWordForBigrams, final ProximityInfo proximityInfo) {
         final ArrayList<SuggestedWordInfo> suggestions = CollectionUtils.newArrayList();
         mInputLength = codes.size();
-        if (mCodes.length < mInputLength) mCodes = new int[mInputLength][];
+        if (mCodes.length < mInputLength) {
+            mCodes = new int[mInputLength][];
+            mSearchedCodes = new int[mInputLength];
+            mSearchedXCoordinates = new int[mInputLength];
+            mSearchedYCoordinates = new int[mInputLength];
+            mSearchedInputLength = 0;
+            mSearchFrontiers = Arrays.copyOf(mSearchFrontiers, mInputLength + 1);
+        }
         final InputPointers ips = codes.getInputPointers();
         final int[] xCoordinates = ips.getXCoordinates();
         final int[] yCoordinates = ips.getYCoordinates();
+        // The search for the beginning of the input that did not change since the previous
+        // lookup is reused, unless nodes have been added to the trie since.
+        boolean isUnchanged = mStructureVersion == mSearchedStructureVersion
+                && proximityInfo == mSearchedProximityInfo;
+        int unchangedLength = 0;
         // Cache the codes so that we don't have to lookup an array list
         for (int i = 0; i < mInputLength; i++) {
-            // TODO: Calculate proximity info here.
-            if (mCodes[i] == null || mCodes[i].length < 1) {
-                mCodes[i] = new int[ProximityInfo.MAX_PROXIMITY_CHARS_SIZE];
-            }
+            final int code = codes.getCodeAt(i);
             final int x = xCoordinates != null && i < xCoordinates.length ?
                     xCoordinates[i] : Constants.NOT_A_COORDINATE;
             final int y = xCoordinates != null && i < yCoordinates.length ?
                     yCoordinates[i] : Constants.NOT_A_COORDINATE;
-            proximityInfo.fillArrayWithNearestKeyCodes(x, y, codes.getCodeAt(i), mCodes[i]);
+            if (isUnchanged && i < mSearchedInputLength && mSearchedCodes[i] == code
+                    && mSearchedXCoordinates[i] == x && mSearchedYCoordinates[i] == y) {
+                ++unchangedLength;
+                continue;
+            }
+            isUnchanged = false;
+            mSearchedCodes[i] = code;
+            mSearchedXCoordinates[i] = x;
+            mSearchedYCoordinates[i] = y;
+            // TODO: Calculate proximity info here.
+            if (mCodes[i] == null || mCodes[i].length < 1) {
+                mCodes[i] = new int[ProximityInfo.MAX_PROXIMITY_CHARS_SIZE];
+            }
+            proximityInfo.fillArrayWithNearestKeyCodes(x, y, code, mCodes[i]);
+        }
+        mSearchedInputLength = mInputLength;
+        mSearchedStructureVersion = mStructureVersion;
+        mSearchedProximityInfo = proximityInfo;
+        for (final SearchFrontier frontier : mSearchFrontiers) {
+            if (null != frontier) frontier.rollBack(unchangedLength + 1);
         }
+
         mMaxDepth = mInputLength * 3;
-        getWordsRec(mRoots, codes, mWordBuilder, 0, false, 1, 0, -1, suggestions);
-        for (int i = 0; i < mInputLength; i++) {
-            getWordsRec(mRoots, codes, mWordBuilder, 0, false, 1, 0, i, suggestions);
+        for (int skipPos = -1; skipPos < mInputLength; skipPos++) {
+            SearchFrontier frontier = mSearchFrontiers[skipPos + 1];
+            if (null == frontier) {
+                frontier = new SearchFrontier(skipPos);
+                mSearchFrontiers[skipPos + 1] = frontier;
+            }
+            while (frontier.mLevelCount <= mInputLength) {
+                extendSearchFrontier(frontier, mCodes[frontier.mLevelCount - 1]);
+            }
+            addWordsFromSearchFrontier(frontier, suggestions);
         }
         return suggestions;
     }
@@ -311,35 +501,26 @@ public class ExpandableDictionary extends Dictionary {
             if (mRequiresReload) startDictionaryLoadingTaskLocked();
             if (mUpdatingDictionary) return false;
         }
-        final Node node = searchNode(mRoots, word, 0, word.length());
-        // If node is null, we didn't find the word, so it's not valid.
-        // If node.mShortcutOnly is true, then it exists as a shortcut but not as a word,
+        final int node = searchNode(word, word.length());
+        // If node is NO_NODE, we didn't find the word, so it's not valid.
+        // If the node is shortcut-only, then it exists as a shortcut but not as a word,
         // so that means it's not a valid word.
-        // If node.mShortcutOnly is false, then it exists as a word (it may also exist as
+        // If the node is not shortcut-only, then it exists as a word (it may also exist as
         // a shortcut, but this does not matter), so it's a valid word.
-        return (node == null) ? false : !node.mShortcutOnly;
+        return (NO_NODE == node) ? false : 0 == (mNodeFlags[node] & FLAG_SHORTCUT_ONLY);
     }
 
     protected boolean removeBigram(String word1, String word2) {
         // Refer to addOrSetBigram() about word1.toLowerCase()
-        final Node firstWord = searchWord(mRoots, word1.toLowerCase(), 0, null);
-        final Node secondWord = searchWord(mRoots, word2, 0, null);
-        LinkedList<NextWord> bigrams = firstWord.mNGrams;
-        NextWord bigramNode = null;
-        if (bigrams == null || bigrams.size() == 0) {
-            return false;
-        } else {
-            for (NextWord nw : bigrams) {
-                if (nw.getWordNode() == secondWord) {
-                    bigramNode = nw;
-                    break;
-                }
-            }
-        }
-        if (bigramNode == null) {
-            return false;
-        }
-        return bigrams.remove(bigramNode);
+        final int firstWord = searchWord(word1.toLowerCase());
+        final int secondWord = searchWord(word2);
+        final BigramList bigrams = mNodeBigrams[firstWord];
+        if (bigrams == null) return false;
+        final int index = bigrams.indexOf(secondWord);
+        if (index < 0) return false;
+        bigrams.remove(index);
+        onContentChanged();
+        return true;
     }
 
     /**
@@ -347,25 +528,71 @@ public class ExpandableDictionary extends Dictionary {
      */
     protected int getWordFrequency(CharSequence word) {
         // Case-sensitive search
-        final Node node = searchNode(mRoots, word, 0, word.length());
-        return (node == null) ? -1 : node.mFrequency;
+        final int node = searchNode(word, word.length());
+        return (NO_NODE == node) ? -1 : mNodeFrequencies[node];
     }
 
-    protected NextWord getBigramWord(String word1, String word2) {
+    /**
+     * Returns the decay policy of a bigram, or null if the bigram does not exist or has a fixed
+     * frequency.
+     */
+    protected ForgettingCurveParams getBigramFcParams(String word1, String word2) {
         // Refer to addOrSetBigram() about word1.toLowerCase()
-        final Node firstWord = searchWord(mRoots, word1.toLowerCase(), 0, null);
-        final Node secondWord = searchWord(mRoots, word2, 0, null);
-        LinkedList<NextWord> bigrams = firstWord.mNGrams;
-        if (bigrams == null || bigrams.size() == 0) {
-            return null;
-        } else {
-            for (NextWord nw : bigrams) {
-                if (nw.getWordNode() == secondWord) {
-                    return nw;
+        final int firstWord = searchWord(word1.toLowerCase());
+        final int secondWord = searchWord(word2);
+        final BigramList bigrams = mNodeBigrams[firstWord];
+        if (bigrams == null) return null;
+        final int index = bigrams.indexOf(secondWord);
+        return index < 0 ? null : bigrams.getFcParams(index);
+    }
+
+    /**
+     * Listener for the bigrams removed by {@link #decayBigrams}.
+     */
+    protected interface OnBigramForgottenListener {
+        public void onBigramForgotten(String word1, String word2);
+    }
+
+    /**
+     * Ages the bigrams that have a decay policy to a time, in one sweep over all the bigrams,
+     * and removes the ones that have been forgotten. The lookups use the frequencies as of the
+     * last sweep.
+     * @param now the time to age the bigrams to
+     * @param listener the listener to notify of each removed bigram, or null
+     * @return the number of bigrams whose frequency changed
+     */
+    protected int decayBigrams(final long now, final OnBigramForgottenListener listener) {
+        int agedCount = 0;
+        boolean hasRemovedBigrams = false;
+        for (int node = ROOT_NODE; node < mNodeCount; ++node) {
+            final BigramList bigrams = mNodeBigrams[node];
+            if (null == bigrams || null == bigrams.mFcParams) continue;
+            // Backwards, so that removing a bigram does not move the ones left to visit.
+            for (int i = bigrams.mLength - 1; i >= 0; --i) {
+                final ForgettingCurveParams fcp = bigrams.mFcParams[i];
+                if (null == fcp) continue;
+                if (fcp.updateElapsedTime(now)) ++agedCount;
+                if (!fcp.isForgotten()) continue;
+                if (null != listener) {
+                    listener.onBigramForgotten(getWord(node), getWord(bigrams.mTargets[i]));
                 }
+                bigrams.remove(i);
+                hasRemovedBigrams = true;
             }
         }
-        return null;
+        if (agedCount > 0 || hasRemovedBigrams) onContentChanged();
+        return agedCount;
+    }
+
+    /**
+     * Returns the word that ends at a node.
+     */
+    private String getWord(final int node) {
+        int length = 0;
+        for (int n = node; ROOT_NODE != n; n = mNodeParents[n]) ++length;
+        final char[] word = new char[length];
+        for (int n = node; ROOT_NODE != n; n = mNodeParents[n]) word[--length] = mNodeCodes[n];
+        return new String(word);
     }
 
     private static int computeSkippedWordFinalFreq(int freq, int snr, int inputLength) {
@@ -388,9 +615,10 @@ public class ExpandableDictionary extends Dictionary {
      * @param suggestions the suggestion collection to add the suggestions to
      * @return whether there is still space for more words.
      */
-    private boolean addWordAndShortcutsFromNode(final Node node, final char[] word, final int depth,
+    private boolean addWordAndShortcutsFromNode(final int node, final char[] word, final int depth,
             final int finalFreq, final ArrayList<SuggestedWordInfo> suggestions) {
-        if (finalFreq > 0 && !node.mShortcutOnly) {
+        final int flags = mNodeFlags[node];
+        if (finalFreq > 0 && 0 == (flags & FLAG_SHORTCUT_ONLY)) {
             // Use KIND_CORRECTION always. This dictionary does not really have a notion of
             // COMPLETION against CORRECTION; we could artificially add one by looking at
             // the respective size of the typed word and the suggestion if it matters sometime
@@ -399,10 +627,11 @@ public class ExpandableDictionary extends Dictionary {
                     SuggestedWordInfo.KIND_CORRECTION, mDictType));
             if (suggestions.size() >= Suggest.MAX_SUGGESTIONS) return false;
         }
-        if (null != node.mShortcutTargets) {
-            final int length = node.mShortcutTargets.size();
+        if (0 != (flags & FLAG_HAS_SHORTCUT_TARGETS)) {
+            final ArrayList<char[]> shortcutTargets = mShortcutTargets.get(node);
+            final int length = shortcutTargets.size();
             for (int shortcutIndex = 0; shortcutIndex < length; ++shortcutIndex) {
-                final char[] shortcut = node.mShortcutTargets.get(shortcutIndex);
+                final char[] shortcut = shortcutTargets.get(shortcutIndex);
                 suggestions.add(new SuggestedWordInfo(new String(shortcut, 0, shortcut.length),
                         finalFreq, SuggestedWordInfo.KIND_SHORTCUT, mDictType));
                 if (suggestions.size() > Suggest.MAX_SUGGESTIONS) return false;
@@ -412,75 +641,48 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     /**
-     * Recursively traverse the tree for words that match the input. Input consists of
-     * a list of arrays. Each item in the list is one input character position. An input
-     * character is actually an array of multiple possible candidates. This function is not
-     * optimized for speed, assuming that the user dictionary will only be a few hundred words in
-     * size.
-     * @param roots node whose children have to be search for matches
-     * @param codes the input character codes
-     * @param word the word being composed as a possible match
+     * Adds to a search the level of the nodes that match the next input character. An input
+     * character is actually an array of multiple possible candidates.
+     * @param frontier the search to extend
+     * @param currentChars the candidates for the next input character
+     */
+    private void extendSearchFrontier(final SearchFrontier frontier, final int[] currentChars) {
+        final int level = frontier.mLevelCount - 1;
+        final int end = frontier.mLevelStates[level + 1];
+        for (int state = frontier.mLevelStates[level]; state < end; ++state) {
+            addMatchingNodesRec(frontier, frontier.mNodes[state], frontier.mDepths[state],
+                    frontier.mSnrs[state], SearchFrontier.NO_FRAME, currentChars);
+        }
+        frontier.endLevel();
+    }
+
+    /**
+     * Recursively adds to a search the descendants of a node that match an input character,
+     * skipping over some punctuations such as apostrophe in the traversal. That is, if you type
+     * "wouldve", it could be matching "would've", so the depth will be one more than the input
+     * index.
+     * @param frontier the search to add the nodes to
+     * @param parentNode node whose children have to be search for matches
      * @param depth the depth of traversal - the length of the word being composed thus far
-     * @param completion whether the traversal is now in completion mode - meaning that we've
-     * exhausted the input and we're looking for all possible suffixes.
      * @param snr current weight of the word being formed
-     * @param inputIndex position in the input characters. This can be off from the depth in
-     * case we skip over some punctuations such as apostrophe in the traversal. That is, if you type
-     * "wouldve", it could be matching "would've", so the depth will be one more than the
-     * inputIndex
-     * @param suggestions the list in which to add suggestions
+     * @param parentFrame the call that made this one, or NO_FRAME
+     * @param currentChars the candidates for the input character
      */
-    // TODO: Share this routine with the native code for BinaryDictionary
-    protected void getWordsRec(NodeArray roots, final WordComposer codes, final char[] word,
-            final int depth, final boolean completion, int snr, int inputIndex, int skipPos,
-            final ArrayList<SuggestedWordInfo> suggestions) {
-        final int count = roots.mLength;
-        final int codeSize = mInputLength;
-        // Optimization: Prune out words that are too long compared to how much was typed.
-        if (depth > mMaxDepth) {
-            return;
-        }
-        final int[] currentChars;
-        if (codeSize <= inputIndex) {
-            currentChars = null;
-        } else {
-            currentChars = mCodes[inputIndex];
-        }
-
-        for (int i = 0; i < count; i++) {
-            final Node node = roots.mData[i];
-            final char c = node.mCode;
-            final char lowerC = toLowerCase(c);
-            final boolean terminal = node.mTerminal;
-            final NodeArray children = node.mChildren;
-            final int freq = node.mFrequency;
-            if (completion || currentChars == null) {
-                word[depth] = c;
-                if (terminal) {
-                    final int finalFreq;
-                    if (skipPos < 0) {
-                        finalFreq = freq * snr;
-                    } else {
-                        finalFreq = computeSkippedWordFinalFreq(freq, snr, mInputLength);
-                    }
-                    if (!addWordAndShortcutsFromNode(node, word, depth, finalFreq, suggestions)) {
-                        // No space left in the queue, bail out
-                        return;
-                    }
-                }
-                if (children != null) {
-                    getWordsRec(children, codes, word, depth + 1, true, snr, inputIndex,
-                            skipPos, suggestions);
-                }
-            } else if ((c == Keyboard.CODE_SINGLE_QUOTE
+    private void addMatchingNodesRec(final SearchFrontier frontier, final int parentNode,
+            final int depth, final int snr, final int parentFrame, final int[] currentChars) {
+        final int frame = frontier.addFrame(parentFrame);
+        final int skipPos = frontier.mSkipPos;
+        for (int node = mNodeFirstChildren[parentNode]; NO_NODE != node;
+                node = mNodeNextSiblings[node]) {
+            final char c = mNodeCodes[node];
+            if ((c == Keyboard.CODE_SINGLE_QUOTE
                     && currentChars[0] != Keyboard.CODE_SINGLE_QUOTE) || depth == skipPos) {
                 // Skip the ' and continue deeper
-                word[depth] = c;
-                if (children != null) {
-                    getWordsRec(children, codes, word, depth + 1, completion, snr, inputIndex,
-                            skipPos, suggestions);
+                if (NO_NODE != mNodeFirstChildren[node]) {
+                    addMatchingNodesRec(frontier, node, depth + 1, snr, frame, currentChars);
                 }
             } else {
+                final char lowerC = toLowerCase(c);
                 // Don't use alternatives if we're looking for missing characters
                 final int alternativesSize = skipPos >= 0 ? 1 : currentChars.length;
                 for (int j = 0; j < alternativesSize; j++) {
@@ -490,40 +692,99 @@ public class ExpandableDictionary extends Dictionary {
                         break;
                     }
                     if (currentChar == lowerC || currentChar == c) {
-                        word[depth] = c;
-
-                        if (codeSize == inputIndex + 1) {
-                            if (terminal) {
-                                final int finalFreq;
-                                if (skipPos < 0) {
-                                    finalFreq = freq * snr * addedAttenuation
-                                            * FULL_WORD_SCORE_MULTIPLIER;
-                                } else {
-                                    finalFreq = computeSkippedWordFinalFreq(freq,
-                                            snr * addedAttenuation, mInputLength);
-                                }
-                                if (!addWordAndShortcutsFromNode(node, word, depth, finalFreq,
-                                        suggestions)) {
-                                    // No space left in the queue, bail out
-                                    return;
-                                }
-                            }
-                            if (children != null) {
-                                getWordsRec(children, codes, word, depth + 1,
-                                        true, snr * addedAttenuation, inputIndex + 1,
-                                        skipPos, suggestions);
-                            }
-                        } else if (children != null) {
-                            getWordsRec(children, codes, word, depth + 1,
-                                    false, snr * addedAttenuation, inputIndex + 1,
-                                    skipPos, suggestions);
-                        }
+                        frontier.addState(node, depth + 1, snr * addedAttenuation, frame);
                     }
                 }
             }
         }
     }
 
+    /**
+     * Adds the words that match the whole input according to a search, along with their
+     * completions.
+     * @param frontier the search, extended to the whole input
+     * @param suggestions the list in which to add suggestions
+     */
+    private void addWordsFromSearchFrontier(final SearchFrontier frontier,
+            final ArrayList<SuggestedWordInfo> suggestions) {
+        final int skipPos = frontier.mSkipPos;
+        frontier.resetCutShortFrames(mInputLength);
+        final int end = frontier.mLevelStates[mInputLength + 1];
+        for (int state = frontier.mLevelStates[mInputLength]; state < end; ++state) {
+            final int depth = frontier.mDepths[state];
+            final int frame = frontier.mFrames[state];
+            // Optimization: Prune out words that are too long compared to how much was typed.
+            if (depth - 1 > mMaxDepth || frontier.isCutShort(frame)) {
+                continue;
+            }
+            final int node = frontier.mNodes[state];
+            final int snr = frontier.mSnrs[state];
+            int ancestor = node;
+            for (int index = depth - 1; index >= 0; --index) {
+                mWordBuilder[index] = mNodeCodes[ancestor];
+                ancestor = mNodeParents[ancestor];
+            }
+            if (0 != (mNodeFlags[node] & FLAG_TERMINAL)) {
+                final int freq = mNodeFrequencies[node];
+                final int finalFreq;
+                if (skipPos < 0) {
+                    finalFreq = freq * snr * FULL_WORD_SCORE_MULTIPLIER;
+                } else {
+                    finalFreq = computeSkippedWordFinalFreq(freq, snr, mInputLength);
+                }
+                if (!addWordAndShortcutsFromNode(node, mWordBuilder, depth - 1, finalFreq,
+                        suggestions)) {
+                    // No space left in the queue, bail out of the rest of this call
+                    frontier.cutShort(frame);
+                    continue;
+                }
+            }
+            if (NO_NODE != mNodeFirstChildren[node]) {
+                getCompletionsRec(node, mWordBuilder, depth, snr, skipPos, suggestions);
+            }
+        }
+    }
+
+    /**
+     * Recursively traverse the tree for all possible suffixes of a word that matches the input.
+     * This function is not optimized for speed, assuming that the user dictionary will only be a
+     * few hundred words in size.
+     * @param parentNode node whose children have to be search for matches
+     * @param word the word being composed as a possible match
+     * @param depth the depth of traversal - the length of the word being composed thus far
+     * @param snr current weight of the word being formed
+     * @param skipPos the depth at which a character was skipped, or -1
+     * @param suggestions the list in which to add suggestions
+     */
+    // TODO: Share this routine with the native code for BinaryDictionary
+    private void getCompletionsRec(final int parentNode, final char[] word, final int depth,
+            final int snr, final int skipPos, final ArrayList<SuggestedWordInfo> suggestions) {
+        // Optimization: Prune out words that are too long compared to how much was typed.
+        if (depth > mMaxDepth) {
+            return;
+        }
+        for (int node = mNodeFirstChildren[parentNode]; NO_NODE != node;
+                node = mNodeNextSiblings[node]) {
+            word[depth] = mNodeCodes[node];
+            if (0 != (mNodeFlags[node] & FLAG_TERMINAL)) {
+                final int freq = mNodeFrequencies[node];
+                final int finalFreq;
+                if (skipPos < 0) {
+                    finalFreq = freq * snr;
+                } else {
+                    finalFreq = computeSkippedWordFinalFreq(freq, snr, mInputLength);
+                }
+                if (!addWordAndShortcutsFromNode(node, word, depth, finalFreq, suggestions)) {
+                    // No space left in the queue, bail out
+                    return;
+                }
+            }
+            if (NO_NODE != mNodeFirstChildren[node]) {
+                getCompletionsRec(node, word, depth + 1, snr, skipPos, suggestions);
+            }
+        }
+    }
+
     public int setBigramAndGetFrequency(String word1, String word2, int frequency) {
         return setBigramAndGetFrequency(word1, word2, frequency, null /* unused */);
     }
@@ -546,25 +807,21 @@ public class ExpandableDictionary extends Dictionary {
         // word. We do want however to return the correct case for the right hand side.
         // So we want to squash the case of the left hand side, and preserve that of the right
         // hand side word.
-        Node firstWord = searchWord(mRoots, word1.toLowerCase(), 0, null);
-        Node secondWord = searchWord(mRoots, word2, 0, null);
-        LinkedList<NextWord> bigrams = firstWord.mNGrams;
-        if (bigrams == null || bigrams.size() == 0) {
-            firstWord.mNGrams = CollectionUtils.newLinkedList();
-            bigrams = firstWord.mNGrams;
-        } else {
-            for (NextWord nw : bigrams) {
-                if (nw.getWordNode() == secondWord) {
-                    return nw.notifyTypedAgainAndGetFrequency();
-                }
-            }
+        final int firstWord = searchWord(word1.toLowerCase());
+        final int secondWord = searchWord(word2);
+        BigramList bigrams = mNodeBigrams[firstWord];
+        if (bigrams == null) {
+            bigrams = new BigramList();
+            mNodeBigrams[firstWord] = bigrams;
         }
-        if (fcp != null) {
-            // history
-            firstWord.mNGrams.add(new NextHistoryWord(secondWord, fcp));
-        } else {
-            firstWord.mNGrams.add(new NextStaticWord(secondWord, frequency));
+        final int index = bigrams.indexOf(secondWord);
+        // Whether the bigram is new or typed again, its frequency changes.
+        onContentChanged();
+        if (index >= 0) {
+            return bigrams.notifyTypedAgainAndGetFrequency(index);
         }
+        // fcp is null for a bigram with a fixed frequency, and non-null for history
+        bigrams.insert(-index - 1, secondWord, frequency, fcp);
         return frequency;
     }
 
@@ -572,44 +829,25 @@ public class ExpandableDictionary extends Dictionary {
      * Searches for the word and add the word if it does not exist.
      * @return Returns the terminal node of the word we are searching for.
      */
-    private Node searchWord(NodeArray children, String word, int depth, Node parentNode) {
+    private int searchWord(final String word) {
         final int wordLength = word.length();
-        final char c = word.charAt(depth);
-        // Does children have the current character?
-        final int childrenLength = children.mLength;
-        Node childNode = null;
-        for (int i = 0; i < childrenLength; i++) {
-            final Node node = children.mData[i];
-            if (node.mCode == c) {
-                childNode = node;
-                break;
-            }
-        }
-        if (childNode == null) {
-            childNode = new Node();
-            childNode.mCode = c;
-            childNode.mParent = parentNode;
-            children.add(childNode);
-        }
-        if (wordLength == depth + 1) {
-            // Terminate this word
-            childNode.mTerminal = true;
-            return childNode;
-        }
-        if (childNode.mChildren == null) {
-            childNode.mChildren = new NodeArray();
+        int node = ROOT_NODE;
+        for (int depth = 0; depth < wordLength; ++depth) {
+            node = getOrAddChild(node, word.charAt(depth), false /* isShortcutOnly */);
         }
-        return searchWord(childNode.mChildren, word, depth + 1, childNode);
+        // Terminate this word
+        mNodeFlags[node] |= FLAG_TERMINAL;
+        return node;
     }
 
     private void runBigramReverseLookUp(final CharSequence previousWord,
             final ArrayList<SuggestedWordInfo> suggestions) {
         // Search for the lowercase version of the word only, because that's where bigrams
         // store their sons.
-        Node prevWord = searchNode(mRoots, previousWord.toString().toLowerCase(), 0,
+        final int prevWord = searchNode(previousWord.toString().toLowerCase(),
                 previousWord.length());
-        if (prevWord != null && prevWord.mNGrams != null) {
-            reverseLookUp(prevWord.mNGrams, suggestions);
+        if (NO_NODE != prevWord && null != mNodeBigrams[prevWord]) {
+            reverseLookUp(mNodeBigrams[prevWord], suggestions);
         }
     }
 
@@ -636,29 +874,29 @@ public class ExpandableDictionary extends Dictionary {
     private final char[] mLookedUpString = new char[BinaryDictionary.MAX_WORD_LENGTH];
 
     /**
-     * reverseLookUp retrieves the full word given a list of terminal nodes and adds those words
+     * reverseLookUp retrieves the full word given a list of bigrams and adds those words
      * to the suggestions list passed as an argument.
-     * @param terminalNodes list of terminal nodes we want to add
+     * @param bigrams list of bigrams whose second words we want to add
      * @param suggestions the suggestion collection to add the word to
      */
-    private void reverseLookUp(LinkedList<NextWord> terminalNodes,
+    private void reverseLookUp(final BigramList bigrams,
             final ArrayList<SuggestedWordInfo> suggestions) {
-        Node node;
+        int node;
         int freq;
-        for (NextWord nextWord : terminalNodes) {
-            node = nextWord.getWordNode();
-            freq = nextWord.getFrequency();
+        for (int i = 0; i < bigrams.mLength; ++i) {
+            node = bigrams.mTargets[i];
+            freq = bigrams.getFrequency(i);
             int index = BinaryDictionary.MAX_WORD_LENGTH;
             do {
                 --index;
-                mLookedUpString[index] = node.mCode;
-                node = node.mParent;
-            } while (node != null && index > 0);
-
-            // If node is null, we have a word longer than MAX_WORD_LENGTH in the dictionary.
-            // It's a little unclear how this can happen, but just in case it does it's safer
-            // to ignore the word in this case.
-            if (freq >= 0 && node == null) {
+                mLookedUpString[index] = mNodeCodes[node];
+                node = mNodeParents[node];
+            } while (node != ROOT_NODE && index > 0);
+
+            // If node is not the root, we have a word longer than MAX_WORD_LENGTH in the
+            // dictionary. It's a little unclear how this can happen, but just in case it does
+            // it's safer to ignore the word in this case.
+            if (freq >= 0 && node == ROOT_NODE) {
                 suggestions.add(new SuggestedWordInfo(new String(mLookedUpString, index,
                         BinaryDictionary.MAX_WORD_LENGTH - index),
                         freq, SuggestedWordInfo.KIND_CORRECTION, mDictType));
@@ -667,49 +905,55 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     /**
-     * Recursively search for the terminal node of the word.
+     * Search for the terminal node of the word.
      *
-     * One iteration takes the full word to search for and the current index of the recursion.
-     *
-     * @param children the node of the trie to search under.
-     * @param word the word to search for. Only read [offset..length] so there may be trailing chars
-     * @param offset the index in {@code word} this recursion should operate on.
+     * @param word the word to search for. Only read [0..length] so there may be trailing chars
      * @param length the length of the input word.
-     * @return Returns the terminal node of the word if the word exists
+     * @return Returns the terminal node of the word if the word exists, NO_NODE otherwise
      */
-    private Node searchNode(final NodeArray children, final CharSequence word, final int offset,
-            final int length) {
-        final int count = children.mLength;
-        final char currentChar = word.charAt(offset);
-        for (int j = 0; j < count; j++) {
-            final Node node = children.mData[j];
-            if (node.mCode == currentChar) {
-                if (offset == length - 1) {
-                    if (node.mTerminal) {
-                        return node;
-                    }
-                } else {
-                    if (node.mChildren != null) {
-                        Node returnNode = searchNode(node.mChildren, word, offset + 1, length);
-                        if (returnNode != null) return returnNode;
-                    }
-                }
+    private int searchNode(final CharSequence word, final int length) {
+        if (length <= 0) return NO_NODE;
+        int node = ROOT_NODE;
+        for (int offset = 0; offset < length; ++offset) {
+            final char currentChar = word.charAt(offset);
+            int child = mNodeFirstChildren[node];
+            while (NO_NODE != child && mNodeCodes[child] != currentChar) {
+                child = mNodeNextSiblings[child];
             }
+            if (NO_NODE == child) return NO_NODE;
+            node = child;
         }
-        return null;
+        return 0 != (mNodeFlags[node] & FLAG_TERMINAL) ? node : NO_NODE;
     }
 
     protected void clearDictionary() {
-        mRoots = new NodeArray();
+        mNodeCodes = new char[INITIAL_NODE_CAPACITY];
+        mNodeFlags = new byte[INITIAL_NODE_CAPACITY];
+        mNodeFrequencies = new int[INITIAL_NODE_CAPACITY];
+        mNodeParents = new int[INITIAL_NODE_CAPACITY];
+        mNodeFirstChildren = new int[INITIAL_NODE_CAPACITY];
+        mNodeNextSiblings = new int[INITIAL_NODE_CAPACITY];
+        mNodeBigrams = new BigramList[INITIAL_NODE_CAPACITY];
+        mNodeCount = ROOT_NODE + 1;
+        mShortcutTargets = CollectionUtils.newSparseArray();
+        ++mStructureVersion;
+        onContentChanged();
     }
 
-    private final class LoadDictionaryTask extends Thread {
-        LoadDictionaryTask() {}
+    private final class LoadDictionaryTask extends DictionaryReloadScheduler.Task {
+        LoadDictionaryTask(final String locale) {
+            super(locale);
+        }
+
         @Override
         public void run() {
-            loadDictionaryAsync();
-            synchronized (mUpdatingLock) {
-                mUpdatingDictionary = false;
+            try {
+                loadDictionaryAsync();
+            } finally {
+                synchronized (mUpdatingLock) {
+                    mUpdatingDictionary = false;
+                }
+                onContentChanged();
             }
         }
     }
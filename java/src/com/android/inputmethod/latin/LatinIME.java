@@ -39,6 +39,7 @@ import android.os.Debug;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.SystemClock;
 import android.preference.PreferenceManager;
@@ -71,6 +72,8 @@ import com.android.inputmethod.keyboard.KeyboardId;
 import com.android.inputmethod.keyboard.KeyboardSwitcher;
 import com.android.inputmethod.keyboard.KeyboardView;
 import com.android.inputmethod.keyboard.MainKeyboardView;
+import com.android.inputmethod.keyboard.internal.BatchPointsAggregator;
+import com.android.inputmethod.keyboard.internal.GestureStroke;
 import com.android.inputmethod.latin.LocaleUtils.RunInLocale;
 import com.android.inputmethod.latin.Utils.Stats;
 import com.android.inputmethod.latin.define.ProductionFlag;
@@ -485,6 +488,7 @@ public final class LatinIME extends InputMethodService implements KeyboardAction
     private void initSuggest() {
         final Locale subtypeLocale = mSubtypeSwitcher.getCurrentSubtypeLocale();
         final String localeStr = subtypeLocale.toString();
+        DictionaryReloadScheduler.getInstance().setActiveLocale(localeStr);
 
         final ContactsBinaryDictionary oldContactsDictionary;
         if (mSuggest != null) {
@@ -515,6 +519,8 @@ public final class LatinIME extends InputMethodService implements KeyboardAction
         if (null == mPrefs) mPrefs = PreferenceManager.getDefaultSharedPreferences(this);
         mUserHistoryDictionary = UserHistoryDictionary.getInstance(this, localeStr, mPrefs);
         mSuggest.setUserHistoryDictionary(mUserHistoryDictionary);
+        mSuggest.setConcurrentLookupEnabled(
+                mPrefs.getBoolean(DebugSettings.CONCURRENT_DICTIONARY_LOOKUP_KEY, false));
     }
 
     /**
@@ -598,6 +604,18 @@ public final class LatinIME extends InputMethodService implements KeyboardAction
         super.onConfigurationChanged(conf);
     }
 
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        mKeyboardSwitcher.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        mKeyboardSwitcher.onLowMemory();
+    }
+
     @Override
     public View onCreateInputView() {
         return mKeyboardSwitcher.onCreateInputView(mIsHardwareAcceleratedDrawingEnabled);
@@ -1500,16 +1518,61 @@ public final class LatinIME extends InputMethodService implements KeyboardAction
         mWordComposer.setCapitalizedModeAtStartComposingTime(getActualCapsMode());
     }
 
-    private static final class BatchInputUpdater implements Handler.Callback {
+    /* package for test */ static final class BatchInputUpdater implements Handler.Callback {
+        /**
+         * Recognizes the batch input points and shows the results of the recognitions.
+         */
+        /* package for test */ interface Recognizer {
+            /**
+             * Recognizes the points of a gesture. Called with the recognition lock held.
+             */
+            public SuggestedWords getSuggestedWordsGesture(InputPointers batchPointers);
+
+            /**
+             * Shows the result of a recognition. Called by the Handler thread for the updates,
+             * and by the UI thread at the end of the gesture.
+             */
+            public void showGesturePreviewAndSuggestionStrip(SuggestedWords suggestedWords,
+                    boolean dismissGestureFloatingPreviewText);
+        }
+
         private final Handler mHandler;
-        private LatinIME mLatinIme;
-        private boolean mInBatchInput; // synchornized using "this".
+        private Recognizer mRecognizer;
+        // Written by the UI thread without waiting for a recognition in progress, which checks
+        // it to drop the results of a gesture that has ended.
+        private volatile boolean mInBatchInput;
+        // Guards the recognitions: {@link LatinIME#getSuggestedWords(int)} method calls with same
+        // session id have to be synchronized, and they read the batch input pointers of the word
+        // composer.
+        private final Object mRecognitionLock = new Object();
+        // The batch input points are double buffered: the Handler thread only reads and recognizes
+        // the points of the update snapshot, and the UI thread the points of the end snapshot, so
+        // that a snapshot is never appended to while the other thread recognizes it.
+        private final BatchPointsAggregator.Snapshot mUpdateSnapshot =
+                new BatchPointsAggregator.Snapshot(GestureStroke.DEFAULT_CAPACITY);
+        private final BatchPointsAggregator.Snapshot mEndSnapshot =
+                new BatchPointsAggregator.Snapshot(GestureStroke.DEFAULT_CAPACITY);
+        // The time the UI thread stalled at the end of the gestures, only accessed by the UI
+        // thread and only recorded in debug mode. The stall time is the time spent waiting for a
+        // recognition in progress and running the final recognition.
+        private int mEndBatchInputCount;
+        private long mTotalWaitTime;
+        private long mMaxWaitTime;
+        private long mTotalStallTime;
 
         private BatchInputUpdater() {
+            this(newLooper());
+        }
+
+        /* package for test */ BatchInputUpdater(final Looper looper) {
+            mHandler = new Handler(looper, this);
+        }
+
+        private static Looper newLooper() {
             final HandlerThread handlerThread = new HandlerThread(
                     BatchInputUpdater.class.getSimpleName());
             handlerThread.start();
-            mHandler = new Handler(handlerThread.getLooper(), this);
+            return handlerThread.getLooper();
         }
 
         // Initialization-on-demand holder
@@ -1527,61 +1590,112 @@ public final class LatinIME extends InputMethodService implements KeyboardAction
         public boolean handleMessage(final Message msg) {
             switch (msg.what) {
             case MSG_UPDATE_GESTURE_PREVIEW_AND_SUGGESTION_STRIP:
-                updateBatchInput((InputPointers)msg.obj, mLatinIme);
+                updateBatchInput((BatchPointsAggregator)msg.obj, msg.arg1, mRecognizer);
                 break;
             }
             return true;
         }
 
         // Run in the UI thread.
-        public synchronized void onStartBatchInput() {
+        public void onStartBatchInput() {
             mInBatchInput = true;
         }
 
+        /* package for test */ boolean isInBatchInput() {
+            return mInBatchInput;
+        }
+
+        /* package for test */ boolean hasPendingUpdate() {
+            return mHandler.hasMessages(MSG_UPDATE_GESTURE_PREVIEW_AND_SUGGESTION_STRIP);
+        }
+
         // Run in the Handler thread.
-        private synchronized void updateBatchInput(final InputPointers batchPointers,
-                final LatinIME latinIme) {
-            if (!mInBatchInput) {
-                // Batch input has ended while the message was being delivered.
-                return;
+        private void updateBatchInput(final BatchPointsAggregator batchPoints,
+                final int gestureId, final Recognizer recognizer) {
+            synchronized (mRecognitionLock) {
+                if (!mInBatchInput || batchPoints.getGestureId() != gestureId) {
+                    // Batch input has ended while the message was being delivered.
+                    return;
+                }
+                // Only the points published since the last update are read.
+                batchPoints.updateSnapshot(mUpdateSnapshot);
+                final SuggestedWords suggestedWords = recognizer.getSuggestedWordsGesture(
+                        mUpdateSnapshot.getPointers());
+                if (!mInBatchInput) {
+                    // Batch input has ended during the recognition: the final recognition
+                    // supersedes this one.
+                    return;
+                }
+                recognizer.showGesturePreviewAndSuggestionStrip(
+                        suggestedWords, false /* dismissGestureFloatingPreviewText */);
             }
-            final SuggestedWords suggestedWords = getSuggestedWordsGestureLocked(
-                    batchPointers, latinIme);
-            latinIme.mHandler.showGesturePreviewAndSuggestionStrip(
-                    suggestedWords, false /* dismissGestureFloatingPreviewText */);
         }
 
         // Run in the UI thread.
-        public void onUpdateBatchInput(final InputPointers batchPointers, final LatinIME latinIme) {
-            mLatinIme = latinIme;
-            if (mHandler.hasMessages(MSG_UPDATE_GESTURE_PREVIEW_AND_SUGGESTION_STRIP)) {
+        public void onUpdateBatchInput(final BatchPointsAggregator batchPoints,
+                final Recognizer recognizer) {
+            mRecognizer = recognizer;
+            // The pending update reads the latest points when it runs.
+            if (hasPendingUpdate()) {
                 return;
             }
-            mHandler.obtainMessage(
-                    MSG_UPDATE_GESTURE_PREVIEW_AND_SUGGESTION_STRIP, batchPointers)
-                    .sendToTarget();
+            mHandler.obtainMessage(MSG_UPDATE_GESTURE_PREVIEW_AND_SUGGESTION_STRIP,
+                    batchPoints.getGestureId(), 0, batchPoints).sendToTarget();
         }
 
         // Run in the UI thread.
-        public synchronized SuggestedWords onEndBatchInput(final InputPointers batchPointers,
-                final LatinIME latinIme) {
+        public SuggestedWords onEndBatchInput(final BatchPointsAggregator batchPoints,
+                final Recognizer recognizer) {
+            final long startTime = SystemClock.uptimeMillis();
             mInBatchInput = false;
-            final SuggestedWords suggestedWords = getSuggestedWordsGestureLocked(
-                    batchPointers, latinIme);
-            latinIme.mHandler.showGesturePreviewAndSuggestionStrip(
+            // The pending update is stale: only the final recognition is run.
+            mHandler.removeMessages(MSG_UPDATE_GESTURE_PREVIEW_AND_SUGGESTION_STRIP);
+            // The end snapshot is not used by the Handler thread: read the points while a
+            // recognition may still be in progress.
+            batchPoints.updateSnapshot(mEndSnapshot);
+            final SuggestedWords suggestedWords;
+            final long lockedTime;
+            synchronized (mRecognitionLock) {
+                lockedTime = SystemClock.uptimeMillis();
+                suggestedWords = recognizer.getSuggestedWordsGesture(mEndSnapshot.getPointers());
+            }
+            recognizer.showGesturePreviewAndSuggestionStrip(
                     suggestedWords, true /* dismissGestureFloatingPreviewText */);
+            if (DEBUG) {
+                recordStallTime(lockedTime - startTime, SystemClock.uptimeMillis() - startTime);
+            }
             return suggestedWords;
         }
 
-        // {@link LatinIME#getSuggestedWords(int)} method calls with same session id have to
-        // be synchronized.
-        private static SuggestedWords getSuggestedWordsGestureLocked(
-                final InputPointers batchPointers, final LatinIME latinIme) {
-            latinIme.mWordComposer.setBatchInputPointers(batchPointers);
-            return latinIme.getSuggestedWords(Suggest.SESSION_GESTURE);
+        private void recordStallTime(final long waitTime, final long stallTime) {
+            mEndBatchInputCount++;
+            mTotalWaitTime += waitTime;
+            mMaxWaitTime = Math.max(mMaxWaitTime, waitTime);
+            mTotalStallTime += stallTime;
+            Log.d(TAG, String.format("onEndBatchInput: wait=%dms stall=%dms"
+                    + " (avg wait=%.1fms max wait=%dms avg stall=%.1fms over %d gestures)",
+                    waitTime, stallTime, (float)mTotalWaitTime / mEndBatchInputCount,
+                    mMaxWaitTime, (float)mTotalStallTime / mEndBatchInputCount,
+                    mEndBatchInputCount));
         }
     }
 
+    private final BatchInputUpdater.Recognizer mGestureRecognizer =
+            new BatchInputUpdater.Recognizer() {
+        @Override
+        public SuggestedWords getSuggestedWordsGesture(final InputPointers batchPointers) {
+            mWordComposer.setBatchInputPointers(batchPointers);
+            return getSuggestedWords(Suggest.SESSION_GESTURE);
+        }
+
+        @Override
+        public void showGesturePreviewAndSuggestionStrip(final SuggestedWords suggestedWords,
+                final boolean dismissGestureFloatingPreviewText) {
+            mHandler.showGesturePreviewAndSuggestionStrip(suggestedWords,
+                    dismissGestureFloatingPreviewText);
+        }
+    };
+
     private void showGesturePreviewAndSuggestionStrip(final SuggestedWords suggestedWords,
             final boolean dismissGestureFloatingPreviewText) {
         final String batchInputText = (suggestedWords.size() > 0)
@@ -1595,14 +1709,14 @@ public final class LatinIME extends InputMethodService implements KeyboardAction
     }
 
     @Override
-    public void onUpdateBatchInput(final InputPointers batchPointers) {
-        BatchInputUpdater.getInstance().onUpdateBatchInput(batchPointers, this);
+    public void onUpdateBatchInput(final BatchPointsAggregator batchPoints) {
+        BatchInputUpdater.getInstance().onUpdateBatchInput(batchPoints, mGestureRecognizer);
     }
 
     @Override
-    public void onEndBatchInput(final InputPointers batchPointers) {
+    public void onEndBatchInput(final BatchPointsAggregator batchPoints) {
         final SuggestedWords suggestedWords = BatchInputUpdater.getInstance().onEndBatchInput(
-                batchPointers, this);
+                batchPoints, mGestureRecognizer);
         final String batchInputText = (suggestedWords.size() > 0)
                 ? suggestedWords.getWord(0) : null;
         if (TextUtils.isEmpty(batchInputText)) {
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * A file that is replaced as a whole, in a way that survives a crash at any point.
+ *
+ * The content is first written to a temporary file and synced to the disk, then the current
+ * file is renamed to be the previous one and the temporary file is renamed to be the current one.
+ * Each file starts with a header holding a generation number, incremented by each write, and a
+ * checksum of the content. When the current file is missing or corrupted, the previous one is
+ * used instead.
+ *
+ * Files written before this class was used have no header, and are used as is.
+ *
+ * This class is not thread safe.
+ */
+public final class SnapshotFile {
+    private static final String TAG = SnapshotFile.class.getSimpleName();
+
+    private static final int MAGIC_NUMBER = 0x534E4150; // "SNAP"
+    private static final int VERSION = 1;
+    // The magic number, the version, the generation as a long, the size of the content and the
+    // checksum of the content followed by the generation and the size.
+    /* package for test */ static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 4;
+    private static final int BUFFER_SIZE = 8192;
+
+    /* package for test */ static final String PREVIOUS_SUFFIX = ".prev";
+    /* package for test */ static final String TEMP_SUFFIX = ".temp";
+
+    public interface ContentWriter {
+        public void writeTo(final OutputStream out) throws IOException;
+    }
+
+    /**
+     * A valid snapshot. The content is the {@link #mLength} bytes of {@link #mFile} starting at
+     * {@link #mOffset}.
+     */
+    public static final class Snapshot {
+        public final File mFile;
+        public final long mGeneration;
+        public final int mOffset;
+        public final int mLength;
+
+        public Snapshot(final File file, final long generation, final int offset,
+                final int length) {
+            mFile = file;
+            mGeneration = generation;
+            mOffset = offset;
+            mLength = length;
+        }
+    }
+
+    private final File mFile;
+    private final File mPreviousFile;
+    private final File mTempFile;
+
+    public SnapshotFile(final File file) {
+        mFile = file;
+        mPreviousFile = new File(file.getPath() + PREVIOUS_SUFFIX);
+        mTempFile = new File(file.getPath() + TEMP_SUFFIX);
+    }
+
+    /**
+     * Returns whether there is a current or a previous file. They may still be corrupted.
+     */
+    public boolean exists() {
+        return mFile.exists() || mPreviousFile.exists();
+    }
+
+    /**
+     * Returns the size of the current file.
+     */
+    public long length() {
+        return mFile.length();
+    }
+
+    /**
+     * Returns the latest valid snapshot, or null if there is none.
+     */
+    public Snapshot getLatestSnapshot() {
+        final Snapshot snapshot = readSnapshot(mFile);
+        if (snapshot != null) {
+            return snapshot;
+        }
+        final Snapshot previousSnapshot = readSnapshot(mPreviousFile);
+        if (previousSnapshot != null) {
+            Log.w(TAG, "Using the previous version of " + mFile);
+        }
+        return previousSnapshot;
+    }
+
+    /**
+     * Writes a new snapshot. If anything goes wrong, the latest snapshot is left as it was.
+     *
+     * @param writer the writer of the content.
+     * @throws IOException if the content could not be written.
+     */
+    public void write(final ContentWriter writer) throws IOException {
+        final Snapshot latestSnapshot = getLatestSnapshot();
+        final long generation = latestSnapshot == null ? 1 : latestSnapshot.mGeneration + 1;
+        FileOutputStream fileOut = null;
+        boolean success = false;
+        try {
+            fileOut = new FileOutputStream(mTempFile);
+            fileOut.write(new byte[HEADER_SIZE]);
+            final CRC32 crc = new CRC32();
+            final CountingOutputStream out = new CountingOutputStream(new CheckedOutputStream(
+                    new BufferedOutputStream(fileOut, BUFFER_SIZE), crc));
+            writer.writeTo(out);
+            out.flush();
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC_NUMBER).putInt(VERSION).putLong(generation).putInt(out.mCount);
+            crc.update(header.array(), 8, 12);
+            header.putInt((int)crc.getValue());
+            header.flip();
+            fileOut.getChannel().write(header, 0);
+            fileOut.getChannel().force(true);
+            fileOut.close();
+            fileOut = null;
+
+            if (latestSnapshot != null && latestSnapshot.mFile.equals(mPreviousFile)) {
+                // The current file is corrupted: keep the previous one, which is still valid.
+                if (mFile.exists() && !mFile.delete()) {
+                    throw new IOException("Can't delete " + mFile);
+                }
+            } else if (mFile.exists() && !mFile.renameTo(mPreviousFile)) {
+                throw new IOException("Can't rename " + mFile + " to " + mPreviousFile);
+            }
+            if (!mTempFile.renameTo(mFile)) {
+                throw new IOException("Can't rename " + mTempFile + " to " + mFile);
+            }
+            success = true;
+        } finally {
+            if (fileOut != null) {
+                try {
+                    fileOut.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            if (!success) {
+                mTempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the header of a file and checks its content.
+     * @return the snapshot in the file, or null if it is missing or corrupted.
+     */
+    /* package for test */ static Snapshot readSnapshot(final File file) {
+        final long fileLength = file.length();
+        if (fileLength <= 0) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file),
+                    BUFFER_SIZE));
+            if (fileLength < 4 || in.readInt() != MAGIC_NUMBER) {
+                // A file written without a header.
+                return new Snapshot(file, 0, 0, (int)fileLength);
+            }
+            if (fileLength < HEADER_SIZE) {
+                Log.e(TAG, "Truncated header in " + file);
+                return null;
+            }
+            final int version = in.readInt();
+            final long generation = in.readLong();
+            final int length = in.readInt();
+            final int checksum = in.readInt();
+            if (version != VERSION || length != fileLength - HEADER_SIZE) {
+                Log.e(TAG, "Corrupted header in " + file);
+                return null;
+            }
+            final CRC32 crc = new CRC32();
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int remaining = length;
+            while (remaining > 0) {
+                final int read = in.read(buffer, 0, Math.min(remaining, buffer.length));
+                if (read < 0) {
+                    return null;
+                }
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+            final ByteBuffer header = ByteBuffer.allocate(12);
+            header.putLong(generation).putInt(length);
+            crc.update(header.array());
+            if ((int)crc.getValue() != checksum) {
+                Log.e(TAG, "Corrupted content in " + file);
+                return null;
+            }
+            return new Snapshot(file, generation, HEADER_SIZE, length);
+        } catch (IOException e) {
+            Log.e(TAG, "IOException while reading " + file + ": " + e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream mOut;
+        public int mCount;
+
+        public CountingOutputStream(final OutputStream out) {
+            mOut = out;
+        }
+
+        @Override
+        public void write(final int oneByte) throws IOException {
+            mOut.write(oneByte);
+            ++mCount;
+        }
+
+        @Override
+        public void write(final byte[] buffer, final int offset, final int count)
+                throws IOException {
+            mOut.write(buffer, offset, count);
+            mCount += count;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The file is closed by SnapshotFile once the header is written.
+            mOut.flush();
+        }
+    }
+}
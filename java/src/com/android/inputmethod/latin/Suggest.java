@@ -17,7 +17,9 @@
 package com.android.inputmethod.latin;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.Log;
 
 import com.android.inputmethod.keyboard.Keyboard;
 import com.android.inputmethod.keyboard.ProximityInfo;
@@ -25,10 +27,23 @@ import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class loads a dictionary and provides a list of suggestions for a given sequence of
@@ -60,6 +75,39 @@ public final class Suggest {
 
     public static final int MAX_SUGGESTIONS = 18;
 
+    // In the concurrent lookup mode, the main dictionary is looked up on the calling thread
+    // while the other dictionaries are looked up on a small pool of threads. The user history
+    // dictionary is also looked up on the calling thread, as it is updated on that thread
+    // without locking its trie.
+    private static final int LOOKUP_THREADS_COUNT = 2;
+    // The time the dictionaries looked up on the pool have to return their suggestions, counted
+    // from the start of the lookup. Those that miss it are left out of this set of suggestions.
+    private static final long LOOKUP_DEADLINE_MS = 30;
+
+    private volatile ExecutorService mLookupExecutor;
+    // The lookups that missed their deadline and are still running. As dictionaries can't be
+    // looked up by two threads at a time, such a dictionary is skipped until its lookup is done.
+    private final ConcurrentHashMap<Dictionary, Future<ArrayList<SuggestedWordInfo>>>
+            mLateLookups = CollectionUtils.newConcurrentHashMap();
+
+    // The number of sets of suggestions for the typing input that are kept, so that going back
+    // to a previous state of the composing word, or asking twice for the same suggestions,
+    // doesn't look the dictionaries up again.
+    private static final int SUGGESTIONS_CACHE_SIZE = 16;
+
+    private final LinkedHashMap<SuggestionsCacheKey, CachedSuggestions> mSuggestionsCache =
+            new LinkedHashMap<SuggestionsCacheKey, CachedSuggestions>(
+                    SUGGESTIONS_CACHE_SIZE, 0.75f, true /* accessOrder */) {
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<SuggestionsCacheKey, CachedSuggestions> eldest) {
+                    return size() > SUGGESTIONS_CACHE_SIZE;
+                }
+            };
+    // Incremented every time a dictionary is added or replaced or the settings change, which
+    // makes the cached suggestions obsolete.
+    private volatile int mSuggestionsCacheEpoch;
+
     private float mAutoCorrectionThreshold;
 
     // Locale used for upper- and title-casing words
@@ -85,15 +133,17 @@ public final class Suggest {
         resetMainDict(context, locale, listener);
     }
 
-    private static void addOrReplaceDictionary(
+    private void addOrReplaceDictionary(
             final ConcurrentHashMap<String, Dictionary> dictionaries,
             final String key, final Dictionary dict) {
         final Dictionary oldDict = (dict == null)
                 ? dictionaries.remove(key)
                 : dictionaries.put(key, dict);
         if (oldDict != null && dict != oldDict) {
+            waitForLateLookup(oldDict);
             oldDict.close();
         }
+        clearSuggestionsCache();
     }
 
     public void resetMainDict(final Context context, final Locale locale,
@@ -158,6 +208,30 @@ public final class Suggest {
 
     public void setAutoCorrectionThreshold(float threshold) {
         mAutoCorrectionThreshold = threshold;
+        clearSuggestionsCache();
+    }
+
+    /**
+     * Enables or disables the concurrent lookup mode, where the dictionaries are looked up in
+     * parallel and the suggestions of those that take too long are left out.
+     */
+    public synchronized void setConcurrentLookupEnabled(final boolean enabled) {
+        final ExecutorService executor = mLookupExecutor;
+        if (enabled == (null != executor)) return;
+        if (enabled) {
+            mLookupExecutor = Executors.newFixedThreadPool(LOOKUP_THREADS_COUNT,
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread thread = new Thread(r, "SuggestLookup");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+        } else {
+            mLookupExecutor = null;
+            executor.shutdown();
+        }
     }
 
     public SuggestedWords getSuggestedWords(
@@ -168,15 +242,46 @@ public final class Suggest {
             return getSuggestedWordsForBatchInput(
                     wordComposer, prevWordForBigram, proximityInfo, sessionId);
         } else {
+            final SuggestionsCacheKey cacheKey = new SuggestionsCacheKey(wordComposer,
+                    prevWordForBigram, proximityInfo, isCorrectionEnabled,
+                    mSuggestionsCacheEpoch, getDictionariesGeneration());
+            final CachedSuggestions cachedSuggestions;
+            synchronized (mSuggestionsCache) {
+                cachedSuggestions = mSuggestionsCache.get(cacheKey);
+            }
+            if (null != cachedSuggestions) {
+                cachedSuggestions.logSuggestedWords();
+                return cachedSuggestions.mSuggestedWords;
+            }
             return getSuggestedWordsForTypingInput(wordComposer, prevWordForBigram, proximityInfo,
-                    isCorrectionEnabled);
+                    isCorrectionEnabled, cacheKey);
         }
     }
 
-    // Retrieves suggestions for the typing input.
+    private int getDictionariesGeneration() {
+        // The generation of each dictionary only grows, including that of a collection that
+        // dictionaries are removed from, so the sum grows with every change of any of them. The
+        // dictionaries themselves being replaced is taken care of by the epoch of the cache.
+        int generation = 0;
+        for (final Dictionary dictionary : mDictionaries.values()) {
+            generation += dictionary.getGeneration();
+        }
+        return generation;
+    }
+
+    private void clearSuggestionsCache() {
+        synchronized (mSuggestionsCache) {
+            ++mSuggestionsCacheEpoch;
+            mSuggestionsCache.clear();
+        }
+    }
+
+    // Retrieves suggestions for the typing input, and caches them if all the dictionaries
+    // could be looked up.
     private SuggestedWords getSuggestedWordsForTypingInput(
             final WordComposer wordComposer, CharSequence prevWordForBigram,
-            final ProximityInfo proximityInfo, final boolean isCorrectionEnabled) {
+            final ProximityInfo proximityInfo, final boolean isCorrectionEnabled,
+            final SuggestionsCacheKey cacheKey) {
         final int trailingSingleQuotesCount = wordComposer.trailingSingleQuotesCount();
         final BoundedTreeSet suggestionsSet = new BoundedTreeSet(sSuggestedWordInfoComparator,
                 MAX_SUGGESTIONS);
@@ -197,11 +302,9 @@ public final class Suggest {
             wordComposerForLookup = wordComposer;
         }
 
-        for (final String key : mDictionaries.keySet()) {
-            final Dictionary dictionary = mDictionaries.get(key);
-            suggestionsSet.addAll(dictionary.getSuggestions(
-                    wordComposerForLookup, prevWordForBigram, proximityInfo));
-        }
+        final boolean isLookupComplete = addSuggestionsFromDictionaries(suggestionsSet,
+                wordComposerForLookup, prevWordForBigram, proximityInfo, SESSION_TYPING,
+                false /* excludeUserHistory */);
 
         final CharSequence whitelistedWord;
         if (suggestionsSet.isEmpty()) {
@@ -260,6 +363,9 @@ public final class Suggest {
             final SuggestedWordInfo wordInfo = suggestionsContainer.get(i);
             LatinImeLogger.onAddSuggestedWord(wordInfo.mWord.toString(), wordInfo.mSourceDict);
         }
+        // The suggestions logged, kept to log them again when the cached suggestions are used.
+        final ArrayList<SuggestedWordInfo> loggedSuggestions = isLookupComplete
+                ? CollectionUtils.newArrayList(suggestionsContainer) : null;
 
         if (!TextUtils.isEmpty(typedWord)) {
             suggestionsContainer.add(0, new SuggestedWordInfo(typedWord,
@@ -275,7 +381,7 @@ public final class Suggest {
             suggestionsList = suggestionsContainer;
         }
 
-        return new SuggestedWords(suggestionsList,
+        final SuggestedWords suggestedWords = new SuggestedWords(suggestionsList,
                 // TODO: this first argument is lying. If this is a whitelisted word which is an
                 // actual word, it says typedWordValid = false, which looks wrong. We should either
                 // rename the attribute or change the value.
@@ -284,6 +390,13 @@ public final class Suggest {
                 false /* isPunctuationSuggestions */,
                 false /* isObsoleteSuggestions */,
                 !wordComposer.isComposingWord() /* isPrediction */);
+        if (isLookupComplete) {
+            synchronized (mSuggestionsCache) {
+                mSuggestionsCache.put(cacheKey,
+                        new CachedSuggestions(suggestedWords, typedWord, loggedSuggestions));
+            }
+        }
+        return suggestedWords;
     }
 
     // Retrieves suggestions for the batch input.
@@ -294,17 +407,11 @@ public final class Suggest {
                 MAX_SUGGESTIONS);
 
         // At second character typed, search the unigrams (scores being affected by bigrams)
-        for (final String key : mDictionaries.keySet()) {
-            // Skip User history dictionary for lookup
-            // TODO: The user history dictionary should just override getSuggestionsWithSessionId
-            // to make sure it doesn't return anything and we should remove this test
-            if (key.equals(Dictionary.TYPE_USER_HISTORY)) {
-                continue;
-            }
-            final Dictionary dictionary = mDictionaries.get(key);
-            suggestionsSet.addAll(dictionary.getSuggestionsWithSessionId(
-                    wordComposer, prevWordForBigram, proximityInfo, sessionId));
-        }
+        // Skip User history dictionary for lookup
+        // TODO: The user history dictionary should just override getSuggestionsWithSessionId
+        // to make sure it doesn't return anything and we should remove this test
+        addSuggestionsFromDictionaries(suggestionsSet, wordComposer, prevWordForBigram,
+                proximityInfo, sessionId, true /* excludeUserHistory */);
 
         for (SuggestedWordInfo wordInfo : suggestionsSet) {
             LatinImeLogger.onAddSuggestedWord(wordInfo.mWord.toString(), wordInfo.mSourceDict);
@@ -336,6 +443,128 @@ public final class Suggest {
                 false /* isPrediction */);
     }
 
+    /**
+     * Looks up all the dictionaries and adds their suggestions to a set.
+     *
+     * In the concurrent lookup mode, the dictionaries other than the main and the user history
+     * ones are looked up on the lookup threads, and their suggestions are added as they come
+     * until the deadline. The lookups that miss the deadline keep running after this returns,
+     * so each of them reads its own copy of the word composer, which the caller keeps changing.
+     * @return whether the suggestions of all the dictionaries could be added
+     */
+    private boolean addSuggestionsFromDictionaries(final BoundedTreeSet suggestionsSet,
+            final WordComposer wordComposer, final CharSequence prevWordForBigram,
+            final ProximityInfo proximityInfo, final int sessionId,
+            final boolean excludeUserHistory) {
+        final ExecutorService executor = mLookupExecutor;
+        if (null == executor) {
+            for (final String key : mDictionaries.keySet()) {
+                if (excludeUserHistory && key.equals(Dictionary.TYPE_USER_HISTORY)) continue;
+                final Dictionary dictionary = mDictionaries.get(key);
+                suggestionsSet.addAll(dictionary.getSuggestionsWithSessionId(
+                        wordComposer, prevWordForBigram, proximityInfo, sessionId));
+            }
+            return true;
+        }
+
+        final long deadline = SystemClock.uptimeMillis() + LOOKUP_DEADLINE_MS;
+        final ExecutorCompletionService<ArrayList<SuggestedWordInfo>> completionService =
+                new ExecutorCompletionService<ArrayList<SuggestedWordInfo>>(executor);
+        final HashMap<Future<ArrayList<SuggestedWordInfo>>, Dictionary> lookups =
+                CollectionUtils.newHashMap();
+        final ArrayList<Dictionary> callingThreadDictionaries = CollectionUtils.newArrayList();
+        final String prevWord = (null == prevWordForBigram) ? null : prevWordForBigram.toString();
+        boolean isComplete = true;
+        for (final String key : mDictionaries.keySet()) {
+            if (excludeUserHistory && key.equals(Dictionary.TYPE_USER_HISTORY)) continue;
+            final Dictionary dictionary = mDictionaries.get(key);
+            if (key.equals(Dictionary.TYPE_MAIN) || key.equals(Dictionary.TYPE_USER_HISTORY)) {
+                callingThreadDictionaries.add(dictionary);
+                continue;
+            }
+            final Future<ArrayList<SuggestedWordInfo>> lateLookup = mLateLookups.get(dictionary);
+            if (null != lateLookup) {
+                if (!lateLookup.isDone()) {
+                    isComplete = false;
+                    continue;
+                }
+                mLateLookups.remove(dictionary);
+            }
+            final WordComposer lookupWordComposer = new WordComposer(wordComposer);
+            try {
+                lookups.put(completionService.submit(new Callable<ArrayList<SuggestedWordInfo>>() {
+                    @Override
+                    public ArrayList<SuggestedWordInfo> call() {
+                        return dictionary.getSuggestionsWithSessionId(
+                                lookupWordComposer, prevWord, proximityInfo, sessionId);
+                    }
+                }), dictionary);
+            } catch (RejectedExecutionException e) {
+                // The concurrent lookup mode has just been disabled.
+                suggestionsSet.addAll(dictionary.getSuggestionsWithSessionId(
+                        wordComposer, prevWordForBigram, proximityInfo, sessionId));
+            }
+        }
+        for (final Dictionary dictionary : callingThreadDictionaries) {
+            suggestionsSet.addAll(dictionary.getSuggestionsWithSessionId(
+                    wordComposer, prevWordForBigram, proximityInfo, sessionId));
+        }
+
+        try {
+            while (!lookups.isEmpty()) {
+                final long timeLeft = deadline - SystemClock.uptimeMillis();
+                final Future<ArrayList<SuggestedWordInfo>> lookup = timeLeft > 0
+                        ? completionService.poll(timeLeft, TimeUnit.MILLISECONDS)
+                        : completionService.poll();
+                if (null == lookup) break;
+                lookups.remove(lookup);
+                suggestionsSet.addAll(getLookupResult(lookup));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (final Future<ArrayList<SuggestedWordInfo>> lateLookup : lookups.keySet()) {
+            final Dictionary dictionary = lookups.get(lateLookup);
+            if (DBG) Log.d(TAG, "Lookup missed the deadline: " + dictionary.mDictType);
+            mLateLookups.put(dictionary, lateLookup);
+            isComplete = false;
+        }
+        return isComplete;
+    }
+
+    /**
+     * Waits for the lookup of a dictionary that missed its deadline, if any, to be done. This
+     * must be called before closing a dictionary.
+     */
+    private void waitForLateLookup(final Dictionary dictionary) {
+        final Future<ArrayList<SuggestedWordInfo>> lateLookup = mLateLookups.remove(dictionary);
+        if (null == lateLookup) return;
+        try {
+            lateLookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The dictionary is about to be closed: what went wrong with it doesn't matter.
+        }
+    }
+
+    private static ArrayList<SuggestedWordInfo> getLookupResult(
+            final Future<ArrayList<SuggestedWordInfo>> lookup) {
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            // The lookup is done, so this can't happen.
+            Thread.currentThread().interrupt();
+            return CollectionUtils.newArrayList();
+        } catch (ExecutionException e) {
+            // Throw what the dictionary threw, as if it had been looked up on this thread.
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
     private static ArrayList<SuggestedWordInfo> getSuggestionsInfoListWithDebugInfo(
             final String typedWord, final ArrayList<SuggestedWordInfo> suggestions) {
         final SuggestedWordInfo typedWordInfo = suggestions.get(0);
@@ -378,6 +607,96 @@ public final class Suggest {
     private static final SuggestedWordInfoComparator sSuggestedWordInfoComparator =
             new SuggestedWordInfoComparator();
 
+    /**
+     * Everything the suggestions for the typing input depend on.
+     */
+    private static final class SuggestionsCacheKey {
+        private static final int FLAG_CORRECTION_ENABLED = 0x01;
+        private static final int FLAG_FIRST_CHAR_CAPITALIZED = 0x02;
+        private static final int FLAG_ALL_UPPER_CASE = 0x04;
+        private static final int FLAG_RESUMED = 0x08;
+
+        private final String mTypedWord;
+        // The coordinates of the typed characters, x and y alternating.
+        private final int[] mCoordinates;
+        private final String mPrevWord;
+        private final ProximityInfo mProximityInfo;
+        private final int mFlags;
+        private final int mEpoch;
+        private final int mGeneration;
+        private final int mHashCode;
+
+        SuggestionsCacheKey(final WordComposer wordComposer, final CharSequence prevWord,
+                final ProximityInfo proximityInfo, final boolean isCorrectionEnabled,
+                final int epoch, final int generation) {
+            mTypedWord = wordComposer.getTypedWord();
+            final int size = wordComposer.size();
+            final InputPointers inputPointers = wordComposer.getInputPointers();
+            final int[] xCoordinates = inputPointers.getXCoordinates();
+            final int[] yCoordinates = inputPointers.getYCoordinates();
+            mCoordinates = new int[size * 2];
+            for (int i = 0; i < size; ++i) {
+                mCoordinates[i * 2] = i < xCoordinates.length
+                        ? xCoordinates[i] : Constants.NOT_A_COORDINATE;
+                mCoordinates[i * 2 + 1] = i < yCoordinates.length
+                        ? yCoordinates[i] : Constants.NOT_A_COORDINATE;
+            }
+            mPrevWord = (null == prevWord) ? null : prevWord.toString();
+            mProximityInfo = proximityInfo;
+            mFlags = (isCorrectionEnabled ? FLAG_CORRECTION_ENABLED : 0)
+                    | (wordComposer.isFirstCharCapitalized() ? FLAG_FIRST_CHAR_CAPITALIZED : 0)
+                    | (wordComposer.isAllUpperCase() ? FLAG_ALL_UPPER_CASE : 0)
+                    | (wordComposer.isResumed() ? FLAG_RESUMED : 0);
+            mEpoch = epoch;
+            mGeneration = generation;
+            mHashCode = Arrays.hashCode(new Object[] { mTypedWord, mPrevWord, mProximityInfo,
+                    mFlags, mEpoch, mGeneration }) * 31 + Arrays.hashCode(mCoordinates);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SuggestionsCacheKey)) return false;
+            final SuggestionsCacheKey other = (SuggestionsCacheKey)o;
+            return mHashCode == other.mHashCode && mFlags == other.mFlags
+                    && mEpoch == other.mEpoch && mGeneration == other.mGeneration
+                    && mProximityInfo == other.mProximityInfo
+                    && mTypedWord.equals(other.mTypedWord)
+                    && TextUtils.equals(mPrevWord, other.mPrevWord)
+                    && Arrays.equals(mCoordinates, other.mCoordinates);
+        }
+    }
+
+    /**
+     * Suggestions for the typing input, and the words that were logged when they were retrieved.
+     */
+    private static final class CachedSuggestions {
+        public final SuggestedWords mSuggestedWords;
+        private final String mTypedWord;
+        private final ArrayList<SuggestedWordInfo> mLoggedSuggestions;
+
+        CachedSuggestions(final SuggestedWords suggestedWords, final String typedWord,
+                final ArrayList<SuggestedWordInfo> loggedSuggestions) {
+            mSuggestedWords = suggestedWords;
+            mTypedWord = typedWord;
+            mLoggedSuggestions = loggedSuggestions;
+        }
+
+        // Logs the words as if the suggestions had just been retrieved.
+        public void logSuggestedWords() {
+            LatinImeLogger.onAddSuggestedWord(mTypedWord, Dictionary.TYPE_USER_TYPED);
+            for (final SuggestedWordInfo wordInfo : mLoggedSuggestions) {
+                LatinImeLogger.onAddSuggestedWord(wordInfo.mWord.toString(),
+                        wordInfo.mSourceDict);
+            }
+        }
+    }
+
     private static SuggestedWordInfo getTransformedSuggestedWordInfo(
             final SuggestedWordInfo wordInfo, final Locale locale, final boolean isAllUpperCase,
             final boolean isFirstCharCapitalized, final int trailingSingleQuotesCount) {
@@ -396,9 +715,11 @@ public final class Suggest {
     }
 
     public void close() {
+        setConcurrentLookupEnabled(false);
         final HashSet<Dictionary> dictionaries = CollectionUtils.newHashSet();
         dictionaries.addAll(mDictionaries.values());
         for (final Dictionary dictionary : dictionaries) {
+            waitForLateLookup(dictionary);
             dictionary.close();
         }
         mMainDictionary = null;
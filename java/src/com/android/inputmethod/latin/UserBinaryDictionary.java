@@ -28,6 +28,8 @@ import android.provider.UserDictionary.Words;
 import android.text.TextUtils;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 
 /**
  * An expandable dictionary that stores the words in the user unigram dictionary.
@@ -46,12 +48,14 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
         // 16 is JellyBean, but we want this to compile against ICS.
         if (android.os.Build.VERSION.SDK_INT >= 16) {
             PROJECTION_QUERY = new String[] {
+                Words._ID,
                 Words.WORD,
                 SHORTCUT,
                 Words.FREQUENCY,
             };
         } else {
             PROJECTION_QUERY = new String[] {
+                Words._ID,
                 Words.WORD,
                 Words.FREQUENCY,
             };
@@ -68,13 +72,36 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
     final private String mLocale;
     final private boolean mAlsoUseMoreRestrictiveLocales;
 
+    /**
+     * The rows of the user dictionary in the fusion dictionary, by id. Only accessed while the
+     * dictionary is loaded or updated.
+     */
+    private final HashMap<Long, Row> mRows = CollectionUtils.newHashMap();
+    /**
+     * The ids of the rows that have changed since the dictionary was last loaded or updated.
+     * Accesses must be synchronized on it.
+     */
+    private final HashSet<Long> mChangedRowIds = CollectionUtils.newHashSet();
+
+    private static final class Row {
+        public final String mWord;
+        public final String mShortcut;
+        public final int mFrequency;
+
+        public Row(final String word, final String shortcut, final int frequency) {
+            mWord = word;
+            mShortcut = shortcut;
+            mFrequency = frequency;
+        }
+    }
+
     public UserBinaryDictionary(final Context context, final String locale) {
         this(context, locale, false);
     }
 
     public UserBinaryDictionary(final Context context, final String locale,
             final boolean alsoUseMoreRestrictiveLocales) {
-        super(context, getFilenameWithLocale(NAME, locale), Dictionary.TYPE_USER);
+        super(context, getFilenameWithLocale(NAME, locale), Dictionary.TYPE_USER, locale);
         if (null == locale) throw new NullPointerException(); // Catch the error earlier
         if (SubtypeLocale.NO_LANGUAGE.equals(locale)) {
             // If we don't have a locale, insert into the "all locales" user dictionary.
@@ -99,13 +126,21 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
             // above will be called instead.
             @Override
             public void onChange(final boolean self, final Uri uri) {
-                setRequiresReload(true);
+                // When a single row changes, only this row is read again and applied to the
+                // dictionary. Otherwise, all the dictionary is loaded again.
+                final long rowId = getRowId(uri);
+                if (-1 != rowId) {
+                    synchronized (mChangedRowIds) {
+                        mChangedRowIds.add(rowId);
+                    }
+                    setRequiresUpdate();
+                } else {
+                    setRequiresReload(true);
+                }
                 // We want to report back to Latin IME in case the user just entered the word.
                 // If the user changed the word in the dialog box, then we want to replace
                 // what was entered in the text field.
-                if (null == uri || !(context instanceof LatinIME)) return;
-                final long changedRowId = ContentUris.parseId(uri);
-                if (-1 == changedRowId) return; // Unknown content... Not sure why we're here
+                if (-1 == rowId || !(context instanceof LatinIME)) return;
                 final String changedWord = getChangedWordForUri(uri);
                 ((LatinIME)context).onWordAddedToUserDictionary(changedWord);
             }
@@ -115,6 +150,18 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
         loadDictionary();
     }
 
+    /**
+     * Returns the id of the row of a uri to a single word, or -1 if the uri is not such a uri.
+     */
+    private static long getRowId(final Uri uri) {
+        if (null == uri) return -1;
+        try {
+            return ContentUris.parseId(uri);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     private String getChangedWordForUri(final Uri uri) {
         final Cursor cursor = mContext.getContentResolver().query(uri,
                 PROJECTION_QUERY, null, null, null);
@@ -139,6 +186,83 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
 
     @Override
     public void loadDictionaryAsync() {
+        synchronized (mChangedRowIds) {
+            // The rows are all read again.
+            mChangedRowIds.clear();
+        }
+        final Cursor cursor = queryWords(null);
+        try {
+            addWords(cursor);
+        } finally {
+            if (null != cursor) cursor.close();
+        }
+    }
+
+    @Override
+    protected boolean usesIncrementalUpdates() {
+        return true;
+    }
+
+    @Override
+    protected boolean updateDictionaryAsync() {
+        final Long[] changedRowIds;
+        synchronized (mChangedRowIds) {
+            changedRowIds = mChangedRowIds.toArray(new Long[mChangedRowIds.size()]);
+            mChangedRowIds.clear();
+        }
+        if (0 == changedRowIds.length) return true;
+        final StringBuilder selection = new StringBuilder(Words._ID + " in (");
+        for (int i = 0; i < changedRowIds.length; ++i) {
+            if (i > 0) selection.append(',');
+            selection.append(changedRowIds[i]);
+        }
+        selection.append(')');
+        final Cursor cursor = queryWords(selection.toString());
+        if (null == cursor) return false;
+        // The words that the changed rows had or now have. Several rows may have the same word,
+        // for example in different locales, so these words are removed and then added again from
+        // all the rows that have them.
+        final HashSet<String> changedWords = CollectionUtils.newHashSet();
+        try {
+            for (final Long rowId : changedRowIds) {
+                // A row that is not found has been removed, or moved to another locale.
+                addWordsOfRow(changedWords, mRows.remove(rowId));
+            }
+            final HashMap<Long, Row> rows = readRows(cursor);
+            mRows.putAll(rows);
+            for (final Row row : rows.values()) {
+                addWordsOfRow(changedWords, row);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (final String word : changedWords) {
+            removeWord(word);
+        }
+        for (final Row row : mRows.values()) {
+            if (changedWords.contains(row.mWord)) {
+                addWord(row.mWord, null, row.mFrequency);
+            }
+            if (null != row.mShortcut && changedWords.contains(row.mShortcut)) {
+                addWord(row.mShortcut, row.mWord, row.mFrequency);
+            }
+        }
+        return true;
+    }
+
+    private static void addWordsOfRow(final HashSet<String> words, final Row row) {
+        if (null == row) return;
+        words.add(row.mWord);
+        if (null != row.mShortcut) words.add(row.mShortcut);
+    }
+
+    /**
+     * Queries the words of the user dictionary for the locale of this dictionary.
+     *
+     * @param selection an additional selection, or null.
+     * @return the cursor, or null if the query failed.
+     */
+    private Cursor queryWords(final String selection) {
         // Split the locale. For example "en" => ["en"], "de_DE" => ["de", "DE"],
         // "en_US_foo_bar_qux" => ["en", "US", "foo_bar_qux"] because of the limit of 3.
         // This is correct for locale processing.
@@ -186,13 +310,11 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
         } else {
             requestArguments = localeElements;
         }
-        final Cursor cursor = mContext.getContentResolver().query(
-                Words.CONTENT_URI, PROJECTION_QUERY, request.toString(), requestArguments, null);
-        try {
-            addWords(cursor);
-        } finally {
-            if (null != cursor) cursor.close();
+        if (null != selection) {
+            request.insert(0, '(').append(") and (").append(selection).append(')');
         }
+        return mContext.getContentResolver().query(
+                Words.CONTENT_URI, PROJECTION_QUERY, request.toString(), requestArguments, null);
     }
 
     public boolean isEnabled() {
@@ -233,28 +355,44 @@ public class UserBinaryDictionary extends ExpandableBinaryDictionary {
     }
 
     private void addWords(Cursor cursor) {
-        // 16 is JellyBean, but we want this to compile against ICS.
-        final boolean hasShortcutColumn = android.os.Build.VERSION.SDK_INT >= 16;
         clearFusionDictionary();
+        mRows.clear();
         if (cursor == null) return;
+        mRows.putAll(readRows(cursor));
+        for (final Row row : mRows.values()) {
+            addWord(row.mWord, null, row.mFrequency);
+            if (null != row.mShortcut) {
+                addWord(row.mShortcut, row.mWord, row.mFrequency);
+            }
+        }
+    }
+
+    @Override
+    protected void addWord(final String word, final String shortcutTarget, final int frequency) {
+        // Safeguard against adding really long words.
+        if (word.length() >= MAX_WORD_LENGTH) return;
+        super.addWord(word, shortcutTarget, frequency);
+    }
+
+    private static HashMap<Long, Row> readRows(final Cursor cursor) {
+        // 16 is JellyBean, but we want this to compile against ICS.
+        final boolean hasShortcutColumn = android.os.Build.VERSION.SDK_INT >= 16;
+        final HashMap<Long, Row> rows = CollectionUtils.newHashMap();
         if (cursor.moveToFirst()) {
+            final int indexId = cursor.getColumnIndex(Words._ID);
             final int indexWord = cursor.getColumnIndex(Words.WORD);
             final int indexShortcut = hasShortcutColumn ? cursor.getColumnIndex(SHORTCUT) : 0;
             final int indexFrequency = cursor.getColumnIndex(Words.FREQUENCY);
             while (!cursor.isAfterLast()) {
+                final long id = cursor.getLong(indexId);
                 final String word = cursor.getString(indexWord);
                 final String shortcut = hasShortcutColumn ? cursor.getString(indexShortcut) : null;
                 final int frequency = cursor.getInt(indexFrequency);
-                // Safeguard against adding really long words.
-                if (word.length() < MAX_WORD_LENGTH) {
-                    super.addWord(word, null, frequency);
-                }
-                if (null != shortcut && shortcut.length() < MAX_WORD_LENGTH) {
-                    super.addWord(shortcut, word, frequency);
-                }
+                rows.put(id, new Row(word, shortcut, frequency));
                 cursor.moveToNext();
             }
         }
+        return rows;
     }
 
     @Override
@@ -27,11 +27,18 @@ import com.android.inputmethod.latin.makedict.FusionDictionary.Node;
 import com.android.inputmethod.latin.makedict.PendingAttribute;
 import com.android.inputmethod.latin.makedict.UnsupportedFormatException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.CRC32;
 
 /**
  * Reads and writes Binary files for a UserHistoryDictionary.
@@ -51,6 +58,20 @@ public final class UserHistoryDictIOUtils {
         public int getFrequency(final String word1, final String word2);
     }
 
+    public interface OnReadJournalListener {
+        /**
+         * Called for each unigram or bigram updated in the journal.
+         * @param word1 the first word of the bigram, or null for a unigram.
+         * @param frequency the frequency, or -1 if the bigram has been removed.
+         * @param time the time the update was written to the journal.
+         */
+        public void setBigram(final String word1, final String word2, final int frequency,
+                final long time);
+    }
+
+    // A journal batch bigger than this is considered to be corrupted.
+    private static final int MAX_JOURNAL_BATCH_SIZE = 4 * 1024 * 1024;
+
     public static final class ByteArrayWrapper implements FusionDictionaryBufferInterface {
         private byte[] mBuffer;
         private int mPosition;
@@ -111,19 +132,123 @@ public final class UserHistoryDictIOUtils {
 
     /**
      * Writes dictionary to file.
+     * @return true if the dictionary was successfully written.
      */
-    public static void writeDictionaryBinary(final OutputStream destination,
+    public static boolean writeDictionaryBinary(final OutputStream destination,
             final BigramDictionaryInterface dict, final UserHistoryDictionaryBigramList bigrams,
             final FormatOptions formatOptions) {
         final FusionDictionary fusionDict = constructFusionDictionary(dict, bigrams);
         try {
             BinaryDictInputOutput.writeDictionaryBinary(destination, fusionDict, formatOptions);
             Log.d(TAG, "end writing");
+            return true;
         } catch (IOException e) {
             Log.e(TAG, "IO exception while writing file: " + e);
         } catch (UnsupportedFormatException e) {
             Log.e(TAG, "Unsupported fomat: " + e);
         }
+        return false;
+    }
+
+    /**
+     * Appends the updated unigrams and bigrams to a journal.
+     *
+     * The frequencies are computed and saved in the bigram list the same way as when writing the
+     * whole dictionary, and a bigram that is not in the bigram list any more is written as
+     * removed. The updates are written as a single batch, made of the size and the checksum of
+     * the batch followed by the time and the updates, so that a batch that was not completely
+     * written is ignored when reading the journal.
+     *
+     * @param destination the stream to append to.
+     * @param time the time of the updates.
+     * @param dict the dictionary to get the frequencies from.
+     * @param bigrams all the bigrams of the dictionary.
+     * @param updatedBigrams the unigrams and bigrams that have been updated.
+     */
+    public static void writeJournalBatch(final OutputStream destination, final long time,
+            final BigramDictionaryInterface dict, final UserHistoryDictionaryBigramList bigrams,
+            final UserHistoryDictionaryBigramList updatedBigrams) throws IOException {
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(batch);
+        out.writeLong(time);
+        out.writeInt(updatedBigrams.size());
+        for (int i = updatedBigrams.nextIndex(0); i >= 0; i = updatedBigrams.nextIndex(i + 1)) {
+            final String word1 = updatedBigrams.getWord1(i);
+            final String word2 = updatedBigrams.getWord2(i);
+            final int freq;
+            if (bigrams.hasBigram(word1, word2)) {
+                freq = dict.getFrequency(word1, word2);
+            } else {
+                freq = -1;
+            }
+            if (DEBUG) {
+                Log.d(TAG, "journal: " + word1 + "," + word2 + "," + freq);
+            }
+            out.writeBoolean(word1 != null);
+            if (word1 != null) {
+                out.writeUTF(word1);
+            }
+            out.writeUTF(word2);
+            out.writeShort(freq);
+            if (freq != -1) {
+                bigrams.updateBigram(word1, word2, (byte)freq);
+            }
+        }
+        out.flush();
+
+        final byte[] bytes = batch.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        final DataOutputStream header = new DataOutputStream(destination);
+        header.writeInt(bytes.length);
+        header.writeInt((int)crc.getValue());
+        header.write(bytes);
+        header.flush();
+    }
+
+    /**
+     * Reads a journal written by {@link #writeJournalBatch}.
+     *
+     * Reading stops at the first batch that was not completely written or is corrupted, as any
+     * update following it can't be trusted.
+     */
+    public static void readJournal(final InputStream source, final OnReadJournalListener to)
+            throws IOException {
+        final DataInputStream in = new DataInputStream(source);
+        final CRC32 crc = new CRC32();
+        while (true) {
+            final int size;
+            final int checksum;
+            final byte[] bytes;
+            try {
+                size = in.readInt();
+                checksum = in.readInt();
+                if (size < 0 || size > MAX_JOURNAL_BATCH_SIZE) {
+                    Log.e(TAG, "Corrupted journal batch of size " + size);
+                    return;
+                }
+                bytes = new byte[size];
+                in.readFully(bytes);
+            } catch (EOFException e) {
+                // Either the end of the journal, or a batch that was not completely written.
+                return;
+            }
+            crc.reset();
+            crc.update(bytes);
+            if ((int)crc.getValue() != checksum) {
+                Log.e(TAG, "Corrupted journal batch");
+                return;
+            }
+            final DataInputStream batch = new DataInputStream(new ByteArrayInputStream(bytes));
+            final long time = batch.readLong();
+            final int count = batch.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String word1 = batch.readBoolean() ? batch.readUTF() : null;
+                final String word2 = batch.readUTF();
+                final int freq = batch.readShort();
+                to.setBigram(word1, word2, freq, time);
+            }
+        }
     }
 
     /**
@@ -135,33 +260,32 @@ public final class UserHistoryDictIOUtils {
                 new FusionDictionary.DictionaryOptions(new HashMap<String, String>(), false,
                         false));
         int profTotal = 0;
-        for (final String word1 : bigrams.keySet()) {
-            final HashMap<String, Byte> word1Bigrams = bigrams.getBigrams(word1);
-            for (final String word2 : word1Bigrams.keySet()) {
-                final int freq = dict.getFrequency(word1, word2);
-                if (freq == -1) {
-                    // don't add this bigram.
-                    continue;
-                }
-                if (DEBUG) {
-                    if (word1 == null) {
-                        Log.d(TAG, "add unigram: " + word2 + "," + Integer.toString(freq));
-                    } else {
-                        Log.d(TAG, "add bigram: " + word1
-                                + "," + word2 + "," + Integer.toString(freq));
-                    }
-                    profTotal++;
+        for (int i = bigrams.nextIndex(0); i >= 0; i = bigrams.nextIndex(i + 1)) {
+            final String word1 = bigrams.getWord1(i);
+            final String word2 = bigrams.getWord2(i);
+            final int freq = dict.getFrequency(word1, word2);
+            if (freq == -1) {
+                // don't add this bigram.
+                continue;
+            }
+            if (DEBUG) {
+                if (word1 == null) {
+                    Log.d(TAG, "add unigram: " + word2 + "," + Integer.toString(freq));
+                } else {
+                    Log.d(TAG, "add bigram: " + word1
+                            + "," + word2 + "," + Integer.toString(freq));
                 }
-                if (word1 == null) { // unigram
-                    fusionDict.add(word2, freq, null, false /* isNotAWord */);
-                } else { // bigram
-                    if (FusionDictionary.findWordInTree(fusionDict.mRoot, word1) == null) {
-                        fusionDict.add(word1, 2, null, false /* isNotAWord */);
-                    }
-                    fusionDict.setBigram(word1, word2, freq);
+                profTotal++;
+            }
+            if (word1 == null) { // unigram
+                fusionDict.add(word2, freq, null, false /* isNotAWord */);
+            } else { // bigram
+                if (FusionDictionary.findWordInTree(fusionDict.mRoot, word1) == null) {
+                    fusionDict.add(word1, 2, null, false /* isNotAWord */);
                 }
-                bigrams.updateBigram(word1, word2, (byte)freq);
+                fusionDict.setBigram(word1, word2, freq);
             }
+            bigrams.setFcValue(i, (byte)freq);
         }
         if (DEBUG) {
             Log.d(TAG, "add " + profTotal + "words");
@@ -19,22 +19,30 @@ package com.android.inputmethod.latin;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.AsyncTask;
+import android.text.format.DateUtils;
 import android.util.Log;
 
 import com.android.inputmethod.keyboard.ProximityInfo;
 import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
 import com.android.inputmethod.latin.UserHistoryDictIOUtils.BigramDictionaryInterface;
 import com.android.inputmethod.latin.UserHistoryDictIOUtils.OnAddWordListener;
+import com.android.inputmethod.latin.UserHistoryDictIOUtils.OnReadJournalListener;
 import com.android.inputmethod.latin.UserHistoryForgettingCurveUtils.ForgettingCurveParams;
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
 import com.android.inputmethod.latin.makedict.FormatSpec.FormatOptions;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -66,11 +74,23 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
      */
     public static final int DELETE_HISTORY_BIGRAMS = 1000;
 
+    /**
+     * The updates are appended to a journal, and the whole dictionary is only written again when
+     * the journal gets bigger than the dictionary file, with a minimum of this size, or when the
+     * dictionary file is older than COMPACTION_INTERVAL_IN_MILLIS. Writing the whole dictionary
+     * also removes the bigrams that have been forgotten.
+     */
+    private static final int MIN_JOURNAL_SIZE_FOR_COMPACTION = 32 * 1024;
+    private static final long COMPACTION_INTERVAL_IN_MILLIS = DateUtils.DAY_IN_MILLIS;
+
     /** Locale for which this user history dictionary is storing words */
     private final String mLocale;
 
     private final UserHistoryDictionaryBigramList mBigramList =
             new UserHistoryDictionaryBigramList();
+    // The unigrams and bigrams updated since the last write, which go to the journal.
+    private final UserHistoryDictionaryBigramList mUpdatedBigramList =
+            new UserHistoryDictionaryBigramList();
     private final ReentrantLock mBigramListLock = new ReentrantLock();
     private final SharedPreferences mPrefs;
 
@@ -100,7 +120,7 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
 
     private UserHistoryDictionary(final Context context, final String locale,
             final SharedPreferences sp) {
-        super(context, Dictionary.TYPE_USER_HISTORY);
+        super(context, Dictionary.TYPE_USER_HISTORY, locale);
         mLocale = locale;
         mPrefs = sp;
         if (mLocale != null && mLocale.length() > 1) {
@@ -155,6 +175,7 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
                 super.addWord(
                         word2, null /* the "shortcut" parameter is null */, FREQUENCY_FOR_TYPED);
                 mBigramList.addBigram(null, word2, (byte)FREQUENCY_FOR_TYPED);
+                mUpdatedBigramList.addBigram(null, word2);
                 // Do not insert a word as a bigram of itself
                 if (word2.equals(word1)) {
                     return 0;
@@ -167,6 +188,7 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
                             word1, word2, new ForgettingCurveParams(isValid));
                 }
                 mBigramList.addBigram(word1, word2);
+                mUpdatedBigramList.addBigram(word1, word2);
                 return freq;
             } finally {
                 mBigramListLock.unlock();
@@ -179,6 +201,7 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
         if (mBigramListLock.tryLock()) {
             try {
                 if (mBigramList.removeBigram(word1, word2)) {
+                    mUpdatedBigramList.addBigram(word1, word2);
                     return super.removeBigram(word1, word2);
                 }
             } finally {
@@ -188,12 +211,38 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
         return false;
     }
 
+    /**
+     * Ages all the bigrams in one sweep, and forgets the ones that have decayed, so that looking
+     * a bigram up does not need to age it. This runs after loading the dictionary and before each
+     * write, and must be called with mBigramListLock held.
+     */
+    private void decayBigramsLocked() {
+        final long now = System.currentTimeMillis();
+        final int[] forgottenCount = new int[1];
+        final int agedCount = decayBigrams(now, new OnBigramForgottenListener() {
+            @Override
+            public void onBigramForgotten(final String word1, final String word2) {
+                // Like a cancelled bigram, so that the next write removes it.
+                if (mBigramList.removeBigram(word1, word2)) {
+                    mUpdatedBigramList.addBigram(word1, word2);
+                }
+                ++forgottenCount[0];
+            }
+        });
+        if (PROFILE_SAVE_RESTORE) {
+            final long diff = System.currentTimeMillis() - now;
+            Log.d(TAG, "PROF: Decay UserHistoryDictionary: " + mLocale + ", " + diff + "ms. aged "
+                    + agedCount + " bigrams, forgot " + forgottenCount[0] + " bigrams.");
+        }
+    }
+
     /**
      * Schedules a background thread to write any pending words to the database.
      */
     private void flushPendingWrites() {
         // Create a background thread to write the pending entries
-        new UpdateBinaryTask(mBigramList, mLocale, this, mPrefs, getContext()).execute();
+        new UpdateBinaryTask(mBigramList, mUpdatedBigramList, mLocale, this, mPrefs,
+                getContext()).execute();
     }
 
     @Override
@@ -219,65 +268,153 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
             }
         }
         final long last = SettingsValues.getLastUserHistoryWriteTime(mPrefs, mLocale);
-        final boolean initializing = last == 0;
         final long now = System.currentTimeMillis();
         profTotal = 0;
-        final String fileName = NAME + "." + mLocale + ".dict";
-        final ExpandableDictionary dictionary = this;
+        // The bigrams are gathered from the dictionary file and from the journal of the updates
+        // that followed it before being added, so that each one is only added once.
+        final HashMap<String, HashMap<String, StoredBigram>> storedBigrams =
+                CollectionUtils.newHashMap();
         final OnAddWordListener listener = new OnAddWordListener() {
             @Override
             public void setUnigram(String word, String shortcutTarget, int frequency) {
+                putStoredBigram(storedBigrams, null, word, frequency, last);
+            }
+
+            @Override
+            public void setBigram(String word1, String word2, int frequency) {
+                putStoredBigram(storedBigrams, word1, word2, frequency, last);
+            }
+        };
+        final OnReadJournalListener journalListener = new OnReadJournalListener() {
+            @Override
+            public void setBigram(String word1, String word2, int frequency, long time) {
+                if (frequency == -1) {
+                    final HashMap<String, StoredBigram> bigrams = storedBigrams.get(word1);
+                    if (bigrams != null) {
+                        bigrams.remove(word2);
+                    }
+                    return;
+                }
+                if (word1 != null) {
+                    // Like when writing the whole dictionary, the first word of a bigram is
+                    // also a unigram.
+                    final HashMap<String, StoredBigram> unigrams = storedBigrams.get(null);
+                    if (unigrams == null || !unigrams.containsKey(word1)) {
+                        putStoredBigram(storedBigrams, null, word1, FREQUENCY_FOR_TYPED, time);
+                    }
+                }
+                putStoredBigram(storedBigrams, word1, word2, frequency, time);
+            }
+        };
+
+        // Load the dictionary from binary file
+        final SnapshotFile.Snapshot snapshot =
+                getDictionaryFile(getContext(), mLocale).getLatestSnapshot();
+        if (snapshot == null) {
+            Log.e(TAG, "when loading: no valid file");
+        } else {
+            try {
+                UserHistoryDictIOUtils.readDictionaryBinary(BinaryDictInputOutput.openMappedBuffer(
+                        snapshot.mFile, snapshot.mOffset, snapshot.mLength), listener);
+            } catch (FileNotFoundException e) {
+                Log.e(TAG, "when loading: file not found" + e);
+            } catch (IOException e) {
+                Log.e(TAG, "IOException when open bytebuffer: " + e);
+            }
+        }
+        final File journalFile = getJournalFile(getContext(), mLocale);
+        if (journalFile.exists()) {
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(journalFile);
+                UserHistoryDictIOUtils.readJournal(new BufferedInputStream(in), journalListener);
+            } catch (IOException e) {
+                Log.e(TAG, "IOException when reading the journal: " + e);
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+
+        final HashMap<String, StoredBigram> unigrams = storedBigrams.get(null);
+        if (unigrams != null) {
+            for (final Map.Entry<String, StoredBigram> entry : unigrams.entrySet()) {
+                final String word = entry.getKey();
+                final int frequency = entry.getValue().mFrequency;
                 profTotal++;
                 if (DBG_SAVE_RESTORE) {
                     Log.d(TAG, "load unigram: " + word + "," + frequency);
                 }
-                dictionary.addWord(word, shortcutTarget, frequency);
+                addWord(word, null, frequency);
                 mBigramList.addBigram(null, word, (byte)frequency);
             }
-
-            @Override
-            public void setBigram(String word1, String word2, int frequency) {
+        }
+        for (final Map.Entry<String, HashMap<String, StoredBigram>> entry
+                : storedBigrams.entrySet()) {
+            final String word1 = entry.getKey();
+            if (word1 == null) continue;
+            for (final Map.Entry<String, StoredBigram> bigram : entry.getValue().entrySet()) {
+                final String word2 = bigram.getKey();
+                final int frequency = bigram.getValue().mFrequency;
                 if (word1.length() < BinaryDictionary.MAX_WORD_LENGTH
                         && word2.length() < BinaryDictionary.MAX_WORD_LENGTH) {
                     profTotal++;
                     if (DBG_SAVE_RESTORE) {
                         Log.d(TAG, "load bigram: " + word1 + "," + word2 + "," + frequency);
                     }
-                    dictionary.setBigramAndGetFrequency(
-                            word1, word2, initializing ? new ForgettingCurveParams(true)
-                            : new ForgettingCurveParams(frequency, now, last));
+                    final long time = bigram.getValue().mTime;
+                    setBigramAndGetFrequency(word1, word2, time == 0
+                            ? new ForgettingCurveParams(true)
+                            : new ForgettingCurveParams(frequency, now, time));
                 }
                 mBigramList.addBigram(word1, word2, (byte)frequency);
             }
-        };
-        
-        // Load the dictionary from binary file
-        FileInputStream inStream = null;
-        try {
-            final File file = new File(getContext().getFilesDir(), fileName);
-            final byte[] buffer = new byte[(int)file.length()];
-            inStream = new FileInputStream(file);
-            inStream.read(buffer);
-            UserHistoryDictIOUtils.readDictionaryBinary(
-                    new UserHistoryDictIOUtils.ByteArrayWrapper(buffer), listener);
-        } catch (FileNotFoundException e) {
-            Log.e(TAG, "when loading: file not found" + e);
-        } catch (IOException e) {
-            Log.e(TAG, "IOException when open bytebuffer: " + e);
-        } finally {
-            if (inStream != null) {
-                try {
-                    inStream.close();
-                } catch (IOException e) {
-                    // do nothing
-                }
-            }
-            if (PROFILE_SAVE_RESTORE) {
-                final long diff = System.currentTimeMillis() - now;
-                Log.d(TAG, "PROF: Load UserHistoryDictionary: "
-                        + mLocale + ", " + diff + "ms. load " + profTotal + "entries.");
-            }
         }
+        if (PROFILE_SAVE_RESTORE) {
+            final long diff = System.currentTimeMillis() - now;
+            Log.d(TAG, "PROF: Load UserHistoryDictionary: "
+                    + mLocale + ", " + diff + "ms. load " + profTotal + "entries.");
+        }
+        decayBigramsLocked();
+    }
+
+    /**
+     * A unigram or a bigram read from the dictionary file or the journal.
+     */
+    private static final class StoredBigram {
+        public final int mFrequency;
+        // The time the bigram was written, or 0 if it is unknown.
+        public final long mTime;
+
+        public StoredBigram(final int frequency, final long time) {
+            mFrequency = frequency;
+            mTime = time;
+        }
+    }
+
+    private static void putStoredBigram(
+            final HashMap<String, HashMap<String, StoredBigram>> storedBigrams,
+            final String word1, final String word2, final int frequency, final long time) {
+        HashMap<String, StoredBigram> bigrams = storedBigrams.get(word1);
+        if (bigrams == null) {
+            bigrams = CollectionUtils.newHashMap();
+            storedBigrams.put(word1, bigrams);
+        }
+        bigrams.put(word2, new StoredBigram(frequency, time));
+    }
+
+    private static SnapshotFile getDictionaryFile(final Context context, final String locale) {
+        return new SnapshotFile(new File(context.getFilesDir(), NAME + "." + locale + ".dict"));
+    }
+
+    /* package for test */ static File getJournalFile(final Context context,
+            final String locale) {
+        return new File(context.getFilesDir(), NAME + "." + locale + ".journal");
     }
 
     /**
@@ -286,15 +423,18 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
     private static final class UpdateBinaryTask extends AsyncTask<Void, Void, Void>
             implements BigramDictionaryInterface {
         private final UserHistoryDictionaryBigramList mBigramList;
+        private final UserHistoryDictionaryBigramList mUpdatedBigramList;
         private final boolean mAddLevel0Bigrams;
         private final String mLocale;
         private final UserHistoryDictionary mUserHistoryDictionary;
         private final SharedPreferences mPrefs;
         private final Context mContext;
 
-        public UpdateBinaryTask(UserHistoryDictionaryBigramList pendingWrites, String locale,
+        public UpdateBinaryTask(UserHistoryDictionaryBigramList pendingWrites,
+                UserHistoryDictionaryBigramList updatedBigrams, String locale,
                 UserHistoryDictionary dict, SharedPreferences prefs, Context context) {
             mBigramList = pendingWrites;
+            mUpdatedBigramList = updatedBigrams;
             mLocale = locale;
             mUserHistoryDictionary = dict;
             mPrefs = prefs;
@@ -329,16 +469,37 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
                 }
             }
 
+            mUserHistoryDictionary.decayBigramsLocked();
             final long now = PROFILE_SAVE_RESTORE ? System.currentTimeMillis() : 0;
-            final String fileName = NAME + "." + mLocale + ".dict";
-            final File file = new File(mContext.getFilesDir(), fileName);
+            final SnapshotFile file = getDictionaryFile(mContext, mLocale);
+            final File journalFile = getJournalFile(mContext, mLocale);
+            final boolean isCompacting = needsCompaction(file, journalFile);
+            if (!isCompacting && mUpdatedBigramList.isEmpty()) {
+                return;
+            }
             FileOutputStream out = null;
+            boolean success = false;
 
             try {
-                out = new FileOutputStream(file);
-                UserHistoryDictIOUtils.writeDictionaryBinary(out, this, mBigramList, VERSION3);
-                out.flush();
-                out.close();
+                if (isCompacting) {
+                    file.write(new SnapshotFile.ContentWriter() {
+                        @Override
+                        public void writeTo(final OutputStream destination)
+                                throws IOException {
+                            if (!UserHistoryDictIOUtils.writeDictionaryBinary(destination,
+                                    UpdateBinaryTask.this, mBigramList, VERSION3)) {
+                                throw new IOException("Can't write the dictionary");
+                            }
+                        }
+                    });
+                } else {
+                    out = new FileOutputStream(journalFile, true /* append */);
+                    UserHistoryDictIOUtils.writeJournalBatch(new BufferedOutputStream(out),
+                            System.currentTimeMillis(), this, mBigramList, mUpdatedBigramList);
+                    out.getFD().sync();
+                    out.close();
+                }
+                success = true;
             } catch (IOException e) {
                 Log.e(TAG, "IO Exception while writing file: " + e);
             } finally {
@@ -350,13 +511,35 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
                     }
                 }
             }
+            if (!success) {
+                // Keep the updates for the next write.
+                return;
+            }
+            mUpdatedBigramList.evictAll();
 
-            // Save the timestamp after we finish writing the binary dictionary.
-            SettingsValues.setLastUserHistoryWriteTime(mPrefs, mLocale);
+            if (isCompacting) {
+                // The updates in the journal are all in the new dictionary file.
+                journalFile.delete();
+                // Save the timestamp after we finish writing the binary dictionary.
+                SettingsValues.setLastUserHistoryWriteTime(mPrefs, mLocale);
+            }
             if (PROFILE_SAVE_RESTORE) {
                 final long diff = System.currentTimeMillis() - now;
-                Log.w(TAG, "PROF: Write User HistoryDictionary: " + mLocale + ", " + diff + "ms.");
+                Log.w(TAG, "PROF: Write User HistoryDictionary: " + mLocale + ", " + diff + "ms"
+                        + (isCompacting ? "." : " (journal)."));
+            }
+        }
+
+        private boolean needsCompaction(final SnapshotFile file, final File journalFile) {
+            if (DBG_ALWAYS_WRITE || !file.exists() || !mAddLevel0Bigrams) {
+                return true;
+            }
+            final long lastWriteTime = SettingsValues.getLastUserHistoryWriteTime(mPrefs, mLocale);
+            if (System.currentTimeMillis() - lastWriteTime > COMPACTION_INTERVAL_IN_MILLIS) {
+                return true;
             }
+            return journalFile.length()
+                    > Math.max(MIN_JOURNAL_SIZE_FOR_COMPACTION, file.length());
         }
 
         @Override
@@ -364,12 +547,11 @@ public final class UserHistoryDictionary extends ExpandableDictionary {
             final int freq;
             if (word1 == null) { // unigram
                 freq = FREQUENCY_FOR_TYPED;
-                final byte prevFc = mBigramList.getBigrams(word1).get(word2);
             } else { // bigram
-                final NextWord nw = mUserHistoryDictionary.getBigramWord(word1, word2);
-                if (nw != null) {
-                    final ForgettingCurveParams fcp = nw.getFcParams();
-                    final byte prevFc = mBigramList.getBigrams(word1).get(word2);
+                final ForgettingCurveParams fcp =
+                        mUserHistoryDictionary.getBigramFcParams(word1, word2);
+                if (fcp != null) {
+                    final byte prevFc = mBigramList.getFcValue(word1, word2);
                     final byte fc = fcp.getFc();
                     final boolean isValid = fcp.isValid();
                     if (prevFc > 0 && prevFc == fc) {
@@ -18,24 +18,72 @@ package com.android.inputmethod.latin;
 
 import android.util.Log;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Set;
 
 /**
  * A store of bigrams which will be updated when the user history dictionary is closed
  * All bigrams including stale ones in SQL DB should be stored in this class to avoid adding stale
  * bigrams when we write to the SQL DB.
+ *
+ * The words are interned in a table that gives each of them an int id, and the bigrams are kept
+ * in an open addressing hash table with linear probing, keyed by the ids of their two words and
+ * holding their forgetting curve value. A null first word stands for the unigrams.
+ *
+ * The bigrams can be iterated over by index:
+ * <pre>
+ * for (int i = list.nextIndex(0); i >= 0; i = list.nextIndex(i + 1)) {
+ *     ... list.getWord1(i), list.getWord2(i), list.getFcValue(i) ...
+ * }
+ * </pre>
+ * Adding or removing bigrams invalidates the indices, but updating them does not.
  */
 public final class UserHistoryDictionaryBigramList {
     public static final byte FORGETTING_CURVE_INITIAL_VALUE = 0;
     private static final String TAG = UserHistoryDictionaryBigramList.class.getSimpleName();
-    private static final HashMap<String, Byte> EMPTY_BIGRAM_MAP = CollectionUtils.newHashMap();
-    private final HashMap<String, HashMap<String, Byte>> mBigramMap = CollectionUtils.newHashMap();
-    private int mSize = 0;
+
+    // Must be a power of 2.
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_WORD_CAPACITY = 32;
+    private static final long NO_KEY = -1;
+    private static final int NULL_WORD_ID = 0;
+    private static final int NOT_A_WORD_ID = -1;
+
+    // The interned words. The id of a word is its index in mWords.
+    private final HashMap<String, Integer> mWordIds = CollectionUtils.newHashMap();
+    private String[] mWords;
+    // The number of bigrams each word is in, and is the first word of.
+    private int[] mWordRefCounts;
+    private int[] mFirstWordCounts;
+    private int mWordIdCount;
+    // The ids of the words that were released, to be reused.
+    private int[] mFreeWordIds;
+    private int mFreeWordIdCount;
+
+    // The bigrams. An empty slot has the key NO_KEY.
+    private long[] mKeys;
+    private byte[] mFcValues;
+    private int mSize;
+
+    public UserHistoryDictionaryBigramList() {
+        evictAll();
+    }
 
     public void evictAll() {
+        mWordIds.clear();
+        mWords = new String[INITIAL_WORD_CAPACITY];
+        mWordRefCounts = new int[INITIAL_WORD_CAPACITY];
+        mFirstWordCounts = new int[INITIAL_WORD_CAPACITY];
+        mFreeWordIds = new int[INITIAL_WORD_CAPACITY];
+        mFreeWordIdCount = 0;
+        // The id of the null word is reserved.
+        mWordIdCount = NULL_WORD_ID + 1;
+        mKeys = new long[INITIAL_CAPACITY];
+        Arrays.fill(mKeys, NO_KEY);
+        mFcValues = new byte[INITIAL_CAPACITY];
         mSize = 0;
-        mBigramMap.clear();
     }
 
     /**
@@ -52,17 +100,21 @@ public final class UserHistoryDictionaryBigramList {
         if (UserHistoryDictionary.DBG_SAVE_RESTORE) {
             Log.d(TAG, "--- add bigram: " + word1 + ", " + word2 + ", " + fcValue);
         }
-        final HashMap<String, Byte> map;
-        if (mBigramMap.containsKey(word1)) {
-            map = mBigramMap.get(word1);
-        } else {
-            map = CollectionUtils.newHashMap();
-            mBigramMap.put(word1, map);
+        if (findSlot(getWordId(word1), getWordId(word2)) >= 0) return;
+        if ((mSize + 1) * 2 > mKeys.length) {
+            rehash(mKeys.length * 2);
         }
-        if (!map.containsKey(word2)) {
-            ++mSize;
-            map.put(word2, fcValue);
+        final int id1 = internWord(word1);
+        final int id2 = internWord(word2);
+        ++mFirstWordCounts[id1];
+        final long key = getKey(id1, id2);
+        int slot = getHomeSlot(key);
+        while (NO_KEY != mKeys[slot]) {
+            slot = (slot + 1) & (mKeys.length - 1);
         }
+        mKeys[slot] = key;
+        mFcValues[slot] = fcValue;
+        ++mSize;
     }
 
     /**
@@ -72,16 +124,11 @@ public final class UserHistoryDictionaryBigramList {
         if (UserHistoryDictionary.DBG_SAVE_RESTORE) {
             Log.d(TAG, "--- update bigram: " + word1 + ", " + word2 + ", " + fcValue);
         }
-        final HashMap<String, Byte> map;
-        if (mBigramMap.containsKey(word1)) {
-            map = mBigramMap.get(word1);
-        } else {
-            return;
-        }
-        if (!map.containsKey(word2)) {
+        final int slot = findSlot(getWordId(word1), getWordId(word2));
+        if (slot < 0) {
             return;
         }
-        map.put(word2, fcValue);
+        mFcValues[slot] = fcValue;
     }
 
     public int size() {
@@ -89,31 +136,207 @@ public final class UserHistoryDictionaryBigramList {
     }
 
     public boolean isEmpty() {
-        return mBigramMap.isEmpty();
+        return 0 == mSize;
     }
 
+    /**
+     * Returns a copy of the set of the first words of the bigrams.
+     */
     public Set<String> keySet() {
-        return mBigramMap.keySet();
+        final HashSet<String> words = CollectionUtils.newHashSet();
+        for (int id = 0; id < mWordIdCount; ++id) {
+            if (mFirstWordCounts[id] > 0) words.add(mWords[id]);
+        }
+        return words;
     }
 
+    /**
+     * Returns a copy of the bigrams of a word, with their forgetting curve values. This scans all
+     * the bigrams: use {@link #hasBigram} or {@link #getFcValue(String, String)} to look a
+     * bigram up.
+     */
     public HashMap<String, Byte> getBigrams(String word1) {
-        if (mBigramMap.containsKey(word1)) return mBigramMap.get(word1);
-        // TODO: lower case according to locale
-        final String lowerWord1 = word1.toLowerCase();
-        if (mBigramMap.containsKey(lowerWord1)) return mBigramMap.get(lowerWord1);
-        return EMPTY_BIGRAM_MAP;
+        final HashMap<String, Byte> bigrams = CollectionUtils.newHashMap();
+        final int id1 = findFirstWordId(word1);
+        if (NOT_A_WORD_ID == id1) return bigrams;
+        for (int i = nextIndex(0); i >= 0; i = nextIndex(i + 1)) {
+            if (getFirstWordId(mKeys[i]) == id1) {
+                bigrams.put(mWords[getSecondWordId(mKeys[i])], mFcValues[i]);
+            }
+        }
+        return bigrams;
+    }
+
+    public boolean hasBigram(String word1, String word2) {
+        return findSlot(findFirstWordId(word1), getWordId(word2)) >= 0;
+    }
+
+    /**
+     * Returns the forgetting curve value of a bigram, or the initial value if it is not in the
+     * list.
+     */
+    public byte getFcValue(String word1, String word2) {
+        final int slot = findSlot(findFirstWordId(word1), getWordId(word2));
+        return slot < 0 ? FORGETTING_CURVE_INITIAL_VALUE : mFcValues[slot];
     }
 
     public boolean removeBigram(String word1, String word2) {
-        final HashMap<String, Byte> set = getBigrams(word1);
-        if (set.isEmpty()) {
+        final int id1 = findFirstWordId(word1);
+        final int id2 = getWordId(word2);
+        final int slot = findSlot(id1, id2);
+        if (slot < 0) {
             return false;
         }
-        if (set.containsKey(word2)) {
-            set.remove(word2);
-            --mSize;
-            return true;
+        removeSlot(slot);
+        --mSize;
+        --mFirstWordCounts[id1];
+        releaseWord(id1);
+        releaseWord(id2);
+        return true;
+    }
+
+    /**
+     * Returns the first index at or after an index that holds a bigram, or -1 if there is none.
+     */
+    public int nextIndex(int index) {
+        for (; index < mKeys.length; ++index) {
+            if (NO_KEY != mKeys[index]) return index;
         }
-        return false;
+        return -1;
+    }
+
+    public String getWord1(int index) {
+        return mWords[getFirstWordId(mKeys[index])];
+    }
+
+    public String getWord2(int index) {
+        return mWords[getSecondWordId(mKeys[index])];
+    }
+
+    public byte getFcValue(int index) {
+        return mFcValues[index];
+    }
+
+    public void setFcValue(int index, byte fcValue) {
+        mFcValues[index] = fcValue;
+    }
+
+    private static long getKey(final int id1, final int id2) {
+        return ((long)id1 << 32) | id2;
+    }
+
+    private static int getFirstWordId(final long key) {
+        return (int)(key >>> 32);
+    }
+
+    private static int getSecondWordId(final long key) {
+        return (int)key;
+    }
+
+    private int getHomeSlot(final long key) {
+        // Fibonacci hashing: the high bits of the product depend on all the bits of the key.
+        return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & (mKeys.length - 1);
+    }
+
+    /**
+     * Returns the slot of a bigram, or -1 if it is not in the list.
+     */
+    private int findSlot(final int id1, final int id2) {
+        if (NOT_A_WORD_ID == id1 || NOT_A_WORD_ID == id2) return -1;
+        final long key = getKey(id1, id2);
+        int slot = getHomeSlot(key);
+        while (NO_KEY != mKeys[slot]) {
+            if (key == mKeys[slot]) return slot;
+            slot = (slot + 1) & (mKeys.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Empties a slot, moving back the entries that follow it so that no probe sequence is
+     * broken.
+     */
+    private void removeSlot(final int slot) {
+        final int mask = mKeys.length - 1;
+        int hole = slot;
+        for (int next = (slot + 1) & mask; NO_KEY != mKeys[next]; next = (next + 1) & mask) {
+            final int home = getHomeSlot(mKeys[next]);
+            // The entry can move to the hole if the hole is between its home slot and its slot.
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                mKeys[hole] = mKeys[next];
+                mFcValues[hole] = mFcValues[next];
+                hole = next;
+            }
+        }
+        mKeys[hole] = NO_KEY;
+    }
+
+    private void rehash(final int capacity) {
+        final long[] keys = mKeys;
+        final byte[] fcValues = mFcValues;
+        mKeys = new long[capacity];
+        Arrays.fill(mKeys, NO_KEY);
+        mFcValues = new byte[capacity];
+        for (int i = 0; i < keys.length; ++i) {
+            if (NO_KEY == keys[i]) continue;
+            int slot = getHomeSlot(keys[i]);
+            while (NO_KEY != mKeys[slot]) {
+                slot = (slot + 1) & (capacity - 1);
+            }
+            mKeys[slot] = keys[i];
+            mFcValues[slot] = fcValues[i];
+        }
+    }
+
+    private int getWordId(final String word) {
+        if (null == word) return NULL_WORD_ID;
+        final Integer id = mWordIds.get(word);
+        return null == id ? NOT_A_WORD_ID : id;
+    }
+
+    /**
+     * Returns the id of the first word of a bigram, falling back to the lower case word if the
+     * word is not the first word of any bigram.
+     */
+    private int findFirstWordId(final String word1) {
+        final int id = getWordId(word1);
+        if (NOT_A_WORD_ID != id && mFirstWordCounts[id] > 0) return id;
+        if (null == word1) return NOT_A_WORD_ID;
+        // TODO: lower case according to locale
+        final int lowerId = getWordId(word1.toLowerCase());
+        if (NOT_A_WORD_ID != lowerId && mFirstWordCounts[lowerId] > 0) return lowerId;
+        return NOT_A_WORD_ID;
+    }
+
+    /**
+     * Returns the id of a word for a new bigram, adding the word to the table if needed.
+     */
+    private int internWord(final String word) {
+        int id = getWordId(word);
+        if (NOT_A_WORD_ID == id) {
+            if (mFreeWordIdCount > 0) {
+                id = mFreeWordIds[--mFreeWordIdCount];
+            } else {
+                if (mWordIdCount == mWords.length) {
+                    final int capacity = mWordIdCount * 2;
+                    mWords = Arrays.copyOf(mWords, capacity);
+                    mWordRefCounts = Arrays.copyOf(mWordRefCounts, capacity);
+                    mFirstWordCounts = Arrays.copyOf(mFirstWordCounts, capacity);
+                    mFreeWordIds = Arrays.copyOf(mFreeWordIds, capacity);
+                }
+                id = mWordIdCount++;
+            }
+            mWords[id] = word;
+            mWordIds.put(word, id);
+        }
+        ++mWordRefCounts[id];
+        return id;
+    }
+
+    private void releaseWord(final int id) {
+        if (--mWordRefCounts[id] > 0 || NULL_WORD_ID == id) return;
+        mWordIds.remove(mWords[id]);
+        mWords[id] = null;
+        mFreeWordIds[mFreeWordIdCount++] = id;
     }
 }
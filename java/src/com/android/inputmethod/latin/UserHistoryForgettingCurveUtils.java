@@ -31,6 +31,19 @@ public final class UserHistoryForgettingCurveUtils {
             * DateUtils.HOUR_IN_MILLIS;
     private static final int HALF_LIFE_HOURS = 48;
     private static final int MAX_PUSH_ELAPSED = (FC_LEVEL_MAX + 1) * (ELAPSED_TIME_MAX + 1);
+    private static final int FC_VALUE_COUNT = 256;
+
+    // The results of fcToFreq and pushElapsedTime for each fc value, so that looking a bigram up
+    // and aging it are table lookups.
+    private static final int[] FC_TO_FREQ = new int[FC_VALUE_COUNT];
+    private static final byte[] PUSH_ELAPSED_TIME = new byte[FC_VALUE_COUNT];
+    static {
+        for (int i = 0; i < FC_VALUE_COUNT; ++i) {
+            final byte fc = (byte)i;
+            FC_TO_FREQ[i] = calcFreq(fcToElapsedTime(fc), fcToCount(fc), fcToLevel(fc));
+            PUSH_ELAPSED_TIME[i] = calcPushElapsedTime(fc);
+        }
+    }
 
     private UserHistoryForgettingCurveUtils() {
         // This utility class is not publicly instantiable.
@@ -72,16 +85,27 @@ public final class UserHistoryForgettingCurveUtils {
             return mIsValid;
         }
 
+        /**
+         * Returns the value as of the last call to {@link #updateElapsedTime}.
+         */
         public byte getFc() {
-            updateElapsedTime(System.currentTimeMillis());
             return mFc;
         }
 
+        /**
+         * Returns the frequency as of the last call to {@link #updateElapsedTime}.
+         */
         public int getFrequency() {
-            updateElapsedTime(System.currentTimeMillis());
             return UserHistoryForgettingCurveUtils.fcToFreq(mFc);
         }
 
+        /**
+         * Returns whether the bigram has decayed so much that it can be forgotten.
+         */
+        public boolean isForgotten() {
+            return UserHistoryForgettingCurveUtils.isForgotten(mFc);
+        }
+
         public int notifyTypedAgainAndGetFrequency() {
             updateLastTouchedTime();
             // TODO: Check whether this word is valid or not
@@ -89,21 +113,28 @@ public final class UserHistoryForgettingCurveUtils {
             return UserHistoryForgettingCurveUtils.fcToFreq(mFc);
         }
 
-        private void updateElapsedTime(long now) {
+        /**
+         * Ages the value by the intervals that have elapsed since the bigram was last touched. A
+         * value that gets forgotten is not aged any further.
+         * @return whether the value changed.
+         */
+        public boolean updateElapsedTime(long now) {
             final int elapsedTimeCount =
                     (int)((now - mLastTouchedTime) / ELAPSED_TIME_INTERVAL_MILLIS);
-            if (elapsedTimeCount <= 0) {
-                return;
-            }
-            if (elapsedTimeCount >= MAX_PUSH_ELAPSED) {
-                mLastTouchedTime = now;
-                mFc = 0;
-                return;
+            if (elapsedTimeCount <= 0 || isForgotten()) {
+                return false;
             }
-            for (int i = 0; i < elapsedTimeCount; ++i) {
+            // Any value is forgotten after MAX_PUSH_ELAPSED intervals.
+            final int count = Math.min(elapsedTimeCount, MAX_PUSH_ELAPSED);
+            final byte fc = mFc;
+            for (int i = 0; i < count && !isForgotten(); ++i) {
                 mLastTouchedTime += ELAPSED_TIME_INTERVAL_MILLIS;
                 mFc = pushElapsedTime(mFc);
             }
+            if (elapsedTimeCount > count) {
+                mLastTouchedTime = now;
+            }
+            return fc != mFc;
         }
     }
 
@@ -141,13 +172,14 @@ public final class UserHistoryForgettingCurveUtils {
     }
 
     public static int fcToFreq(byte fc) {
-        final int elapsedTime = fcToElapsedTime(fc);
-        final int count = fcToCount(fc);
-        final int level = fcToLevel(fc);
-        return calcFreq(elapsedTime, count, level);
+        return FC_TO_FREQ[fc & 0xFF];
     }
 
     public static byte pushElapsedTime(byte fc) {
+        return PUSH_ELAPSED_TIME[fc & 0xFF];
+    }
+
+    private static byte calcPushElapsedTime(byte fc) {
         int elapsedTime = fcToElapsedTime(fc);
         int count = fcToCount(fc);
         int level = fcToLevel(fc);
@@ -179,6 +211,14 @@ public final class UserHistoryForgettingCurveUtils {
         return calcFc(0, count, level);
     }
 
+    /**
+     * Returns whether a bigram has decayed so much that it is not worth keeping: it has the
+     * lowest level, and would not be saved even if it is not a valid word.
+     */
+    public static boolean isForgotten(byte fc) {
+        return fcToLevel(fc) == 0 && fcToElapsedTime(fc) >= ELAPSED_TIME_MAX - 1;
+    }
+
     // TODO: isValid should be false for a word whose frequency is 0,
     // or that is not in the dictionary.
     /**
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput.FusionDictionaryBufferInterface;
+import com.android.inputmethod.latin.makedict.FormatSpec;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An index of the word lists cached in the subdirectories of a directory, with the attributes
+ * of their headers.
+ *
+ * The index is checked against the file system by looking only at the modification times and
+ * sizes of the directories and files: a directory that changed is listed again, and a file that
+ * changed has its header read again. The index is kept in memory and saved to a
+ * {@link SnapshotFile}, so that finding the word lists does not read the word lists or list the
+ * directories unless they changed.
+ *
+ * The index is saved as a version int, the modification time of the directory and the number of
+ * subdirectories, followed by the name, the modification time and the number of files of each
+ * subdirectory, each followed by the name, the size, the modification time and the header
+ * attributes of each file.
+ *
+ * This class is thread safe.
+ */
+/* package */ final class WordListIndex {
+    private static final String TAG = WordListIndex.class.getSimpleName();
+
+    private static final int VERSION = 1;
+    // The modification time of a directory that was never listed.
+    private static final long NOT_LISTED = -1;
+    // The number of attributes of a file that has no header.
+    private static final int NO_ATTRIBUTES = -1;
+
+    /**
+     * A cached word list.
+     */
+    public static final class WordList {
+        public final File mFile;
+        public final long mLength;
+        public final long mLastModified;
+        // The attributes of the header, or null if the file is not a dictionary with a header.
+        public final HashMap<String, String> mAttributes;
+
+        public WordList(final File file, final long length, final long lastModified,
+                final HashMap<String, String> attributes) {
+            mFile = file;
+            mLength = length;
+            mLastModified = lastModified;
+            mAttributes = attributes;
+        }
+
+        /* package for test */ boolean isUpToDate() {
+            return mFile.length() == mLength && mFile.lastModified() == mLastModified;
+        }
+    }
+
+    /**
+     * A subdirectory and the word lists in it. A directory does not change once created: the
+     * index replaces it when it changes.
+     */
+    public static final class Directory {
+        public final File mDirectory;
+        public final long mLastModified;
+        public final ArrayList<WordList> mWordLists;
+
+        public Directory(final File directory, final long lastModified,
+                final ArrayList<WordList> wordLists) {
+            mDirectory = directory;
+            mLastModified = lastModified;
+            mWordLists = wordLists;
+        }
+    }
+
+    private final File mRootDirectory;
+    private final SnapshotFile mIndexFile;
+    private boolean mIsRead = false;
+    private boolean mNeedsWrite = false;
+    private long mRootLastModified = NOT_LISTED;
+    private final HashMap<String, Directory> mDirectories = CollectionUtils.newHashMap();
+
+    /**
+     * @param rootDirectory the directory holding a subdirectory of word lists for each locale.
+     * @param indexFile the file to save the index to. It must not be in the root directory, as
+     *        writing it would change the root directory.
+     */
+    public WordListIndex(final File rootDirectory, final SnapshotFile indexFile) {
+        mRootDirectory = rootDirectory;
+        mIndexFile = indexFile;
+    }
+
+    /**
+     * Returns the subdirectories of the root directory and their word lists, updated to the
+     * current files.
+     */
+    public synchronized ArrayList<Directory> getDirectories() {
+        if (!mIsRead) {
+            read();
+            mIsRead = true;
+        }
+        final long rootLastModified = mRootDirectory.lastModified();
+        if (rootLastModified != mRootLastModified) {
+            final HashMap<String, Directory> directories = CollectionUtils.newHashMap();
+            final File[] files = mRootDirectory.listFiles();
+            if (null != files) {
+                for (final File file : files) {
+                    if (!file.isDirectory()) continue;
+                    final Directory directory = mDirectories.get(file.getName());
+                    directories.put(file.getName(), null != directory ? directory
+                            : new Directory(file, NOT_LISTED, new ArrayList<WordList>()));
+                }
+            }
+            mDirectories.clear();
+            mDirectories.putAll(directories);
+            mRootLastModified = rootLastModified;
+            mNeedsWrite = true;
+        }
+        for (final Map.Entry<String, Directory> entry : mDirectories.entrySet()) {
+            final Directory directory = entry.getValue();
+            final Directory updatedDirectory = getUpdatedDirectory(directory);
+            if (updatedDirectory != directory) {
+                entry.setValue(updatedDirectory);
+                mNeedsWrite = true;
+            }
+        }
+        if (mNeedsWrite) {
+            write();
+        }
+        return new ArrayList<Directory>(mDirectories.values());
+    }
+
+    /**
+     * Returns a directory updated to the current files, or the directory itself if it is up to
+     * date.
+     */
+    private static Directory getUpdatedDirectory(final Directory directory) {
+        final long lastModified = directory.mDirectory.lastModified();
+        boolean hasChanged = false;
+        final ArrayList<WordList> updatedWordLists = CollectionUtils.newArrayList();
+        if (lastModified == directory.mLastModified) {
+            // No file was added, removed or renamed, but a file may have been rewritten.
+            for (final WordList wordList : directory.mWordLists) {
+                if (wordList.isUpToDate()) {
+                    updatedWordLists.add(wordList);
+                } else {
+                    if (wordList.mFile.exists()) {
+                        updatedWordLists.add(readWordList(wordList.mFile));
+                    }
+                    hasChanged = true;
+                }
+            }
+        } else {
+            final HashMap<String, WordList> wordLists = CollectionUtils.newHashMap();
+            for (final WordList wordList : directory.mWordLists) {
+                wordLists.put(wordList.mFile.getName(), wordList);
+            }
+            final File[] files = directory.mDirectory.listFiles();
+            if (null != files) {
+                for (final File file : files) {
+                    final WordList wordList = wordLists.get(file.getName());
+                    if (null != wordList && wordList.isUpToDate()) {
+                        updatedWordLists.add(wordList);
+                    } else {
+                        updatedWordLists.add(readWordList(file));
+                    }
+                }
+            }
+            hasChanged = true;
+        }
+        return hasChanged ? new Directory(directory.mDirectory, lastModified, updatedWordLists)
+                : directory;
+    }
+
+    private static WordList readWordList(final File file) {
+        // Stat the file first, so that a file rewritten while reading it looks out of date.
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        return new WordList(file, length, lastModified, readAttributes(file));
+    }
+
+    /**
+     * Reads the attributes in the header of a dictionary.
+     * @return the attributes, or null if the file is not a dictionary with a header.
+     */
+    private static HashMap<String, String> readAttributes(final File file) {
+        try {
+            final FusionDictionaryBufferInterface buffer =
+                    BinaryDictInputOutput.openMappedBuffer(file);
+            final int magic = buffer.readInt();
+            if (magic != FormatSpec.VERSION_2_MAGIC_NUMBER) {
+                return null;
+            }
+            // The format version and the flags.
+            buffer.readInt();
+            final int headerSize = buffer.readInt();
+            final HashMap<String, String> attributes = CollectionUtils.newHashMap();
+            BinaryDictInputOutput.populateOptions(buffer, headerSize, attributes);
+            return attributes;
+        } catch (IOException e) {
+            return null;
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the index from its file. If the file is missing or corrupted, the index is left
+     * empty, so that it is rebuilt.
+     */
+    private void read() {
+        final SnapshotFile.Snapshot snapshot = mIndexFile.getLatestSnapshot();
+        if (null == snapshot) return;
+        DataInputStream in = null;
+        try {
+            final FileInputStream fileIn = new FileInputStream(snapshot.mFile);
+            in = new DataInputStream(new BufferedInputStream(fileIn));
+            if (snapshot.mOffset != fileIn.skip(snapshot.mOffset)) {
+                throw new IOException("Can't skip the header");
+            }
+            final int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version);
+            }
+            mRootLastModified = in.readLong();
+            final int directoryCount = in.readInt();
+            for (int i = 0; i < directoryCount; ++i) {
+                final File directory = new File(mRootDirectory, in.readUTF());
+                final long directoryLastModified = in.readLong();
+                final int wordListCount = in.readInt();
+                final ArrayList<WordList> wordLists = CollectionUtils.newArrayList();
+                for (int j = 0; j < wordListCount; ++j) {
+                    final File file = new File(directory, in.readUTF());
+                    final long length = in.readLong();
+                    final long lastModified = in.readLong();
+                    final int attributeCount = in.readInt();
+                    HashMap<String, String> attributes = null;
+                    if (NO_ATTRIBUTES != attributeCount) {
+                        attributes = CollectionUtils.newHashMap();
+                        for (int k = 0; k < attributeCount; ++k) {
+                            attributes.put(in.readUTF(), in.readUTF());
+                        }
+                    }
+                    wordLists.add(new WordList(file, length, lastModified, attributes));
+                }
+                mDirectories.put(directory.getName(),
+                        new Directory(directory, directoryLastModified, wordLists));
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "IOException while reading " + snapshot.mFile + ": " + e);
+            mRootLastModified = NOT_LISTED;
+            mDirectories.clear();
+        } finally {
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private void write() {
+        try {
+            mIndexFile.write(new SnapshotFile.ContentWriter() {
+                @Override
+                public void writeTo(final OutputStream out) throws IOException {
+                    final DataOutputStream dataOut = new DataOutputStream(out);
+                    dataOut.writeInt(VERSION);
+                    dataOut.writeLong(mRootLastModified);
+                    dataOut.writeInt(mDirectories.size());
+                    for (final Directory directory : mDirectories.values()) {
+                        dataOut.writeUTF(directory.mDirectory.getName());
+                        dataOut.writeLong(directory.mLastModified);
+                        dataOut.writeInt(directory.mWordLists.size());
+                        for (final WordList wordList : directory.mWordLists) {
+                            dataOut.writeUTF(wordList.mFile.getName());
+                            dataOut.writeLong(wordList.mLength);
+                            dataOut.writeLong(wordList.mLastModified);
+                            if (null == wordList.mAttributes) {
+                                dataOut.writeInt(NO_ATTRIBUTES);
+                                continue;
+                            }
+                            dataOut.writeInt(wordList.mAttributes.size());
+                            for (final Map.Entry<String, String> attribute
+                                    : wordList.mAttributes.entrySet()) {
+                                dataOut.writeUTF(attribute.getKey());
+                                dataOut.writeUTF(attribute.getValue());
+                            }
+                        }
+                    }
+                    dataOut.flush();
+                }
+            });
+            mNeedsWrite = false;
+        } catch (IOException e) {
+            // The index is still up to date in memory, and will be written again next time.
+            Log.e(TAG, "IOException while writing the word list index: " + e);
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.android.inputmethod.latin.makedict.BinaryDictInputOutput.FusionDictio
 import com.android.inputmethod.latin.makedict.FormatSpec.FileHeader;
 import com.android.inputmethod.latin.makedict.FormatSpec.FormatOptions;
 import com.android.inputmethod.latin.makedict.FusionDictionary.CharGroup;
+import com.android.inputmethod.latin.makedict.FusionDictionary.WeightedString;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -228,6 +229,91 @@ public final class BinaryDictIOUtils {
         return FormatSpec.NOT_VALID_WORD;
     }
 
+    /**
+     * Reads the CharGroup of a word directly from a binary dictionary.
+     *
+     * @param buffer the buffer to read.
+     * @param word the word we search for.
+     * @return the information of the terminal group for this word, or null if it's not found.
+     * @throws IOException
+     * @throws UnsupportedFormatException
+     */
+    private static CharGroupInfo readTerminalCharGroup(final FusionDictionaryBufferInterface buffer,
+            final String word) throws IOException, UnsupportedFormatException {
+        buffer.position(0);
+        final FileHeader header = BinaryDictInputOutput.readHeader(buffer);
+        final int wordPosition = getTerminalPosition(buffer, word);
+        if (wordPosition == FormatSpec.NOT_VALID_WORD) return null;
+        buffer.position(wordPosition);
+        return BinaryDictInputOutput.readCharGroup(buffer, wordPosition, header.mFormatOptions);
+    }
+
+    /**
+     * Gets the frequency of a word directly from a binary dictionary.
+     *
+     * This does not read the dictionary into memory: only the char groups on the path to the
+     * word are read, which makes it suitable for buffers returned by
+     * {@link BinaryDictInputOutput#openMappedBuffer}.
+     *
+     * @param buffer the buffer to read.
+     * @param word the word we search for.
+     * @return the frequency of the word, or NOT_A_TERMINAL if it's not in the dictionary.
+     * @throws IOException
+     * @throws UnsupportedFormatException
+     */
+    public static int getFrequency(final FusionDictionaryBufferInterface buffer,
+            final String word) throws IOException, UnsupportedFormatException {
+        final CharGroupInfo info = readTerminalCharGroup(buffer, word);
+        if (null == info) return CharGroup.NOT_A_TERMINAL;
+        return info.mFrequency;
+    }
+
+    /**
+     * Gets the shortcut targets of a word directly from a binary dictionary.
+     *
+     * @param buffer the buffer to read.
+     * @param word the word we search for.
+     * @return the shortcut targets, or null if the word is not found or has no shortcuts.
+     * @throws IOException
+     * @throws UnsupportedFormatException
+     */
+    public static ArrayList<WeightedString> getShortcutTargets(
+            final FusionDictionaryBufferInterface buffer, final String word)
+            throws IOException, UnsupportedFormatException {
+        final CharGroupInfo info = readTerminalCharGroup(buffer, word);
+        if (null == info) return null;
+        return info.mShortcutTargets;
+    }
+
+    /**
+     * Gets the bigrams of a word directly from a binary dictionary.
+     *
+     * The frequencies are the values stored in the file, as in
+     * {@link BinaryDictInputOutput#readDictionaryBinary}.
+     *
+     * @param buffer the buffer to read.
+     * @param word the word we search for.
+     * @return the bigrams of this word, or null if the word is not found or has no bigrams.
+     * @throws IOException
+     * @throws UnsupportedFormatException
+     */
+    public static ArrayList<WeightedString> getBigrams(final FusionDictionaryBufferInterface buffer,
+            final String word) throws IOException, UnsupportedFormatException {
+        final CharGroupInfo info = readTerminalCharGroup(buffer, word);
+        if (null == info || null == info.mBigrams) return null;
+        buffer.position(0);
+        final FileHeader header = BinaryDictInputOutput.readHeader(buffer);
+        BinaryDictInputOutput.clearWordCache();
+        final ArrayList<WeightedString> bigrams = new ArrayList<WeightedString>();
+        for (final PendingAttribute bigram : info.mBigrams) {
+            final String bigramWord = BinaryDictInputOutput.getWordAtAddress(buffer,
+                    header.mHeaderSize, bigram.mAddress - header.mHeaderSize,
+                    header.mFormatOptions);
+            bigrams.add(new WeightedString(bigramWord, bigram.mFrequency));
+        }
+        return bigrams;
+    }
+
     /**
      * Delete the word from the binary file.
      *
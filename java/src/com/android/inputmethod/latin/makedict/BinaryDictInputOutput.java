@@ -37,6 +37,11 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Reads and writes XML files for a FusionDictionary.
@@ -55,6 +60,11 @@ public final class BinaryDictInputOutput {
     private static final int MAX_PASSES = 24;
     private static final int MAX_JUMPS = 12;
 
+    // When writing with several threads, the node array is split into at most this many tasks
+    // for each pass, and tasks are never smaller than MIN_NODES_PER_TASK nodes.
+    private static final int MAX_TASKS_PER_PASS = 64;
+    private static final int MIN_NODES_PER_TASK = 256;
+
     public interface FusionDictionaryBufferInterface {
         public int readUnsignedByte();
         public int readUnsignedShort();
@@ -121,6 +131,52 @@ public final class BinaryDictInputOutput {
         }
     }
 
+    /**
+     * Maps a dictionary file into memory for read-only access.
+     *
+     * The returned buffer is backed by a read-only MappedByteBuffer, so pages are only read
+     * from the disk as they are accessed: opening a large dictionary costs neither heap nor the
+     * time to read the whole file. The file descriptor is closed before this method returns ;
+     * the mapping itself stays valid until the buffer is garbage collected.
+     *
+     * @param file the dictionary file to map.
+     * @return a read-only buffer over the whole file.
+     * @throws FileNotFoundException if the file does not exist.
+     * @throws IOException if the file can't be mapped.
+     */
+    public static FusionDictionaryBufferInterface openMappedBuffer(final File file)
+            throws FileNotFoundException, IOException {
+        return openMappedBuffer(file, 0, file.length());
+    }
+
+    /**
+     * Maps a dictionary stored in a part of a file into memory for read-only access.
+     *
+     * @param file the file to map.
+     * @param offset the offset of the dictionary in the file.
+     * @param length the length of the dictionary.
+     * @return a read-only buffer over the dictionary.
+     * @throws FileNotFoundException if the file does not exist.
+     * @throws IOException if the file can't be mapped.
+     */
+    public static FusionDictionaryBufferInterface openMappedBuffer(final File file,
+            final long offset, final long length) throws FileNotFoundException, IOException {
+        FileInputStream inStream = null;
+        try {
+            inStream = new FileInputStream(file);
+            return new ByteBufferWrapper(inStream.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, offset, length));
+        } finally {
+            if (inStream != null) {
+                try {
+                    inStream.close();
+                } catch (IOException e) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
     /**
      * A class grouping utility function for our specific character encoding.
      */
@@ -498,14 +554,58 @@ public final class BinaryDictInputOutput {
     }
 
     /**
-     * Finds the absolute address of a word in the dictionary.
+     * An index from bigram target words to their terminal CharGroup.
      *
-     * @param dict the dictionary in which to search.
-     * @param word the word we are searching for.
-     * @return the word address. If it is not found, an exception is thrown.
+     * This is built once per write, so that bigram targets are not searched in the tree each
+     * time their address is needed: it holds the CharGroup itself, so it stays valid across
+     * address compression passes while the cached addresses change. The address of each target
+     * may also be frozen: this is used by the parallel writer so that all threads see the
+     * addresses as they were at the start of a pass, whatever the order in which the nodes are
+     * processed.
      */
-    private static int findAddressOfWord(final FusionDictionary dict, final String word) {
-        return FusionDictionary.findWordInTree(dict.mRoot, word).mCachedAddress;
+    private static final class WordAddressIndex {
+        private final HashMap<String, Integer> mIds;
+        private final CharGroup[] mGroups;
+        private final int[] mFrozenAddresses;
+        private boolean mIsFrozen;
+
+        public WordAddressIndex(final FusionDictionary dict, final ArrayList<Node> flatNodes) {
+            mIds = new HashMap<String, Integer>();
+            final ArrayList<CharGroup> groups = new ArrayList<CharGroup>();
+            for (final Node n : flatNodes) {
+                for (final CharGroup group : n.mData) {
+                    if (null == group.mBigrams) continue;
+                    for (final WeightedString bigram : group.mBigrams) {
+                        if (mIds.containsKey(bigram.mWord)) continue;
+                        mIds.put(bigram.mWord, groups.size());
+                        groups.add(FusionDictionary.findWordInTree(dict.mRoot, bigram.mWord));
+                    }
+                }
+            }
+            mGroups = groups.toArray(new CharGroup[groups.size()]);
+            mFrozenAddresses = new int[mGroups.length];
+            mIsFrozen = false;
+        }
+
+        /**
+         * Records the current address of each target word, to be returned by getAddress until
+         * the next call to this method.
+         */
+        public void freezeAddresses() {
+            for (int i = 0; i < mGroups.length; ++i) {
+                mFrozenAddresses[i] = mGroups[i].mCachedAddress;
+            }
+            mIsFrozen = true;
+        }
+
+        public CharGroup getGroup(final String word) {
+            return mGroups[mIds.get(word)];
+        }
+
+        public int getAddress(final String word) {
+            final int id = mIds.get(word);
+            return mIsFrozen ? mFrozenAddresses[id] : mGroups[id].mCachedAddress;
+        }
     }
 
     /**
@@ -519,12 +619,12 @@ public final class BinaryDictInputOutput {
      * respect to their previous value.
      *
      * @param node the node to compute the size of.
-     * @param dict the dictionary in which the word/attributes are to be found.
+     * @param wordIndex the index of bigram targets.
      * @param formatOptions file format options.
      * @return false if none of the cached addresses inside the node changed, true otherwise.
      */
-    private static boolean computeActualNodeSize(final Node node, final FusionDictionary dict,
-            final FormatOptions formatOptions) {
+    private static boolean computeActualNodeSize(final Node node,
+            final WordAddressIndex wordIndex, final FormatOptions formatOptions) {
         boolean changed = false;
         int size = getGroupCountSize(node);
         for (CharGroup group : node.mData) {
@@ -553,7 +653,7 @@ public final class BinaryDictInputOutput {
                 for (WeightedString bigram : group.mBigrams) {
                     final int offsetBasePoint = groupSize + node.mCachedAddress + size
                             + FormatSpec.GROUP_FLAGS_SIZE;
-                    final int addressOfBigram = findAddressOfWord(dict, bigram.mWord);
+                    final int addressOfBigram = wordIndex.getAddress(bigram.mWord);
                     final int offset = addressOfBigram - offsetBasePoint;
                     groupSize += getByteSize(offset) + FormatSpec.GROUP_FLAGS_SIZE;
                 }
@@ -600,6 +700,75 @@ public final class BinaryDictInputOutput {
         return nodeOffset;
     }
 
+    /**
+     * Computes the actual size of a range of nodes, in order.
+     *
+     * @return false if none of the cached addresses inside the nodes changed, true otherwise.
+     */
+    private static boolean computeActualNodeSizes(final ArrayList<Node> flatNodes,
+            final int start, final int end, final WordAddressIndex wordIndex,
+            final FormatOptions formatOptions) {
+        boolean changesDone = false;
+        for (int i = start; i < end; ++i) {
+            final Node n = flatNodes.get(i);
+            final int oldNodeSize = n.mCachedSize;
+            final boolean changed = computeActualNodeSize(n, wordIndex, formatOptions);
+            final int newNodeSize = n.mCachedSize;
+            if (oldNodeSize < newNodeSize) throw new RuntimeException("Increased size ?!");
+            changesDone |= changed;
+        }
+        return changesDone;
+    }
+
+    /**
+     * Computes the actual size of all nodes, splitting the node array across the executor.
+     *
+     * Each node only writes to its own cached values and to the parent address of its children,
+     * so the ranges can be processed concurrently as long as the addresses of bigram targets
+     * are frozen in the index.
+     *
+     * @return false if none of the cached addresses inside the nodes changed, true otherwise.
+     */
+    private static boolean computeActualNodeSizesInParallel(final ArrayList<Node> flatNodes,
+            final WordAddressIndex wordIndex, final FormatOptions formatOptions,
+            final ExecutorService executor) {
+        final ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        final int chunkSize = Math.max(MIN_NODES_PER_TASK, flatNodes.size() / MAX_TASKS_PER_PASS);
+        for (int start = 0; start < flatNodes.size(); start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(start + chunkSize, flatNodes.size());
+            results.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return computeActualNodeSizes(flatNodes, chunkStart, chunkEnd, wordIndex,
+                            formatOptions);
+                }
+            }));
+        }
+        boolean changesDone = false;
+        for (final Future<Boolean> result : results) {
+            changesDone |= getTaskResult(result);
+        }
+        return changesDone;
+    }
+
+    /**
+     * Waits for a task to complete and returns its result, rethrowing its exception if any.
+     */
+    private static <T> T getTaskResult(final Future<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while writing the dictionary", e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+            if (cause instanceof Error) throw (Error)cause;
+            throw new RuntimeException(cause);
+        }
+    }
+
     /**
      * Compute the addresses and sizes of an ordered node array.
      *
@@ -610,13 +779,19 @@ public final class BinaryDictInputOutput {
      * The order of the node is given by the order of the array. This method makes no effort
      * to find a good order; it only mechanically computes the size this order results in.
      *
-     * @param dict the dictionary
+     * If an executor is passed, each pass computes the node sizes in parallel. In this case
+     * the addresses of bigram targets are taken from the previous pass, so that the result
+     * does not depend on the order in which the threads process the nodes.
+     *
      * @param flatNodes the ordered array of nodes
+     * @param wordIndex the index of bigram targets.
      * @param formatOptions file format options.
+     * @param executor the executor to compute node sizes with, or null to compute them serially.
      * @return the same array it was passed. The nodes have been updated for address and size.
      */
-    private static ArrayList<Node> computeAddresses(final FusionDictionary dict,
-            final ArrayList<Node> flatNodes, final FormatOptions formatOptions) {
+    private static ArrayList<Node> computeAddresses(final ArrayList<Node> flatNodes,
+            final WordAddressIndex wordIndex, final FormatOptions formatOptions,
+            final ExecutorService executor) {
         // First get the worst sizes and offsets
         for (Node n : flatNodes) setNodeMaximumSize(n, formatOptions);
         final int offset = stackNodes(flatNodes, formatOptions);
@@ -627,13 +802,13 @@ public final class BinaryDictInputOutput {
         int passes = 0;
         boolean changesDone = false;
         do {
-            changesDone = false;
-            for (Node n : flatNodes) {
-                final int oldNodeSize = n.mCachedSize;
-                final boolean changed = computeActualNodeSize(n, dict, formatOptions);
-                final int newNodeSize = n.mCachedSize;
-                if (oldNodeSize < newNodeSize) throw new RuntimeException("Increased size ?!");
-                changesDone |= changed;
+            if (null == executor) {
+                changesDone = computeActualNodeSizes(flatNodes, 0, flatNodes.size(), wordIndex,
+                        formatOptions);
+            } else {
+                wordIndex.freezeAddresses();
+                changesDone = computeActualNodeSizesInParallel(flatNodes, wordIndex,
+                        formatOptions, executor);
             }
             stackNodes(flatNodes, formatOptions);
             ++passes;
@@ -889,14 +1064,14 @@ public final class BinaryDictInputOutput {
      * This can be an empty map, but the more is inside the faster the lookups will be. It can
      * be carried on as long as nodes do not move.
      *
-     * @param dict the dictionary the node is a part of (for relative offsets).
      * @param buffer the memory buffer to write to.
      * @param node the node to write.
+     * @param wordIndex the index of bigram targets (for relative offsets).
      * @param formatOptions file format options.
      * @return the address of the END of the node.
      */
-    private static int writePlacedNode(final FusionDictionary dict, byte[] buffer,
-            final Node node, final FormatOptions formatOptions) {
+    private static int writePlacedNode(byte[] buffer, final Node node,
+            final WordAddressIndex wordIndex, final FormatOptions formatOptions) {
         int index = node.mCachedAddress;
 
         final int groupCount = node.mData.size();
@@ -985,8 +1160,7 @@ public final class BinaryDictInputOutput {
                 final Iterator<WeightedString> bigramIterator = group.mBigrams.iterator();
                 while (bigramIterator.hasNext()) {
                     final WeightedString bigram = bigramIterator.next();
-                    final CharGroup target =
-                            FusionDictionary.findWordInTree(dict.mRoot, bigram.mWord);
+                    final CharGroup target = wordIndex.getGroup(bigram.mWord);
                     final int addressOfBigram = target.mCachedAddress;
                     final int unigramFrequencyForThisWord = target.mFrequency;
                     ++groupAddress;
@@ -1013,6 +1187,41 @@ public final class BinaryDictInputOutput {
         return index;
     }
 
+    /**
+     * Writes all nodes to memory, splitting the node array across the executor.
+     *
+     * The nodes have their final position cached and never overlap, so each range of nodes
+     * can be written concurrently to its own part of the buffer.
+     *
+     * @return the address of the END of the last node.
+     */
+    private static int writePlacedNodesInParallel(final byte[] buffer,
+            final ArrayList<Node> flatNodes, final WordAddressIndex wordIndex,
+            final FormatOptions formatOptions, final ExecutorService executor) {
+        final ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        final int chunkSize = Math.max(MIN_NODES_PER_TASK, flatNodes.size() / MAX_TASKS_PER_PASS);
+        for (int start = 0; start < flatNodes.size(); start += chunkSize) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(start + chunkSize, flatNodes.size());
+            results.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    int endOffset = 0;
+                    for (int i = chunkStart; i < chunkEnd; ++i) {
+                        endOffset = writePlacedNode(buffer, flatNodes.get(i), wordIndex,
+                                formatOptions);
+                    }
+                    return endOffset;
+                }
+            }));
+        }
+        int dataEndOffset = 0;
+        for (final Future<Integer> result : results) {
+            dataEndOffset = getTaskResult(result);
+        }
+        return dataEndOffset;
+    }
+
     /**
      * Dumps a collection of useful statistics about a node array.
      *
@@ -1080,6 +1289,26 @@ public final class BinaryDictInputOutput {
     public static void writeDictionaryBinary(final OutputStream destination,
             final FusionDictionary dict, final FormatOptions formatOptions)
             throws IOException, UnsupportedFormatException {
+        writeDictionaryBinary(destination, dict, formatOptions, 1 /* numberOfThreads */);
+    }
+
+    /**
+     * Dumps a FusionDictionary to a file, using several threads.
+     *
+     * The address computation and the writing of the nodes are split across a pool of
+     * numberOfThreads threads. The output is the same as the output of the serial writer.
+     *
+     * @param destination the stream to write the binary data to.
+     * @param dict the dictionary to write.
+     * @param formatOptions file format options.
+     * @param numberOfThreads the number of threads to use. 1 means the serial writer.
+     */
+    public static void writeDictionaryBinary(final OutputStream destination,
+            final FusionDictionary dict, final FormatOptions formatOptions,
+            final int numberOfThreads) throws IOException, UnsupportedFormatException {
+        if (numberOfThreads < 1) {
+            throw new IllegalArgumentException("Invalid number of threads : " + numberOfThreads);
+        }
 
         // Addresses are limited to 3 bytes, but since addresses can be relative to each node, the
         // structure itself is not limited to 16MB. However, if it is over 16MB deciding the order
@@ -1149,21 +1378,34 @@ public final class BinaryDictInputOutput {
         MakedictLog.i("Flattening the tree...");
         ArrayList<Node> flatNodes = flattenTree(dict.mRoot);
 
-        MakedictLog.i("Computing addresses...");
-        computeAddresses(dict, flatNodes, formatOptions);
-        MakedictLog.i("Checking array...");
-        if (DBG) checkFlatNodeArray(flatNodes);
-
-        // Create a buffer that matches the final dictionary size.
-        final Node lastNode = flatNodes.get(flatNodes.size() - 1);
-        final int bufferSize = lastNode.mCachedAddress + lastNode.mCachedSize;
-        final byte[] buffer = new byte[bufferSize];
-        int index = 0;
-
-        MakedictLog.i("Writing file...");
+        final ExecutorService executor = numberOfThreads > 1
+                ? Executors.newFixedThreadPool(numberOfThreads) : null;
+        MakedictLog.i("Indexing bigram targets...");
+        final WordAddressIndex wordIndex = new WordAddressIndex(dict, flatNodes);
+        final byte[] buffer;
         int dataEndOffset = 0;
-        for (Node n : flatNodes) {
-            dataEndOffset = writePlacedNode(dict, buffer, n, formatOptions);
+        try {
+            MakedictLog.i("Computing addresses...");
+            computeAddresses(flatNodes, wordIndex, formatOptions, executor);
+            MakedictLog.i("Checking array...");
+            if (DBG) checkFlatNodeArray(flatNodes);
+
+            // Create a buffer that matches the final dictionary size.
+            final Node lastNode = flatNodes.get(flatNodes.size() - 1);
+            final int bufferSize = lastNode.mCachedAddress + lastNode.mCachedSize;
+            buffer = new byte[bufferSize];
+
+            MakedictLog.i("Writing file...");
+            if (null == executor) {
+                for (Node n : flatNodes) {
+                    dataEndOffset = writePlacedNode(buffer, n, wordIndex, formatOptions);
+                }
+            } else {
+                dataEndOffset = writePlacedNodesInParallel(buffer, flatNodes, wordIndex,
+                        formatOptions, executor);
+            }
+        } finally {
+            if (null != executor) executor.shutdown();
         }
 
         if (DBG) showStatistics(flatNodes);
@@ -1341,6 +1583,17 @@ public final class BinaryDictInputOutput {
     // may be called hundreds of thousands of times, the resulting performance is not
     // reasonable without some kind of cache. Thus:
     private static TreeMap<Integer, String> wordCache = new TreeMap<Integer, String>();
+
+    /**
+     * Clears the word cache used by getWordAtAddress.
+     *
+     * The cache is keyed on addresses only, so it must be cleared before reading words out of
+     * a different buffer.
+     */
+    /* package */ static void clearWordCache() {
+        wordCache.clear();
+    }
+
     /**
      * Finds, as a string, the word at the address passed as an argument.
      *
@@ -1622,7 +1875,7 @@ public final class BinaryDictInputOutput {
             final FusionDictionaryBufferInterface buffer, final FusionDictionary dict)
                     throws IOException, UnsupportedFormatException {
         // clear cache
-        wordCache.clear();
+        clearWordCache();
 
         // Read header
         final FileHeader header = readHeader(buffer);
@@ -1663,27 +1916,14 @@ public final class BinaryDictInputOutput {
      * @return true if it's a binary dictionary, false otherwise
      */
     public static boolean isBinaryDictionary(final String filename) {
-        FileInputStream inStream = null;
         try {
-            final File file = new File(filename);
-            inStream = new FileInputStream(file);
-            final ByteBuffer buffer = inStream.getChannel().map(
-                    FileChannel.MapMode.READ_ONLY, 0, file.length());
-            final int version = getFormatVersion(new ByteBufferWrapper(buffer));
+            final int version = getFormatVersion(openMappedBuffer(new File(filename)));
             return (version >= FormatSpec.MINIMUM_SUPPORTED_VERSION
                     && version <= FormatSpec.MAXIMUM_SUPPORTED_VERSION);
         } catch (FileNotFoundException e) {
             return false;
         } catch (IOException e) {
             return false;
-        } finally {
-            if (inStream != null) {
-                try {
-                    inStream.close();
-                } catch (IOException e) {
-                    // do nothing
-                }
-            }
         }
     }
 
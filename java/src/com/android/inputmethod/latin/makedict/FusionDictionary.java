@@ -476,6 +476,71 @@ public final class FusionDictionary implements Iterable<Word> {
         }
     }
 
+    /**
+     * Removes a word from this dictionary.
+     *
+     * The shortcuts and bigrams of the word are removed with it, as well as the bigrams of other
+     * words that point to it. Groups that end up with neither a word nor children are removed
+     * from the tree, but groups that are left with a single child are not merged with it.
+     *
+     * @param word the word to remove.
+     * @return true if the word was in the dictionary, false otherwise.
+     */
+    public boolean remove(final String word) {
+        final int[] codePoints = getCodePoints(word);
+        // The groups on the path to the word, and the nodes they belong to.
+        final ArrayList<Node> nodes = new ArrayList<Node>();
+        final ArrayList<CharGroup> groups = new ArrayList<CharGroup>();
+        Node currentNode = mRoot;
+        int charIndex = 0;
+        while (charIndex < codePoints.length) {
+            if (null == currentNode) return false;
+            final int nodeIndex = findIndexOfChar(currentNode, codePoints[charIndex]);
+            if (CHARACTER_NOT_FOUND == nodeIndex) return false;
+            final CharGroup currentGroup = currentNode.mData.get(nodeIndex);
+            final int differentCharIndex = compareArrays(currentGroup.mChars, codePoints,
+                    charIndex);
+            if (ARRAYS_ARE_EQUAL != differentCharIndex
+                    && differentCharIndex < currentGroup.mChars.length) return false;
+            nodes.add(currentNode);
+            groups.add(currentGroup);
+            charIndex += currentGroup.mChars.length;
+            currentNode = currentGroup.mChildren;
+        }
+        final CharGroup wordGroup = groups.get(groups.size() - 1);
+        if (!wordGroup.isTerminal()) return false;
+
+        wordGroup.mFrequency = CharGroup.NOT_A_TERMINAL;
+        wordGroup.mShortcutTargets = null;
+        wordGroup.mBigrams = null;
+        wordGroup.mIsNotAWord = false;
+        wordGroup.mIsBlacklistEntry = false;
+        for (int i = groups.size() - 1; i >= 0; --i) {
+            final CharGroup group = groups.get(i);
+            if (group.isTerminal() || null != group.mChildren) break;
+            nodes.get(i).mData.remove(group);
+            // A group must not have an empty node as its children.
+            if (i > 0 && nodes.get(i).mData.isEmpty()) groups.get(i - 1).mChildren = null;
+        }
+        removeBigramsTo(mRoot, word);
+        return true;
+    }
+
+    /**
+     * Recursively removes the bigrams to a word from all the groups of a branch of the trie.
+     */
+    private static void removeBigramsTo(final Node node, final String word) {
+        for (final CharGroup group : node.mData) {
+            if (null != group.mBigrams) {
+                final WeightedString bigram = group.getBigram(word);
+                if (null != bigram) group.mBigrams.remove(bigram);
+                // An empty bigram list must be null.
+                if (group.mBigrams.isEmpty()) group.mBigrams = null;
+            }
+            if (null != group.mChildren) removeBigramsTo(group.mChildren, word);
+        }
+    }
+
     private static int ARRAYS_ARE_EQUAL = 0;
 
     /**
@@ -51,10 +51,12 @@ import java.util.TreeMap;
  * Service for spell checking, using LatinIME's dictionaries and mechanisms.
  */
 public final class AndroidSpellCheckerService extends SpellCheckerService
-        implements SharedPreferences.OnSharedPreferenceChangeListener {
+        implements SharedPreferences.OnSharedPreferenceChangeListener,
+        DictionaryPool.DictAndProximityFactory {
     private static final String TAG = AndroidSpellCheckerService.class.getSimpleName();
     private static final boolean DBG = false;
-    private static final int POOL_SIZE = 2;
+    // The pools only grow to this size when the sessions wait for their dictionaries.
+    private static final int MAX_POOL_SIZE = 4;
 
     public static final String PREF_USE_CONTACTS_KEY = "pref_spellcheck_use_contacts";
 
@@ -122,6 +124,12 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
         prefs.registerOnSharedPreferenceChangeListener(this);
         onSharedPreferenceChanged(prefs, PREF_USE_CONTACTS_KEY);
+        // The service is created when it is bound. Prepare the dictionaries of the default locale,
+        // which the sessions are most likely to use, before the first session asks for them.
+        final Locale defaultLocale = Locale.getDefault();
+        if (mLanguageToScript.containsKey(defaultLocale.getLanguage())) {
+            getDictionaryPool(defaultLocale.toString());
+        }
     }
 
     public static int getScriptFromLocale(final Locale locale) {
@@ -396,12 +404,14 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
         DictionaryPool pool = mDictionaryPools.get(locale);
         if (null == pool) {
             final Locale localeObject = LocaleUtils.constructLocaleFromString(locale);
-            pool = new DictionaryPool(POOL_SIZE, this, localeObject);
+            pool = new DictionaryPool(MAX_POOL_SIZE, this, localeObject);
             mDictionaryPools.put(locale, pool);
+            pool.prewarm();
         }
         return pool;
     }
 
+    @Override
     public DictAndProximity createDictAndProximity(final Locale locale) {
         final int script = getScriptFromLocale(locale);
         final ProximityInfo proximityInfo = ProximityInfo.createSpellCheckerProximityInfo(
@@ -409,9 +419,11 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
                 SpellCheckerProximityInfo.ROW_SIZE,
                 SpellCheckerProximityInfo.PROXIMITY_GRID_WIDTH,
                 SpellCheckerProximityInfo.PROXIMITY_GRID_HEIGHT);
-        final DictionaryCollection dictionaryCollection =
+        final DictionaryCollection mainDictionary =
                 DictionaryFactory.createMainDictionaryFromManager(this, locale,
                         true /* useFullEditDistance */);
+        final DictionaryCollection dictionaryCollection =
+                new DictionaryCollection(Dictionary.TYPE_MAIN, mainDictionary);
         final String localeStr = locale.toString();
         UserBinaryDictionary userDictionary = mUserDictionaries.get(localeStr);
         if (null == userDictionary) {
@@ -433,7 +445,7 @@ public final class AndroidSpellCheckerService extends SpellCheckerService
             mDictionaryCollectionsList.add(
                     new WeakReference<DictionaryCollection>(dictionaryCollection));
         }
-        return new DictAndProximity(dictionaryCollection, proximityInfo);
+        return new DictAndProximity(dictionaryCollection, proximityInfo, mainDictionary);
     }
 
     // This method assumes the text is not empty or null.
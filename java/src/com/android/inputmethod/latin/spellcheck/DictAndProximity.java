@@ -25,8 +25,18 @@ import com.android.inputmethod.keyboard.ProximityInfo;
 public final class DictAndProximity {
     public final Dictionary mDictionary;
     public final ProximityInfo mProximityInfo;
+    // The part of mDictionary that belongs to this instance only, as opposed to the dictionaries
+    // shared with other instances like the user dictionary.
+    public final Dictionary mOwnDictionary;
+
     public DictAndProximity(final Dictionary dictionary, final ProximityInfo proximityInfo) {
+        this(dictionary, proximityInfo, dictionary);
+    }
+
+    public DictAndProximity(final Dictionary dictionary, final ProximityInfo proximityInfo,
+            final Dictionary ownDictionary) {
         mDictionary = dictionary;
         mProximityInfo = proximityInfo;
+        mOwnDictionary = ownDictionary;
     }
 }
@@ -16,6 +16,7 @@
 
 package com.android.inputmethod.latin.spellcheck;
 
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.inputmethod.keyboard.ProximityInfo;
@@ -26,26 +27,68 @@ import com.android.inputmethod.latin.WordComposer;
 
 import java.util.ArrayList;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 /**
- * A blocking queue that creates dictionaries up to a certain limit as necessary.
- * As a deadlock-detecting device, if waiting for more than TIMEOUT = 3 seconds, we
- * will clear the queue and generate its contents again. This is transparent for
- * the client code, but may help with sloppy clients.
+ * A pool of dictionaries for a locale, that sizes itself according to how long its clients wait.
+ *
+ * The dictionaries are created on a background thread shared by all the pools, never on the
+ * thread of the client: a client that finds no idle dictionary waits for one to be returned or
+ * created. The pool starts with a target size of one dictionary, which {@link #prewarm} creates
+ * ahead of the first request. When the average wait exceeds GROW_WAIT_TIME_IN_MILLIS the target
+ * size grows, up to the maximum size, and when the clients have not waited for
+ * DEFAULT_SHRINK_DELAY_IN_MILLIS it shrinks again, closing the dictionaries that are returned in excess.
+ *
+ * As a deadlock-detecting device, if waiting for more than TIMEOUT = 3 seconds, we give up and
+ * consider the dictionaries that are not back as lost, so that new ones are created. This is
+ * transparent for the client code, but may help with sloppy clients.
  */
-@SuppressWarnings("serial")
-public final class DictionaryPool extends LinkedBlockingQueue<DictAndProximity> {
+public final class DictionaryPool {
     private final static String TAG = DictionaryPool.class.getSimpleName();
+    private static final boolean DBG = false;
     // How many seconds we wait for a dictionary to become available. Past this delay, we give up in
-    // fear some bug caused a deadlock, and reset the whole pool.
+    // fear some bug caused a deadlock, and replace the missing dictionaries.
     private final static int TIMEOUT = 3;
-    private final AndroidSpellCheckerService mService;
+    /* package for test */ static final int GROW_WAIT_TIME_IN_MILLIS = 20;
+    /* package for test */ static final int SHRINK_WAIT_TIME_IN_MILLIS = 1;
+    private static final long DEFAULT_SHRINK_DELAY_IN_MILLIS = 30 * 1000;
+    // The weight of the previous average in the moving average of the wait times, out of 1.
+    private static final float WAIT_TIME_AVERAGE_WEIGHT = 0.875f;
+
+    /**
+     * Creates the dictionaries of a pool.
+     */
+    public interface DictAndProximityFactory {
+        /**
+         * Creates a dictionary. This is called on the background thread of the pools.
+         */
+        public DictAndProximity createDictAndProximity(Locale locale);
+    }
+
+    private static final ExecutorService sCreator = Executors.newSingleThreadExecutor();
+
+    private final DictAndProximityFactory mFactory;
     private final int mMaxSize;
     private final Locale mLocale;
-    private int mSize;
+    private final long mShrinkDelayInMillis;
+    private final LinkedBlockingQueue<DictAndProximity> mIdleDictionaries =
+            new LinkedBlockingQueue<DictAndProximity>();
     private volatile boolean mClosed;
+    // The following members are guarded by this pool.
+    // The number of dictionaries, including the ones being created.
+    private int mSize;
+    private int mCreatingCount;
+    private int mTargetSize;
+    private long mLastResizeTime;
+    private float mAverageWaitTime;
+    private long mMaxWaitTime;
+    private int mHitCount;
+    private int mMissCount;
+    private int mTimeoutCount;
+
     final static ArrayList<SuggestedWordInfo> noSuggestions = CollectionUtils.newArrayList();
     private final static DictAndProximity dummyDict = new DictAndProximity(
             new Dictionary(Dictionary.TYPE_MAIN) {
@@ -67,39 +110,60 @@ public final class DictionaryPool extends LinkedBlockingQueue<DictAndProximity>
         return null != dictInfo && dummyDict != dictInfo;
     }
 
-    public DictionaryPool(final int maxSize, final AndroidSpellCheckerService service,
+    public DictionaryPool(final int maxSize, final DictAndProximityFactory factory,
             final Locale locale) {
-        super();
+        this(maxSize, factory, locale, DEFAULT_SHRINK_DELAY_IN_MILLIS);
+    }
+
+    /* package for test */ DictionaryPool(final int maxSize,
+            final DictAndProximityFactory factory, final Locale locale,
+            final long shrinkDelayInMillis) {
         mMaxSize = maxSize;
-        mService = service;
+        mFactory = factory;
         mLocale = locale;
+        mShrinkDelayInMillis = shrinkDelayInMillis;
         mSize = 0;
+        mTargetSize = 1;
+        mLastResizeTime = SystemClock.uptimeMillis();
         mClosed = false;
     }
 
-    @Override
+    /**
+     * Starts creating the dictionaries of the target size in the background, so that the first
+     * requests do not wait for them.
+     */
+    public synchronized void prewarm() {
+        while (!mClosed && mSize < mTargetSize) {
+            createDictionaryLocked();
+        }
+    }
+
     public DictAndProximity poll(final long timeout, final TimeUnit unit)
             throws InterruptedException {
-        final DictAndProximity dict = poll();
-        if (null != dict) return dict;
+        final DictAndProximity idleDict = mIdleDictionaries.poll();
+        if (null != idleDict) {
+            onPolled(true /* isHit */, 0);
+            return idleDict;
+        }
         synchronized(this) {
-            if (mSize >= mMaxSize) {
-                // Our pool is already full. Wait until some dictionary is ready, or TIMEOUT
-                // expires to avoid a deadlock.
-                final DictAndProximity result = super.poll(timeout, unit);
-                if (null == result) {
-                    Log.e(TAG, "Deadlock detected ! Resetting dictionary pool");
-                    clear();
-                    mSize = 1;
-                    return mService.createDictAndProximity(mLocale);
-                } else {
-                    return result;
-                }
-            } else {
-                ++mSize;
-                return mService.createDictAndProximity(mLocale);
+            if (mClosed) return dummyDict;
+            if (mSize < mTargetSize) {
+                createDictionaryLocked();
+            }
+        }
+        final long startTime = SystemClock.uptimeMillis();
+        final DictAndProximity dict = mIdleDictionaries.poll(timeout, unit);
+        onPolled(false /* isHit */, SystemClock.uptimeMillis() - startTime);
+        if (null == dict) {
+            Log.e(TAG, "Deadlock detected ! Replacing the missing dictionaries");
+            synchronized(this) {
+                ++mTimeoutCount;
+                // The dictionaries that are neither idle nor being created are considered lost.
+                mSize = mIdleDictionaries.size() + mCreatingCount;
+                prewarm();
             }
         }
+        return dict;
     }
 
     // Convenience method
@@ -111,23 +175,153 @@ public final class DictionaryPool extends LinkedBlockingQueue<DictAndProximity>
         }
     }
 
+    /**
+     * Updates the statistics and the target size after a client got a dictionary or gave up.
+     */
+    private synchronized void onPolled(final boolean isHit, final long waitTime) {
+        if (isHit) {
+            ++mHitCount;
+        } else {
+            ++mMissCount;
+        }
+        if (waitTime > mMaxWaitTime) {
+            mMaxWaitTime = waitTime;
+        }
+        mAverageWaitTime = mAverageWaitTime * WAIT_TIME_AVERAGE_WEIGHT
+                + waitTime * (1.0f - WAIT_TIME_AVERAGE_WEIGHT);
+        final long now = SystemClock.uptimeMillis();
+        if (mAverageWaitTime > GROW_WAIT_TIME_IN_MILLIS) {
+            if (mTargetSize < mMaxSize) {
+                ++mTargetSize;
+                if (DBG) {
+                    Log.d(TAG, "Growing the pool for " + mLocale + " to " + mTargetSize);
+                }
+                prewarm();
+            }
+            mLastResizeTime = now;
+        } else if (mAverageWaitTime > SHRINK_WAIT_TIME_IN_MILLIS) {
+            mLastResizeTime = now;
+        } else if (now - mLastResizeTime > mShrinkDelayInMillis && mTargetSize > 1) {
+            // The dictionaries in excess are closed as they are given back.
+            --mTargetSize;
+            mLastResizeTime = now;
+            if (DBG) {
+                Log.d(TAG, "Shrinking the pool for " + mLocale + " to " + mTargetSize);
+            }
+        }
+    }
+
+    private void createDictionaryLocked() {
+        ++mSize;
+        ++mCreatingCount;
+        sCreator.execute(new Runnable() {
+            @Override
+            public void run() {
+                DictAndProximity dict = null;
+                try {
+                    // The pool may have been closed while this was waiting to run.
+                    if (!mClosed) {
+                        dict = mFactory.createDictAndProximity(mLocale);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Can't create a dictionary for " + mLocale, e);
+                } finally {
+                    synchronized(DictionaryPool.this) {
+                        --mCreatingCount;
+                        if (null == dict) {
+                            --mSize;
+                        }
+                    }
+                }
+                if (null != dict) {
+                    // This closes the dictionary if the pool was closed during the creation.
+                    offer(dict);
+                }
+            }
+        });
+    }
+
     public void close() {
         synchronized(this) {
             mClosed = true;
-            for (DictAndProximity dict : this) {
-                dict.mDictionary.close();
+            for (DictAndProximity dict : mIdleDictionaries) {
+                closeDictionary(dict);
             }
-            clear();
+            mIdleDictionaries.clear();
+            // Wake up the clients that are waiting for a dictionary.
+            mIdleDictionaries.offer(dummyDict);
         }
     }
 
-    @Override
-    public boolean offer(final DictAndProximity dict) {
+    public synchronized boolean offer(final DictAndProximity dict) {
+        // This is synchronized with close(), so that a dictionary is never left idle in a pool
+        // that is already closed.
         if (mClosed) {
-            dict.mDictionary.close();
-            return super.offer(dummyDict);
-        } else {
-            return super.offer(dict);
+            if (isAValidDictionary(dict)) {
+                closeDictionary(dict);
+            }
+            return mIdleDictionaries.offer(dummyDict);
+        }
+        if (!isAValidDictionary(dict)) {
+            // A dummy dictionary from before the pool was closed.
+            return true;
         }
+        if (mSize > mTargetSize) {
+            --mSize;
+            sCreator.execute(new Runnable() {
+                @Override
+                public void run() {
+                    closeDictionary(dict);
+                }
+            });
+            return true;
+        }
+        return mIdleDictionaries.offer(dict);
+    }
+
+    // Only closes the parts of a dictionary that belong to it: the others, like the user and
+    // contacts dictionaries, are shared with the other dictionaries and the other pools.
+    private static void closeDictionary(final DictAndProximity dict) {
+        dict.mOwnDictionary.close();
+        if (null != dict.mProximityInfo) {
+            dict.mProximityInfo.close();
+        }
+    }
+
+    public synchronized int getSize() {
+        return mSize;
+    }
+
+    public synchronized int getTargetSize() {
+        return mTargetSize;
+    }
+
+    /**
+     * Returns the number of requests that found an idle dictionary.
+     */
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * Returns the number of requests that had to wait for a dictionary.
+     */
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /**
+     * Returns the moving average of the wait times of the requests, in milliseconds.
+     */
+    public synchronized float getAverageWaitTime() {
+        return mAverageWaitTime;
+    }
+
+    public synchronized long getMaxWaitTime() {
+        return mMaxWaitTime;
     }
 }
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.research;
+
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.android.inputmethod.latin.CollectionUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+
+/**
+ * Reads the research logs written by {@link BinaryLogWriter}.
+ *
+ * The logs are converted back to the JSON format that the logs were written in before, so that
+ * the format of the uploaded logs does not change.
+ */
+/* package */ final class BinaryLogReader {
+    private static final String TAG = BinaryLogReader.class.getSimpleName();
+
+    private static final String CURRENT_TIME_KEY = "_ct";
+    private static final String UPTIME_KEY = "_ut";
+    private static final String EVENT_TYPE_KEY = "_ty";
+
+    private final DataInputStream mIn;
+    private final ArrayList<String> mStrings = CollectionUtils.newArrayList();
+    private long mCurrentTime;
+    private long mUptime;
+    // The event being read.
+    private byte[] mBuffer = new byte[256];
+    private int mLength;
+    private int mPosition;
+
+    private BinaryLogReader(final InputStream in) {
+        mIn = new DataInputStream(in);
+    }
+
+    /**
+     * Returns whether the file is a log written by {@link BinaryLogWriter}, as opposed to a log
+     * written in JSON by an older version.
+     */
+    public static boolean isBinaryLog(final File file) {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            return in.readInt() == BinaryLogWriter.MAGIC_NUMBER;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a binary log to JSON.
+     *
+     * The JSON is an array with one object per event, as it was written before the binary format.
+     * If the log ends with a partially written event, for example because the keyboard was killed
+     * while writing it, the events before it are still converted.
+     *
+     * @param in the binary log. It is not closed.
+     * @param out the writer for the JSON. It is flushed but not closed.
+     * @throws IOException if the stream can't be read, or is not a log of a supported version.
+     */
+    public static void convertToJson(final InputStream in, final Writer out) throws IOException {
+        final BinaryLogReader reader = new BinaryLogReader(new BufferedInputStream(in));
+        reader.readHeader();
+        final JsonWriter jsonWriter = new JsonWriter(out);
+        jsonWriter.beginArray();
+        while (reader.readEvent()) {
+            reader.writeEvent(jsonWriter);
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+    }
+
+    private void readHeader() throws IOException {
+        if (mIn.readInt() != BinaryLogWriter.MAGIC_NUMBER) {
+            throw new IOException("Not a research log");
+        }
+        final int version = mIn.readUnsignedByte();
+        if (version != BinaryLogWriter.VERSION) {
+            throw new IOException("Unsupported research log version " + version);
+        }
+    }
+
+    /**
+     * Reads the next event into the buffer.
+     * @return true if an event was read, false at the end of the log.
+     */
+    private boolean readEvent() throws IOException {
+        try {
+            int size = 0;
+            for (int shift = 0; ; shift += 7) {
+                final int b = mIn.readUnsignedByte();
+                size |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) break;
+                if (shift > 28) throw new IOException("Corrupted research log");
+            }
+            if (size < 0) throw new IOException("Corrupted research log");
+            if (size > mBuffer.length) {
+                mBuffer = new byte[size];
+            }
+            mIn.readFully(mBuffer, 0, size);
+            mLength = size;
+            mPosition = 0;
+            return true;
+        } catch (EOFException e) {
+            // Either the end of the log, or an event that was not completely written.
+            return false;
+        }
+    }
+
+    private void writeEvent(final JsonWriter jsonWriter) throws IOException {
+        mCurrentTime += unzigzag(readVarLong());
+        mUptime += unzigzag(readVarLong());
+        jsonWriter.beginObject();
+        jsonWriter.name(CURRENT_TIME_KEY).value(mCurrentTime);
+        jsonWriter.name(UPTIME_KEY).value(mUptime);
+        jsonWriter.name(EVENT_TYPE_KEY).value(readStringReference());
+        final int length = readVarInt();
+        for (int i = 0; i < length; i++) {
+            jsonWriter.name(readStringReference());
+            writeValue(jsonWriter);
+        }
+        jsonWriter.endObject();
+    }
+
+    private void writeValue(final JsonWriter jsonWriter) throws IOException {
+        final int type = readByte();
+        switch (type) {
+        case BinaryLogWriter.TYPE_STRING_ARRAY:
+            jsonWriter.beginArray();
+            writeStrings(jsonWriter);
+            jsonWriter.endArray();
+            break;
+        case BinaryLogWriter.TYPE_PREFERENCES: {
+            jsonWriter.beginObject();
+            final int count = readVarInt();
+            for (int i = 0; i < count; i++) {
+                jsonWriter.name(readStringReference());
+                writePrimitive(jsonWriter, readByte());
+            }
+            jsonWriter.endObject();
+            break;
+        }
+        case BinaryLogWriter.TYPE_KEYS: {
+            jsonWriter.beginArray();
+            final int count = readVarInt();
+            for (int i = 0; i < count; i++) {
+                jsonWriter.beginObject();
+                jsonWriter.name("code").value(unzigzag(readVarLong()));
+                jsonWriter.name("altCode").value(unzigzag(readVarLong()));
+                jsonWriter.name("x").value(unzigzag(readVarLong()));
+                jsonWriter.name("y").value(unzigzag(readVarLong()));
+                jsonWriter.name("w").value(unzigzag(readVarLong()));
+                jsonWriter.name("h").value(unzigzag(readVarLong()));
+                jsonWriter.endObject();
+            }
+            jsonWriter.endArray();
+            break;
+        }
+        case BinaryLogWriter.TYPE_SUGGESTED_WORDS: {
+            final int flags = readByte();
+            jsonWriter.beginObject();
+            jsonWriter.name("typedWordValid")
+                    .value((flags & BinaryLogWriter.SUGGESTED_WORDS_TYPED_WORD_VALID) != 0);
+            jsonWriter.name("willAutoCorrect")
+                    .value((flags & BinaryLogWriter.SUGGESTED_WORDS_WILL_AUTO_CORRECT) != 0);
+            jsonWriter.name("isPunctuationSuggestions").value(
+                    (flags & BinaryLogWriter.SUGGESTED_WORDS_IS_PUNCTUATION_SUGGESTIONS) != 0);
+            jsonWriter.name("isObsoleteSuggestions").value(
+                    (flags & BinaryLogWriter.SUGGESTED_WORDS_IS_OBSOLETE_SUGGESTIONS) != 0);
+            jsonWriter.name("isPrediction")
+                    .value((flags & BinaryLogWriter.SUGGESTED_WORDS_IS_PREDICTION) != 0);
+            jsonWriter.name("words");
+            jsonWriter.beginArray();
+            writeStrings(jsonWriter);
+            jsonWriter.endArray();
+            jsonWriter.endObject();
+            break;
+        }
+        default:
+            writePrimitive(jsonWriter, type);
+        }
+    }
+
+    private void writePrimitive(final JsonWriter jsonWriter, final int type) throws IOException {
+        switch (type) {
+        case BinaryLogWriter.TYPE_NULL:
+            jsonWriter.nullValue();
+            break;
+        case BinaryLogWriter.TYPE_STRING:
+            jsonWriter.value(readString());
+            break;
+        case BinaryLogWriter.TYPE_FALSE:
+            jsonWriter.value(false);
+            break;
+        case BinaryLogWriter.TYPE_TRUE:
+            jsonWriter.value(true);
+            break;
+        case BinaryLogWriter.TYPE_INTEGER:
+            jsonWriter.value(unzigzag(readVarLong()));
+            break;
+        case BinaryLogWriter.TYPE_FLOAT:
+            // Written as a Float so that the JSON has the same digits as Float.toString().
+            jsonWriter.value(Float.valueOf(Float.intBitsToFloat(readInt())));
+            break;
+        case BinaryLogWriter.TYPE_DOUBLE: {
+            final long high = readInt() & 0xFFFFFFFFL;
+            final long low = readInt() & 0xFFFFFFFFL;
+            jsonWriter.value(Double.valueOf(Double.longBitsToDouble((high << 32) | low)));
+            break;
+        }
+        default:
+            Log.w(TAG, "Unknown type in research log: " + type);
+            throw new IOException("Corrupted research log");
+        }
+    }
+
+    private void writeStrings(final JsonWriter jsonWriter) throws IOException {
+        final int count = readVarInt();
+        for (int i = 0; i < count; i++) {
+            jsonWriter.value(readString());
+        }
+    }
+
+    private String readStringReference() throws IOException {
+        final int index = readVarInt();
+        if (index != BinaryLogWriter.NEW_STRING) {
+            if (index > mStrings.size()) {
+                throw new IOException("Corrupted research log");
+            }
+            return mStrings.get(index - 1);
+        }
+        final String string = readString();
+        mStrings.add(string);
+        return string;
+    }
+
+    private String readString() throws IOException {
+        final int length = readVarInt();
+        checkAvailable(length);
+        final String string = new String(mBuffer, mPosition, length, BinaryLogWriter.UTF_8);
+        mPosition += length;
+        return string;
+    }
+
+    private static long unzigzag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarInt() throws IOException {
+        final long value = readVarLong();
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IOException("Corrupted research log");
+        }
+        return (int)value;
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final int b = readByte();
+            value |= (long)(b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupted research log");
+    }
+
+    private int readInt() throws IOException {
+        checkAvailable(4);
+        final int value = ((mBuffer[mPosition] & 0xFF) << 24)
+                | ((mBuffer[mPosition + 1] & 0xFF) << 16)
+                | ((mBuffer[mPosition + 2] & 0xFF) << 8)
+                | (mBuffer[mPosition + 3] & 0xFF);
+        mPosition += 4;
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        checkAvailable(1);
+        return mBuffer[mPosition++] & 0xFF;
+    }
+
+    private void checkAvailable(final int length) throws IOException {
+        if (length > mLength - mPosition) {
+            throw new IOException("Corrupted research log");
+        }
+    }
+}
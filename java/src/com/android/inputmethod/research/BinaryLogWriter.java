@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.research;
+
+import android.content.SharedPreferences;
+import android.util.Log;
+import android.view.inputmethod.CompletionInfo;
+
+import com.android.inputmethod.keyboard.Key;
+import com.android.inputmethod.latin.CollectionUtils;
+import com.android.inputmethod.latin.SuggestedWords;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes research log events in a compact binary format.
+ *
+ * The file starts with the 4 bytes of {@link #MAGIC_NUMBER} and a version byte. Then comes
+ * each event, as a varint giving the size of the event followed by the event itself:
+ * - the current time and the uptime, each as the zigzag varint of the difference with the
+ *   previous event
+ * - the event type, as a string reference
+ * - the varint number of values, then for each value its key, as a string reference, and the
+ *   value, as a type byte followed by the data for this type.
+ *
+ * A string reference is either the varint index (starting at 1) of a string already defined in
+ * the file, or 0 followed by a new string that gets the next index. Strings are written as
+ * the varint size of their UTF-8 encoding followed by this encoding. Event types, keys and
+ * preference names are thus only written once per file.
+ *
+ * The format is not thread safe and the events must be read in order. Use
+ * {@link BinaryLogReader} to read it back or convert it to the JSON format of older logs.
+ */
+/* package */ final class BinaryLogWriter {
+    private static final String TAG = BinaryLogWriter.class.getSimpleName();
+
+    /* package */ static final int MAGIC_NUMBER = 0x524C4F47; // "RLOG"
+    /* package */ static final int VERSION = 1;
+    /* package */ static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* package */ static final int NEW_STRING = 0;
+
+    /* package */ static final int TYPE_NULL = 0;
+    /* package */ static final int TYPE_STRING = 1;
+    /* package */ static final int TYPE_FALSE = 2;
+    /* package */ static final int TYPE_TRUE = 3;
+    /* package */ static final int TYPE_INTEGER = 4;
+    /* package */ static final int TYPE_FLOAT = 5;
+    /* package */ static final int TYPE_DOUBLE = 6;
+    // An array of strings, for the CompletionInfo objects.
+    /* package */ static final int TYPE_STRING_ARRAY = 7;
+    // The varint number of preferences, then for each of them its name and its value.
+    /* package */ static final int TYPE_PREFERENCES = 8;
+    // The varint number of keys, then for each of them the zigzag varints of its code,
+    // alternate code, x, y, width and height.
+    /* package */ static final int TYPE_KEYS = 9;
+    // A byte of SUGGESTED_WORDS_* flags, then the suggestions as an array of strings.
+    /* package */ static final int TYPE_SUGGESTED_WORDS = 10;
+
+    /* package */ static final int SUGGESTED_WORDS_TYPED_WORD_VALID = 0x01;
+    /* package */ static final int SUGGESTED_WORDS_WILL_AUTO_CORRECT = 0x02;
+    /* package */ static final int SUGGESTED_WORDS_IS_PUNCTUATION_SUGGESTIONS = 0x04;
+    /* package */ static final int SUGGESTED_WORDS_IS_OBSOLETE_SUGGESTIONS = 0x08;
+    /* package */ static final int SUGGESTED_WORDS_IS_PREDICTION = 0x10;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private final OutputStream mOut;
+    private final HashMap<String, Integer> mStringIndices = CollectionUtils.newHashMap();
+    // The strings defined by the event being encoded, which must be forgotten if it can't be
+    // written.
+    private final ArrayList<String> mNewStrings = CollectionUtils.newArrayList();
+    private long mPreviousCurrentTime;
+    private long mPreviousUptime;
+    // The event being encoded. Its size is only known at the end.
+    private byte[] mBuffer = new byte[INITIAL_BUFFER_SIZE];
+    private int mLength;
+    // The varint of the size of the event.
+    private final byte[] mSizeBuffer = new byte[5];
+
+    public BinaryLogWriter(final OutputStream out) throws IOException {
+        mOut = out;
+        writeInt(MAGIC_NUMBER);
+        writeByte(VERSION);
+        flushBuffer();
+    }
+
+    /**
+     * Writes an event.
+     * @param currentTime the current time in milliseconds
+     * @param uptime the uptime in milliseconds
+     * @param keys the type of the event, followed by the keys of the values
+     * @param values the values
+     */
+    public void writeEvent(final long currentTime, final long uptime, final String[] keys,
+            final Object[] values) throws IOException {
+        mLength = 0;
+        mNewStrings.clear();
+        boolean isWritten = false;
+        try {
+            writeVarLong(zigzag(currentTime - mPreviousCurrentTime));
+            writeVarLong(zigzag(uptime - mPreviousUptime));
+            writeStringReference(keys[0]);
+            final int length = values.length;
+            writeVarInt(length);
+            for (int i = 0; i < length; i++) {
+                writeStringReference(keys[i + 1]);
+                writeValue(values[i]);
+            }
+
+            int sizeLength = 0;
+            int size = mLength;
+            while ((size & ~0x7F) != 0) {
+                mSizeBuffer[sizeLength++] = (byte)((size & 0x7F) | 0x80);
+                size >>>= 7;
+            }
+            mSizeBuffer[sizeLength++] = (byte)size;
+            mOut.write(mSizeBuffer, 0, sizeLength);
+            flushBuffer();
+            isWritten = true;
+        } finally {
+            if (isWritten) {
+                mPreviousCurrentTime = currentTime;
+                mPreviousUptime = uptime;
+            } else {
+                for (final String string : mNewStrings) {
+                    mStringIndices.remove(string);
+                }
+            }
+        }
+    }
+
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    public void close() throws IOException {
+        mOut.close();
+    }
+
+    private void writeValue(final Object value) {
+        if (value instanceof CharSequence) {
+            writeByte(TYPE_STRING);
+            writeString(value.toString());
+        } else if (value instanceof Number || value instanceof Boolean) {
+            writePrimitive(value);
+        } else if (value instanceof CompletionInfo[]) {
+            final CompletionInfo[] ci = (CompletionInfo[]) value;
+            writeByte(TYPE_STRING_ARRAY);
+            writeVarInt(ci.length);
+            for (int j = 0; j < ci.length; j++) {
+                writeString(ci[j].toString());
+            }
+        } else if (value instanceof SharedPreferences) {
+            final Map<String, ?> prefs = ((SharedPreferences) value).getAll();
+            writeByte(TYPE_PREFERENCES);
+            writeVarInt(prefs.size());
+            for (Map.Entry<String, ?> entry : prefs.entrySet()) {
+                writeStringReference(entry.getKey());
+                final Object innerValue = entry.getValue();
+                if (innerValue == null) {
+                    writeByte(TYPE_NULL);
+                } else if (innerValue instanceof Number || innerValue instanceof Boolean) {
+                    writePrimitive(innerValue);
+                } else {
+                    writeByte(TYPE_STRING);
+                    writeString(innerValue.toString());
+                }
+            }
+        } else if (value instanceof Key[]) {
+            final Key[] keyboardKeys = (Key[]) value;
+            writeByte(TYPE_KEYS);
+            writeVarInt(keyboardKeys.length);
+            for (Key keyboardKey : keyboardKeys) {
+                writeVarLong(zigzag(keyboardKey.mCode));
+                writeVarLong(zigzag(keyboardKey.getAltCode()));
+                writeVarLong(zigzag(keyboardKey.mX));
+                writeVarLong(zigzag(keyboardKey.mY));
+                writeVarLong(zigzag(keyboardKey.mWidth));
+                writeVarLong(zigzag(keyboardKey.mHeight));
+            }
+        } else if (value instanceof SuggestedWords) {
+            final SuggestedWords words = (SuggestedWords) value;
+            writeByte(TYPE_SUGGESTED_WORDS);
+            writeByte((words.mTypedWordValid ? SUGGESTED_WORDS_TYPED_WORD_VALID : 0)
+                    | (words.mWillAutoCorrect ? SUGGESTED_WORDS_WILL_AUTO_CORRECT : 0)
+                    | (words.mIsPunctuationSuggestions
+                            ? SUGGESTED_WORDS_IS_PUNCTUATION_SUGGESTIONS : 0)
+                    | (words.mIsObsoleteSuggestions ? SUGGESTED_WORDS_IS_OBSOLETE_SUGGESTIONS : 0)
+                    | (words.mIsPrediction ? SUGGESTED_WORDS_IS_PREDICTION : 0));
+            final int size = words.size();
+            writeVarInt(size);
+            for (int j = 0; j < size; j++) {
+                writeString(words.getWordInfo(j).toString());
+            }
+        } else {
+            if (value != null) {
+                Log.w(TAG, "Unrecognized type to be logged: " + value.getClass().getName());
+            }
+            writeByte(TYPE_NULL);
+        }
+    }
+
+    private void writePrimitive(final Object value) {
+        if (value instanceof Boolean) {
+            writeByte((Boolean) value ? TYPE_TRUE : TYPE_FALSE);
+        } else if (value instanceof Float) {
+            writeByte(TYPE_FLOAT);
+            writeInt(Float.floatToIntBits((Float) value));
+        } else if (value instanceof Double) {
+            writeByte(TYPE_DOUBLE);
+            final long bits = Double.doubleToLongBits((Double) value);
+            writeInt((int)(bits >>> 32));
+            writeInt((int)bits);
+        } else {
+            writeByte(TYPE_INTEGER);
+            writeVarLong(zigzag(((Number) value).longValue()));
+        }
+    }
+
+    private void writeStringReference(final String string) {
+        final Integer index = mStringIndices.get(string);
+        if (null != index) {
+            writeVarInt(index);
+            return;
+        }
+        writeVarInt(NEW_STRING);
+        writeString(string);
+        mStringIndices.put(string, mStringIndices.size() + 1);
+        mNewStrings.add(string);
+    }
+
+    private void writeString(final String string) {
+        final byte[] bytes = string.getBytes(UTF_8);
+        writeVarInt(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, mBuffer, mLength, bytes.length);
+        mLength += bytes.length;
+    }
+
+    private static long zigzag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private void writeVarInt(final int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    private void writeVarLong(final long value) {
+        ensureCapacity(10);
+        long v = value;
+        while ((v & ~0x7FL) != 0) {
+            mBuffer[mLength++] = (byte)((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        mBuffer[mLength++] = (byte)v;
+    }
+
+    private void writeInt(final int value) {
+        ensureCapacity(4);
+        mBuffer[mLength++] = (byte)(value >> 24);
+        mBuffer[mLength++] = (byte)(value >> 16);
+        mBuffer[mLength++] = (byte)(value >> 8);
+        mBuffer[mLength++] = (byte)value;
+    }
+
+    private void writeByte(final int value) {
+        ensureCapacity(1);
+        mBuffer[mLength++] = (byte)value;
+    }
+
+    private void ensureCapacity(final int length) {
+        if (mLength + length > mBuffer.length) {
+            mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mLength + length));
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        mOut.write(mBuffer, 0, mLength);
+        mLength = 0;
+    }
+}
@@ -32,6 +32,7 @@ import android.util.Log;
 import com.android.inputmethod.latin.R;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.FileInputStream;
@@ -39,6 +40,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -144,6 +147,9 @@ public final class UploaderService extends IntentService {
         Log.d(TAG, "attempting upload of " + file.getAbsolutePath());
         boolean success = false;
         final int contentLength = (int) file.length();
+        // Logs are written in a binary format, but are uploaded in the JSON format the server
+        // expects. Logs written by older versions are already in JSON.
+        final boolean isBinaryLog = BinaryLogReader.isBinaryLog(file);
         HttpURLConnection connection = null;
         InputStream fileInputStream = null;
         try {
@@ -151,12 +157,21 @@ public final class UploaderService extends IntentService {
             connection = (HttpURLConnection) mUrl.openConnection();
             connection.setRequestMethod("PUT");
             connection.setDoOutput(true);
-            connection.setFixedLengthStreamingMode(contentLength);
-            final OutputStream os = connection.getOutputStream();
-            final byte[] buf = new byte[BUF_SIZE];
-            int numBytesRead;
-            while ((numBytesRead = fileInputStream.read(buf)) != -1) {
-                os.write(buf, 0, numBytesRead);
+            if (isBinaryLog) {
+                // The size of the JSON is not known until it has been written.
+                connection.setChunkedStreamingMode(BUF_SIZE);
+                final Writer writer = new BufferedWriter(
+                        new OutputStreamWriter(connection.getOutputStream(), "UTF-8"), BUF_SIZE);
+                BinaryLogReader.convertToJson(fileInputStream, writer);
+                writer.flush();
+            } else {
+                connection.setFixedLengthStreamingMode(contentLength);
+                final OutputStream os = connection.getOutputStream();
+                final byte[] buf = new byte[BUF_SIZE];
+                int numBytesRead;
+                while ((numBytesRead = fileInputStream.read(buf)) != -1) {
+                    os.write(buf, 0, numBytesRead);
+                }
             }
             if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
                 Log.d(TAG, "upload failed: " + connection.getResponseCode());
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.android.inputmethod.latin.R;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for KeyboardCache
+ */
+public class KeyboardCacheTests extends AndroidTestCase {
+    private static final long TIMEOUT_IN_SECONDS = 10;
+
+    private KeyboardTestUtils mKeyboards;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mKeyboards = new KeyboardTestUtils(getContext());
+    }
+
+    private KeyboardId getKeyboardId(final int elementId) {
+        return mKeyboards.getKeyboardId(elementId);
+    }
+
+    private Keyboard buildKeyboard(final int xmlId, final KeyboardId id) {
+        return mKeyboards.buildKeyboard(xmlId, id);
+    }
+
+    public void testLeastRecentlyUsedKeyboardIsEvicted() {
+        final KeyboardId alphabetId = getKeyboardId(KeyboardId.ELEMENT_ALPHABET);
+        final KeyboardId symbolsId = getKeyboardId(KeyboardId.ELEMENT_SYMBOLS);
+        final KeyboardId symbolsShiftedId = getKeyboardId(KeyboardId.ELEMENT_SYMBOLS_SHIFTED);
+        final Keyboard alphabet = buildKeyboard(R.xml.kbd_qwerty, alphabetId);
+        final Keyboard symbols = buildKeyboard(R.xml.kbd_symbols, symbolsId);
+        final Keyboard symbolsShifted = buildKeyboard(R.xml.kbd_symbols_shift, symbolsShiftedId);
+        final int alphabetSize = KeyboardCache.estimateSizeInBytes(alphabet);
+        final int symbolsSize = KeyboardCache.estimateSizeInBytes(symbols);
+        final int symbolsShiftedSize = KeyboardCache.estimateSizeInBytes(symbolsShifted);
+        assertTrue(alphabetSize > 0);
+
+        // Room for the two largest keyboards, but not for the three of them.
+        final int maxSize = alphabetSize + symbolsSize + symbolsShiftedSize
+                - Math.min(alphabetSize, Math.min(symbolsSize, symbolsShiftedSize));
+        final KeyboardCache cache = new KeyboardCache(maxSize);
+        cache.put(alphabetId, alphabet, 10, false /* isPrebuilt */);
+        cache.put(symbolsId, symbols, 20, true /* isPrebuilt */);
+        assertEquals(2, cache.size());
+        assertEquals(alphabetSize + symbolsSize, cache.getSizeInBytes());
+        // Using the alphabet keyboard makes the symbols keyboard the least recently used one.
+        assertSame(alphabet, cache.get(alphabetId));
+        cache.put(symbolsShiftedId, symbolsShifted, 30, true /* isPrebuilt */);
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(alphabetId));
+        assertFalse(cache.contains(symbolsId));
+        assertTrue(cache.contains(symbolsShiftedId));
+        assertEquals(alphabetSize + symbolsShiftedSize, cache.getSizeInBytes());
+        assertTrue(cache.getSizeInBytes() <= maxSize);
+
+        assertNull(cache.get(symbolsId));
+        assertSame(symbolsShifted, cache.get(symbolsShiftedId));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getPrebuiltHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2.0f / 3.0f, cache.getHitRate(), 0.001f);
+        assertEquals(2, cache.getPrebuildCount());
+        assertEquals(20.0f, cache.getAverageBuildTime(), 0.001f);
+        assertEquals(30, cache.getMaxBuildTime());
+    }
+
+    public void testKeyboardLargerThanTheCacheIsKept() {
+        final KeyboardId alphabetId = getKeyboardId(KeyboardId.ELEMENT_ALPHABET);
+        final KeyboardCache cache = new KeyboardCache(1);
+        final Keyboard alphabet = buildKeyboard(R.xml.kbd_qwerty, alphabetId);
+        cache.put(alphabetId, alphabet, 0, false /* isPrebuilt */);
+        assertSame(alphabet, cache.get(alphabetId));
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    /**
+     * Runs a task on the thread of a handler and waits for it to finish.
+     */
+    private static void runOnHandlerThread(final Handler handler, final Runnable task)
+            throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                task.run();
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+    }
+
+    public void testNextKeyboardsArePrebuilt() throws InterruptedException {
+        final KeyboardLayoutSet keyboardLayoutSet = mKeyboards.buildKeyboardLayoutSet();
+        final KeyboardCache cache = KeyboardLayoutSet.getKeyboardCache();
+        // The keyboards are prebuilt while the looper of the thread that requested one is idle.
+        final HandlerThread thread = new HandlerThread(KeyboardCacheTests.class.getSimpleName());
+        thread.start();
+        final Handler handler = new Handler(thread.getLooper());
+        try {
+            final int[] counts = new int[3];
+            runOnHandlerThread(handler, new Runnable() {
+                @Override
+                public void run() {
+                    KeyboardLayoutSet.clearKeyboardCache();
+                    keyboardLayoutSet.getKeyboard(KeyboardId.ELEMENT_ALPHABET);
+                    counts[0] = cache.getPrebuildCount();
+                    counts[1] = cache.getPrebuiltHitCount();
+                    counts[2] = cache.getMissCount();
+                }
+            });
+            final int prebuildCount = counts[0];
+            final int prebuiltHitCount = counts[1];
+            final int missCount = counts[2];
+            // The shifted, symbols and symbols shifted keyboards follow the alphabet keyboard.
+            final long timeout = System.currentTimeMillis() + TIMEOUT_IN_SECONDS * 1000;
+            do {
+                assertTrue(System.currentTimeMillis() < timeout);
+                Thread.sleep(10);
+                runOnHandlerThread(handler, new Runnable() {
+                    @Override
+                    public void run() {
+                        counts[0] = cache.getPrebuildCount();
+                    }
+                });
+            } while (counts[0] < prebuildCount + 4);
+
+            runOnHandlerThread(handler, new Runnable() {
+                @Override
+                public void run() {
+                    keyboardLayoutSet.getKeyboard(KeyboardId.ELEMENT_ALPHABET_AUTOMATIC_SHIFTED);
+                    keyboardLayoutSet.getKeyboard(KeyboardId.ELEMENT_SYMBOLS);
+                    counts[1] = cache.getPrebuiltHitCount();
+                    counts[2] = cache.getMissCount();
+                }
+            });
+            assertEquals(prebuiltHitCount + 2, counts[1]);
+            assertEquals(missCount, counts[2]);
+        } finally {
+            runOnHandlerThread(handler, new Runnable() {
+                @Override
+                public void run() {
+                    KeyboardLayoutSet.clearKeyboardCache();
+                }
+            });
+            thread.quit();
+        }
+    }
+}
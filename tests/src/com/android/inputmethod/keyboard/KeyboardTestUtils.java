@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.view.ContextThemeWrapper;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputMethodSubtype;
+
+import com.android.inputmethod.keyboard.internal.KeyTableCache;
+import com.android.inputmethod.keyboard.internal.KeyboardBuilder;
+import com.android.inputmethod.keyboard.internal.KeyboardParams;
+import com.android.inputmethod.latin.AdditionalSubtype;
+import com.android.inputmethod.latin.R;
+import com.android.inputmethod.latin.SubtypeLocale;
+
+/**
+ * Builds the keyboards of the English qwerty subtype for the keyboard tests.
+ */
+public final class KeyboardTestUtils {
+    private final Context mContext;
+    private final InputMethodSubtype mSubtype;
+
+    /**
+     * @param context the context of the test, which the keyboard theme is applied to.
+     */
+    public KeyboardTestUtils(final Context context) {
+        mContext = new ContextThemeWrapper(context, R.style.KeyboardTheme);
+        SubtypeLocale.init(mContext);
+        mSubtype = AdditionalSubtype.createAdditionalSubtype("en_US", "qwerty", "");
+    }
+
+    public Context getContext() {
+        return mContext;
+    }
+
+    /**
+     * Returns the id of a keyboard of the subtype in the text mode, for the width and the
+     * orientation of the display.
+     */
+    public KeyboardId getKeyboardId(final int elementId) {
+        final int width = mContext.getResources().getDisplayMetrics().widthPixels;
+        return new KeyboardId(elementId, mSubtype, KeyboardId.FORM_FACTOR_PHONE,
+                mContext.getResources().getConfiguration().orientation, width,
+                KeyboardId.MODE_TEXT, new EditorInfo(), false /* clobberSettingsKey */,
+                false /* shortcutKeyEnabled */, false /* hasShortcutKey */,
+                false /* languageSwitchKeyEnabled */);
+    }
+
+    /**
+     * Returns the keyboard layout set of the subtype in the text mode, for the width and the
+     * orientation of the display.
+     */
+    public KeyboardLayoutSet buildKeyboardLayoutSet() {
+        final Resources res = mContext.getResources();
+        final KeyboardLayoutSet.Builder builder =
+                new KeyboardLayoutSet.Builder(mContext, new EditorInfo());
+        builder.setScreenGeometry(KeyboardId.FORM_FACTOR_PHONE,
+                res.getConfiguration().orientation, res.getDisplayMetrics().widthPixels);
+        builder.setSubtype(mSubtype);
+        builder.setOptions(false /* voiceKeyEnabled */, false /* voiceKeyOnMain */,
+                false /* languageSwitchKeyEnabled */);
+        return builder.build();
+    }
+
+    public Keyboard buildKeyboard(final int xmlId, final KeyboardId id) {
+        return buildKeyboard(xmlId, id, null);
+    }
+
+    /**
+     * @param keyTableCache the cache to load the keys from and save them to, or null to parse
+     *        them from the XML.
+     */
+    public Keyboard buildKeyboard(final int xmlId, final KeyboardId id,
+            final KeyTableCache keyTableCache) {
+        final KeyboardBuilder<KeyboardParams> builder =
+                new KeyboardBuilder<KeyboardParams>(mContext, new KeyboardParams());
+        builder.load(xmlId, id, keyTableCache);
+        return builder.build();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard;
+
+import android.content.res.Resources;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.android.inputmethod.latin.CollectionUtils;
+import com.android.inputmethod.latin.R;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Unit tests for the key detection of ProximityInfo, with a microbenchmark of its construction
+ * and of the detection of a touch, against the detection among the nearest keys of the touched
+ * cell that it replaces.
+ */
+public class ProximityInfoTests extends AndroidTestCase {
+    private static final String TAG = ProximityInfoTests.class.getSimpleName();
+    // The largest layouts, by number of keys and rows.
+    private static final int[] KEYBOARD_XML_IDS = {
+        R.xml.kbd_qwerty, R.xml.kbd_pcqwerty, R.xml.kbd_thai, R.xml.kbd_symbols_shift
+    };
+    // The margin around the keyboard where touches are detected, in pixels.
+    private static final int MARGIN = 20;
+    private static final float SEARCH_DISTANCE = 1.2f;
+
+    private KeyboardTestUtils mKeyboards;
+    private int mGridWidth;
+    private int mGridHeight;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mKeyboards = new KeyboardTestUtils(getContext());
+        final Resources res = mKeyboards.getContext().getResources();
+        mGridWidth = res.getInteger(R.integer.config_keyboard_grid_width);
+        mGridHeight = res.getInteger(R.integer.config_keyboard_grid_height);
+    }
+
+    private ArrayList<Keyboard> buildKeyboards() {
+        final ArrayList<Keyboard> keyboards = CollectionUtils.newArrayList();
+        final KeyboardId id = mKeyboards.getKeyboardId(KeyboardId.ELEMENT_ALPHABET);
+        for (final int xmlId : KEYBOARD_XML_IDS) {
+            keyboards.add(mKeyboards.buildKeyboard(xmlId, id));
+        }
+        return keyboards;
+    }
+
+    private ProximityInfo newProximityInfo(final Keyboard keyboard) {
+        return new ProximityInfo("en_US", mGridWidth, mGridHeight, keyboard.mOccupiedWidth,
+                keyboard.mOccupiedHeight, keyboard.mMostCommonKeyWidth,
+                keyboard.mMostCommonKeyHeight, keyboard.mKeys, null);
+    }
+
+    /**
+     * Computes the neighbors of the cells of the grid by measuring the distance of every key to
+     * the center of every cell.
+     */
+    private Key[][] computeNearestNeighborsByScan(final Keyboard keyboard) {
+        final int cellWidth = (keyboard.mOccupiedWidth + mGridWidth - 1) / mGridWidth;
+        final int cellHeight = (keyboard.mOccupiedHeight + mGridHeight - 1) / mGridHeight;
+        final int thresholdBase = (int)(keyboard.mMostCommonKeyWidth * SEARCH_DISTANCE);
+        final int threshold = thresholdBase * thresholdBase;
+        final Key[][] gridNeighbors = new Key[mGridWidth * mGridHeight][];
+        final Key[] neighborKeys = new Key[keyboard.mKeys.length];
+        for (int row = 0; row < mGridHeight; row++) {
+            for (int column = 0; column < mGridWidth; column++) {
+                final int centerX = column * cellWidth + cellWidth / 2;
+                final int centerY = row * cellHeight + cellHeight / 2;
+                int count = 0;
+                for (final Key key : keyboard.mKeys) {
+                    if (key.isSpacer()) continue;
+                    if (key.squaredDistanceToEdge(centerX, centerY) < threshold) {
+                        neighborKeys[count++] = key;
+                    }
+                }
+                gridNeighbors[row * mGridWidth + column] =
+                        Arrays.copyOfRange(neighborKeys, 0, count);
+            }
+        }
+        return gridNeighbors;
+    }
+
+    /**
+     * Detects the key hit by a point by looking at every key of the keyboard.
+     */
+    private static Key detectHitKeyByScan(final Keyboard keyboard, final int x, final int y) {
+        int minDistance = Integer.MAX_VALUE;
+        Key primaryKey = null;
+        for (final Key key : keyboard.mKeys) {
+            if (key.isSpacer() || !key.isOnKey(x, y)) continue;
+            final int distance = key.squaredDistanceToEdge(x, y);
+            if (distance > minDistance) continue;
+            if (primaryKey == null || distance < minDistance || key.mCode > primaryKey.mCode) {
+                minDistance = distance;
+                primaryKey = key;
+            }
+        }
+        return primaryKey;
+    }
+
+    /**
+     * Detects the key hit by a point by looking at the nearest keys of its cell, as the key
+     * detector did before the proximity info indexed the hit boxes.
+     */
+    private static Key detectHitKeyByNearestKeys(final ProximityInfo proximityInfo, final int x,
+            final int y) {
+        int minDistance = Integer.MAX_VALUE;
+        Key primaryKey = null;
+        for (final Key key : proximityInfo.getNearestKeys(x, y)) {
+            if (!key.isOnKey(x, y)) continue;
+            final int distance = key.squaredDistanceToEdge(x, y);
+            if (distance > minDistance) continue;
+            if (primaryKey == null || distance < minDistance || key.mCode > primaryKey.mCode) {
+                minDistance = distance;
+                primaryKey = key;
+            }
+        }
+        return primaryKey;
+    }
+
+    public void testNearestNeighbors() {
+        for (final Keyboard keyboard : buildKeyboards()) {
+            final ProximityInfo proximityInfo = newProximityInfo(keyboard);
+            final Key[][] expectedNeighbors = computeNearestNeighborsByScan(keyboard);
+            final int cellWidth = (keyboard.mOccupiedWidth + mGridWidth - 1) / mGridWidth;
+            final int cellHeight = (keyboard.mOccupiedHeight + mGridHeight - 1) / mGridHeight;
+            for (int row = 0; row < mGridHeight; row++) {
+                for (int column = 0; column < mGridWidth; column++) {
+                    final int x = column * cellWidth + cellWidth / 2;
+                    final int y = row * cellHeight + cellHeight / 2;
+                    if (x >= keyboard.mOccupiedWidth || y >= keyboard.mOccupiedHeight) continue;
+                    final String message = keyboard + " cell " + column + "," + row;
+                    assertTrue(message, Arrays.equals(
+                            expectedNeighbors[row * mGridWidth + column],
+                            proximityInfo.getNearestKeys(x, y)));
+                }
+            }
+        }
+    }
+
+    public void testDetectHitKey() {
+        for (final Keyboard keyboard : buildKeyboards()) {
+            final ProximityInfo proximityInfo = newProximityInfo(keyboard);
+            for (int y = -MARGIN; y < keyboard.mOccupiedHeight + MARGIN; y++) {
+                for (int x = -MARGIN; x < keyboard.mOccupiedWidth + MARGIN; x++) {
+                    assertSame(keyboard + " at " + x + "," + y,
+                            detectHitKeyByScan(keyboard, x, y), proximityInfo.detectHitKey(x, y));
+                }
+            }
+        }
+    }
+
+    public void testBenchmark() {
+        final int repeatCount = 20;
+        for (final Keyboard keyboard : buildKeyboards()) {
+            long scanConstructionTime = 0;
+            long indexConstructionTime = 0;
+            ProximityInfo proximityInfo = null;
+            for (int n = 0; n < repeatCount; n++) {
+                final long startTime = System.nanoTime();
+                computeNearestNeighborsByScan(keyboard);
+                final long middleTime = System.nanoTime();
+                proximityInfo = newProximityInfo(keyboard);
+                indexConstructionTime += System.nanoTime() - middleTime;
+                scanConstructionTime += middleTime - startTime;
+            }
+
+            int touchCount = 0;
+            long nearestKeysDetectionTime = 0;
+            long indexDetectionTime = 0;
+            for (int y = 0; y < keyboard.mOccupiedHeight; y += 2) {
+                for (int x = 0; x < keyboard.mOccupiedWidth; x += 2) {
+                    final long startTime = System.nanoTime();
+                    detectHitKeyByNearestKeys(proximityInfo, x, y);
+                    final long middleTime = System.nanoTime();
+                    proximityInfo.detectHitKey(x, y);
+                    indexDetectionTime += System.nanoTime() - middleTime;
+                    nearestKeysDetectionTime += middleTime - startTime;
+                    touchCount++;
+                }
+            }
+            Log.i(TAG, keyboard.mKeys.length + " keys " + keyboard
+                    + ": neighbors by scan " + scanConstructionTime / repeatCount / 1000
+                    + " us, proximity info with index " + indexConstructionTime / repeatCount / 1000
+                    + " us; hit key by nearest keys " + nearestKeysDetectionTime / touchCount
+                    + " ns, by index " + indexDetectionTime / touchCount + " ns");
+        }
+    }
+}
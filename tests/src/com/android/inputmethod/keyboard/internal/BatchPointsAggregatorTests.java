@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import android.test.AndroidTestCase;
+
+import com.android.inputmethod.latin.InputPointers;
+
+/**
+ * Unit tests for GesturePointRingBuffer and BatchPointsAggregator
+ */
+public class BatchPointsAggregatorTests extends AndroidTestCase {
+    private static final int CAPACITY = 4;
+
+    private static void appendPoints(final GesturePointRingBuffer buffer, final int from,
+            final int to) {
+        for (int i = from; i < to; i++) {
+            buffer.append(i, -i, i * 10);
+        }
+    }
+
+    private static void assertPoints(final InputPointers pointers, final int index,
+            final int pointerId, final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            final int pos = index + i - from;
+            assertEquals("x " + pos, i, pointers.getXCoordinates()[pos]);
+            assertEquals("y " + pos, -i, pointers.getYCoordinates()[pos]);
+            assertEquals("time " + pos, i * 10, pointers.getTimes()[pos]);
+            assertEquals("id " + pos, pointerId, pointers.getPointerIds()[pos]);
+        }
+    }
+
+    public void testStrokeGrowsBeyondCapacity() {
+        final GesturePointRingBuffer buffer = new GesturePointRingBuffer(0, CAPACITY);
+        buffer.startStroke();
+        appendPoints(buffer, 0, CAPACITY * 5);
+        assertEquals(CAPACITY * 5, buffer.getPointCount());
+        for (int i = 0; i < CAPACITY * 5; i++) {
+            assertEquals(i, buffer.getX(i));
+            assertEquals(-i, buffer.getY(i));
+            assertEquals(i * 10, buffer.getTime(i));
+        }
+    }
+
+    public void testPublish() {
+        final GesturePointRingBuffer buffer = new GesturePointRingBuffer(0, CAPACITY);
+        buffer.startStroke();
+        appendPoints(buffer, 0, 10);
+        assertEquals(6, buffer.publish(6));
+        assertEquals(0, buffer.publish(6));
+        assertEquals(0, buffer.publish(3));
+        assertEquals(4, buffer.publish(10));
+    }
+
+    public void testUnpublishedPointsAreDiscarded() {
+        final BatchPointsAggregator aggregator = new BatchPointsAggregator();
+        final GesturePointRingBuffer buffer = new GesturePointRingBuffer(3, CAPACITY);
+        aggregator.addBuffer(buffer);
+        final BatchPointsAggregator.Snapshot snapshot = new BatchPointsAggregator.Snapshot(1);
+
+        buffer.startStroke();
+        aggregator.startGesture();
+        appendPoints(buffer, 0, 10);
+        buffer.publish(5);
+        // The next stroke starts over the points of this stroke that were not published.
+        buffer.startStroke();
+        appendPoints(buffer, 100, 103);
+        buffer.publish(3);
+        assertEquals(8, aggregator.updateSnapshot(snapshot));
+        final InputPointers pointers = snapshot.getPointers();
+        assertPoints(pointers, 0, 3, 0, 5);
+        assertPoints(pointers, 5, 3, 100, 103);
+    }
+
+    public void testIncrementalSnapshots() {
+        final BatchPointsAggregator aggregator = new BatchPointsAggregator();
+        final GesturePointRingBuffer buffer0 = new GesturePointRingBuffer(0, CAPACITY);
+        final GesturePointRingBuffer buffer1 = new GesturePointRingBuffer(1, CAPACITY);
+        aggregator.addBuffer(buffer0);
+        aggregator.addBuffer(buffer1);
+        final BatchPointsAggregator.Snapshot snapshot = new BatchPointsAggregator.Snapshot(1);
+
+        buffer0.startStroke();
+        aggregator.startGesture();
+        appendPoints(buffer0, 0, 3);
+        buffer0.publish(3);
+        assertEquals(3, aggregator.updateSnapshot(snapshot));
+        assertEquals(0, aggregator.updateSnapshot(snapshot));
+
+        buffer1.startStroke();
+        appendPoints(buffer0, 3, 20);
+        appendPoints(buffer1, 50, 55);
+        buffer0.publish(20);
+        buffer1.publish(5);
+        assertEquals(22, aggregator.updateSnapshot(snapshot));
+        final InputPointers pointers = snapshot.getPointers();
+        assertEquals(25, snapshot.getPointerSize());
+        assertPoints(pointers, 0, 0, 0, 3);
+        assertPoints(pointers, 3, 0, 3, 20);
+        assertPoints(pointers, 20, 1, 50, 55);
+    }
+
+    public void testNewGestureResetsSnapshot() {
+        final BatchPointsAggregator aggregator = new BatchPointsAggregator();
+        final GesturePointRingBuffer buffer = new GesturePointRingBuffer(0, CAPACITY);
+        aggregator.addBuffer(buffer);
+        final BatchPointsAggregator.Snapshot snapshot = new BatchPointsAggregator.Snapshot(1);
+
+        buffer.startStroke();
+        aggregator.startGesture();
+        appendPoints(buffer, 0, 3);
+        buffer.publish(3);
+        aggregator.updateSnapshot(snapshot);
+        final int firstGestureId = snapshot.getGestureId();
+
+        buffer.startStroke();
+        appendPoints(buffer, 10, 13);
+        aggregator.startGesture();
+        buffer.publish(3);
+        assertEquals(3, aggregator.updateSnapshot(snapshot));
+        assertTrue(snapshot.getGestureId() != firstGestureId);
+        assertEquals(3, snapshot.getPointerSize());
+        assertPoints(snapshot.getPointers(), 0, 0, 10, 13);
+    }
+
+    public void testConcurrentProducerAndConsumer() throws InterruptedException {
+        final int gestureCount = 200;
+        final int pointsPerGesture = 300;
+        final BatchPointsAggregator aggregator = new BatchPointsAggregator();
+        final GesturePointRingBuffer buffer = new GesturePointRingBuffer(0, CAPACITY);
+        aggregator.addBuffer(buffer);
+        final Thread producer = new Thread() {
+            @Override
+            public void run() {
+                for (int n = 0; n < gestureCount; n++) {
+                    buffer.startStroke();
+                    aggregator.startGesture();
+                    for (int i = 0; i < pointsPerGesture; i++) {
+                        buffer.append(i, -i, i * 10);
+                        buffer.publish(i + 1);
+                    }
+                }
+            }
+        };
+        final BatchPointsAggregator.Snapshot snapshot = new BatchPointsAggregator.Snapshot(1);
+        producer.start();
+        while (producer.isAlive()) {
+            aggregator.updateSnapshot(snapshot);
+            // Whatever the progress of the producer, the snapshot holds the first points of the
+            // current gesture, in order.
+            assertPoints(snapshot.getPointers(), 0, 0, 0, snapshot.getPointerSize());
+        }
+        producer.join();
+        aggregator.updateSnapshot(snapshot);
+        assertEquals(pointsPerGesture, snapshot.getPointerSize());
+        assertPoints(snapshot.getPointers(), 0, 0, 0, pointsPerGesture);
+    }
+}
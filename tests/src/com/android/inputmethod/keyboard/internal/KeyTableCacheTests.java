@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.keyboard.internal;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.android.inputmethod.keyboard.Keyboard;
+import com.android.inputmethod.keyboard.KeyboardId;
+import com.android.inputmethod.keyboard.KeyboardTestUtils;
+import com.android.inputmethod.latin.R;
+
+import java.io.File;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+
+/**
+ * Unit tests for KeyTableCache
+ */
+public class KeyTableCacheTests extends AndroidTestCase {
+    private static final String TAG = KeyTableCacheTests.class.getSimpleName();
+    private static final String APPLICATION_PACKAGE = "com.android.inputmethod.";
+    private static final int[] KEYBOARD_XML_IDS = {
+        R.xml.kbd_qwerty, R.xml.kbd_symbols, R.xml.kbd_symbols_shift
+    };
+    private static final int[] ELEMENT_IDS = {
+        KeyboardId.ELEMENT_ALPHABET, KeyboardId.ELEMENT_SYMBOLS, KeyboardId.ELEMENT_SYMBOLS_SHIFTED
+    };
+
+    private KeyboardTestUtils mKeyboards;
+    private File mTestDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mKeyboards = new KeyboardTestUtils(getContext());
+        mTestDirectory = new File(getContext().getCacheDir(), "KeyTableCacheTests");
+        KeyTableCache.deleteRecursively(mTestDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        KeyTableCache.deleteRecursively(mTestDirectory);
+        super.tearDown();
+    }
+
+    private Keyboard buildKeyboard(final int xmlId, final int elementId,
+            final KeyTableCache keyTableCache) {
+        return mKeyboards.buildKeyboard(xmlId, mKeyboards.getKeyboardId(elementId),
+                keyTableCache);
+    }
+
+    /**
+     * Asserts that two objects have the same fields, comparing the fields of the objects of this
+     * application and the elements of the arrays one by one, so that no attribute of the keys is
+     * left out of the comparison.
+     */
+    private static void assertSameFields(final String message, final Object expected,
+            final Object actual) throws IllegalAccessException {
+        if (null == expected || null == actual) {
+            assertSame(message, expected, actual);
+            return;
+        }
+        final Class<?> type = expected.getClass();
+        assertEquals(message, type, actual.getClass());
+        if (type.isArray()) {
+            final int length = Array.getLength(expected);
+            assertEquals(message, length, Array.getLength(actual));
+            for (int i = 0; i < length; i++) {
+                assertSameFields(message + "[" + i + "]", Array.get(expected, i),
+                        Array.get(actual, i));
+            }
+        } else if (type.getName().startsWith(APPLICATION_PACKAGE)) {
+            for (Class<?> c = type; c != Object.class; c = c.getSuperclass()) {
+                for (final Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    field.setAccessible(true);
+                    assertSameFields(message + "." + field.getName(), field.get(expected),
+                            field.get(actual));
+                }
+            }
+        } else {
+            assertEquals(message, expected, actual);
+        }
+    }
+
+    private static void assertSameKeys(final Keyboard expected, final Keyboard actual)
+            throws IllegalAccessException {
+        assertEquals(expected.mKeys.length, actual.mKeys.length);
+        for (int i = 0; i < expected.mKeys.length; i++) {
+            assertSameFields(expected.mKeys[i].toString(), expected.mKeys[i], actual.mKeys[i]);
+        }
+        assertEquals(expected.mShiftKeys.length, actual.mShiftKeys.length);
+        assertEquals(expected.mMostCommonKeyWidth, actual.mMostCommonKeyWidth);
+        assertEquals(expected.mMostCommonKeyHeight, actual.mMostCommonKeyHeight);
+        assertEquals(expected.mOccupiedWidth, actual.mOccupiedWidth);
+        assertEquals(expected.mOccupiedHeight, actual.mOccupiedHeight);
+    }
+
+    public void testLoadKeys() throws InterruptedException, IllegalAccessException {
+        final KeyTableCache keyTableCache = new KeyTableCache(mTestDirectory, "1");
+        for (int i = 0; i < KEYBOARD_XML_IDS.length; i++) {
+            final Keyboard parsed = buildKeyboard(KEYBOARD_XML_IDS[i], ELEMENT_IDS[i], null);
+            final Keyboard saved = buildKeyboard(KEYBOARD_XML_IDS[i], ELEMENT_IDS[i],
+                    keyTableCache);
+            assertSameKeys(parsed, saved);
+            KeyTableCache.waitForWrites();
+            final Keyboard loaded = buildKeyboard(KEYBOARD_XML_IDS[i], ELEMENT_IDS[i],
+                    keyTableCache);
+            assertSameKeys(parsed, loaded);
+        }
+    }
+
+    public void testOtherVersionsAreDeleted() throws InterruptedException {
+        buildKeyboard(R.xml.kbd_qwerty, KeyboardId.ELEMENT_ALPHABET,
+                new KeyTableCache(mTestDirectory, "1"));
+        KeyTableCache.waitForWrites();
+        assertTrue(new File(mTestDirectory, "1").exists());
+        buildKeyboard(R.xml.kbd_qwerty, KeyboardId.ELEMENT_ALPHABET,
+                new KeyTableCache(mTestDirectory, "2"));
+        KeyTableCache.waitForWrites();
+        assertFalse(new File(mTestDirectory, "1").exists());
+        assertTrue(new File(mTestDirectory, "2").exists());
+    }
+
+    /**
+     * Builds the alphabet and the symbols keyboards one after the other, as when the user
+     * switches between them.
+     * @return the time it took, in nanoseconds.
+     */
+    private long switchLayouts(final KeyTableCache keyTableCache) {
+        final long startTime = System.nanoTime();
+        for (int i = 0; i < KEYBOARD_XML_IDS.length; i++) {
+            buildKeyboard(KEYBOARD_XML_IDS[i], ELEMENT_IDS[i], keyTableCache);
+        }
+        return System.nanoTime() - startTime;
+    }
+
+    private static long median(final long[] times) {
+        final long[] sortedTimes = times.clone();
+        Arrays.sort(sortedTimes);
+        return sortedTimes[sortedTimes.length / 2];
+    }
+
+    /**
+     * Compares the cold switches between the layouts before and after the key tables: each switch
+     * builds every keyboard for the first time since the keyboards were invalidated, either from
+     * the XML or from the key tables saved by a previous run of the application.
+     */
+    public void testColdLayoutSwitchTime() throws InterruptedException {
+        switchLayouts(new KeyTableCache(mTestDirectory, "1"));
+        KeyTableCache.waitForWrites();
+        final int repeatCount = 10;
+        final long[] xmlTimes = new long[repeatCount];
+        final long[] keyTableTimes = new long[repeatCount];
+        for (int n = 0; n < repeatCount; n++) {
+            // A new cache does not keep anything in memory from the previous switches. The order
+            // alternates, so that neither way benefits more from what the other one loaded.
+            if (n % 2 == 0) {
+                xmlTimes[n] = switchLayouts(null);
+                keyTableTimes[n] = switchLayouts(new KeyTableCache(mTestDirectory, "1"));
+            } else {
+                keyTableTimes[n] = switchLayouts(new KeyTableCache(mTestDirectory, "1"));
+                xmlTimes[n] = switchLayouts(null);
+            }
+        }
+        Log.i(TAG, "Cold switch between the alphabet and symbols keyboards: median from the XML "
+                + median(xmlTimes) / 1000 + " us, from the key tables "
+                + median(keyTableTimes) / 1000 + " us");
+    }
+}
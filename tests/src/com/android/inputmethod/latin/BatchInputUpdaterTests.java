@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.android.inputmethod.keyboard.internal.BatchPointsAggregator;
+import com.android.inputmethod.latin.LatinIME.BatchInputUpdater;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the handoff of the batch input between the UI thread and the Handler thread of
+ * the BatchInputUpdater.
+ */
+public class BatchInputUpdaterTests extends AndroidTestCase {
+    private static final long TIMEOUT_IN_SECONDS = 10;
+
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private BatchInputUpdater mUpdater;
+    private BatchPointsAggregator mBatchPoints;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mHandlerThread = new HandlerThread(BatchInputUpdaterTests.class.getSimpleName());
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+        mUpdater = new BatchInputUpdater(mHandlerThread.getLooper());
+        mBatchPoints = new BatchPointsAggregator();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHandlerThread.quit();
+        super.tearDown();
+    }
+
+    /**
+     * Records the recognitions and the results that are shown. The recognitions can be blocked
+     * until they are released.
+     */
+    private static class RecordingRecognizer implements BatchInputUpdater.Recognizer {
+        public final CountDownLatch mStarted = new CountDownLatch(1);
+        public final CountDownLatch mRelease = new CountDownLatch(1);
+        private final ArrayList<Boolean> mShownResults = CollectionUtils.newArrayList();
+        private int mRecognitionCount;
+
+        @Override
+        public SuggestedWords getSuggestedWordsGesture(final InputPointers batchPointers) {
+            synchronized (this) {
+                mRecognitionCount++;
+            }
+            mStarted.countDown();
+            try {
+                assertTrue(mRelease.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                fail("Interrupted while recognizing");
+            }
+            return SuggestedWords.EMPTY;
+        }
+
+        @Override
+        public synchronized void showGesturePreviewAndSuggestionStrip(
+                final SuggestedWords suggestedWords,
+                final boolean dismissGestureFloatingPreviewText) {
+            mShownResults.add(dismissGestureFloatingPreviewText);
+        }
+
+        public synchronized int getRecognitionCount() {
+            return mRecognitionCount;
+        }
+
+        public synchronized ArrayList<Boolean> getShownResults() {
+            return CollectionUtils.newArrayList(mShownResults);
+        }
+    }
+
+    /**
+     * Blocks the Handler thread until the returned latch is counted down.
+     */
+    private CountDownLatch blockHandlerThread() {
+        final CountDownLatch release = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        });
+        return release;
+    }
+
+    /**
+     * Waits for the Handler thread to handle the messages sent so far.
+     */
+    private void waitForHandlerThread() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+    }
+
+    public void testUpdateOfAStaleGestureIsDropped() throws InterruptedException {
+        final RecordingRecognizer recognizer = new RecordingRecognizer();
+        recognizer.mRelease.countDown();
+        final CountDownLatch release = blockHandlerThread();
+        mUpdater.onStartBatchInput();
+        mUpdater.onUpdateBatchInput(mBatchPoints, recognizer);
+        // A new gesture starts before the update of the previous one is handled.
+        mBatchPoints.startGesture();
+        release.countDown();
+        waitForHandlerThread();
+        assertEquals(0, recognizer.getRecognitionCount());
+        assertTrue(recognizer.getShownResults().isEmpty());
+
+        // The updates of the new gesture are recognized.
+        mUpdater.onUpdateBatchInput(mBatchPoints, recognizer);
+        waitForHandlerThread();
+        assertEquals(1, recognizer.getRecognitionCount());
+        assertEquals(1, recognizer.getShownResults().size());
+        assertFalse(recognizer.getShownResults().get(0));
+    }
+
+    public void testPendingUpdateIsRemovedAtTheEnd() throws InterruptedException {
+        final RecordingRecognizer recognizer = new RecordingRecognizer();
+        recognizer.mRelease.countDown();
+        final CountDownLatch release = blockHandlerThread();
+        mUpdater.onStartBatchInput();
+        mUpdater.onUpdateBatchInput(mBatchPoints, recognizer);
+        // The updates are coalesced while one is pending.
+        mUpdater.onUpdateBatchInput(mBatchPoints, recognizer);
+        assertTrue(mUpdater.hasPendingUpdate());
+        mUpdater.onEndBatchInput(mBatchPoints, recognizer);
+        assertFalse(mUpdater.hasPendingUpdate());
+        release.countDown();
+        waitForHandlerThread();
+        // Only the final recognition ran.
+        assertEquals(1, recognizer.getRecognitionCount());
+        assertEquals(1, recognizer.getShownResults().size());
+        assertTrue(recognizer.getShownResults().get(0));
+    }
+
+    public void testResultIsDroppedAfterTheEnd() throws InterruptedException {
+        final RecordingRecognizer recognizer = new RecordingRecognizer();
+        mUpdater.onStartBatchInput();
+        mUpdater.onUpdateBatchInput(mBatchPoints, recognizer);
+        assertTrue(recognizer.mStarted.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        // The gesture ends while the update is being recognized on the Handler thread. The end
+        // waits for the recognition in progress, so it runs on its own thread.
+        final Thread endThread = new Thread() {
+            @Override
+            public void run() {
+                mUpdater.onEndBatchInput(mBatchPoints, recognizer);
+            }
+        };
+        endThread.start();
+        final long timeout = System.currentTimeMillis() + TIMEOUT_IN_SECONDS * 1000;
+        while (mUpdater.isInBatchInput()) {
+            assertTrue(System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+        recognizer.mRelease.countDown();
+        endThread.join(TIMEOUT_IN_SECONDS * 1000);
+        assertFalse(endThread.isAlive());
+        waitForHandlerThread();
+        // The result of the update is dropped: only the final result is shown.
+        assertEquals(2, recognizer.getRecognitionCount());
+        assertEquals(1, recognizer.getShownResults().size());
+        assertTrue(recognizer.getShownResults().get(0));
+    }
+}
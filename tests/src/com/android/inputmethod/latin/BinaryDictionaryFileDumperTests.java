@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Unit tests for the decoding of the word lists in BinaryDictionaryFileDumper
+ */
+public class BinaryDictionaryFileDumperTests extends AndroidTestCase {
+    private static final byte[] MAGIC_NUMBER_VERSION_1 =
+            new byte[] { (byte)0x78, (byte)0xB1, (byte)0x00, (byte)0x00 };
+    private static final byte[] MAGIC_NUMBER_VERSION_2 =
+            new byte[] { (byte)0x9B, (byte)0xC1, (byte)0x3A, (byte)0xFE };
+    private static final int WORD_LIST_SIZE = 100000;
+
+    /**
+     * Returns the bytes of a word list: a magic number followed by random content, so that the
+     * word list does not compress to a few bytes.
+     */
+    private static byte[] createWordList(final byte[] magicNumber) {
+        final byte[] wordList = new byte[WORD_LIST_SIZE];
+        new Random(12345).nextBytes(wordList);
+        System.arraycopy(magicNumber, 0, wordList, 0, magicNumber.length);
+        return wordList;
+    }
+
+    private static byte[] compress(final byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] crypt(final byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream out = FileTransforms.getCryptedStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static BufferedInputStream getDecodedStream(final byte[] data) throws IOException {
+        return BinaryDictionaryFileDumper.getDecodedStream(
+                new BufferedInputStream(new ByteArrayInputStream(data)));
+    }
+
+    private static byte[] readAll(final InputStream input) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        for (int readBytes = input.read(buffer); readBytes >= 0; readBytes = input.read(buffer)) {
+            bytes.write(buffer, 0, readBytes);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void checkDecoding(final byte[] wordList, final byte[] encodedWordList)
+            throws IOException {
+        assertTrue(Arrays.equals(wordList, readAll(getDecodedStream(encodedWordList))));
+    }
+
+    public void testWordListIsDecoded() throws IOException {
+        final byte[] wordList = createWordList(MAGIC_NUMBER_VERSION_2);
+        final BufferedInputStream input =
+                new BufferedInputStream(new ByteArrayInputStream(wordList));
+        // A word list that is not encoded is read as is.
+        assertSame(input, BinaryDictionaryFileDumper.getDecodedStream(input));
+        assertTrue(Arrays.equals(wordList, readAll(input)));
+
+        checkDecoding(wordList, compress(wordList));
+        checkDecoding(wordList, crypt(wordList));
+        checkDecoding(wordList, crypt(compress(wordList)));
+        checkDecoding(wordList, compress(crypt(compress(wordList))));
+        final byte[] version1WordList = createWordList(MAGIC_NUMBER_VERSION_1);
+        checkDecoding(version1WordList, compress(version1WordList));
+    }
+
+    public void testNotAWordList() throws IOException {
+        final byte[] data = createWordList(new byte[] { 1, 2, 3, 4 });
+        try {
+            getDecodedStream(data);
+            fail("Data without a magic number was taken as a word list");
+        } catch (IOException e) {
+            // Expected
+        }
+        try {
+            getDecodedStream(compress(data));
+            fail("Compressed data without a magic number was taken as a word list");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testTruncatedWordList() throws IOException {
+        // The end of a compressed word list is missing: the start is decoded, but reading the
+        // rest fails, so the word list is not cached.
+        final byte[] compressedWordList = compress(createWordList(MAGIC_NUMBER_VERSION_2));
+        final BufferedInputStream input = getDecodedStream(
+                Arrays.copyOf(compressedWordList, compressedWordList.length - 100));
+        try {
+            readAll(input);
+            fail("A truncated word list was read to its end");
+        } catch (IOException e) {
+            // Expected
+        }
+
+        // A stream shorter than the magic number is not a word list.
+        try {
+            getDecodedStream(Arrays.copyOf(MAGIC_NUMBER_VERSION_2, 2));
+            fail("A truncated magic number was taken as a word list");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+}
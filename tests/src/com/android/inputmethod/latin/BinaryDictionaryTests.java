@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.android.inputmethod.keyboard.ProximityInfo;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Unit tests for BinaryDictionary
+ */
+public class BinaryDictionaryTests extends AndroidTestCase {
+    private static final int NUMBER_OF_CALLS = 20;
+
+    private File mDictFile;
+    private BinaryDictionary mDictionary;
+    private ProximityInfo mProximityInfo;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDictFile = DictionaryTestUtils.createDictionaryFile("BinaryDictionaryTests");
+        mDictionary = new BinaryDictionary(getContext(), mDictFile.getAbsolutePath(), 0,
+                mDictFile.length(), false /* useFullEditDistance */, Locale.US,
+                Dictionary.TYPE_MAIN);
+        mProximityInfo = DictionaryTestUtils.createProximityInfo();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDictionary.close();
+        mDictFile.delete();
+        super.tearDown();
+    }
+
+    private static ArrayList<String> getWords(final ArrayList<SuggestedWordInfo> suggestions) {
+        final ArrayList<String> words = CollectionUtils.newArrayList();
+        for (final SuggestedWordInfo info : suggestions) {
+            words.add(info.mWord);
+        }
+        return words;
+    }
+
+    public void testSuggestionsAreStableAcrossCalls() {
+        final WordComposer composer = DictionaryTestUtils.createComposer("th");
+        final ArrayList<String> firstWords = getWords(
+                mDictionary.getSuggestions(composer, "that", mProximityInfo));
+        assertTrue(firstWords.contains("the"));
+        final SuggestedWordInfo firstInfo =
+                mDictionary.getSuggestions(composer, "that", mProximityInfo).get(0);
+        final ArrayList<SuggestedWordInfo> suggestions =
+                mDictionary.getSuggestions(composer, "that", mProximityInfo);
+        assertEquals(firstWords, getWords(suggestions));
+        // The same suggestion is returned as the same object.
+        assertSame(firstInfo, suggestions.get(0));
+
+        // A different query must not see anything from the previous one.
+        final ArrayList<String> otherWords = getWords(mDictionary.getSuggestions(
+                DictionaryTestUtils.createComposer("wa"), "this", mProximityInfo));
+        assertTrue(otherWords.contains("was"));
+        assertFalse(otherWords.contains("the"));
+        assertEquals(firstWords, getWords(
+                mDictionary.getSuggestions(composer, "that", mProximityInfo)));
+    }
+
+    public void testSteadyStateSuggestionsDoNotAllocate() {
+        final WordComposer composer = DictionaryTestUtils.createComposer("th");
+        final String prevWord = "this";
+        // The first call allocates the results, the following ones reuse them.
+        mDictionary.getSuggestions(composer, prevWord, mProximityInfo);
+        mDictionary.getSuggestions(composer, prevWord, mProximityInfo);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < NUMBER_OF_CALLS; ++i) {
+            mDictionary.getSuggestions(composer, prevWord, mProximityInfo);
+        }
+        final int allocCount = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        assertEquals("allocations in " + NUMBER_OF_CALLS + " calls", 0, allocCount);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Unit tests for ContactFingerprints
+ */
+public class ContactFingerprintsTests extends AndroidTestCase {
+    private File mFile;
+    private SnapshotFile mSnapshotFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "ContactFingerprintsTests");
+        deleteFiles();
+        mSnapshotFile = new SnapshotFile(mFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFiles();
+        super.tearDown();
+    }
+
+    private void deleteFiles() {
+        mFile.delete();
+        new File(mFile.getPath() + SnapshotFile.PREVIOUS_SUFFIX).delete();
+        new File(mFile.getPath() + SnapshotFile.TEMP_SUFFIX).delete();
+    }
+
+    public void testFingerprints() {
+        final ContactFingerprints fingerprints = new ContactFingerprints();
+        assertEquals(0, fingerprints.size());
+        assertEquals(0, fingerprints.getLastUpdatedTimestamp());
+
+        fingerprints.put(1, "John Smith", 1000);
+        fingerprints.put(2, null, 3000);
+        fingerprints.put(3, "Jane Doe", 2000);
+        assertEquals(3, fingerprints.size());
+        assertEquals(3000, fingerprints.getLastUpdatedTimestamp());
+        assertTrue(fingerprints.contains(1));
+        assertFalse(fingerprints.contains(4));
+        assertTrue(fingerprints.hasName(1, "John Smith"));
+        assertFalse(fingerprints.hasName(1, "John Smyth"));
+        assertFalse(fingerprints.hasName(1, null));
+        assertTrue(fingerprints.hasName(2, null));
+        assertFalse(fingerprints.hasName(4, "John Smith"));
+
+        fingerprints.put(1, "John Smyth", 4000);
+        assertTrue(fingerprints.hasName(1, "John Smyth"));
+        assertEquals(4000, fingerprints.getLastUpdatedTimestamp());
+        fingerprints.remove(3);
+        assertFalse(fingerprints.contains(3));
+        assertEquals(2, fingerprints.size());
+
+        fingerprints.clear();
+        assertEquals(0, fingerprints.size());
+        assertEquals(0, fingerprints.getLastUpdatedTimestamp());
+    }
+
+    public void testWriteAndRead() throws IOException {
+        final ContactFingerprints fingerprints = new ContactFingerprints();
+        for (int i = 0; i < 1000; ++i) {
+            fingerprints.put(i, "Contact " + i, 10000 - i);
+        }
+        fingerprints.write(mSnapshotFile);
+
+        final ContactFingerprints readFingerprints = new ContactFingerprints();
+        readFingerprints.put(5000, "Not in the file", 20000);
+        readFingerprints.read(mSnapshotFile);
+        assertEquals(1000, readFingerprints.size());
+        assertEquals(10000, readFingerprints.getLastUpdatedTimestamp());
+        assertFalse(readFingerprints.contains(5000));
+        for (int i = 0; i < 1000; ++i) {
+            assertTrue(readFingerprints.hasName(i, "Contact " + i));
+        }
+    }
+
+    public void testReadMissingFile() {
+        final ContactFingerprints fingerprints = new ContactFingerprints();
+        fingerprints.put(1, "John Smith", 1000);
+        fingerprints.read(mSnapshotFile);
+        assertEquals(0, fingerprints.size());
+    }
+
+    public void testReadTruncatedFile() throws IOException {
+        mSnapshotFile.write(new SnapshotFile.ContentWriter() {
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                // The version and a count of 2 contacts, but only the id of the first one.
+                out.write(new byte[] { 0, 0, 0, 1, 0, 0, 0, 2, 0, 0, 0, 0, 0, 0, 0, 1 });
+            }
+        });
+        final ContactFingerprints fingerprints = new ContactFingerprints();
+        fingerprints.read(mSnapshotFile);
+        assertEquals(0, fingerprints.size());
+        assertEquals(0, fingerprints.getLastUpdatedTimestamp());
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+
+import com.android.inputmethod.keyboard.ProximityInfo;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+
+import java.util.ArrayList;
+
+/**
+ * Unit tests for DictionaryCollection
+ */
+public class DictionaryCollectionTests extends AndroidTestCase {
+    /**
+     * A dictionary that returns the same list from one call to the next, like BinaryDictionary.
+     */
+    private static class ReusingDictionary extends Dictionary {
+        public final ArrayList<SuggestedWordInfo> mSuggestions = CollectionUtils.newArrayList();
+
+        public ReusingDictionary(final String word) {
+            super(Dictionary.TYPE_MAIN);
+            mSuggestions.add(new SuggestedWordInfo(word, 100,
+                    SuggestedWordInfo.KIND_CORRECTION, Dictionary.TYPE_MAIN));
+        }
+
+        @Override
+        public ArrayList<SuggestedWordInfo> getSuggestions(final WordComposer composer,
+                final CharSequence prevWord, final ProximityInfo proximityInfo) {
+            return mSuggestions;
+        }
+
+        @Override
+        public boolean isValidWord(final CharSequence word) {
+            return false;
+        }
+    }
+
+    public void testListsOfTheDictionariesAreNotModified() {
+        final ReusingDictionary first = new ReusingDictionary("first");
+        final ReusingDictionary second = new ReusingDictionary("second");
+        final DictionaryCollection collection =
+                new DictionaryCollection(Dictionary.TYPE_MAIN, first, second);
+        for (int i = 0; i < 2; ++i) {
+            final ArrayList<SuggestedWordInfo> suggestions =
+                    collection.getSuggestions(new WordComposer(), null, null);
+            assertEquals(2, suggestions.size());
+            assertEquals("first", suggestions.get(0).mWord);
+            assertEquals("second", suggestions.get(1).mWord);
+            assertNotSame(first.mSuggestions, suggestions);
+            assertEquals(1, first.mSuggestions.size());
+            assertEquals(1, second.mSuggestions.size());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for DictionaryReloadScheduler
+ */
+public class DictionaryReloadSchedulerTests extends AndroidTestCase {
+    private static final long TIMEOUT_IN_SECONDS = 10;
+
+    private final ArrayList<String> mRunLocales = CollectionUtils.newArrayList();
+    private DictionaryReloadScheduler mScheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mRunLocales.clear();
+        mScheduler = new DictionaryReloadScheduler();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mScheduler.shutdown();
+        super.tearDown();
+    }
+
+    private class RecordingTask extends DictionaryReloadScheduler.Task {
+        private final String mLocale;
+        private final CountDownLatch mRunLatch;
+
+        public RecordingTask(final String locale, final int expectedRunCount) {
+            super(locale);
+            mLocale = locale;
+            mRunLatch = new CountDownLatch(expectedRunCount);
+        }
+
+        @Override
+        public void run() {
+            synchronized (mRunLocales) {
+                mRunLocales.add(mLocale);
+            }
+            mRunLatch.countDown();
+        }
+
+        public void waitForRuns() throws InterruptedException {
+            assertTrue(mRunLatch.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        }
+    }
+
+    private static class BlockingTask extends DictionaryReloadScheduler.Task {
+        public final CountDownLatch mStartedLatch = new CountDownLatch(1);
+        public final CountDownLatch mReleaseLatch = new CountDownLatch(1);
+
+        public BlockingTask() {
+            super(null);
+        }
+
+        @Override
+        public void run() {
+            mStartedLatch.countDown();
+            try {
+                mReleaseLatch.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+        }
+    }
+
+    private void waitUntilIdle(final DictionaryReloadScheduler.Task task)
+            throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + TIMEOUT_IN_SECONDS * 1000;
+        while (mScheduler.isScheduled(task)) {
+            assertTrue(System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+    }
+
+    public void testCoalescedRequests() throws InterruptedException {
+        final RecordingTask task = new RecordingTask("en_US", 1);
+        for (int i = 0; i < 10; ++i) {
+            mScheduler.request(task, 200);
+        }
+        assertTrue(mScheduler.isScheduled(task));
+        task.waitForRuns();
+        waitUntilIdle(task);
+        assertEquals(10, mScheduler.getRequestCount());
+        assertEquals(1, mScheduler.getRunCount());
+        assertEquals(1, mRunLocales.size());
+    }
+
+    public void testRequestWithoutDelay() throws InterruptedException {
+        final RecordingTask task = new RecordingTask("en_US", 1);
+        mScheduler.request(task, 60 * 1000);
+        mScheduler.request(task, 0);
+        task.waitForRuns();
+        assertEquals(1, mScheduler.getRunCount());
+    }
+
+    public void testRequestWhileRunning() throws InterruptedException {
+        final BlockingTask task = new BlockingTask();
+        mScheduler.request(task, 0);
+        assertTrue(task.mStartedLatch.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        mScheduler.request(task, 0);
+        mScheduler.request(task, 0);
+        task.mReleaseLatch.countDown();
+        waitUntilIdle(task);
+        assertEquals(3, mScheduler.getRequestCount());
+        assertEquals(2, mScheduler.getRunCount());
+    }
+
+    public void testActiveLocaleRunsFirst() throws InterruptedException {
+        mScheduler.setActiveLocale("fr");
+        final BlockingTask blockingTask = new BlockingTask();
+        mScheduler.request(blockingTask, 0);
+        assertTrue(blockingTask.mStartedLatch.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+
+        final RecordingTask englishTask = new RecordingTask("en_US", 1);
+        final RecordingTask frenchTask = new RecordingTask("fr", 1);
+        mScheduler.request(englishTask, 0);
+        mScheduler.request(frenchTask, 0);
+        blockingTask.mReleaseLatch.countDown();
+        englishTask.waitForRuns();
+        frenchTask.waitForRuns();
+        assertEquals("fr", mRunLocales.get(0));
+        assertEquals("en_US", mRunLocales.get(1));
+    }
+
+    public void testCancelPendingTask() throws InterruptedException {
+        final RecordingTask task = new RecordingTask("en_US", 1);
+        mScheduler.request(task, 200);
+        mScheduler.cancel(task);
+        assertFalse(mScheduler.isScheduled(task));
+        // Let the scheduler run anything it would have run.
+        final BlockingTask blockingTask = new BlockingTask();
+        mScheduler.request(blockingTask, 400);
+        blockingTask.mReleaseLatch.countDown();
+        waitUntilIdle(blockingTask);
+        assertEquals(0, mRunLocales.size());
+
+        // A cancelled task can be requested again.
+        mScheduler.request(task, 0);
+        task.waitForRuns();
+        assertEquals(1, mRunLocales.size());
+    }
+
+    public void testCancelRunningTask() throws InterruptedException {
+        final BlockingTask task = new BlockingTask();
+        mScheduler.request(task, 0);
+        assertTrue(task.mStartedLatch.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        mScheduler.request(task, 0);
+        mScheduler.cancel(task);
+        // The running task completes, but is not run again.
+        assertTrue(mScheduler.isScheduled(task));
+        task.mReleaseLatch.countDown();
+        waitUntilIdle(task);
+        assertEquals(1, mScheduler.getRunCount());
+    }
+
+    public void testShutdown() throws InterruptedException {
+        final BlockingTask runningTask = new BlockingTask();
+        mScheduler.request(runningTask, 0);
+        assertTrue(runningTask.mStartedLatch.await(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        final RecordingTask pendingTask = new RecordingTask("en_US", 1);
+        mScheduler.request(pendingTask, 0);
+        // The shutdown drops the pending task, and waits for the running one.
+        final Thread shutdownThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mScheduler.shutdown();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        shutdownThread.start();
+        waitUntilIdle(pendingTask);
+        assertTrue(mScheduler.isScheduled(runningTask));
+        assertTrue(shutdownThread.isAlive());
+        runningTask.mReleaseLatch.countDown();
+        shutdownThread.join(TIMEOUT_IN_SECONDS * 1000);
+        assertFalse(shutdownThread.isAlive());
+        assertFalse(mScheduler.isScheduled(runningTask));
+        assertFalse(mScheduler.isScheduled(pendingTask));
+        mScheduler.request(pendingTask, 0);
+        assertFalse(mScheduler.isScheduled(pendingTask));
+        assertEquals(0, mRunLocales.size());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import com.android.inputmethod.keyboard.ProximityInfo;
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
+import com.android.inputmethod.latin.makedict.FormatSpec;
+import com.android.inputmethod.latin.makedict.FusionDictionary;
+import com.android.inputmethod.latin.makedict.FusionDictionary.Node;
+import com.android.inputmethod.latin.makedict.UnsupportedFormatException;
+import com.android.inputmethod.latin.spellcheck.AndroidSpellCheckerService;
+import com.android.inputmethod.latin.spellcheck.SpellCheckerProximityInfo;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * The small dictionary and the input the dictionary lookup tests share.
+ */
+public final class DictionaryTestUtils {
+    public static final String[] WORDS = {
+        "this", "that", "the", "there", "these", "those", "then", "than", "thus", "is", "was"
+    };
+    public static final int UNIGRAM_FREQ = 100;
+    public static final int BIGRAM_FREQ = 50;
+
+    private DictionaryTestUtils() {
+        // This utility class is not publicly instantiable.
+    }
+
+    /**
+     * Writes the words, and the bigrams "this is" and "this was", to a new temporary binary
+     * dictionary file.
+     * @param prefix the prefix of the name of the file.
+     * @return the file, to be deleted by the caller.
+     */
+    public static File createDictionaryFile(final String prefix)
+            throws IOException, UnsupportedFormatException {
+        final File file = File.createTempFile(prefix, ".dict");
+        final FusionDictionary dict = new FusionDictionary(new Node(),
+                new FusionDictionary.DictionaryOptions(new HashMap<String, String>(), false,
+                        false));
+        for (final String word : WORDS) {
+            dict.add(word, UNIGRAM_FREQ, null, false /* isNotAWord */);
+        }
+        dict.setBigram("this", "is", BIGRAM_FREQ);
+        dict.setBigram("this", "was", BIGRAM_FREQ);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            BinaryDictInputOutput.writeDictionaryBinary(out, dict,
+                    new FormatSpec.FormatOptions(2));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    public static ProximityInfo createProximityInfo() {
+        return ProximityInfo.createSpellCheckerProximityInfo(
+                SpellCheckerProximityInfo.getProximityForScript(
+                        AndroidSpellCheckerService.SCRIPT_LATIN),
+                SpellCheckerProximityInfo.ROW_SIZE,
+                SpellCheckerProximityInfo.PROXIMITY_GRID_WIDTH,
+                SpellCheckerProximityInfo.PROXIMITY_GRID_HEIGHT);
+    }
+
+    /**
+     * Appends the characters of a word to a composer, without coordinates.
+     */
+    public static void type(final WordComposer composer, final String word) {
+        for (int i = 0; i < word.length(); ++i) {
+            composer.add(word.charAt(i), Constants.NOT_A_COORDINATE, Constants.NOT_A_COORDINATE);
+        }
+    }
+
+    public static WordComposer createComposer(final String word) {
+        final WordComposer composer = new WordComposer();
+        type(composer, word);
+        return composer;
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for the reloads of ExpandableBinaryDictionary
+ */
+public class ExpandableBinaryDictionaryTests extends AndroidTestCase {
+    private static final String FILENAME = "ExpandableBinaryDictionaryTests.dict";
+    private static final long TIMEOUT_IN_SECONDS = 10;
+
+    private static class TestDictionary extends ExpandableBinaryDictionary {
+        private final boolean mUsesIncrementalUpdates;
+        public final Semaphore mLoads = new Semaphore(0);
+        public volatile int mFullLoadCount = 0;
+        public volatile int mUpdateCount = 0;
+
+        public TestDictionary(final Context context, final boolean usesIncrementalUpdates) {
+            super(context, FILENAME, Dictionary.TYPE_USER);
+            mUsesIncrementalUpdates = usesIncrementalUpdates;
+        }
+
+        @Override
+        protected void loadDictionaryAsync() {
+            ++mFullLoadCount;
+            addWord("hello", null, 100);
+        }
+
+        @Override
+        protected boolean usesIncrementalUpdates() {
+            return mUsesIncrementalUpdates;
+        }
+
+        @Override
+        protected boolean updateDictionaryAsync() {
+            ++mUpdateCount;
+            addWord("world", null, 100);
+            return true;
+        }
+
+        @Override
+        protected boolean hasContentChanged() {
+            return true;
+        }
+
+        @Override
+        protected boolean loadBinaryDictionary() {
+            final boolean loaded = super.loadBinaryDictionary();
+            mLoads.release();
+            return loaded;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteFiles();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFiles();
+        super.tearDown();
+    }
+
+    private void deleteFiles() {
+        final File file = new File(getContext().getFilesDir(), FILENAME);
+        file.delete();
+        new File(file.getPath() + SnapshotFile.PREVIOUS_SUFFIX).delete();
+        new File(file.getPath() + SnapshotFile.TEMP_SUFFIX).delete();
+    }
+
+    public void testReloadAfterReopen() throws InterruptedException {
+        final TestDictionary dictionary =
+                new TestDictionary(getContext(), false /* usesIncrementalUpdates */);
+        dictionary.setRequiresReload(true);
+        assertTrue(dictionary.mLoads.tryAcquire(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        assertTrue(dictionary.isValidWordInner("hello"));
+
+        dictionary.close();
+        assertFalse(dictionary.isValidWordInner("hello"));
+        dictionary.reopen();
+        dictionary.setRequiresReload(true);
+        assertTrue(dictionary.mLoads.tryAcquire(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        assertTrue(dictionary.isValidWordInner("hello"));
+        dictionary.close();
+    }
+
+    public void testUpdateKeepsTheContent() throws InterruptedException {
+        final TestDictionary dictionary =
+                new TestDictionary(getContext(), true /* usesIncrementalUpdates */);
+        dictionary.setRequiresReload(true);
+        assertTrue(dictionary.mLoads.tryAcquire(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        dictionary.setRequiresUpdate();
+        assertTrue(dictionary.mLoads.tryAcquire(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        assertEquals(1, dictionary.mFullLoadCount);
+        assertEquals(1, dictionary.mUpdateCount);
+        // The update was applied to the content loaded before.
+        assertTrue(dictionary.isValidWordInner("hello"));
+        assertTrue(dictionary.isValidWordInner("world"));
+        dictionary.close();
+    }
+
+    public void testNonIncrementalDictionaryIsLoadedAgain() throws InterruptedException {
+        final TestDictionary dictionary =
+                new TestDictionary(getContext(), false /* usesIncrementalUpdates */);
+        dictionary.setRequiresReload(true);
+        assertTrue(dictionary.mLoads.tryAcquire(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        // The content is not kept once written, so all of it is loaded again.
+        dictionary.setRequiresUpdate();
+        assertTrue(dictionary.mLoads.tryAcquire(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        assertEquals(2, dictionary.mFullLoadCount);
+        assertEquals(0, dictionary.mUpdateCount);
+        assertTrue(dictionary.isValidWordInner("hello"));
+        dictionary.close();
+    }
+}
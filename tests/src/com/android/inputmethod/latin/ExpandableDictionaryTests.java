@@ -0,0 +1,561 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.android.inputmethod.keyboard.Keyboard;
+import com.android.inputmethod.keyboard.ProximityInfo;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.UserHistoryForgettingCurveUtils.ForgettingCurveParams;
+import com.android.inputmethod.latin.spellcheck.AndroidSpellCheckerService;
+import com.android.inputmethod.latin.spellcheck.SpellCheckerProximityInfo;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Unit tests for ExpandableDictionary
+ */
+public class ExpandableDictionaryTests extends AndroidTestCase {
+    private static final String TAG = ExpandableDictionaryTests.class.getSimpleName();
+
+    private static final int NUMBER_OF_WORDS = 20000;
+    private static final int NUMBER_OF_LOOKUP_ROUNDS = 10;
+    private static final int NUMBER_OF_TYPED_CHARACTERS = 500;
+
+    private ExpandableDictionary createDictionary() {
+        return new ExpandableDictionary(getContext(), Dictionary.TYPE_USER_HISTORY);
+    }
+
+    private static List<String> generateWords(final int number, final Random random) {
+        final Set<String> wordSet = CollectionUtils.newHashSet();
+        while (wordSet.size() < number) {
+            final int length = 2 + random.nextInt(BinaryDictionary.MAX_WORD_LENGTH / 4);
+            final StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < length; ++i) {
+                builder.append((char)('a' + random.nextInt(26)));
+            }
+            wordSet.add(builder.toString());
+        }
+        return new ArrayList<String>(wordSet);
+    }
+
+    private static ArrayList<String> getBigramSuggestions(final ExpandableDictionary dict,
+            final String prevWord) {
+        final ArrayList<SuggestedWordInfo> suggestions =
+                dict.getSuggestions(new WordComposer(), prevWord, null);
+        final ArrayList<String> words = CollectionUtils.newArrayList();
+        for (final SuggestedWordInfo info : suggestions) {
+            words.add(info.mWord);
+        }
+        return words;
+    }
+
+    public void testBigrams() {
+        final ExpandableDictionary dict = createDictionary();
+        dict.setBigramAndGetFrequency("this", "is", 100);
+        dict.setBigramAndGetFrequency("this", "was", 50);
+        dict.setBigramAndGetFrequency("This", "Was", 10);
+        assertTrue(dict.isValidWord("this"));
+        assertTrue(dict.isValidWord("Was"));
+        assertFalse(dict.isValidWord("th"));
+
+        // The first word is looked up in lower case, the second word keeps its case.
+        final ArrayList<String> bigrams = getBigramSuggestions(dict, "THIS");
+        assertEquals(3, bigrams.size());
+        assertTrue(bigrams.contains("is"));
+        assertTrue(bigrams.contains("was"));
+        assertTrue(bigrams.contains("Was"));
+        // Setting a bigram again returns its current frequency.
+        assertEquals(100, dict.setBigramAndGetFrequency("this", "is", 0));
+
+        assertTrue(dict.removeBigram("this", "was"));
+        assertFalse(dict.removeBigram("this", "was"));
+        assertFalse(getBigramSuggestions(dict, "this").contains("was"));
+    }
+
+    public void testBigramDecayPolicy() {
+        final ExpandableDictionary dict = createDictionary();
+        final ForgettingCurveParams fcp = new ForgettingCurveParams(true);
+        dict.setBigramAndGetFrequency("good", "morning", fcp);
+        dict.setBigramAndGetFrequency("good", "night", 20);
+        assertSame(fcp, dict.getBigramFcParams("good", "morning"));
+        assertNull(dict.getBigramFcParams("good", "night"));
+        assertNull(dict.getBigramFcParams("good", "evening"));
+    }
+
+    public void testDecayBigrams() {
+        final ExpandableDictionary dict = createDictionary();
+        final long now = System.currentTimeMillis();
+        final ForgettingCurveParams typedOnce = new ForgettingCurveParams(
+                UserHistoryForgettingCurveUtils.calcFc(0, 1, 0), now, now);
+        final ForgettingCurveParams typedOften = new ForgettingCurveParams(
+                UserHistoryForgettingCurveUtils.calcFc(0, 0, 3), now, now);
+        dict.setBigramAndGetFrequency("good", "morning", typedOnce);
+        dict.setBigramAndGetFrequency("good", "night", typedOften);
+        dict.setBigramAndGetFrequency("good", "evening", 20);
+        final ArrayList<String> forgottenBigrams = CollectionUtils.newArrayList();
+        final ExpandableDictionary.OnBigramForgottenListener listener =
+                new ExpandableDictionary.OnBigramForgottenListener() {
+                    @Override
+                    public void onBigramForgotten(final String word1, final String word2) {
+                        forgottenBigrams.add(word1 + " " + word2);
+                    }
+                };
+
+        assertEquals(0, dict.decayBigrams(now, listener));
+        final byte fc = typedOften.getFc();
+        assertEquals(2, dict.decayBigrams(now + DateUtils.DAY_IN_MILLIS, listener));
+        assertTrue(fc != typedOften.getFc());
+        assertTrue(forgottenBigrams.isEmpty());
+
+        // The bigram typed once is forgotten after a few days, the others are kept.
+        final int generation = dict.getGeneration();
+        dict.decayBigrams(now + DateUtils.WEEK_IN_MILLIS, listener);
+        assertTrue(generation != dict.getGeneration());
+        assertEquals(1, forgottenBigrams.size());
+        assertEquals("good morning", forgottenBigrams.get(0));
+        final ArrayList<String> bigrams = getBigramSuggestions(dict, "good");
+        assertFalse(bigrams.contains("morning"));
+        assertTrue(bigrams.contains("evening"));
+        assertSame(typedOften, dict.getBigramFcParams("good", "night"));
+    }
+
+    public void testGeneration() {
+        final ExpandableDictionary dict = createDictionary();
+        int generation = dict.getGeneration();
+        dict.setBigramAndGetFrequency("hello", "world", 100);
+        assertTrue(generation != dict.getGeneration());
+        generation = dict.getGeneration();
+        dict.addWord("hi", "hello", 100);
+        assertTrue(generation != dict.getGeneration());
+        generation = dict.getGeneration();
+        dict.removeBigram("hello", "world");
+        assertTrue(generation != dict.getGeneration());
+        generation = dict.getGeneration();
+        // Lookups do not change the content.
+        assertTrue(dict.isValidWord("hello"));
+        assertEquals(100, dict.getWordFrequency("hi"));
+        assertEquals(generation, dict.getGeneration());
+    }
+
+    public void testShortcuts() {
+        final ExpandableDictionary dict = createDictionary();
+        dict.addWord("ty", "thank you", 200);
+        // A shortcut-only word exists in the dictionary but is not a valid word.
+        assertFalse(dict.isValidWord("ty"));
+        assertEquals(200, dict.getWordFrequency("ty"));
+        assertEquals(-1, dict.getWordFrequency("thank you"));
+    }
+
+    private static ProximityInfo createProximityInfo() {
+        return ProximityInfo.createSpellCheckerProximityInfo(
+                SpellCheckerProximityInfo.getProximityForScript(
+                        AndroidSpellCheckerService.SCRIPT_LATIN),
+                SpellCheckerProximityInfo.ROW_SIZE,
+                SpellCheckerProximityInfo.PROXIMITY_GRID_WIDTH,
+                SpellCheckerProximityInfo.PROXIMITY_GRID_HEIGHT);
+    }
+
+    /**
+     * Adds a word that the lookups return. {@link ExpandableDictionary#addWord} only terminates
+     * the words that have a shortcut target, so the word is terminated as the target of a bigram
+     * and given its frequency as a shortcut of itself.
+     */
+    private static void addLookupWord(final ExpandableDictionary dict, final NodeTrie nodeTrie,
+            final String word, final int frequency) {
+        dict.setBigramAndGetFrequency(word, word, 0);
+        dict.addWord(word, word, frequency);
+        if (null != nodeTrie) {
+            nodeTrie.searchWord(word);
+            nodeTrie.addWord(word, word, frequency);
+        }
+    }
+
+    private static WordComposer createComposer(final String typedWord) {
+        final WordComposer composer = new WordComposer();
+        for (int i = 0; i < typedWord.length(); ++i) {
+            composer.add(typedWord.charAt(i), Constants.NOT_A_COORDINATE,
+                    Constants.NOT_A_COORDINATE);
+        }
+        return composer;
+    }
+
+    private static ArrayList<String> getSuggestions(final ExpandableDictionary dict,
+            final String typedWord, final ProximityInfo proximityInfo) {
+        final ArrayList<String> words = CollectionUtils.newArrayList();
+        final ArrayList<SuggestedWordInfo> suggestions =
+                dict.getSuggestions(createComposer(typedWord), null, proximityInfo);
+        for (final SuggestedWordInfo info : suggestions) {
+            words.add(info.mWord + ":" + info.mScore);
+        }
+        return words;
+    }
+
+    public void testIncrementalSearch() {
+        final Random random = new Random(654321);
+        final List<String> words = generateWords(1000, random);
+        final ExpandableDictionary dict = createDictionary();
+        final ExpandableDictionary freshDict = createDictionary();
+        final NodeTrie nodeTrie = new NodeTrie();
+        for (final String word : words) {
+            final int frequency = 1 + random.nextInt(255);
+            addLookupWord(dict, nodeTrie, word, frequency);
+            addLookupWord(freshDict, null, word, frequency);
+        }
+        final ProximityInfo proximityInfo = createProximityInfo();
+        String targetWord = words.get(random.nextInt(words.size()));
+        final StringBuilder typedWord = new StringBuilder();
+        int lookupCount = 0;
+        int nonEmptyLookupCount = 0;
+        for (int i = 0; i < NUMBER_OF_TYPED_CHARACTERS; ++i) {
+            final int action = random.nextInt(10);
+            if (typedWord.length() >= targetWord.length()) {
+                // Start typing another word.
+                targetWord = words.get(random.nextInt(words.size()));
+                typedWord.setLength(0);
+            } else if (action < 6) {
+                typedWord.append(targetWord.charAt(typedWord.length()));
+            } else if (action < 7) {
+                // A typo, which the searches that skip a character may still match.
+                typedWord.append((char)('a' + random.nextInt(26)));
+            } else if (action < 9 && typedWord.length() > 0) {
+                typedWord.setLength(typedWord.length() - 1);
+            } else {
+                // Adding a word must be seen by the searches that are under way.
+                final String word = words.get(random.nextInt(words.size())) + "'s";
+                final int frequency = 1 + random.nextInt(255);
+                addLookupWord(dict, nodeTrie, word, frequency);
+                addLookupWord(freshDict, null, word, frequency);
+            }
+            if (typedWord.length() < 2) continue;
+            final String typed = typedWord.toString();
+            final ArrayList<String> expected = nodeTrie.getSuggestions(typed, proximityInfo);
+            // The fresh dictionary is looked up with a new proximity info every time, so it
+            // never reuses a previous search.
+            assertEquals(typed, expected,
+                    getSuggestions(freshDict, typed, createProximityInfo()));
+            assertEquals(typed, expected, getSuggestions(dict, typed, proximityInfo));
+            ++lookupCount;
+            if (!expected.isEmpty()) ++nonEmptyLookupCount;
+        }
+        // Many of the lookups are prefixes of words, which have suggestions.
+        assertTrue(nonEmptyLookupCount + " of " + lookupCount,
+                nonEmptyLookupCount * 3 > lookupCount);
+    }
+
+    /**
+     * The node-based trie that ExpandableDictionary used to store its words in, and its recursive
+     * search, kept to compare the footprint, the lookup time and the suggestions of the current
+     * storage and search against.
+     */
+    private static final class NodeTrie {
+        private static final class Node {
+            char mCode;
+            int mFrequency;
+            boolean mTerminal;
+            boolean mShortcutOnly;
+            ArrayList<char[]> mShortcutTargets;
+            Node mParent;
+            NodeArray mChildren;
+            LinkedList<Node> mNGrams;
+        }
+
+        private static final class NodeArray {
+            private static final int INCREMENT = 2;
+            Node[] mData = new Node[INCREMENT];
+            int mLength = 0;
+
+            void add(final Node n) {
+                if (mLength + 1 > mData.length) {
+                    final Node[] tempData = new Node[mLength + INCREMENT];
+                    System.arraycopy(mData, 0, tempData, 0, mLength);
+                    mData = tempData;
+                }
+                mData[mLength++] = n;
+            }
+        }
+
+        private final NodeArray mRoots = new NodeArray();
+        private final char[] mWordBuilder = new char[BinaryDictionary.MAX_WORD_LENGTH];
+        private int[][] mCodes = new int[BinaryDictionary.MAX_WORD_LENGTH][];
+        private int mInputLength;
+        private int mMaxDepth;
+
+        void addWord(final String word, final String shortcutTarget, final int frequency) {
+            NodeArray children = mRoots;
+            Node parentNode = null;
+            final boolean isShortcutOnly = (null != shortcutTarget);
+            for (int depth = 0; depth < word.length(); ++depth) {
+                final char c = word.charAt(depth);
+                Node childNode = null;
+                for (int i = 0; i < children.mLength; ++i) {
+                    if (children.mData[i].mCode == c) {
+                        childNode = children.mData[i];
+                        break;
+                    }
+                }
+                if (null == childNode) {
+                    childNode = new Node();
+                    childNode.mCode = c;
+                    childNode.mParent = parentNode;
+                    childNode.mShortcutOnly = isShortcutOnly;
+                    children.add(childNode);
+                }
+                if (word.length() == depth + 1 && shortcutTarget != null) {
+                    childNode.mTerminal = true;
+                    if (null == childNode.mShortcutTargets) {
+                        childNode.mShortcutTargets = CollectionUtils.newArrayList();
+                    }
+                    childNode.mShortcutTargets.add(shortcutTarget.toCharArray());
+                    childNode.mFrequency = Math.min(Math.max(frequency, childNode.mFrequency),
+                            255);
+                    return;
+                }
+                if (null == childNode.mChildren) childNode.mChildren = new NodeArray();
+                children = childNode.mChildren;
+                parentNode = childNode;
+            }
+        }
+
+        /**
+         * Looks up a typed word as ExpandableDictionary did before its searches were kept across
+         * lookups: a recursive traversal from the root for the whole input, and then one more
+         * for each skipped position.
+         * @return the words and the scores of the suggestions, as "word:score".
+         */
+        ArrayList<String> getSuggestions(final String typedWord,
+                final ProximityInfo proximityInfo) {
+            mInputLength = typedWord.length();
+            for (int i = 0; i < mInputLength; ++i) {
+                mCodes[i] = new int[ProximityInfo.MAX_PROXIMITY_CHARS_SIZE];
+                proximityInfo.fillArrayWithNearestKeyCodes(Constants.NOT_A_COORDINATE,
+                        Constants.NOT_A_COORDINATE, typedWord.charAt(i), mCodes[i]);
+            }
+            mMaxDepth = mInputLength * 3;
+            final ArrayList<String> suggestions = CollectionUtils.newArrayList();
+            for (int skipPos = -1; skipPos < mInputLength; ++skipPos) {
+                getWordsRec(mRoots, mWordBuilder, 0, false, 1, 0, skipPos, suggestions);
+            }
+            return suggestions;
+        }
+
+        private static int computeSkippedWordFinalFreq(final int freq, final int snr,
+                final int inputLength) {
+            return inputLength >= 3 ? (freq * snr * (inputLength - 2)) / (inputLength - 1) : 0;
+        }
+
+        private static boolean addWordAndShortcutsFromNode(final Node node, final char[] word,
+                final int depth, final int finalFreq, final ArrayList<String> suggestions) {
+            if (finalFreq > 0 && !node.mShortcutOnly) {
+                suggestions.add(new String(word, 0, depth + 1) + ":" + finalFreq);
+                if (suggestions.size() >= Suggest.MAX_SUGGESTIONS) return false;
+            }
+            if (null != node.mShortcutTargets) {
+                for (final char[] shortcut : node.mShortcutTargets) {
+                    suggestions.add(new String(shortcut) + ":" + finalFreq);
+                    if (suggestions.size() > Suggest.MAX_SUGGESTIONS) return false;
+                }
+            }
+            return true;
+        }
+
+        private void getWordsRec(final NodeArray roots, final char[] word, final int depth,
+                final boolean completion, final int snr, final int inputIndex, final int skipPos,
+                final ArrayList<String> suggestions) {
+            if (depth > mMaxDepth) return;
+            final int[] currentChars = mInputLength <= inputIndex ? null : mCodes[inputIndex];
+            for (int i = 0; i < roots.mLength; ++i) {
+                final Node node = roots.mData[i];
+                final char c = node.mCode;
+                // The words of the tests are in lower case ASCII.
+                final char lowerC = Character.toLowerCase(c);
+                final NodeArray children = node.mChildren;
+                if (completion || null == currentChars) {
+                    word[depth] = c;
+                    if (node.mTerminal) {
+                        final int finalFreq = skipPos < 0 ? node.mFrequency * snr
+                                : computeSkippedWordFinalFreq(node.mFrequency, snr, mInputLength);
+                        if (!addWordAndShortcutsFromNode(node, word, depth, finalFreq,
+                                suggestions)) {
+                            return;
+                        }
+                    }
+                    if (null != children) {
+                        getWordsRec(children, word, depth + 1, true, snr, inputIndex, skipPos,
+                                suggestions);
+                    }
+                } else if ((c == Keyboard.CODE_SINGLE_QUOTE
+                        && currentChars[0] != Keyboard.CODE_SINGLE_QUOTE) || depth == skipPos) {
+                    // Skip the ' and continue deeper
+                    word[depth] = c;
+                    if (null != children) {
+                        getWordsRec(children, word, depth + 1, completion, snr, inputIndex,
+                                skipPos, suggestions);
+                    }
+                } else {
+                    final int alternativesSize = skipPos >= 0 ? 1 : currentChars.length;
+                    for (int j = 0; j < alternativesSize; ++j) {
+                        final int addedAttenuation = (j > 0 ? 1 : 2);
+                        final int currentChar = currentChars[j];
+                        if (currentChar == Constants.NOT_A_CODE) break;
+                        if (currentChar != lowerC && currentChar != c) continue;
+                        word[depth] = c;
+                        if (mInputLength == inputIndex + 1) {
+                            if (node.mTerminal) {
+                                final int finalFreq = skipPos < 0
+                                        ? node.mFrequency * snr * addedAttenuation
+                                                * Dictionary.FULL_WORD_SCORE_MULTIPLIER
+                                        : computeSkippedWordFinalFreq(node.mFrequency,
+                                                snr * addedAttenuation, mInputLength);
+                                if (!addWordAndShortcutsFromNode(node, word, depth, finalFreq,
+                                        suggestions)) {
+                                    return;
+                                }
+                            }
+                            if (null != children) {
+                                getWordsRec(children, word, depth + 1, true,
+                                        snr * addedAttenuation, inputIndex + 1, skipPos,
+                                        suggestions);
+                            }
+                        } else if (null != children) {
+                            getWordsRec(children, word, depth + 1, false,
+                                    snr * addedAttenuation, inputIndex + 1, skipPos,
+                                    suggestions);
+                        }
+                    }
+                }
+            }
+        }
+
+        Node searchWord(final String word) {
+            NodeArray children = mRoots;
+            Node parentNode = null;
+            Node childNode = null;
+            for (int depth = 0; depth < word.length(); ++depth) {
+                final char c = word.charAt(depth);
+                childNode = null;
+                for (int i = 0; i < children.mLength; ++i) {
+                    if (children.mData[i].mCode == c) {
+                        childNode = children.mData[i];
+                        break;
+                    }
+                }
+                if (null == childNode) {
+                    childNode = new Node();
+                    childNode.mCode = c;
+                    childNode.mParent = parentNode;
+                    children.add(childNode);
+                }
+                if (null == childNode.mChildren) childNode.mChildren = new NodeArray();
+                children = childNode.mChildren;
+                parentNode = childNode;
+            }
+            childNode.mTerminal = true;
+            return childNode;
+        }
+
+        void setBigram(final String word1, final String word2) {
+            final Node firstWord = searchWord(word1);
+            final Node secondWord = searchWord(word2);
+            if (null == firstWord.mNGrams) firstWord.mNGrams = CollectionUtils.newLinkedList();
+            firstWord.mNGrams.add(secondWord);
+        }
+
+        int getWordFrequency(final String word) {
+            NodeArray children = mRoots;
+            Node node = null;
+            for (int depth = 0; depth < word.length(); ++depth) {
+                if (null == children) return -1;
+                final char c = word.charAt(depth);
+                node = null;
+                for (int i = 0; i < children.mLength; ++i) {
+                    if (children.mData[i].mCode == c) {
+                        node = children.mData[i];
+                        break;
+                    }
+                }
+                if (null == node) return -1;
+                children = node.mChildren;
+            }
+            return node.mTerminal ? node.mFrequency : -1;
+        }
+    }
+
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            System.runFinalization();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Compares the heap footprint and the lookup time of the dictionary with those of the
+     * node-based trie. The results are logged; use this for profiling.
+     */
+    public void testFootprintAndLookupBenchmark() {
+        final List<String> words = generateWords(NUMBER_OF_WORDS, new Random(123456));
+
+        long heapBefore = getUsedHeap();
+        final NodeTrie nodeTrie = new NodeTrie();
+        long start = System.nanoTime();
+        for (int i = 1; i < words.size(); ++i) {
+            nodeTrie.setBigram(words.get(i - 1), words.get(i));
+        }
+        final long nodeTrieBuildTime = System.nanoTime() - start;
+        final long nodeTrieHeap = getUsedHeap() - heapBefore;
+
+        heapBefore = getUsedHeap();
+        final ExpandableDictionary dict = createDictionary();
+        start = System.nanoTime();
+        for (int i = 1; i < words.size(); ++i) {
+            dict.setBigramAndGetFrequency(words.get(i - 1), words.get(i), 0);
+        }
+        final long dictBuildTime = System.nanoTime() - start;
+        final long dictHeap = getUsedHeap() - heapBefore;
+
+        start = System.nanoTime();
+        for (int round = 0; round < NUMBER_OF_LOOKUP_ROUNDS; ++round) {
+            for (final String word : words) {
+                assertEquals(0, nodeTrie.getWordFrequency(word));
+            }
+        }
+        final long nodeTrieLookupTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int round = 0; round < NUMBER_OF_LOOKUP_ROUNDS; ++round) {
+            for (final String word : words) {
+                assertEquals(0, dict.getWordFrequency(word));
+            }
+        }
+        final long dictLookupTime = System.nanoTime() - start;
+
+        final int lookups = NUMBER_OF_LOOKUP_ROUNDS * words.size();
+        Log.d(TAG, "Node trie: heap=" + nodeTrieHeap / 1024 + "KB, build="
+                + nodeTrieBuildTime / 1000000 + "ms, lookup=" + nodeTrieLookupTime / lookups
+                + "ns");
+        Log.d(TAG, "ExpandableDictionary: heap=" + dictHeap / 1024 + "KB, build="
+                + dictBuildTime / 1000000 + "ms, lookup=" + dictLookupTime / lookups + "ns");
+    }
+}
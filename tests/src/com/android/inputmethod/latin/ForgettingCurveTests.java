@@ -53,4 +53,19 @@ public class ForgettingCurveTests extends AndroidTestCase {
             assertEquals(l, Math.max(0, 2 - i));
         }
     }
+
+    public void testForgetting() {
+        final int maxPushCount = 4 * (UserHistoryForgettingCurveUtils.ELAPSED_TIME_MAX + 1);
+        for (int i = 0; i < 256; ++i) {
+            byte fc = (byte)i;
+            int pushCount = 0;
+            while (!UserHistoryForgettingCurveUtils.isForgotten(fc)) {
+                assertTrue(pushCount < maxPushCount);
+                fc = UserHistoryForgettingCurveUtils.pushElapsedTime(fc);
+                ++pushCount;
+            }
+            assertEquals(0, UserHistoryForgettingCurveUtils.fcToLevel(fc));
+            assertTrue(UserHistoryForgettingCurveUtils.fcToFreq(fc) <= 0);
+        }
+    }
 }
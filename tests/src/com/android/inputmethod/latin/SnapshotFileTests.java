@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for SnapshotFile, simulating failures at each step of a write.
+ */
+public class SnapshotFileTests extends AndroidTestCase {
+    private File mFile;
+    private SnapshotFile mSnapshotFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "SnapshotFileTests");
+        deleteFiles();
+        mSnapshotFile = new SnapshotFile(mFile);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteFiles();
+        super.tearDown();
+    }
+
+    private void deleteFiles() {
+        mFile.delete();
+        getPreviousFile().delete();
+        getTempFile().delete();
+    }
+
+    private File getPreviousFile() {
+        return new File(mFile.getPath() + SnapshotFile.PREVIOUS_SUFFIX);
+    }
+
+    private File getTempFile() {
+        return new File(mFile.getPath() + SnapshotFile.TEMP_SUFFIX);
+    }
+
+    private static SnapshotFile.ContentWriter createWriter(final String content) {
+        return new SnapshotFile.ContentWriter() {
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                out.write(content.getBytes("UTF-8"));
+                out.close();
+            }
+        };
+    }
+
+    // Simulates a crash after writing a part of the content.
+    private static SnapshotFile.ContentWriter createFailingWriter(final String content) {
+        return new SnapshotFile.ContentWriter() {
+            @Override
+            public void writeTo(final OutputStream out) throws IOException {
+                out.write(content.getBytes("UTF-8"));
+                throw new IOException("Simulated failure");
+            }
+        };
+    }
+
+    private static String readContent(final SnapshotFile.Snapshot snapshot) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(snapshot.mFile, "r");
+        try {
+            final byte[] content = new byte[snapshot.mLength];
+            file.seek(snapshot.mOffset);
+            file.readFully(content);
+            return new String(content, "UTF-8");
+        } finally {
+            file.close();
+        }
+    }
+
+    private void checkLatestSnapshot(final long expectedGeneration, final String expectedContent)
+            throws IOException {
+        final SnapshotFile.Snapshot snapshot = mSnapshotFile.getLatestSnapshot();
+        assertNotNull(snapshot);
+        assertEquals(expectedGeneration, snapshot.mGeneration);
+        assertEquals(expectedContent, readContent(snapshot));
+    }
+
+    private static void flipByte(final File file, final long position) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.seek(position);
+            final int b = randomAccessFile.read();
+            randomAccessFile.seek(position);
+            randomAccessFile.write(b ^ 0x40);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void truncate(final File file, final long length) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(length);
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public void testNoFile() {
+        assertFalse(mSnapshotFile.exists());
+        assertNull(mSnapshotFile.getLatestSnapshot());
+    }
+
+    public void testWriteAndRead() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        assertTrue(mSnapshotFile.exists());
+        checkLatestSnapshot(1, "first");
+        mSnapshotFile.write(createWriter("second"));
+        checkLatestSnapshot(2, "second");
+        mSnapshotFile.write(createWriter(""));
+        checkLatestSnapshot(3, "");
+        assertFalse(getTempFile().exists());
+    }
+
+    public void testFailureWhileWritingContent() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        try {
+            mSnapshotFile.write(createFailingWriter("second"));
+            fail("The failure was not reported");
+        } catch (IOException e) {
+            // Expected
+        }
+        checkLatestSnapshot(1, "first");
+        assertFalse(getTempFile().exists());
+        mSnapshotFile.write(createWriter("third"));
+        checkLatestSnapshot(2, "third");
+    }
+
+    public void testCrashBeforeRenamingTempFile() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        mSnapshotFile.write(createWriter("second"));
+        // A crash after the temporary file is written, but before any rename.
+        final SnapshotFile tempSnapshotFile = new SnapshotFile(getTempFile());
+        tempSnapshotFile.write(createWriter("third"));
+        checkLatestSnapshot(2, "second");
+        mSnapshotFile.write(createWriter("third"));
+        checkLatestSnapshot(3, "third");
+    }
+
+    public void testCrashBetweenRenames() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        mSnapshotFile.write(createWriter("second"));
+        // A crash after the current file is renamed to be the previous one, but before the
+        // temporary file is renamed to be the current one.
+        assertTrue(mFile.renameTo(getPreviousFile()));
+        checkLatestSnapshot(2, "second");
+        mSnapshotFile.write(createWriter("third"));
+        checkLatestSnapshot(3, "third");
+    }
+
+    public void testCorruptedContent() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        mSnapshotFile.write(createWriter("second"));
+        flipByte(mFile, SnapshotFile.HEADER_SIZE + 2);
+        checkLatestSnapshot(1, "first");
+        // The next write replaces the corrupted file.
+        mSnapshotFile.write(createWriter("third"));
+        checkLatestSnapshot(2, "third");
+    }
+
+    public void testWriteAfterCorruptedContentKeepsThePreviousFile() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        mSnapshotFile.write(createWriter("second"));
+        flipByte(mFile, SnapshotFile.HEADER_SIZE + 2);
+        mSnapshotFile.write(createWriter("third"));
+        // The corrupted file did not replace the previous one, which is still valid.
+        flipByte(mFile, SnapshotFile.HEADER_SIZE + 2);
+        checkLatestSnapshot(1, "first");
+    }
+
+    public void testCorruptedHeader() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        mSnapshotFile.write(createWriter("second"));
+        // The generation
+        flipByte(mFile, 8);
+        checkLatestSnapshot(1, "first");
+    }
+
+    public void testTruncatedFile() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        mSnapshotFile.write(createWriter("second"));
+        truncate(mFile, mFile.length() - 1);
+        checkLatestSnapshot(1, "first");
+        // A header that is cut is not mistaken for a file written without a header.
+        truncate(mFile, SnapshotFile.HEADER_SIZE - 1);
+        checkLatestSnapshot(1, "first");
+        truncate(mFile, 4);
+        checkLatestSnapshot(1, "first");
+        truncate(mFile, 0);
+        checkLatestSnapshot(1, "first");
+    }
+
+    public void testBothFilesCorrupted() throws IOException {
+        mSnapshotFile.write(createWriter("first"));
+        mSnapshotFile.write(createWriter("second"));
+        flipByte(mFile, SnapshotFile.HEADER_SIZE);
+        flipByte(getPreviousFile(), SnapshotFile.HEADER_SIZE);
+        assertNull(mSnapshotFile.getLatestSnapshot());
+        mSnapshotFile.write(createWriter("third"));
+        checkLatestSnapshot(1, "third");
+    }
+
+    public void testFileWithoutHeader() throws IOException {
+        final FileOutputStream out = new FileOutputStream(mFile);
+        out.write("written without a header".getBytes("UTF-8"));
+        out.close();
+        checkLatestSnapshot(0, "written without a header");
+        mSnapshotFile.write(createWriter("first"));
+        checkLatestSnapshot(1, "first");
+    }
+}
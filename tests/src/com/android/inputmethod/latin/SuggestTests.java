@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+
+import com.android.inputmethod.keyboard.ProximityInfo;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Unit tests for Suggest
+ */
+public class SuggestTests extends AndroidTestCase {
+    private static final String BLOCKING_WORD = "thermos";
+    private static final long TIMEOUT_MS = 5000;
+
+    private File mDictFile;
+    private Suggest mSuggest;
+    private ProximityInfo mProximityInfo;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDictFile = DictionaryTestUtils.createDictionaryFile("SuggestTests");
+        mSuggest = new Suggest(getContext(), mDictFile, 0, mDictFile.length(), Locale.US);
+        mProximityInfo = DictionaryTestUtils.createProximityInfo();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSuggest.close();
+        mDictFile.delete();
+        super.tearDown();
+    }
+
+    /**
+     * A dictionary whose lookups block until it is released, and that records what they read.
+     */
+    private static final class BlockingDictionary extends Dictionary {
+        public final CountDownLatch mRelease = new CountDownLatch(1);
+        public final CountDownLatch mStarted = new CountDownLatch(1);
+        public final CountDownLatch mDone = new CountDownLatch(1);
+        public final AtomicInteger mLookupCount = new AtomicInteger();
+        public volatile WordComposer mComposer;
+        public volatile Thread mThread;
+        public volatile String mTypedWordAfterRelease;
+
+        public BlockingDictionary(final String dictType) {
+            super(dictType);
+        }
+
+        @Override
+        public ArrayList<SuggestedWordInfo> getSuggestions(final WordComposer composer,
+                final CharSequence prevWord, final ProximityInfo proximityInfo) {
+            mLookupCount.incrementAndGet();
+            mComposer = composer;
+            mThread = Thread.currentThread();
+            mStarted.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mTypedWordAfterRelease = composer.getTypedWord();
+            final ArrayList<SuggestedWordInfo> suggestions = CollectionUtils.newArrayList();
+            suggestions.add(new SuggestedWordInfo(BLOCKING_WORD,
+                    DictionaryTestUtils.UNIGRAM_FREQ,
+                    SuggestedWordInfo.KIND_CORRECTION, mDictType));
+            mDone.countDown();
+            return suggestions;
+        }
+
+        @Override
+        public boolean isValidWord(final CharSequence word) {
+            return false;
+        }
+
+        public void changeContent() {
+            onContentChanged();
+        }
+    }
+
+    private static boolean hasWord(final SuggestedWords suggestedWords, final String word) {
+        for (int i = 0; i < suggestedWords.size(); ++i) {
+            if (word.equals(suggestedWords.getWord(i))) return true;
+        }
+        return false;
+    }
+
+    private SuggestedWords getSuggestedWords(final WordComposer composer, final String prevWord) {
+        return mSuggest.getSuggestedWords(composer, prevWord, mProximityInfo,
+                true /* isCorrectionEnabled */, Suggest.SESSION_TYPING);
+    }
+
+    public void testSuggestionsAreReused() {
+        final WordComposer composer = new WordComposer();
+        DictionaryTestUtils.type(composer, "th");
+        final SuggestedWords suggestedWords = getSuggestedWords(composer, "is");
+        assertTrue(suggestedWords.size() > 1);
+        assertSame(suggestedWords, getSuggestedWords(composer, "is"));
+
+        // Going back to a previous state of the composing word reuses its suggestions.
+        DictionaryTestUtils.type(composer, "e");
+        final SuggestedWords otherSuggestedWords = getSuggestedWords(composer, "is");
+        assertNotSame(suggestedWords, otherSuggestedWords);
+        composer.deleteLast();
+        assertSame(suggestedWords, getSuggestedWords(composer, "is"));
+
+        // The suggestions depend on the previous word and the settings.
+        assertNotSame(suggestedWords, getSuggestedWords(composer, "was"));
+        assertNotSame(suggestedWords, mSuggest.getSuggestedWords(composer, "is",
+                mProximityInfo, false /* isCorrectionEnabled */, Suggest.SESSION_TYPING));
+        mSuggest.setAutoCorrectionThreshold(0.5f);
+        final SuggestedWords newSuggestedWords = getSuggestedWords(composer, "is");
+        assertNotSame(suggestedWords, newSuggestedWords);
+        assertEquals(suggestedWords.size(), newSuggestedWords.size());
+        for (int i = 0; i < suggestedWords.size(); ++i) {
+            assertEquals(suggestedWords.getWord(i), newSuggestedWords.getWord(i));
+        }
+    }
+
+    public void testLookupsThatMissTheDeadlineAreLeftOut() throws InterruptedException {
+        final BlockingDictionary dictionary = new BlockingDictionary(Dictionary.TYPE_USER);
+        mSuggest.getUnigramDictionaries().put(Dictionary.TYPE_USER, dictionary);
+        mSuggest.setConcurrentLookupEnabled(true);
+        final WordComposer composer = new WordComposer();
+        DictionaryTestUtils.type(composer, "th");
+        final SuggestedWords suggestedWords = getSuggestedWords(composer, "is");
+        assertTrue(suggestedWords.size() > 1);
+        assertFalse(hasWord(suggestedWords, BLOCKING_WORD));
+        assertTrue(dictionary.mStarted.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        // The late lookup reads its own copy of the word composer.
+        assertNotSame(composer, dictionary.mComposer);
+
+        // The incomplete suggestions are not cached, and the dictionary is not looked up again
+        // while its late lookup is running.
+        assertNotSame(suggestedWords, getSuggestedWords(composer, "is"));
+        assertEquals(1, dictionary.mLookupCount.get());
+
+        // Changing the word composer doesn't change what the late lookup reads.
+        DictionaryTestUtils.type(composer, "e");
+        dictionary.mRelease.countDown();
+        assertTrue(dictionary.mDone.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertEquals("th", dictionary.mTypedWordAfterRelease);
+        composer.deleteLast();
+
+        // Once the late lookup is done, the dictionary is looked up again in time.
+        final long timeout = System.currentTimeMillis() + TIMEOUT_MS;
+        SuggestedWords completeSuggestedWords = getSuggestedWords(composer, "is");
+        while (!hasWord(completeSuggestedWords, BLOCKING_WORD)
+                && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+            completeSuggestedWords = getSuggestedWords(composer, "is");
+        }
+        assertTrue(hasWord(completeSuggestedWords, BLOCKING_WORD));
+        assertTrue(dictionary.mLookupCount.get() >= 2);
+        assertSame(completeSuggestedWords, getSuggestedWords(composer, "is"));
+    }
+
+    public void testUserHistoryIsLookedUpOnTheCallingThread() {
+        final BlockingDictionary dictionary =
+                new BlockingDictionary(Dictionary.TYPE_USER_HISTORY);
+        dictionary.mRelease.countDown();
+        mSuggest.getUnigramDictionaries().put(Dictionary.TYPE_USER_HISTORY, dictionary);
+        mSuggest.setConcurrentLookupEnabled(true);
+        final WordComposer composer = new WordComposer();
+        DictionaryTestUtils.type(composer, "th");
+        assertTrue(hasWord(getSuggestedWords(composer, "is"), BLOCKING_WORD));
+        assertSame(Thread.currentThread(), dictionary.mThread);
+        assertSame(composer, dictionary.mComposer);
+    }
+
+    public void testRemovingADictionaryMakesTheCachedSuggestionsObsolete() {
+        final BlockingDictionary dictionary = new BlockingDictionary(Dictionary.TYPE_USER);
+        dictionary.mRelease.countDown();
+        final DictionaryCollection collection =
+                new DictionaryCollection(Dictionary.TYPE_USER, dictionary);
+        mSuggest.getUnigramDictionaries().put(Dictionary.TYPE_USER, collection);
+        final WordComposer composer = DictionaryTestUtils.createComposer("th");
+        // The removal increments the generation of the collection by as much as the change of the
+        // dictionary did.
+        dictionary.changeContent();
+        final SuggestedWords suggestedWords = getSuggestedWords(composer, "is");
+        assertTrue(hasWord(suggestedWords, BLOCKING_WORD));
+        assertSame(suggestedWords, getSuggestedWords(composer, "is"));
+        collection.removeDictionary(dictionary);
+        final SuggestedWords newSuggestedWords = getSuggestedWords(composer, "is");
+        assertNotSame(suggestedWords, newSuggestedWords);
+        assertFalse(hasWord(newSuggestedWords, BLOCKING_WORD));
+    }
+}
@@ -18,6 +18,7 @@ package com.android.inputmethod.latin;
 
 import com.android.inputmethod.latin.UserHistoryDictIOUtils.BigramDictionaryInterface;
 import com.android.inputmethod.latin.UserHistoryDictIOUtils.OnAddWordListener;
+import com.android.inputmethod.latin.UserHistoryDictIOUtils.OnReadJournalListener;
 import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
 import com.android.inputmethod.latin.makedict.FormatSpec;
 import com.android.inputmethod.latin.makedict.FusionDictionary;
@@ -27,12 +28,15 @@ import android.content.Context;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 
@@ -249,4 +253,53 @@ public class UserHistoryDictIOUtilsTests extends AndroidTestCase
         readDictFromFile(file, listener2);
         checkWordsInBigramList(resultList2, addedWords);
     }
+
+    private static ArrayList<String> readJournal(final byte[] journal) throws IOException {
+        final ArrayList<String> entries = CollectionUtils.newArrayList();
+        UserHistoryDictIOUtils.readJournal(new ByteArrayInputStream(journal),
+                new OnReadJournalListener() {
+                    @Override
+                    public void setBigram(final String word1, final String word2,
+                            final int frequency, final long time) {
+                        entries.add(word1 + "," + word2 + "," + frequency + "," + time);
+                    }
+                });
+        return entries;
+    }
+
+    public void testJournal() throws IOException {
+        final UserHistoryDictionaryBigramList bigramList = new UserHistoryDictionaryBigramList();
+        final UserHistoryDictionaryBigramList updatedList = new UserHistoryDictionaryBigramList();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        bigramList.addBigram(null, "this");
+        bigramList.addBigram("this", "is");
+        updatedList.addBigram(null, "this");
+        updatedList.addBigram("this", "is");
+        UserHistoryDictIOUtils.writeJournalBatch(out, 1000, this, bigramList, updatedList);
+        final int firstBatchSize = out.size();
+        // The frequencies are saved in the bigram list like when writing the dictionary.
+        assertEquals(BIGRAM_FREQUENCY, (int)bigramList.getBigrams("this").get("is"));
+
+        // A bigram that is not in the bigram list any more is removed.
+        bigramList.removeBigram("this", "is");
+        updatedList.evictAll();
+        updatedList.addBigram("this", "is");
+        UserHistoryDictIOUtils.writeJournalBatch(out, 2000, this, bigramList, updatedList);
+
+        final byte[] journal = out.toByteArray();
+        final ArrayList<String> entries = readJournal(journal);
+        assertEquals(3, entries.size());
+        assertTrue(entries.subList(0, 2).contains("null,this," + UNIGRAM_FREQUENCY + ",1000"));
+        assertTrue(entries.subList(0, 2).contains("this,is," + BIGRAM_FREQUENCY + ",1000"));
+        assertEquals("this,is,-1,2000", entries.get(2));
+
+        // A batch that was not completely written is ignored, as well as a corrupted batch and
+        // everything after it.
+        assertEquals(entries.subList(0, 2),
+                readJournal(Arrays.copyOf(journal, journal.length - 1)));
+        final byte[] corruptedJournal = journal.clone();
+        corruptedJournal[firstBatchSize - 1] ^= 1;
+        assertTrue(readJournal(corruptedJournal).isEmpty());
+    }
 }
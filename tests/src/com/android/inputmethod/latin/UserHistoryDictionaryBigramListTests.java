@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Unit tests for UserHistoryDictionaryBigramList
+ */
+public class UserHistoryDictionaryBigramListTests extends AndroidTestCase {
+    public void testAddUpdateRemove() {
+        final UserHistoryDictionaryBigramList list = new UserHistoryDictionaryBigramList();
+        assertTrue(list.isEmpty());
+        list.addBigram(null, "this");
+        list.addBigram("this", "is", (byte)10);
+        list.addBigram("this", "is", (byte)20);
+        list.addBigram("this", "was");
+        assertEquals(3, list.size());
+        assertFalse(list.isEmpty());
+        assertTrue(list.hasBigram(null, "this"));
+        assertFalse(list.hasBigram(null, "is"));
+        assertEquals(10, list.getFcValue("this", "is"));
+
+        list.updateBigram("this", "is", (byte)30);
+        list.updateBigram("this", "are", (byte)30);
+        assertEquals(30, list.getFcValue("this", "is"));
+        assertFalse(list.hasBigram("this", "are"));
+        assertEquals(2, list.getBigrams("this").size());
+        assertEquals(30, (int)list.getBigrams("this").get("is"));
+        assertEquals(2, list.keySet().size());
+
+        // The lower case first word is looked up if the word has no bigrams.
+        assertTrue(list.hasBigram("This", "was"));
+        assertTrue(list.removeBigram("This", "was"));
+        assertFalse(list.removeBigram("this", "was"));
+        assertTrue(list.removeBigram("this", "is"));
+        assertEquals(1, list.size());
+        assertTrue(list.getBigrams("this").isEmpty());
+        assertFalse(list.keySet().contains("this"));
+
+        list.evictAll();
+        assertTrue(list.isEmpty());
+        assertFalse(list.hasBigram(null, "this"));
+    }
+
+    public void testRandomAddsAndRemoves() {
+        final UserHistoryDictionaryBigramList list = new UserHistoryDictionaryBigramList();
+        final HashMap<String, Byte> expectedBigrams = CollectionUtils.newHashMap();
+        final Random random = new Random(123456);
+        for (int i = 0; i < 20000; ++i) {
+            final String word1 = random.nextInt(10) == 0 ? null : "w" + random.nextInt(100);
+            final String word2 = "w" + random.nextInt(100);
+            final String key = word1 + " " + word2;
+            final byte fcValue = (byte)random.nextInt(256);
+            switch (random.nextInt(3)) {
+            case 0:
+                list.addBigram(word1, word2, fcValue);
+                if (!expectedBigrams.containsKey(key)) expectedBigrams.put(key, fcValue);
+                break;
+            case 1:
+                list.updateBigram(word1, word2, fcValue);
+                if (expectedBigrams.containsKey(key)) expectedBigrams.put(key, fcValue);
+                break;
+            default:
+                assertEquals(expectedBigrams.containsKey(key), list.removeBigram(word1, word2));
+                expectedBigrams.remove(key);
+                break;
+            }
+        }
+        assertEquals(expectedBigrams.size(), list.size());
+        int count = 0;
+        for (int i = list.nextIndex(0); i >= 0; i = list.nextIndex(i + 1)) {
+            final String key = list.getWord1(i) + " " + list.getWord2(i);
+            assertEquals(expectedBigrams.get(key).byteValue(), list.getFcValue(i));
+            ++count;
+        }
+        assertEquals(expectedBigrams.size(), count);
+    }
+}
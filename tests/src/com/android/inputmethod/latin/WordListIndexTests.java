@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.test.AndroidTestCase;
+
+import com.android.inputmethod.latin.WordListIndex.Directory;
+import com.android.inputmethod.latin.WordListIndex.WordList;
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
+import com.android.inputmethod.latin.makedict.FormatSpec;
+import com.android.inputmethod.latin.makedict.FusionDictionary;
+import com.android.inputmethod.latin.makedict.FusionDictionary.Node;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Unit tests for WordListIndex
+ */
+public class WordListIndexTests extends AndroidTestCase {
+    // The modification times are set explicitly, as they may only have a precision of a second.
+    private static final long TIME = 1000000000000L;
+
+    private File mTestDirectory;
+    private File mRootDirectory;
+    private SnapshotFile mIndexFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mTestDirectory = new File(getContext().getCacheDir(), "WordListIndexTests");
+        deleteRecursively(mTestDirectory);
+        mRootDirectory = new File(mTestDirectory, "dicts");
+        mRootDirectory.mkdirs();
+        mIndexFile = new SnapshotFile(new File(mTestDirectory, "index"));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteRecursively(mTestDirectory);
+        super.tearDown();
+    }
+
+    private static void deleteRecursively(final File file) {
+        final File[] files = file.listFiles();
+        if (null != files) {
+            for (final File child : files) deleteRecursively(child);
+        }
+        file.delete();
+    }
+
+    private static void writeDictionary(final File file, final String version)
+            throws Exception {
+        final HashMap<String, String> attributes = CollectionUtils.newHashMap();
+        attributes.put("version", version);
+        final FusionDictionary dict = new FusionDictionary(new Node(),
+                new FusionDictionary.DictionaryOptions(attributes, false, false));
+        dict.add("word", 100, null, false /* isNotAWord */);
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            BinaryDictInputOutput.writeDictionaryBinary(out, dict,
+                    new FormatSpec.FormatOptions(2));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeBytes(final File file, final int length) throws IOException {
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[length]);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static HashMap<String, WordList> getWordLists(final WordListIndex index) {
+        final HashMap<String, WordList> wordLists = CollectionUtils.newHashMap();
+        for (final Directory directory : index.getDirectories()) {
+            for (final WordList wordList : directory.mWordLists) {
+                wordLists.put(directory.mDirectory.getName() + "/" + wordList.mFile.getName(),
+                        wordList);
+            }
+        }
+        return wordLists;
+    }
+
+    public void testIndex() throws Exception {
+        final File directory = new File(mRootDirectory, "en");
+        directory.mkdirs();
+        final File mainFile = new File(directory, "main");
+        writeDictionary(mainFile, "18");
+        final File otherFile = new File(directory, "other");
+        writeBytes(otherFile, 100);
+        mainFile.setLastModified(TIME);
+        otherFile.setLastModified(TIME);
+        directory.setLastModified(TIME);
+        mRootDirectory.setLastModified(TIME);
+
+        final WordListIndex index = new WordListIndex(mRootDirectory, mIndexFile);
+        HashMap<String, WordList> wordLists = getWordLists(index);
+        assertEquals(2, wordLists.size());
+        assertEquals("18", wordLists.get("en/main").mAttributes.get("version"));
+        assertNull(wordLists.get("en/other").mAttributes);
+        assertTrue(mIndexFile.exists());
+
+        // The index is read from its file.
+        wordLists = getWordLists(new WordListIndex(mRootDirectory, mIndexFile));
+        assertEquals(2, wordLists.size());
+        assertEquals("18", wordLists.get("en/main").mAttributes.get("version"));
+        assertNull(wordLists.get("en/other").mAttributes);
+
+        // A file that changed is read again.
+        final long length = mainFile.length();
+        writeDictionary(mainFile, "19");
+        assertEquals(length, mainFile.length());
+        mainFile.setLastModified(TIME + 1000);
+        assertEquals("19", getWordLists(index).get("en/main").mAttributes.get("version"));
+
+        // Added and removed files and directories are found.
+        otherFile.delete();
+        directory.setLastModified(TIME + 1000);
+        final File frenchDirectory = new File(mRootDirectory, "fr");
+        frenchDirectory.mkdirs();
+        writeDictionary(new File(frenchDirectory, "main"), "1");
+        frenchDirectory.setLastModified(TIME + 1000);
+        mRootDirectory.setLastModified(TIME + 1000);
+        wordLists = getWordLists(index);
+        assertEquals(2, wordLists.size());
+        assertNotNull(wordLists.get("en/main"));
+        assertEquals("1", wordLists.get("fr/main").mAttributes.get("version"));
+    }
+
+    public void testUnchangedFilesAreNotRead() throws Exception {
+        final File directory = new File(mRootDirectory, "en");
+        directory.mkdirs();
+        final File mainFile = new File(directory, "main");
+        writeDictionary(mainFile, "18");
+        mainFile.setLastModified(TIME);
+        directory.setLastModified(TIME);
+        mRootDirectory.setLastModified(TIME);
+        assertEquals(1, getWordLists(new WordListIndex(mRootDirectory, mIndexFile)).size());
+
+        // A file with the same size and modification time is taken as unchanged.
+        writeDictionary(mainFile, "19");
+        mainFile.setLastModified(TIME);
+        final ArrayList<Directory> directories =
+                new WordListIndex(mRootDirectory, mIndexFile).getDirectories();
+        assertEquals(1, directories.size());
+        assertEquals("18", directories.get(0).mWordLists.get(0).mAttributes.get("version"));
+    }
+}
@@ -33,8 +33,6 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -103,15 +101,14 @@ public class BinaryDictIOTests extends AndroidTestCase {
     private FusionDictionaryBufferInterface getBuffer(final File file, final int bufferType) {
         FileInputStream inStream = null;
         try {
+            if (bufferType == USE_BYTE_BUFFER) {
+                return BinaryDictInputOutput.openMappedBuffer(file);
+            }
             inStream = new FileInputStream(file);
             if (bufferType == USE_BYTE_ARRAY) {
                 final byte[] array = new byte[(int)file.length()];
                 inStream.read(array);
                 return new UserHistoryDictIOUtils.ByteArrayWrapper(array);
-            } else if (bufferType == USE_BYTE_BUFFER){
-                final ByteBuffer buffer = inStream.getChannel().map(
-                        FileChannel.MapMode.READ_ONLY, 0, file.length());
-                return new BinaryDictInputOutput.ByteBufferWrapper(buffer);
             }
         } catch (IOException e) {
             Log.e(TAG, "IOException while making buffer: " + e);
@@ -591,4 +588,86 @@ public class BinaryDictIOTests extends AndroidTestCase {
         } catch (UnsupportedFormatException e) {
         }
     }
+
+    // Tests for lookups against a mapped buffer
+    private void runLookupWithoutReading(final List<String> words,
+            final SparseArray<List<Integer>> bigrams, final Map<String, List<String>> shortcutMap,
+            final FormatSpec.FormatOptions formatOptions) {
+        File file = null;
+        try {
+            file = File.createTempFile("runLookupWithoutReading", ".dict");
+        } catch (IOException e) {
+            Log.e(TAG, "IOException: " + e);
+        }
+        assertNotNull(file);
+
+        final FusionDictionary dict = new FusionDictionary(new Node(),
+                new FusionDictionary.DictionaryOptions(
+                        new HashMap<String, String>(), false, false));
+        addUnigrams(words.size(), dict, words, null /* shortcutMap */);
+        if (shortcutMap != null) {
+            for (final Map.Entry<String, List<String>> entry : shortcutMap.entrySet()) {
+                final ArrayList<WeightedString> shortcuts = CollectionUtils.newArrayList();
+                for (final String shortcut : entry.getValue()) {
+                    shortcuts.add(new WeightedString(shortcut, UNIGRAM_FREQ));
+                }
+                dict.add(entry.getKey(), UNIGRAM_FREQ, shortcuts, false /* isNotAWord */);
+            }
+        }
+        addBigrams(dict, words, bigrams);
+        timeWritingDictToFile(file, dict, formatOptions);
+
+        final FusionDictionaryBufferInterface buffer = getBuffer(file, USE_BYTE_BUFFER);
+        assertNotNull(buffer);
+        try {
+            for (final String word : words) {
+                assertEquals(word, UNIGRAM_FREQ, BinaryDictIOUtils.getFrequency(buffer, word));
+            }
+            assertEquals(CharGroup.NOT_A_TERMINAL,
+                    BinaryDictIOUtils.getFrequency(buffer, "notaword"));
+            for (int i = 0; i < bigrams.size(); ++i) {
+                final String word1 = words.get(bigrams.keyAt(i));
+                final List<Integer> expected = bigrams.valueAt(i);
+                final ArrayList<WeightedString> actual =
+                        BinaryDictIOUtils.getBigrams(buffer, word1);
+                if (expected.isEmpty()) {
+                    assertNull(actual);
+                    continue;
+                }
+                assertNotNull(word1, actual);
+                final Set<String> actualWords = new HashSet<String>();
+                for (final WeightedString bigram : actual) actualWords.add(bigram.mWord);
+                for (final int w2 : expected) {
+                    assertTrue(word1 + "," + words.get(w2),
+                            actualWords.contains(words.get(w2)));
+                }
+            }
+            if (shortcutMap != null) {
+                for (final Map.Entry<String, List<String>> entry : shortcutMap.entrySet()) {
+                    final ArrayList<WeightedString> targets =
+                            BinaryDictIOUtils.getShortcutTargets(buffer, entry.getKey());
+                    assertNotNull(entry.getKey(), targets);
+                    assertEquals(entry.getValue().size(), targets.size());
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "IOException while looking up words: " + e);
+        } catch (UnsupportedFormatException e) {
+            Log.e(TAG, "UnsupportedFormatException while looking up words: " + e);
+        }
+    }
+
+    public void testLookupWithoutReadingDictionary() {
+        final Map<String, List<String>> shortcuts = new HashMap<String, List<String>>();
+        final List<String> shortcutTargets = new ArrayList<String>();
+        shortcutTargets.add(sWords.get(1));
+        shortcuts.put(sWords.get(0), shortcutTargets);
+
+        runLookupWithoutReading(sWords, sChainBigrams, shortcuts, VERSION2);
+        runLookupWithoutReading(sWords, sChainBigrams, shortcuts,
+                VERSION3_WITHOUT_DYNAMIC_UPDATE);
+        runLookupWithoutReading(sWords, sChainBigrams, shortcuts, VERSION3_WITH_DYNAMIC_UPDATE);
+        runLookupWithoutReading(sWords, sStarBigrams, null /* shortcutMap */,
+                VERSION3_WITH_DYNAMIC_UPDATE);
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.spellcheck;
+
+import android.test.AndroidTestCase;
+
+import com.android.inputmethod.keyboard.ProximityInfo;
+import com.android.inputmethod.latin.CollectionUtils;
+import com.android.inputmethod.latin.Dictionary;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+import com.android.inputmethod.latin.WordComposer;
+
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit tests for DictionaryPool
+ */
+public class DictionaryPoolTests extends AndroidTestCase {
+    private static final long TIMEOUT_IN_SECONDS = 10;
+    private static final long SHRINK_DELAY_IN_MILLIS = 50;
+
+    private static class TestDictionary extends Dictionary {
+        public volatile boolean mIsClosed = false;
+
+        public TestDictionary() {
+            super(Dictionary.TYPE_MAIN);
+        }
+
+        @Override
+        public ArrayList<SuggestedWordInfo> getSuggestions(final WordComposer composer,
+                final CharSequence prevWord, final ProximityInfo proximityInfo) {
+            return null;
+        }
+
+        @Override
+        public boolean isValidWord(final CharSequence word) {
+            return true;
+        }
+
+        @Override
+        public void close() {
+            mIsClosed = true;
+        }
+    }
+
+    private static class TestFactory implements DictionaryPool.DictAndProximityFactory {
+        private final long mCreationTime;
+        public final ArrayList<Thread> mCreationThreads = CollectionUtils.newArrayList();
+
+        public TestFactory(final long creationTime) {
+            mCreationTime = creationTime;
+        }
+
+        @Override
+        public DictAndProximity createDictAndProximity(final Locale locale) {
+            try {
+                Thread.sleep(mCreationTime);
+            } catch (InterruptedException e) {
+                // ignore
+            }
+            synchronized (mCreationThreads) {
+                mCreationThreads.add(Thread.currentThread());
+            }
+            // The first dictionary stands for the dictionaries shared between the pools.
+            return new DictAndProximity(new TestDictionary(), null, new TestDictionary());
+        }
+
+        public int getCreationCount() {
+            synchronized (mCreationThreads) {
+                return mCreationThreads.size();
+            }
+        }
+    }
+
+    private static DictAndProximity poll(final DictionaryPool pool) throws InterruptedException {
+        final DictAndProximity dict = pool.poll(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+        assertTrue(DictionaryPool.isAValidDictionary(dict));
+        return dict;
+    }
+
+    private static void waitForCreations(final TestFactory factory, final int count)
+            throws InterruptedException {
+        final long timeout = System.currentTimeMillis() + TIMEOUT_IN_SECONDS * 1000;
+        while (factory.getCreationCount() < count) {
+            assertTrue(System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+    }
+
+    public void testPrewarm() throws InterruptedException {
+        final TestFactory factory = new TestFactory(0);
+        final DictionaryPool pool = new DictionaryPool(4, factory, Locale.ENGLISH);
+        pool.prewarm();
+        waitForCreations(factory, 1);
+        // Wait for the dictionary to be put in the pool after its creation.
+        Thread.sleep(100);
+        final DictAndProximity dict = poll(pool);
+        assertEquals(1, pool.getHitCount());
+        assertEquals(0, pool.getMissCount());
+        assertEquals(1, pool.getSize());
+        assertNotSame(Thread.currentThread(), factory.mCreationThreads.get(0));
+        assertTrue(pool.offer(dict));
+        assertSame(dict, poll(pool));
+    }
+
+    public void testGrowOnWait() throws InterruptedException {
+        // Waiting for the creation of the first dictionary makes the pool grow.
+        final TestFactory factory = new TestFactory(DictionaryPool.GROW_WAIT_TIME_IN_MILLIS * 20);
+        final DictionaryPool pool = new DictionaryPool(2, factory, Locale.ENGLISH);
+        final DictAndProximity dict1 = poll(pool);
+        assertEquals(1, pool.getMissCount());
+        assertTrue(pool.getAverageWaitTime() > DictionaryPool.GROW_WAIT_TIME_IN_MILLIS);
+        assertTrue(pool.getMaxWaitTime() >= DictionaryPool.GROW_WAIT_TIME_IN_MILLIS * 20);
+        assertEquals(2, pool.getTargetSize());
+        final DictAndProximity dict2 = poll(pool);
+        assertNotSame(dict1, dict2);
+        assertEquals(2, factory.getCreationCount());
+        // The pool does not grow past its maximum size.
+        assertEquals(2, pool.getTargetSize());
+        assertEquals(2, pool.getSize());
+        assertTrue(pool.offer(dict1));
+        assertTrue(pool.offer(dict2));
+    }
+
+    public void testShrinkWhenNotWaiting() throws InterruptedException {
+        final TestFactory factory = new TestFactory(DictionaryPool.GROW_WAIT_TIME_IN_MILLIS * 20);
+        final DictionaryPool pool =
+                new DictionaryPool(2, factory, Locale.ENGLISH, SHRINK_DELAY_IN_MILLIS);
+        final DictAndProximity dict1 = poll(pool);
+        final DictAndProximity dict2 = poll(pool);
+        assertEquals(2, pool.getTargetSize());
+        assertTrue(pool.offer(dict2));
+        // The clients stop waiting, so the pool shrinks after the delay.
+        final long timeout = System.currentTimeMillis() + TIMEOUT_IN_SECONDS * 1000;
+        while (pool.getTargetSize() > 1) {
+            assertTrue(System.currentTimeMillis() < timeout);
+            assertSame(dict2, poll(pool));
+            assertTrue(pool.offer(dict2));
+            Thread.sleep(10);
+        }
+        // The dictionary in excess was closed when it was given back.
+        assertEquals(1, pool.getSize());
+        while (!((TestDictionary)dict2.mOwnDictionary).mIsClosed) {
+            assertTrue(System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+        assertTrue(pool.offer(dict1));
+        assertFalse(((TestDictionary)dict1.mOwnDictionary).mIsClosed);
+        assertSame(dict1, poll(pool));
+        assertEquals(2, factory.getCreationCount());
+        pool.close();
+    }
+
+    public void testClose() throws InterruptedException {
+        final TestFactory factory = new TestFactory(DictionaryPool.GROW_WAIT_TIME_IN_MILLIS * 20);
+        final DictionaryPool pool = new DictionaryPool(2, factory, Locale.ENGLISH);
+        final DictAndProximity dict1 = poll(pool);
+        final DictAndProximity dict2 = poll(pool);
+        assertTrue(pool.offer(dict1));
+        pool.close();
+        assertTrue(((TestDictionary)dict1.mOwnDictionary).mIsClosed);
+        assertFalse(((TestDictionary)dict2.mOwnDictionary).mIsClosed);
+        assertFalse(DictionaryPool.isAValidDictionary(pool.pollWithDefaultTimeout()));
+        // A dictionary given back after the pool is closed is closed.
+        assertTrue(pool.offer(dict2));
+        assertTrue(((TestDictionary)dict2.mOwnDictionary).mIsClosed);
+        // The shared dictionaries are not closed.
+        assertFalse(((TestDictionary)dict1.mDictionary).mIsClosed);
+        assertFalse(((TestDictionary)dict2.mDictionary).mIsClosed);
+    }
+
+    public void testCloseBeforeCreation() throws InterruptedException {
+        // The dictionaries of all the pools are created one after the other on the same thread.
+        final TestFactory busyFactory =
+                new TestFactory(DictionaryPool.GROW_WAIT_TIME_IN_MILLIS * 10);
+        final DictionaryPool busyPool = new DictionaryPool(1, busyFactory, Locale.ENGLISH);
+        final TestFactory factory = new TestFactory(0);
+        final DictionaryPool pool = new DictionaryPool(1, factory, Locale.FRENCH);
+        final TestFactory lastFactory = new TestFactory(0);
+        final DictionaryPool lastPool = new DictionaryPool(1, lastFactory, Locale.GERMAN);
+        busyPool.prewarm();
+        pool.prewarm();
+        lastPool.prewarm();
+        pool.close();
+        waitForCreations(lastFactory, 1);
+        // The creation for the pool closed while it was waiting did not run.
+        assertEquals(0, factory.getCreationCount());
+        assertEquals(0, pool.getSize());
+        busyPool.close();
+        lastPool.close();
+    }
+}
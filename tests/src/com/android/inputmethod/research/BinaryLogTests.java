@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.research;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.util.JsonWriter;
+import android.util.Log;
+import android.view.inputmethod.CompletionInfo;
+
+import com.android.inputmethod.keyboard.Key;
+import com.android.inputmethod.keyboard.internal.KeyboardParams;
+import com.android.inputmethod.latin.CollectionUtils;
+import com.android.inputmethod.latin.SuggestedWords;
+import com.android.inputmethod.latin.SuggestedWords.SuggestedWordInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Unit tests for BinaryLogWriter and BinaryLogReader
+ */
+public class BinaryLogTests extends AndroidTestCase {
+    private static final String TAG = BinaryLogTests.class.getSimpleName();
+    private static final long START_TIME = 1354000000000L;
+    private static final long START_UPTIME = 3600000L;
+    private static final int NUMBER_OF_BENCHMARK_EVENTS = 20000;
+
+    private static final String[] EVENTS_KEYS_TYPING = {
+        "LatinIMEOnCodeInput", "code", "x", "y"
+    };
+    private static final String[] EVENTS_KEYS_SUGGESTIONS = {
+        "SuggestionsViewSetSuggestions", "suggestedWords"
+    };
+    private static final String[] EVENTS_KEYS_MISC = {
+        "Misc", "string", "long", "float", "double", "boolean", "null", "completions"
+    };
+    private static final String[] EVENTS_KEYS_KEYBOARD = {
+        "MainKeyboardViewSetKeyboard", "keys", "prefs"
+    };
+
+    private static final class Event {
+        public final long mCurrentTime;
+        public final long mUptime;
+        public final String[] mKeys;
+        public final Object[] mValues;
+
+        public Event(final long currentTime, final long uptime, final String[] keys,
+                final Object[] values) {
+            mCurrentTime = currentTime;
+            mUptime = uptime;
+            mKeys = keys;
+            mValues = values;
+        }
+    }
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = getContext().getSharedPreferences(TAG, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().putBoolean("sound_on", true).putInt("vibration_duration", 15)
+                .putFloat("volume", 0.25f).putString("layout", "qwerty").apply();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().apply();
+        super.tearDown();
+    }
+
+    private static SuggestedWords createSuggestedWords(final int seed) {
+        final ArrayList<SuggestedWordInfo> infos = CollectionUtils.newArrayList();
+        for (int i = 0; i < 3; ++i) {
+            infos.add(new SuggestedWordInfo("word" + (seed + i) + "é", 100 - i,
+                    SuggestedWordInfo.KIND_CORRECTION, "main"));
+        }
+        return new SuggestedWords(infos, seed % 2 == 0 /* typedWordValid */,
+                seed % 3 == 0 /* willAutoCorrect */, false /* isPunctuationSuggestions */,
+                seed % 5 == 0 /* isObsoleteSuggestions */, seed % 7 == 0 /* isPrediction */);
+    }
+
+    private ArrayList<Event> createEvents(final int count) {
+        final KeyboardParams params = new KeyboardParams();
+        final Key[] keys = {
+            new Key(params, "q", null, 0, 'q', null, 0, 0, 36, 54, 0),
+            new Key(params, "w", null, 0, 'w', null, 36, 0, 36, 54, 0),
+            new Key(params, "e", null, 0, 'e', null, -3, 54, 36, 54, 0),
+        };
+        final CompletionInfo[] completions = {
+            new CompletionInfo(1, 0, "first"), new CompletionInfo(2, 1, "second")
+        };
+        final ArrayList<Event> events = CollectionUtils.newArrayList();
+        long currentTime = START_TIME;
+        long uptime = START_UPTIME;
+        for (int i = 0; i < count; ++i) {
+            // Time may go backwards, for example when the clock is set.
+            currentTime += (i % 17 == 16) ? -5000 : 120;
+            uptime += 120;
+            switch (i % 10) {
+            case 0:
+                events.add(new Event(currentTime, uptime, EVENTS_KEYS_KEYBOARD,
+                        new Object[] { keys, mPrefs }));
+                break;
+            case 1:
+                events.add(new Event(currentTime, uptime, EVENTS_KEYS_MISC, new Object[] {
+                    new StringBuilder("text \"quoted\"\n"), Long.MIN_VALUE, 1.1f, -0.1d,
+                    false, null, completions
+                }));
+                break;
+            case 2:
+            case 3:
+                events.add(new Event(currentTime, uptime, EVENTS_KEYS_SUGGESTIONS,
+                        new Object[] { createSuggestedWords(i) }));
+                break;
+            default:
+                events.add(new Event(currentTime, uptime, EVENTS_KEYS_TYPING,
+                        new Object[] { 'a' + i % 26, i * 7 % 720, -i % 3 }));
+            }
+        }
+        return events;
+    }
+
+    private static byte[] writeBinary(final ArrayList<Event> events) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final BinaryLogWriter writer = new BinaryLogWriter(out);
+        for (final Event event : events) {
+            writer.writeEvent(event.mCurrentTime, event.mUptime, event.mKeys, event.mValues);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static String convertToJson(final byte[] log) throws IOException {
+        final StringWriter out = new StringWriter();
+        BinaryLogReader.convertToJson(new ByteArrayInputStream(log), out);
+        return out.toString();
+    }
+
+    // This is how the research log used to write its events.
+    private static String writeJson(final ArrayList<Event> events) throws IOException {
+        final StringWriter out = new StringWriter();
+        final JsonWriter jsonWriter = new JsonWriter(out);
+        jsonWriter.beginArray();
+        for (final Event event : events) {
+            jsonWriter.beginObject();
+            jsonWriter.name("_ct").value(event.mCurrentTime);
+            jsonWriter.name("_ut").value(event.mUptime);
+            jsonWriter.name("_ty").value(event.mKeys[0]);
+            for (int i = 0; i < event.mValues.length; i++) {
+                jsonWriter.name(event.mKeys[i + 1]);
+                final Object value = event.mValues[i];
+                if (value instanceof CharSequence) {
+                    jsonWriter.value(value.toString());
+                } else if (value instanceof Number) {
+                    jsonWriter.value((Number) value);
+                } else if (value instanceof Boolean) {
+                    jsonWriter.value((Boolean) value);
+                } else if (value instanceof CompletionInfo[]) {
+                    jsonWriter.beginArray();
+                    for (final CompletionInfo ci : (CompletionInfo[]) value) {
+                        jsonWriter.value(ci.toString());
+                    }
+                    jsonWriter.endArray();
+                } else if (value instanceof SharedPreferences) {
+                    jsonWriter.beginObject();
+                    for (Map.Entry<String, ?> entry
+                            : ((SharedPreferences) value).getAll().entrySet()) {
+                        jsonWriter.name(entry.getKey());
+                        final Object innerValue = entry.getValue();
+                        if (innerValue == null) {
+                            jsonWriter.nullValue();
+                        } else if (innerValue instanceof Boolean) {
+                            jsonWriter.value((Boolean) innerValue);
+                        } else if (innerValue instanceof Number) {
+                            jsonWriter.value((Number) innerValue);
+                        } else {
+                            jsonWriter.value(innerValue.toString());
+                        }
+                    }
+                    jsonWriter.endObject();
+                } else if (value instanceof Key[]) {
+                    jsonWriter.beginArray();
+                    for (final Key key : (Key[]) value) {
+                        jsonWriter.beginObject();
+                        jsonWriter.name("code").value(key.mCode);
+                        jsonWriter.name("altCode").value(key.getAltCode());
+                        jsonWriter.name("x").value(key.mX);
+                        jsonWriter.name("y").value(key.mY);
+                        jsonWriter.name("w").value(key.mWidth);
+                        jsonWriter.name("h").value(key.mHeight);
+                        jsonWriter.endObject();
+                    }
+                    jsonWriter.endArray();
+                } else if (value instanceof SuggestedWords) {
+                    final SuggestedWords words = (SuggestedWords) value;
+                    jsonWriter.beginObject();
+                    jsonWriter.name("typedWordValid").value(words.mTypedWordValid);
+                    jsonWriter.name("willAutoCorrect").value(words.mWillAutoCorrect);
+                    jsonWriter.name("isPunctuationSuggestions")
+                            .value(words.mIsPunctuationSuggestions);
+                    jsonWriter.name("isObsoleteSuggestions").value(words.mIsObsoleteSuggestions);
+                    jsonWriter.name("isPrediction").value(words.mIsPrediction);
+                    jsonWriter.name("words");
+                    jsonWriter.beginArray();
+                    for (int j = 0; j < words.size(); j++) {
+                        jsonWriter.value(words.getWordInfo(j).toString());
+                    }
+                    jsonWriter.endArray();
+                    jsonWriter.endObject();
+                } else {
+                    jsonWriter.nullValue();
+                }
+            }
+            jsonWriter.endObject();
+        }
+        jsonWriter.endArray();
+        jsonWriter.flush();
+        return out.toString();
+    }
+
+    public void testConvertedLogIsTheSameAsJsonLog() throws IOException {
+        final ArrayList<Event> events = createEvents(100);
+        assertEquals(writeJson(events), convertToJson(writeBinary(events)));
+    }
+
+    public void testEmptyLog() throws IOException {
+        assertEquals("[]", convertToJson(writeBinary(new ArrayList<Event>())));
+    }
+
+    public void testTruncatedLog() throws IOException {
+        final ArrayList<Event> events = createEvents(20);
+        final byte[] log = writeBinary(events);
+        final byte[] logOfFirstEvents = writeBinary(new ArrayList<Event>(events.subList(0, 19)));
+        // The events that were completely written are still read.
+        assertEquals(writeJson(new ArrayList<Event>(events.subList(0, 19))),
+                convertToJson(Arrays.copyOf(log, log.length - 1)));
+        assertEquals(convertToJson(logOfFirstEvents),
+                convertToJson(Arrays.copyOf(log, logOfFirstEvents.length)));
+    }
+
+    public void testNotABinaryLog() {
+        try {
+            convertToJson("[{\"_ct\":1}]".getBytes());
+            fail("A JSON log was converted");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Compares the time and the space it takes to log events in JSON and in the binary format.
+     * The results are logged; use this for profiling.
+     */
+    public void testWriteBenchmark() throws IOException {
+        final ArrayList<Event> events = createEvents(NUMBER_OF_BENCHMARK_EVENTS);
+        // Warm up.
+        writeJson(events);
+        writeBinary(events);
+
+        long start = System.nanoTime();
+        final String json = writeJson(events);
+        final long jsonTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        final byte[] log = writeBinary(events);
+        final long binaryTime = System.nanoTime() - start;
+
+        Log.d(TAG, "JSON: " + jsonTime / NUMBER_OF_BENCHMARK_EVENTS + "ns/event, "
+                + json.getBytes().length / NUMBER_OF_BENCHMARK_EVENTS + " bytes/event");
+        Log.d(TAG, "Binary: " + binaryTime / NUMBER_OF_BENCHMARK_EVENTS + "ns/event, "
+                + log.length / NUMBER_OF_BENCHMARK_EVENTS + " bytes/event");
+    }
+}
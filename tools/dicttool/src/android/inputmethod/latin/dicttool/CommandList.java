@@ -22,5 +22,6 @@ public class CommandList {
         Dicttool.addCommand("compress", Compress.Compressor.class);
         Dicttool.addCommand("uncompress", Compress.Uncompressor.class);
         Dicttool.addCommand("makedict", Makedict.class);
+        Dicttool.addCommand("writerbenchmark", WriterBenchmark.class);
     }
 }
@@ -22,16 +22,17 @@ import com.android.inputmethod.latin.makedict.FusionDictionary;
 import com.android.inputmethod.latin.makedict.MakedictLog;
 import com.android.inputmethod.latin.makedict.UnsupportedFormatException;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.zip.GZIPInputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 
@@ -51,6 +52,8 @@ public class DictionaryMaker {
         private static final String OPTION_INPUT_SHORTCUT_XML = "-c";
         private static final String OPTION_OUTPUT_BINARY = "-d";
         private static final String OPTION_OUTPUT_XML = "-x";
+        private static final String OPTION_THREADS = "-j";
+        private static final String OPTION_STREAMING = "-l";
         private static final String OPTION_HELP = "-h";
         public final String mInputBinary;
         public final String mInputUnigramXml;
@@ -59,6 +62,8 @@ public class DictionaryMaker {
         public final String mOutputBinary;
         public final String mOutputXml;
         public final int mOutputBinaryFormatVersion;
+        public final int mNumberOfThreads;
+        public final boolean mStreaming;
 
         private void checkIntegrity() throws IOException {
             checkHasExactlyOneInput();
@@ -111,7 +116,7 @@ public class DictionaryMaker {
             return "Usage: makedict "
                     + "[-s <unigrams.xml> [-b <bigrams.xml>] [-c <shortcuts_and_whitelist.xml>] "
                     + "| [-s <binary input>] [-d <binary output>] [-x <xml output>] "
-                    + "[-1] [-2] [-3]\n"
+                    + "[-1] [-2] [-3] [-j <threads>] [-l]\n"
                     + "\n"
                     + "  Converts a source dictionary file to one or several outputs.\n"
                     + "  Source can be an XML file, with an optional XML bigrams file, or a\n"
@@ -120,7 +125,12 @@ public class DictionaryMaker {
                     + "  are supported. All three can be output at the same time, but the same\n"
                     + "  output format cannot be specified several times. The behavior is\n"
                     + "  unspecified if the same file is specified for input and output, or for\n"
-                    + "  several outputs.";
+                    + "  several outputs.\n"
+                    + "  -j sets the number of threads used to write the binary output. The\n"
+                    + "  output is the same whatever the number of threads.\n"
+                    + "  -l reads XML input in low-memory streaming mode: shortcuts and bigrams\n"
+                    + "  are added to the dictionary as they are read instead of being loaded\n"
+                    + "  first. XML input files may be gzipped.";
         }
 
         public Arguments(String[] argsArray) throws IOException {
@@ -135,6 +145,8 @@ public class DictionaryMaker {
             String outputBinary = null;
             String outputXml = null;
             int outputBinaryFormatVersion = 2; // the default version is 2.
+            int numberOfThreads = 1;
+            boolean streaming = false;
 
             while (!args.isEmpty()) {
                 final String arg = args.get(0);
@@ -146,6 +158,8 @@ public class DictionaryMaker {
                         outputBinaryFormatVersion = 3;
                     } else if (OPTION_VERSION_1.equals(arg)) {
                         outputBinaryFormatVersion = 1;
+                    } else if (OPTION_STREAMING.equals(arg)) {
+                        streaming = true;
                     } else if (OPTION_HELP.equals(arg)) {
                         displayHelp();
                     } else {
@@ -170,6 +184,12 @@ public class DictionaryMaker {
                             outputBinary = filename;
                         } else if (OPTION_OUTPUT_XML.equals(arg)) {
                             outputXml = filename;
+                        } else if (OPTION_THREADS.equals(arg)) {
+                            numberOfThreads = Integer.parseInt(filename);
+                            if (numberOfThreads < 1) {
+                                throw new IllegalArgumentException("Invalid number of threads : "
+                                        + filename);
+                            }
                         } else {
                             throw new IllegalArgumentException("Unknown option : " + arg);
                         }
@@ -196,6 +216,8 @@ public class DictionaryMaker {
             mOutputBinary = outputBinary;
             mOutputXml = outputXml;
             mOutputBinaryFormatVersion = outputBinaryFormatVersion;
+            mNumberOfThreads = numberOfThreads;
+            mStreaming = streaming;
             checkIntegrity();
         }
     }
@@ -220,7 +242,8 @@ public class DictionaryMaker {
         if (null != args.mInputBinary) {
             return readBinaryFile(args.mInputBinary);
         } else if (null != args.mInputUnigramXml) {
-            return readXmlFile(args.mInputUnigramXml, args.mInputShortcutXml, args.mInputBigramXml);
+            return readXmlFile(args.mInputUnigramXml, args.mInputShortcutXml, args.mInputBigramXml,
+                    args.mStreaming);
         } else {
             throw new RuntimeException("No input file specified");
         }
@@ -237,24 +260,8 @@ public class DictionaryMaker {
      */
     private static FusionDictionary readBinaryFile(final String binaryFilename)
             throws FileNotFoundException, IOException, UnsupportedFormatException {
-        FileInputStream inStream = null;
-
-        try {
-            final File file = new File(binaryFilename);
-            inStream = new FileInputStream(file);
-            final ByteBuffer buffer = inStream.getChannel().map(
-                    FileChannel.MapMode.READ_ONLY, 0, file.length());
-            return BinaryDictInputOutput.readDictionaryBinary(
-                    new BinaryDictInputOutput.ByteBufferWrapper(buffer), null);
-        } finally {
-            if (inStream != null) {
-                try {
-                    inStream.close();
-                } catch (IOException e) {
-                    // do nothing
-                }
-            }
-        }
+        return BinaryDictInputOutput.readDictionaryBinary(
+                BinaryDictInputOutput.openMappedBuffer(new File(binaryFilename)), null);
     }
 
     /**
@@ -263,6 +270,7 @@ public class DictionaryMaker {
      * @param unigramXmlFilename the name of the unigram XML file. May not be null.
      * @param shortcutXmlFilename the name of the shortcut/whitelist XML file, or null if none.
      * @param bigramXmlFilename the name of the bigram XML file. Pass null if there are no bigrams.
+     * @param streaming whether to add shortcuts and bigrams to the dictionary as they are read.
      * @return the read dictionary.
      * @throws FileNotFoundException if one of the files can't be found
      * @throws SAXException if one or more of the XML files is not well-formed
@@ -270,16 +278,39 @@ public class DictionaryMaker {
      * @throws ParserConfigurationException if the system can't create a SAX parser
      */
     private static FusionDictionary readXmlFile(final String unigramXmlFilename,
-            final String shortcutXmlFilename, final String bigramXmlFilename)
+            final String shortcutXmlFilename, final String bigramXmlFilename,
+            final boolean streaming)
             throws FileNotFoundException, SAXException, IOException, ParserConfigurationException {
-        final FileInputStream unigrams = new FileInputStream(new File(unigramXmlFilename));
-        final FileInputStream shortcuts = null == shortcutXmlFilename ? null :
-                new FileInputStream(new File(shortcutXmlFilename));
-        final FileInputStream bigrams = null == bigramXmlFilename ? null :
-                new FileInputStream(new File(bigramXmlFilename));
+        final InputStream unigrams = openXmlFile(unigramXmlFilename);
+        final InputStream shortcuts = null == shortcutXmlFilename ? null :
+                openXmlFile(shortcutXmlFilename);
+        final InputStream bigrams = null == bigramXmlFilename ? null :
+                openXmlFile(bigramXmlFilename);
+        if (streaming) {
+            return XmlDictInputOutput.readDictionaryXmlStreaming(unigrams, shortcuts, bigrams);
+        }
         return XmlDictInputOutput.readDictionaryXml(unigrams, shortcuts, bigrams);
     }
 
+    /**
+     * Opens an XML file, uncompressing it on the fly if it is gzipped.
+     *
+     * @param filename the name of the file to open.
+     * @return a stream of the uncompressed XML data.
+     * @throws FileNotFoundException if the file can't be found
+     * @throws IOException if the file can't be read
+     */
+    private static InputStream openXmlFile(final String filename)
+            throws FileNotFoundException, IOException {
+        final BufferedInputStream input =
+                new BufferedInputStream(new FileInputStream(new File(filename)));
+        input.mark(2);
+        final int magic = (input.read() & 0xFF) | ((input.read() & 0xFF) << 8);
+        input.reset();
+        if (GZIPInputStream.GZIP_MAGIC == magic) return new GZIPInputStream(input);
+        return input;
+    }
+
     /**
      * Invoke the right output method according to args.
      *
@@ -293,7 +324,8 @@ public class DictionaryMaker {
             throws FileNotFoundException, IOException, UnsupportedFormatException,
             IllegalArgumentException {
         if (null != args.mOutputBinary) {
-            writeBinaryDictionary(args.mOutputBinary, dict, args.mOutputBinaryFormatVersion);
+            writeBinaryDictionary(args.mOutputBinary, dict, args.mOutputBinaryFormatVersion,
+                    args.mNumberOfThreads);
         }
         if (null != args.mOutputXml) {
             writeXmlDictionary(args.mOutputXml, dict);
@@ -306,16 +338,17 @@ public class DictionaryMaker {
      * @param outputFilename the name of the file to write to.
      * @param dict the dictionary to write.
      * @param version the binary format version to use.
+     * @param numberOfThreads the number of threads to write with.
      * @throws FileNotFoundException if the output file can't be created.
      * @throws IOException if the output file can't be written to.
      */
     private static void writeBinaryDictionary(final String outputFilename,
-            final FusionDictionary dict, final int version)
+            final FusionDictionary dict, final int version, final int numberOfThreads)
             throws FileNotFoundException, IOException, UnsupportedFormatException {
         final File outputFile = new File(outputFilename);
         final FormatSpec.FormatOptions formatOptions = new FormatSpec.FormatOptions(version);
         BinaryDictInputOutput.writeDictionaryBinary(new FileOutputStream(outputFilename), dict,
-                formatOptions);
+                formatOptions, numberOfThreads);
     }
 
     /**
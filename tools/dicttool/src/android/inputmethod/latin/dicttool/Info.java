@@ -16,6 +16,17 @@
 
 package com.android.inputmethod.latin.dicttool;
 
+import com.android.inputmethod.latin.makedict.BinaryDictIOUtils;
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput.FusionDictionaryBufferInterface;
+import com.android.inputmethod.latin.makedict.FusionDictionary.CharGroup;
+import com.android.inputmethod.latin.makedict.FusionDictionary.WeightedString;
+import com.android.inputmethod.latin.makedict.UnsupportedFormatException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
 public class Info extends Dicttool.Command {
     public static final String COMMAND = "info";
 
@@ -23,14 +34,41 @@ public class Info extends Dicttool.Command {
     }
 
     public String getHelp() {
-        return "info <filename>: prints various information about a dictionary file";
+        return "info <filename> [word...]: prints various information about a dictionary file"
+                + " and about the passed words. The file is mapped, not read into memory.";
     }
 
-    public void run() {
-        // TODO: implement this
+    private static void printAttributes(final String title,
+            final ArrayList<WeightedString> attributes) {
+        if (null == attributes) return;
+        for (final WeightedString attribute : attributes) {
+            System.out.println("  " + title + " " + attribute.mWord + " : "
+                    + attribute.mFrequency);
+        }
+    }
+
+    public void run() throws IOException, UnsupportedFormatException {
         if (mArgs.length < 1) {
             throw new RuntimeException("Not enough arguments for command " + COMMAND);
         }
-        System.out.println("Not implemented yet");
+        final String filename = mArgs[0];
+        if (!BinaryDictInputOutput.isBinaryDictionary(filename)) {
+            throw new RuntimeException(filename + " is not a binary dictionary");
+        }
+        final File file = new File(filename);
+        System.out.println("Dictionary : " + filename + " (" + file.length() + " bytes)");
+        final FusionDictionaryBufferInterface buffer =
+                BinaryDictInputOutput.openMappedBuffer(file);
+        for (int i = 1; i < mArgs.length; ++i) {
+            final String word = mArgs[i];
+            final int frequency = BinaryDictIOUtils.getFrequency(buffer, word);
+            if (CharGroup.NOT_A_TERMINAL == frequency) {
+                System.out.println(word + " : not in the dictionary");
+                continue;
+            }
+            System.out.println(word + " : frequency " + frequency);
+            printAttributes("shortcut", BinaryDictIOUtils.getShortcutTargets(buffer, word));
+            printAttributes("bigram", BinaryDictIOUtils.getBigrams(buffer, word));
+        }
     }
 }
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin.dicttool;
+
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
+import com.android.inputmethod.latin.makedict.FormatSpec;
+import com.android.inputmethod.latin.makedict.FusionDictionary;
+import com.android.inputmethod.latin.makedict.UnsupportedFormatException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Compares the serial and the parallel binary dictionary writers.
+ *
+ * Each word list is read once, then written several times by each writer. This prints the
+ * median time of each writer and checks that both produce the same bytes.
+ */
+public class WriterBenchmark extends Dicttool.Command {
+    public static final String COMMAND = "writerbenchmark";
+    private static final int RUNS = 5;
+
+    public WriterBenchmark() {
+    }
+
+    public String getHelp() {
+        return COMMAND + " <threads> <wordlist.xml[.gz]>...: compares the time taken by the "
+                + "serial writer and by the parallel writer with the given number of threads "
+                + "to write each word list, and checks their output is identical.";
+    }
+
+    private static InputStream openWordList(final String filename) throws IOException {
+        final InputStream input = new FileInputStream(new File(filename));
+        return filename.endsWith(".gz") ? new GZIPInputStream(input) : input;
+    }
+
+    private static byte[] write(final FusionDictionary dict, final int numberOfThreads)
+            throws IOException, UnsupportedFormatException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BinaryDictInputOutput.writeDictionaryBinary(output, dict,
+                new FormatSpec.FormatOptions(2), numberOfThreads);
+        return output.toByteArray();
+    }
+
+    private static long timeWriting(final FusionDictionary dict, final int numberOfThreads,
+            final byte[][] outResult) throws IOException, UnsupportedFormatException {
+        final long[] times = new long[RUNS];
+        for (int i = 0; i < RUNS; ++i) {
+            final long start = System.currentTimeMillis();
+            outResult[0] = write(dict, numberOfThreads);
+            times[i] = System.currentTimeMillis() - start;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    public void run() throws IOException, UnsupportedFormatException, SAXException,
+            ParserConfigurationException {
+        if (mArgs.length < 2) {
+            throw new RuntimeException("Not enough arguments for command " + COMMAND);
+        }
+        final int numberOfThreads = Integer.parseInt(mArgs[0]);
+        for (int i = 1; i < mArgs.length; ++i) {
+            final FusionDictionary dict =
+                    XmlDictInputOutput.readDictionaryXml(openWordList(mArgs[i]), null, null);
+            final byte[][] serialResult = new byte[1][];
+            final byte[][] parallelResult = new byte[1][];
+            final long serialTime = timeWriting(dict, 1, serialResult);
+            final long parallelTime = timeWriting(dict, numberOfThreads, parallelResult);
+            final boolean identical = Arrays.equals(serialResult[0], parallelResult[0]);
+            System.out.println(mArgs[i] + " : " + serialResult[0].length + " bytes, serial "
+                    + serialTime + "ms, " + numberOfThreads + " threads " + parallelTime + "ms"
+                    + (identical ? "" : " : OUTPUTS DIFFER"));
+        }
+    }
+}
@@ -27,6 +27,7 @@ import java.io.InputStream;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.TreeSet;
 
 import javax.xml.parsers.ParserConfigurationException;
@@ -185,14 +186,20 @@ public class XmlDictInputOutput {
             } else if (DST_TAG.equals(localName)) {
                 String dst = attrs.getValue(uri, DST_ATTRIBUTE);
                 int freq = getValueFromFreqString(attrs.getValue(uri, DST_FREQ));
-                WeightedString bigram = new WeightedString(dst, freq / XML_TO_MEMORY_RATIO);
-                ArrayList<WeightedString> bigramList = mAssocMap.get(mSrc);
-                if (null == bigramList) bigramList = new ArrayList<WeightedString>();
-                bigramList.add(bigram);
-                mAssocMap.put(mSrc, bigramList);
+                addAssociation(mSrc, new WeightedString(dst, freq / XML_TO_MEMORY_RATIO));
             }
         }
 
+        /**
+         * Called for each destination read from the file. By default, this adds it to the map.
+         */
+        protected void addAssociation(final String src, final WeightedString dst) {
+            ArrayList<WeightedString> dstList = mAssocMap.get(src);
+            if (null == dstList) dstList = new ArrayList<WeightedString>();
+            dstList.add(dst);
+            mAssocMap.put(src, dstList);
+        }
+
         protected int getValueFromFreqString(final String freqString) {
             return Integer.parseInt(freqString);
         }
@@ -263,6 +270,83 @@ public class XmlDictInputOutput {
         }
     }
 
+    /**
+     * SAX handler for a bigram XML file, that adds bigrams to a dictionary as they are read.
+     */
+    static private class StreamingBigramHandler extends BigramHandler {
+        private final FusionDictionary mDictionary;
+
+        public StreamingBigramHandler(final FusionDictionary dict) {
+            mDictionary = dict;
+        }
+
+        @Override
+        protected void addAssociation(final String src, final WeightedString dst) {
+            if (!mDictionary.hasWord(src) || !mDictionary.hasWord(dst.mWord)) return;
+            mDictionary.setBigram(src, dst.mWord, dst.mFrequency);
+        }
+    }
+
+    /**
+     * SAX handler for a shortcut & whitelist XML file, that adds shortcuts to a dictionary as
+     * they are read.
+     *
+     * The unigrams must already be in the dictionary. The targets of an entry are added together
+     * at the end of the entry, so that its list of targets is the one readDictionaryXml makes,
+     * duplicate targets included. Shortcuts for words that are not in the dictionary are added
+     * as not-a-word entries, like readDictionaryXml does.
+     */
+    static private class StreamingShortcutAndWhitelistHandler
+            extends ShortcutAndWhitelistHandler {
+        private final FusionDictionary mDictionary;
+        // Only the words added by this handler, which are few, are remembered here.
+        private final HashSet<String> mShortcutOnlyWords = new HashSet<String>();
+        // The targets of the entry being read.
+        private String mEntrySrc;
+        private ArrayList<WeightedString> mEntryTargets;
+
+        public StreamingShortcutAndWhitelistHandler(final FusionDictionary dict) {
+            mDictionary = dict;
+        }
+
+        @Override
+        protected void addAssociation(final String src, final WeightedString dst) {
+            if (null != mEntrySrc && !mEntrySrc.equals(src)) addEntry();
+            if (null == mEntryTargets) mEntryTargets = new ArrayList<WeightedString>();
+            mEntrySrc = src;
+            mEntryTargets.add(dst);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (ShortcutAndWhitelistHandler.ENTRY_TAG.equals(localName)) addEntry();
+        }
+
+        @Override
+        public void endDocument() {
+            addEntry();
+        }
+
+        private void addEntry() {
+            if (null == mEntryTargets) return;
+            final String src = mEntrySrc;
+            final ArrayList<WeightedString> shortcuts = mEntryTargets;
+            mEntrySrc = null;
+            mEntryTargets = null;
+            // A word that is in several entries gets the targets of all of them, but
+            // CharGroup.update merges the targets that are in several entries: unlike
+            // readDictionaryXml, such a target is written only once, with its highest frequency.
+            if (mShortcutOnlyWords.contains(src) || !mDictionary.hasWord(src)) {
+                mShortcutOnlyWords.add(src);
+                mDictionary.add(src, SHORTCUT_ONLY_DEFAULT_FREQ, shortcuts,
+                        true /* isNotAWord */);
+            } else {
+                // Frequency 0 never overrides the frequency of the existing word.
+                mDictionary.add(src, 0, shortcuts, false /* isNotAWord */);
+            }
+        }
+    }
+
     /**
      * Reads a dictionary from an XML file.
      *
@@ -303,6 +387,38 @@ public class XmlDictInputOutput {
         return dict;
     }
 
+    /**
+     * Reads a dictionary from an XML file, without keeping the shortcuts and bigrams in memory.
+     *
+     * Unlike readDictionaryXml, this reads the unigrams first and then adds the shortcuts and
+     * the bigrams to the dictionary as the SAX parser reads them, so the only thing kept in
+     * memory is the dictionary itself. The resulting dictionary is the same, except when the
+     * shortcut file lists a word in several entries: then the targets that are in more than one
+     * of its entries are merged, keeping their highest frequency, where readDictionaryXml keeps
+     * each of them.
+     *
+     * @param unigrams the file to read the data from.
+     * @param shortcuts the file to read the shortcuts & whitelist from, or null.
+     * @param bigrams the file to read the bigrams from, or null.
+     * @return the in-memory representation of the dictionary.
+     */
+    public static FusionDictionary readDictionaryXmlStreaming(final InputStream unigrams,
+            final InputStream shortcuts, final InputStream bigrams)
+            throws SAXException, IOException, ParserConfigurationException {
+        final SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware(true);
+        final SAXParser parser = factory.newSAXParser();
+        final UnigramHandler unigramHandler =
+                new UnigramHandler(new HashMap<String, ArrayList<WeightedString>>());
+        parser.parse(unigrams, unigramHandler);
+        final FusionDictionary dict = unigramHandler.getFinalDictionary();
+        if (null != shortcuts) {
+            parser.parse(shortcuts, new StreamingShortcutAndWhitelistHandler(dict));
+        }
+        if (null != bigrams) parser.parse(bigrams, new StreamingBigramHandler(dict));
+        return dict;
+    }
+
     /**
      * Reads a dictionary in the first, legacy XML format
      *
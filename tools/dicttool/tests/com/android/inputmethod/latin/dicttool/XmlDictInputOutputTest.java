@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.dicttool;
+
+import com.android.inputmethod.latin.makedict.BinaryDictInputOutput;
+import com.android.inputmethod.latin.makedict.FormatSpec;
+import com.android.inputmethod.latin.makedict.FusionDictionary;
+import com.android.inputmethod.latin.makedict.FusionDictionary.CharGroup;
+import com.android.inputmethod.latin.makedict.FusionDictionary.WeightedString;
+import com.android.inputmethod.latin.makedict.Word;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for XmlDictInputOutput.
+ */
+public class XmlDictInputOutputTest extends TestCase {
+    private static final String UNIGRAMS =
+            "<wordlist locale=\"en\" version=\"1\">\n"
+            + "  <w f=\"100\">the</w>\n"
+            + "  <w f=\"80\">cat</w>\n"
+            + "  <w f=\"70\">cats</w>\n"
+            + "  <w f=\"60\">dog</w>\n"
+            + "  <w f=\"50\">do</w>\n"
+            + "  <w f=\"40\">dont</w>\n"
+            + "</wordlist>\n";
+    // Duplicate targets in an entry, and an entry for a word that is not a unigram.
+    private static final String SHORTCUTS =
+            "<root>\n"
+            + "  <entry shortcut=\"dont\">\n"
+            + "    <target replacement=\"don't\" priority=\"14\"/>\n"
+            + "    <target replacement=\"don't\" priority=\"3\"/>\n"
+            + "    <target replacement=\"do not\" priority=\"5\"/>\n"
+            + "  </entry>\n"
+            + "  <entry shortcut=\"thx\">\n"
+            + "    <target replacement=\"thanks\" priority=\"whitelist\"/>\n"
+            + "    <target replacement=\"thanks\" priority=\"2\"/>\n"
+            + "  </entry>\n"
+            + "</root>\n";
+    // Duplicate bigrams, and bigrams with words that are not unigrams.
+    private static final String BIGRAMS =
+            "<bigrams>\n"
+            + "  <bi w1=\"the\">\n"
+            + "    <w w2=\"cat\" p=\"200\"/>\n"
+            + "    <w w2=\"dog\" p=\"100\"/>\n"
+            + "    <w w2=\"cat\" p=\"50\"/>\n"
+            + "    <w w2=\"mouse\" p=\"10\"/>\n"
+            + "  </bi>\n"
+            + "  <bi w1=\"cats\">\n"
+            + "    <w w2=\"do\" p=\"30\"/>\n"
+            + "  </bi>\n"
+            + "  <bi w1=\"bird\">\n"
+            + "    <w w2=\"cat\" p=\"30\"/>\n"
+            + "  </bi>\n"
+            + "  <bi w1=\"the\">\n"
+            + "    <w w2=\"cats\" p=\"20\"/>\n"
+            + "  </bi>\n"
+            + "</bigrams>\n";
+
+    private static InputStream toStream(final String xml) {
+        return new ByteArrayInputStream(xml.getBytes());
+    }
+
+    private static byte[] writeBinary(final FusionDictionary dict) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryDictInputOutput.writeDictionaryBinary(out, dict, new FormatSpec.FormatOptions(2));
+        return out.toByteArray();
+    }
+
+    private static int countShortcuts(final FusionDictionary dict, final String word,
+            final String target) {
+        int count = 0;
+        for (final Word w : dict) {
+            if (!w.mWord.equals(word)) continue;
+            for (final WeightedString shortcut : w.mShortcutTargets) {
+                if (shortcut.mWord.equals(target)) count++;
+            }
+        }
+        return count;
+    }
+
+    public void testStreamingModeWritesTheSameDictionary() throws Exception {
+        final FusionDictionary dict = XmlDictInputOutput.readDictionaryXml(
+                toStream(UNIGRAMS), toStream(SHORTCUTS), toStream(BIGRAMS));
+        final FusionDictionary streamedDict = XmlDictInputOutput.readDictionaryXmlStreaming(
+                toStream(UNIGRAMS), toStream(SHORTCUTS), toStream(BIGRAMS));
+        // The duplicate targets of an entry are kept by both modes.
+        assertEquals(2, countShortcuts(dict, "dont", "don't"));
+        assertEquals(2, countShortcuts(streamedDict, "dont", "don't"));
+        assertTrue(streamedDict.hasWord("thx"));
+        assertFalse(streamedDict.hasWord("mouse"));
+        assertTrue(Arrays.equals(writeBinary(dict), writeBinary(streamedDict)));
+    }
+
+    public void testStreamingModeMergesTheTargetsOfRepeatedEntries() throws Exception {
+        final String shortcuts = "<root>\n"
+                + "  <entry shortcut=\"dont\">\n"
+                + "    <target replacement=\"don't\" priority=\"3\"/>\n"
+                + "  </entry>\n"
+                + "  <entry shortcut=\"dont\">\n"
+                + "    <target replacement=\"don't\" priority=\"14\"/>\n"
+                + "    <target replacement=\"do not\" priority=\"5\"/>\n"
+                + "  </entry>\n"
+                + "</root>\n";
+        final FusionDictionary dict = XmlDictInputOutput.readDictionaryXml(
+                toStream(UNIGRAMS), toStream(shortcuts), null);
+        final FusionDictionary streamedDict = XmlDictInputOutput.readDictionaryXmlStreaming(
+                toStream(UNIGRAMS), toStream(shortcuts), null);
+        assertEquals(2, countShortcuts(dict, "dont", "don't"));
+        assertEquals(1, countShortcuts(streamedDict, "dont", "don't"));
+        assertEquals(1, countShortcuts(streamedDict, "dont", "do not"));
+        final CharGroup group = FusionDictionary.findWordInTree(streamedDict.mRoot, "dont");
+        assertEquals(14, group.getShortcut("don't").mFrequency);
+    }
+}
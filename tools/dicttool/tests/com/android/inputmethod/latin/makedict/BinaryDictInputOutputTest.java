@@ -19,8 +19,11 @@ package com.android.inputmethod.latin.makedict;
 import com.android.inputmethod.latin.makedict.FusionDictionary.DictionaryOptions;
 import com.android.inputmethod.latin.makedict.FusionDictionary.Node;
 
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
@@ -56,4 +59,39 @@ public class BinaryDictInputOutputTest extends TestCase {
         }
     }
 
+    // Test the parallel writer produces the same bytes as the serial writer, with enough
+    // bigrams for the address compression to need several passes.
+    public void testParallelWriterOutputIsIdentical() throws Exception {
+        final Random random = new Random(123456);
+        final FusionDictionary dict = new FusionDictionary(new Node(),
+                new DictionaryOptions(new HashMap<String, String>(),
+                        false /* germanUmlautProcessing */, false /* frenchLigatureProcessing */));
+        final ArrayList<String> words = new ArrayList<String>();
+        while (words.size() < 5000) {
+            final StringBuilder builder = new StringBuilder();
+            final int length = 1 + random.nextInt(8);
+            for (int i = 0; i < length; ++i) builder.append((char)('a' + random.nextInt(10)));
+            final String word = builder.toString();
+            if (dict.hasWord(word)) continue;
+            dict.add(word, random.nextInt(200), null, false /* isNotAWord */);
+            words.add(word);
+        }
+        for (int i = 0; i < 10000; ++i) {
+            dict.setBigram(words.get(random.nextInt(words.size())),
+                    words.get(random.nextInt(words.size())), 200 + random.nextInt(50));
+        }
+        final FormatSpec.FormatOptions[] allOptions = { new FormatSpec.FormatOptions(2),
+                new FormatSpec.FormatOptions(3, true /* supportsDynamicUpdate */) };
+        for (final FormatSpec.FormatOptions options : allOptions) {
+            final ByteArrayOutputStream serial = new ByteArrayOutputStream();
+            BinaryDictInputOutput.writeDictionaryBinary(serial, dict, options,
+                    1 /* numberOfThreads */);
+            final ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+            BinaryDictInputOutput.writeDictionaryBinary(parallel, dict, options,
+                    4 /* numberOfThreads */);
+            assertTrue("Parallel writer output differs for version " + options.mVersion,
+                    Arrays.equals(serial.toByteArray(), parallel.toByteArray()));
+        }
+    }
+
 }
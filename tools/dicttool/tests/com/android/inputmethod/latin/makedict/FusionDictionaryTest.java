@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2012 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin.makedict;
+
+import com.android.inputmethod.latin.makedict.FusionDictionary.DictionaryOptions;
+import com.android.inputmethod.latin.makedict.FusionDictionary.Node;
+import com.android.inputmethod.latin.makedict.FusionDictionary.WeightedString;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+/**
+ * Unit tests for FusionDictionary.
+ */
+public class FusionDictionaryTest extends TestCase {
+    private static final String[] WORDS = {
+        "a", "ab", "abc", "abd", "abcdef", "b", "ba", "bac", "c", "cat", "cats", "dog"
+    };
+
+    private static FusionDictionary createDictionary() {
+        return new FusionDictionary(new Node(),
+                new DictionaryOptions(new HashMap<String, String>(),
+                        false /* germanUmlautProcessing */, false /* frenchLigatureProcessing */));
+    }
+
+    private static FusionDictionary createDictionary(final ArrayList<String> words) {
+        final FusionDictionary dict = createDictionary();
+        for (int i = 0; i < words.size(); ++i) {
+            dict.add(words.get(i), 10 + i, null, false /* isNotAWord */);
+        }
+        return dict;
+    }
+
+    private static String describe(final FusionDictionary dict) {
+        final StringBuilder builder = new StringBuilder();
+        for (final Word word : dict) {
+            builder.append(word.mWord).append(':').append(word.mFrequency);
+            if (null != word.mBigrams) {
+                for (final WeightedString bigram : word.mBigrams) {
+                    builder.append(' ').append(bigram.mWord).append(':').append(bigram.mFrequency);
+                }
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static FusionDictionary writeAndRead(final FusionDictionary dict) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryDictInputOutput.writeDictionaryBinary(out, dict, new FormatSpec.FormatOptions(1));
+        return BinaryDictInputOutput.readDictionaryBinary(
+                new BinaryDictInputOutput.ByteBufferWrapper(ByteBuffer.wrap(out.toByteArray())),
+                null);
+    }
+
+    public void testRemove() throws Exception {
+        final ArrayList<String> words = new ArrayList<String>();
+        for (final String word : WORDS) words.add(word);
+        final FusionDictionary dict = createDictionary(words);
+        assertFalse(dict.remove("abcd"));
+        assertFalse(dict.remove("ca"));
+        assertFalse(dict.remove("dogs"));
+        assertFalse(dict.remove("e"));
+
+        final String[] wordsToRemove = { "abc", "ba", "a", "cats", "dog" };
+        for (final String word : wordsToRemove) {
+            assertTrue(dict.remove(word));
+            assertFalse(dict.hasWord(word));
+            assertFalse(dict.remove(word));
+            final int index = words.indexOf(word);
+            words.set(index, null);
+            final FusionDictionary expectedDict = createDictionary();
+            for (int i = 0; i < words.size(); ++i) {
+                if (null == words.get(i)) continue;
+                assertTrue(dict.hasWord(words.get(i)));
+                expectedDict.add(words.get(i), 10 + i, null, false /* isNotAWord */);
+            }
+            assertEquals(describe(expectedDict), describe(dict));
+            assertEquals(describe(expectedDict), describe(writeAndRead(dict)));
+        }
+    }
+
+    public void testRemoveAllWords() throws Exception {
+        final FusionDictionary dict = createDictionary();
+        dict.add("word", 10, null, false /* isNotAWord */);
+        dict.add("words", 10, null, false /* isNotAWord */);
+        assertTrue(dict.remove("word"));
+        assertTrue(dict.remove("words"));
+        assertEquals("", describe(dict));
+        assertEquals(0, dict.mRoot.mData.size());
+        dict.add("work", 20, null, false /* isNotAWord */);
+        assertEquals("work:20\n", describe(writeAndRead(dict)));
+    }
+
+    public void testRemoveBigrams() throws Exception {
+        final FusionDictionary dict = createDictionary();
+        dict.add("first", 10, null, false /* isNotAWord */);
+        dict.add("second", 20, null, false /* isNotAWord */);
+        dict.add("third", 30, null, false /* isNotAWord */);
+        dict.setBigram("first", "second", 100);
+        dict.setBigram("first", "third", 110);
+        dict.setBigram("second", "third", 120);
+        dict.setBigram("third", "first", 130);
+
+        assertTrue(dict.remove("third"));
+        final FusionDictionary expectedDict = createDictionary();
+        expectedDict.add("first", 10, null, false /* isNotAWord */);
+        expectedDict.add("second", 20, null, false /* isNotAWord */);
+        expectedDict.setBigram("first", "second", 100);
+        assertEquals(describe(expectedDict), describe(dict));
+        // Bigram frequencies are not stored as is in the binary dictionary.
+        assertEquals(describe(writeAndRead(expectedDict)), describe(writeAndRead(dict)));
+
+        // Added back, the word has neither its old bigrams nor the bigrams to it.
+        dict.add("third", 40, null, false /* isNotAWord */);
+        expectedDict.add("third", 40, null, false /* isNotAWord */);
+        assertEquals(describe(expectedDict), describe(dict));
+    }
+
+    public void testRandomAddsAndRemoves() throws Exception {
+        final Random random = new Random(123456);
+        final FusionDictionary dict = createDictionary();
+        final HashMap<String, Integer> expectedWords = new HashMap<String, Integer>();
+        for (int i = 0; i < 5000; ++i) {
+            final StringBuilder builder = new StringBuilder();
+            final int length = 1 + random.nextInt(5);
+            for (int j = 0; j < length; ++j) builder.append((char)('a' + random.nextInt(4)));
+            final String word = builder.toString();
+            if (random.nextBoolean()) {
+                assertEquals(expectedWords.containsKey(word), dict.remove(word));
+                expectedWords.remove(word);
+            } else if (!expectedWords.containsKey(word)) {
+                final int frequency = random.nextInt(255);
+                dict.add(word, frequency, null, false /* isNotAWord */);
+                expectedWords.put(word, frequency);
+            }
+        }
+        final FusionDictionary readDict = writeAndRead(dict);
+        int count = 0;
+        for (final Word word : readDict) {
+            assertEquals(word.mWord, expectedWords.get(word.mWord).intValue(), word.mFrequency);
+            ++count;
+        }
+        assertEquals(expectedWords.size(), count);
+    }
+}